@@ -0,0 +1,220 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import androidx.appcompat.app.AppCompatActivity;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.StubBillingClient;
+import com.google.play.billing.samples.onetimepurchases.billing.ProductClassRegistry.ProductClass;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONException;
+
+/** Synthetic catalogs, purchases and a stubbed {@link BillingServiceClient} for the benchmarks. */
+final class BenchmarkFixtures {
+
+  private BenchmarkFixtures() {}
+
+  /** A {@link BillingServiceClient} wired to a {@link StubBillingClient}. */
+  static final class StubbedClient {
+    final BillingServiceClient billingServiceClient;
+    final StubBillingClient stubBillingClient;
+    final PurchaseWatermark purchaseWatermark;
+    private final File directory;
+
+    private StubbedClient(
+        BillingServiceClient billingServiceClient,
+        StubBillingClient stubBillingClient,
+        PurchaseWatermark purchaseWatermark,
+        File directory) {
+      this.billingServiceClient = billingServiceClient;
+      this.stubBillingClient = stubBillingClient;
+      this.purchaseWatermark = purchaseWatermark;
+      this.directory = directory;
+    }
+
+    /** Waits until the purchase processor has handled or dropped every submitted purchase. */
+    void awaitPurchasesProcessed() {
+      while (true) {
+        PurchaseProcessor.Stats stats = billingServiceClient.getPurchaseProcessorStats();
+        if (stats.processed + stats.duplicatesDropped + stats.overflowDropped == stats.submitted) {
+          return;
+        }
+        Thread.onSpinWait();
+      }
+    }
+
+    /** Waits until the client holds the given number of entitlements. */
+    void awaitEntitlements(int entitlementCount) {
+      while (billingServiceClient.getEntitlements().size() != entitlementCount) {
+        Thread.onSpinWait();
+      }
+    }
+
+    /** Ends the billing connection and deletes the client's files. */
+    void close() {
+      billingServiceClient.endBillingConnection();
+      deleteRecursively(directory);
+    }
+  }
+
+  /**
+   * Creates a client whose cache and journal live in a fresh temporary directory, with the given
+   * products registered as consumable.
+   */
+  static StubbedClient createClient(int consumableProductCount) throws IOException {
+    File directory = Files.createTempDirectory("billing-benchmark").toFile();
+    StubBillingClient[] stubBillingClient = new StubBillingClient[1];
+    PurchaseWatermark[] purchaseWatermark = new PurchaseWatermark[1];
+    BillingServiceClient billingServiceClient =
+        new BillingServiceClient(new BenchmarkActivity(directory), new NoOpListener()) {
+          @Override
+          protected BillingClient createBillingClient() {
+            BillingClient billingClient = super.createBillingClient();
+            stubBillingClient[0] = (StubBillingClient) billingClient;
+            return billingClient;
+          }
+
+          @Override
+          protected PurchaseWatermark createPurchaseWatermark() {
+            purchaseWatermark[0] = super.createPurchaseWatermark();
+            return purchaseWatermark[0];
+          }
+        };
+    Map<String, ProductClass> productClasses = new HashMap<>();
+    for (int i = 0; i < consumableProductCount; i++) {
+      productClasses.put(productId(i), ProductClass.CONSUMABLE);
+    }
+    billingServiceClient.setProductClassRegistry(ProductClassRegistry.of(productClasses));
+    return new StubbedClient(
+        billingServiceClient, stubBillingClient[0], purchaseWatermark[0], directory);
+  }
+
+  static String productId(int index) {
+    return "consumable_product_" + index;
+  }
+
+  /**
+   * Builds purchases through Play's purchase JSON, one per product, cycling over {@code
+   * productCount} products.
+   *
+   * @param purchaseCount The number of purchases.
+   * @param productCount The number of distinct products.
+   * @param tokenPrefix Prefix making the purchase tokens unique across calls.
+   * @param acknowledged Whether the purchases are already acknowledged.
+   */
+  static List<Purchase> createPurchases(
+      int purchaseCount, int productCount, String tokenPrefix, boolean acknowledged) {
+    List<Purchase> purchases = new ArrayList<>(purchaseCount);
+    try {
+      for (int i = 0; i < purchaseCount; i++) {
+        String json =
+            "{\"orderId\":\"GPA.0000-0000-0000-"
+                + i
+                + "\",\"packageName\":\"com.google.play.billing.samples.onetimepurchases\""
+                + ",\"productId\":\""
+                + productId(i % productCount)
+                + "\",\"purchaseTime\":1700000000000,\"purchaseState\":0"
+                + ",\"purchaseToken\":\""
+                + tokenPrefix
+                + "-"
+                + i
+                + "\",\"quantity\":1,\"acknowledged\":"
+                + acknowledged
+                + "}";
+        purchases.add(new Purchase(json, "signature"));
+      }
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+    return purchases;
+  }
+
+  /** Builds one-time product details through Play's product details JSON. */
+  static List<ProductDetails> createProductDetails(int productCount) {
+    List<ProductDetails> productDetailsList = new ArrayList<>(productCount);
+    try {
+      for (int i = 0; i < productCount; i++) {
+        String json =
+            "{\"productId\":\""
+                + productId(i)
+                + "\",\"type\":\"inapp\",\"title\":\"Product "
+                + i
+                + " (Sample)\",\"name\":\"Product "
+                + i
+                + "\",\"description\":\"A consumable product\""
+                + ",\"oneTimePurchaseOfferDetails\":{\"formattedPrice\":\"$0.99\""
+                + ",\"priceAmountMicros\":990000,\"priceCurrencyCode\":\"USD\""
+                + ",\"offerIdToken\":\"offer-token-"
+                + i
+                + "\"}}";
+        productDetailsList.add(ProductDetails.fromJson(json));
+      }
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+    return productDetailsList;
+  }
+
+  private static void deleteRecursively(File file) {
+    File[] children = file.listFiles();
+    if (children != null) {
+      for (File child : children) {
+        deleteRecursively(child);
+      }
+    }
+    file.delete();
+  }
+
+  private static final class BenchmarkActivity extends AppCompatActivity {
+    private final File directory;
+
+    BenchmarkActivity(File directory) {
+      this.directory = directory;
+    }
+
+    @Override
+    public File getCacheDir() {
+      return directory;
+    }
+
+    @Override
+    public File getFilesDir() {
+      return directory;
+    }
+  }
+
+  private static final class NoOpListener implements BillingServiceClientListener {
+    @Override
+    public void onBillingResponse(int responseCode, BillingResult billingResult) {}
+
+    @Override
+    public void onProductDetailsFetched(Map<String, ProductDetails> productDetailsMap) {}
+
+    @Override
+    public void onProductDetailsUpdated(Map<String, ProductDetails> updatedProductDetailsMap) {}
+
+    @Override
+    public void onPurchaseProcessed(String purchaseToken, BillingResult billingResult) {}
+  }
+}
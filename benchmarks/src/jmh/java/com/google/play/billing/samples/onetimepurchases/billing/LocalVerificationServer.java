@@ -0,0 +1,130 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * In-process HTTP stand-in for a purchase verification backend, speaking the {@link
+ * HttpPurchaseVerifier} protocol on a loopback port.
+ *
+ * <p>Each request costs a fixed round trip plus a cost per purchase, so benchmarks show how the
+ * batch size trades one against the other. Purchases whose token starts with {@link
+ * #REJECTED_TOKEN_PREFIX} are rejected, all others verified.
+ */
+final class LocalVerificationServer implements AutoCloseable {
+
+  static final String REJECTED_TOKEN_PREFIX = "rejected-";
+  private static final String PATH = "/verify";
+
+  static {
+    // The server writes the response headers and body separately. Without this, Nagle's algorithm
+    // holds back the body until the client's delayed ACK, adding 40ms to every request.
+    System.setProperty("sun.net.httpserver.nodelay", "true");
+  }
+
+  private final HttpServer httpServer;
+  private final ExecutorService requestExecutor;
+  private final long requestNanos;
+  private final long perPurchaseNanos;
+  private final AtomicLong requestCount = new AtomicLong();
+
+  /**
+   * @param requestLatencyMicros The time every request takes, regardless of its size.
+   * @param perPurchaseMicros The additional time taken per purchase in the request.
+   * @param maxConcurrentRequests The number of requests the server handles at once.
+   */
+  LocalVerificationServer(
+      long requestLatencyMicros, long perPurchaseMicros, int maxConcurrentRequests)
+      throws IOException {
+    requestNanos = TimeUnit.MICROSECONDS.toNanos(requestLatencyMicros);
+    perPurchaseNanos = TimeUnit.MICROSECONDS.toNanos(perPurchaseMicros);
+    httpServer =
+        HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+    httpServer.createContext(PATH, this::handle);
+    requestExecutor = Executors.newFixedThreadPool(maxConcurrentRequests);
+    httpServer.setExecutor(requestExecutor);
+    httpServer.start();
+  }
+
+  /** Returns the URL to give {@link HttpPurchaseVerifier}. */
+  URL getEndpoint() throws IOException {
+    return new URL("http", "127.0.0.1", httpServer.getAddress().getPort(), PATH);
+  }
+
+  /** Returns the number of verification requests served. */
+  long getRequestCount() {
+    return requestCount.get();
+  }
+
+  @Override
+  public void close() {
+    httpServer.stop(/* delay= */ 0);
+    requestExecutor.shutdownNow();
+  }
+
+  private void handle(HttpExchange exchange) throws IOException {
+    try {
+      JSONArray purchases;
+      try (InputStream inputStream = exchange.getRequestBody()) {
+        purchases =
+            new JSONObject(new String(inputStream.readAllBytes(), StandardCharsets.UTF_8))
+                .getJSONArray(HttpPurchaseVerifier.PURCHASES_KEY);
+      }
+      JSONArray verifiedTokens = new JSONArray();
+      for (int i = 0; i < purchases.length(); i++) {
+        String purchaseToken =
+            purchases.getJSONObject(i).getString(HttpPurchaseVerifier.PURCHASE_TOKEN_KEY);
+        if (!purchaseToken.startsWith(REJECTED_TOKEN_PREFIX)) {
+          verifiedTokens.put(purchaseToken);
+        }
+      }
+      LockSupport.parkNanos(requestNanos + purchases.length() * perPurchaseNanos);
+      requestCount.incrementAndGet();
+      respond(
+          exchange,
+          200,
+          new JSONObject().put(HttpPurchaseVerifier.VERIFIED_TOKENS_KEY, verifiedTokens));
+    } catch (JSONException e) {
+      respond(exchange, 400, new JSONObject());
+    }
+  }
+
+  private static void respond(HttpExchange exchange, int statusCode, JSONObject body)
+      throws IOException {
+    byte[] responseBody = body.toString().getBytes(StandardCharsets.UTF_8);
+    exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+    exchange.sendResponseHeaders(statusCode, responseBody.length);
+    try (OutputStream outputStream = exchange.getResponseBody()) {
+      outputStream.write(responseBody);
+    }
+  }
+}
@@ -0,0 +1,58 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.ProductDetails;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/** Measures {@link BillingServiceClient#setupProductDetailsMap} with large catalogs. */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductDetailsMapBenchmark {
+
+  @Param({"10", "100", "1000", "10000"})
+  public int productCount;
+
+  private BenchmarkFixtures.StubbedClient client;
+  private List<ProductDetails> productDetailsList;
+
+  @Setup
+  public void setUp() throws IOException {
+    client = BenchmarkFixtures.createClient(productCount);
+    productDetailsList = BenchmarkFixtures.createProductDetails(productCount);
+  }
+
+  @TearDown
+  public void tearDown() {
+    client.close();
+  }
+
+  @Benchmark
+  public void setupProductDetailsMap() {
+    client.billingServiceClient.setupProductDetailsMap(productDetailsList);
+  }
+}
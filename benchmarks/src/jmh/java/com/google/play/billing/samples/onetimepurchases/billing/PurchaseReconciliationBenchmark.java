@@ -0,0 +1,91 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.Purchase;
+import com.google.common.collect.ImmutableList;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+
+/**
+ * Measures startup reconciliation, from connecting until the entitlements of every owned purchase
+ * are restored.
+ *
+ * <p>The user owns {@code ownedCount} acknowledged purchases, of which the last {@code
+ * changedCount} were not handled by the previous run. Only those go through verification, so the
+ * score should follow {@code changedCount} far more than {@code ownedCount}.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PurchaseReconciliationBenchmark {
+
+  private static final int PRODUCT_COUNT = 4;
+
+  @Param({"100", "1000", "10000"})
+  public int ownedCount;
+
+  @Param({"0", "10", "100"})
+  public int changedCount;
+
+  private List<Purchase> ownedPurchases;
+  private BenchmarkFixtures.StubbedClient client;
+
+  @Setup(Level.Trial)
+  public void setUpPurchases() {
+    ownedPurchases =
+        BenchmarkFixtures.createPurchases(
+            ownedCount, PRODUCT_COUNT, "owned", /* acknowledged= */ true);
+  }
+
+  /** A fresh client per run, as reconciliation only happens once per connection. */
+  @Setup(Level.Invocation)
+  public void setUpClient() throws IOException, InterruptedException {
+    client = BenchmarkFixtures.createClient(PRODUCT_COUNT);
+    client.stubBillingClient.setOwnedPurchases(ownedPurchases);
+    for (Purchase purchase : ownedPurchases.subList(0, ownedCount - changedCount)) {
+      client.purchaseWatermark.recordHandled(
+          purchase.getPurchaseToken(), purchase.getPurchaseState());
+    }
+    // Watermark tasks run in order, so the records are in place once this one runs.
+    CountDownLatch recorded = new CountDownLatch(1);
+    client.purchaseWatermark.reconcile(
+        ownedPurchases, (changedPurchases, unchangedPurchases) -> recorded.countDown());
+    recorded.await();
+  }
+
+  @TearDown(Level.Invocation)
+  public void tearDown() {
+    client.close();
+  }
+
+  @Benchmark
+  public void reconcilePurchases() {
+    client.billingServiceClient.startBillingConnection(ImmutableList.of());
+    client.awaitEntitlements(ownedCount);
+  }
+}
@@ -0,0 +1,117 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.Purchase;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures verifying a burst of purchases through {@link PurchaseVerificationBatcher} and {@link
+ * HttpPurchaseVerifier}, against a {@link LocalVerificationServer} on the loopback interface.
+ *
+ * <p>The server charges a fixed latency per request and a smaller cost per purchase, like a real
+ * backend, so the scores show the batch size and in-flight window that suit a given backend.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class PurchaseVerificationBenchmark {
+
+  private static final int PURCHASE_COUNT = 1000;
+  private static final int PRODUCT_COUNT = 4;
+  private static final long REQUEST_LATENCY_MICROS = 2000;
+  private static final long PER_PURCHASE_MICROS = 20;
+  private static final long MAX_DELAY_MILLIS = 5;
+  private static final int TIMEOUT_MILLIS = 10_000;
+
+  @Param({"1", "10", "50", "200"})
+  public int batchSize;
+
+  @Param({"1", "4"})
+  public int maxInFlightBatches;
+
+  private LocalVerificationServer server;
+  private HttpPurchaseVerifier verifier;
+  private PurchaseVerificationBatcher batcher;
+  private List<Purchase> purchases;
+  private volatile CountDownLatch remaining;
+
+  @Setup
+  public void setUp() throws IOException {
+    server =
+        new LocalVerificationServer(
+            REQUEST_LATENCY_MICROS, PER_PURCHASE_MICROS, maxInFlightBatches);
+    verifier = new HttpPurchaseVerifier(server.getEndpoint(), maxInFlightBatches, TIMEOUT_MILLIS);
+    batcher =
+        new PurchaseVerificationBatcher(
+            verifier,
+            new PurchaseVerificationBatcher.VerificationListener() {
+              @Override
+              public void onVerified(Purchase purchase) {
+                remaining.countDown();
+              }
+
+              @Override
+              public void onRejected(Purchase purchase) {
+                remaining.countDown();
+              }
+
+              @Override
+              public void onVerificationFailed(Purchase purchase, Exception e) {
+                throw new IllegalStateException("Verification failed", e);
+              }
+            },
+            batchSize,
+            MAX_DELAY_MILLIS,
+            maxInFlightBatches);
+    purchases =
+        BenchmarkFixtures.createPurchases(
+            PURCHASE_COUNT, PRODUCT_COUNT, "verification", /* acknowledged= */ false);
+  }
+
+  @TearDown
+  public void tearDown() {
+    batcher.shutdown();
+    verifier.shutdown();
+    server.close();
+  }
+
+  @Benchmark
+  public void verifyPurchases() throws InterruptedException {
+    remaining = new CountDownLatch(PURCHASE_COUNT);
+    for (Purchase purchase : purchases) {
+      batcher.submit(purchase);
+    }
+    if (!remaining.await(TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+      throw new IllegalStateException("Timed out: " + batcher.getStats());
+    }
+  }
+}
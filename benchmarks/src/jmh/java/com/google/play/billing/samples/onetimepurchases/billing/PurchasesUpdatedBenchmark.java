@@ -0,0 +1,80 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Measures the purchases updated callback, from {@code purchasesUpdatedListener} through {@code
+ * handlePurchase} on the purchase processing thread, until the whole batch has been handled.
+ *
+ * <p>Each iteration delivers one batch of never-seen, unacknowledged purchases to a fresh client,
+ * so every purchase is deduplicated, classified and submitted for consumption. The
+ * acknowledge/consume round trips themselves complete asynchronously and are not measured.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 20)
+@Measurement(iterations = 50)
+public class PurchasesUpdatedBenchmark {
+
+  private static final BillingResult OK =
+      BillingResult.newBuilder().setResponseCode(BillingResponseCode.OK).build();
+  private static final int PRODUCT_COUNT = 4;
+
+  @Param({"1", "10", "100", "1000", "10000"})
+  public int purchaseCount;
+
+  private BenchmarkFixtures.StubbedClient client;
+  private List<Purchase> purchases;
+  private int iteration;
+
+  @Setup(Level.Iteration)
+  public void setUp() throws IOException {
+    client = BenchmarkFixtures.createClient(PRODUCT_COUNT);
+    purchases =
+        BenchmarkFixtures.createPurchases(
+            purchaseCount, PRODUCT_COUNT, "iteration-" + iteration++, /* acknowledged= */ false);
+  }
+
+  @TearDown(Level.Iteration)
+  public void tearDown() {
+    client.close();
+  }
+
+  @Benchmark
+  public void deliverNewPurchases() {
+    client.stubBillingClient.deliverPurchases(OK, purchases);
+    client.awaitPurchasesProcessed();
+  }
+}
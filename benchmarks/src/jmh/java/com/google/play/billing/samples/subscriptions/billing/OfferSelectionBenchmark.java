@@ -0,0 +1,82 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.ProductDetails;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures selecting the offer of a base plan, as done for every subscription card and purchase,
+ * and indexing a product's offers when its details arrive. The preferred base plan is the last
+ * one, which a scan of the offers would reach last.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class OfferSelectionBenchmark {
+
+  @Param({"1", "4", "16", "64"})
+  public int basePlanCount;
+
+  private ProductDetails productDetails;
+  private SubscriptionOfferIndex subscriptionOfferIndex;
+  private String basePlanId;
+
+  @Setup
+  public void setUp() throws JSONException {
+    StringBuilder json =
+        new StringBuilder(
+            "{\"productId\":\"premium\",\"type\":\"subs\",\"title\":\"Premium (Sample)\""
+                + ",\"name\":\"Premium\",\"subscriptionOfferDetails\":[");
+    for (int i = 0; i < basePlanCount; i++) {
+      if (i > 0) {
+        json.append(',');
+      }
+      json.append("{\"basePlanId\":\"plan-")
+          .append(i)
+          .append("\",\"offerIdToken\":\"offer-token-")
+          .append(i)
+          .append("\",\"pricingPhases\":[{\"formattedPrice\":\"$4.99\"")
+          .append(",\"priceAmountMicros\":4990000,\"priceCurrencyCode\":\"USD\"")
+          .append(",\"billingPeriod\":\"P1M\",\"billingCycleCount\":0,\"recurrenceMode\":1}]}");
+    }
+    json.append("]}");
+    productDetails = ProductDetails.fromJson(json.toString());
+    subscriptionOfferIndex = new SubscriptionOfferIndex();
+    subscriptionOfferIndex.put(productDetails);
+    basePlanId = "plan-" + (basePlanCount - 1);
+  }
+
+  @Benchmark
+  public SubscriptionOfferIndex.Offer selectOffer() {
+    return subscriptionOfferIndex.selectOffer("premium", basePlanId);
+  }
+
+  @Benchmark
+  public SubscriptionOfferIndex indexOffers() {
+    SubscriptionOfferIndex index = new SubscriptionOfferIndex();
+    index.put(productDetails);
+    return index;
+  }
+}
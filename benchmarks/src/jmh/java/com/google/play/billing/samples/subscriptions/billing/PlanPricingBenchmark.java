@@ -0,0 +1,121 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetails.PricingPhase;
+import com.android.billingclient.api.ProductDetails.SubscriptionOfferDetails;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures ranking subscription offers by monthly cost. {@code rankedOffers} reads the cached
+ * ranking, as each refresh of the plan list does; {@code indexAndRank} parses every offer and
+ * ranks them, as after a catalog update; {@code rankByReparsing} is the baseline that parses the
+ * billing periods inside the comparator. Each product has a free trial followed by a weekly,
+ * monthly, quarterly or yearly price.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class PlanPricingBenchmark {
+
+  private static final String[] BILLING_PERIODS = {"P1W", "P1M", "P3M", "P1Y"};
+
+  @Param({"10", "100", "1000"})
+  public int productCount;
+
+  private List<ProductDetails> productDetailsList;
+  private PlanPricingIndex planPricingIndex;
+
+  @Setup
+  public void setUp() throws JSONException {
+    productDetailsList = new ArrayList<>(productCount);
+    for (int i = 0; i < productCount; i++) {
+      String billingPeriod = BILLING_PERIODS[i % BILLING_PERIODS.length];
+      long priceAmountMicros = 990_000L + 10_000L * ((i * 7919) % 1000);
+      productDetailsList.add(
+          ProductDetails.fromJson(
+              "{\"productId\":\"product_"
+                  + i
+                  + "\",\"type\":\"subs\",\"title\":\"Plan (Sample)\",\"name\":\"Plan\""
+                  + ",\"subscriptionOfferDetails\":[{\"basePlanId\":\"plan\""
+                  + ",\"offerIdToken\":\"offer-token-"
+                  + i
+                  + "\",\"pricingPhases\":[{\"formattedPrice\":\"Free\",\"priceAmountMicros\":0"
+                  + ",\"priceCurrencyCode\":\"USD\",\"billingPeriod\":\"P1W\""
+                  + ",\"billingCycleCount\":1,\"recurrenceMode\":2}"
+                  + ",{\"formattedPrice\":\"$1\",\"priceAmountMicros\":"
+                  + priceAmountMicros
+                  + ",\"priceCurrencyCode\":\"USD\",\"billingPeriod\":\""
+                  + billingPeriod
+                  + "\",\"billingCycleCount\":0,\"recurrenceMode\":1}]}]}"));
+    }
+    planPricingIndex = new PlanPricingIndex();
+    for (ProductDetails details : productDetailsList) {
+      planPricingIndex.put(details);
+    }
+  }
+
+  @Benchmark
+  public List<PlanPricingIndex.PricedOffer> rankedOffers() {
+    return planPricingIndex.getRankedOffers();
+  }
+
+  @Benchmark
+  public List<PlanPricingIndex.PricedOffer> indexAndRank() {
+    PlanPricingIndex index = new PlanPricingIndex();
+    for (ProductDetails details : productDetailsList) {
+      index.put(details);
+    }
+    return index.getRankedOffers();
+  }
+
+  @Benchmark
+  public List<SubscriptionOfferDetails> rankByReparsing() {
+    List<SubscriptionOfferDetails> offers = new ArrayList<>(productCount);
+    for (ProductDetails details : productDetailsList) {
+      offers.addAll(details.getSubscriptionOfferDetails());
+    }
+    Collections.sort(
+        offers,
+        new Comparator<SubscriptionOfferDetails>() {
+          @Override
+          public int compare(SubscriptionOfferDetails a, SubscriptionOfferDetails b) {
+            return Double.compare(monthlyMicros(a), monthlyMicros(b));
+          }
+        });
+    return offers;
+  }
+
+  private static double monthlyMicros(SubscriptionOfferDetails offerDetails) {
+    List<PricingPhase> phases = offerDetails.getPricingPhases().getPricingPhaseList();
+    PricingPhase recurringPhase = phases.get(phases.size() - 1);
+    return recurringPhase.getPriceAmountMicros()
+        / PlanPricingIndex.BillingPeriod.parse(recurringPhase.getBillingPeriod()).toMonths();
+  }
+}
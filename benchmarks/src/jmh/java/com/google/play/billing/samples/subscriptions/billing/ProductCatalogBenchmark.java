@@ -0,0 +1,78 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.SyntheticBillingData;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures publishing a batch of changed products into a {@link ProductCatalog}, against copying
+ * the whole catalog into a new map as the activities used to on every callback.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ProductCatalogBenchmark {
+
+  private static final String PRODUCT_ID_PREFIX = "subscription";
+  private static final int BATCH_SIZE = 20;
+
+  @Param({"100", "1000", "10000"})
+  public int productCount;
+
+  private ProductCatalog productCatalog;
+  private Map<String, ProductDetails> productDetailsMap;
+  private List<ProductDetails> changedBatch;
+
+  @Setup
+  public void setUp() {
+    List<ProductDetails> products =
+        SyntheticBillingData.subscriptions(PRODUCT_ID_PREFIX, productCount, 1);
+    productCatalog = new ProductCatalog();
+    productCatalog.putAll(products);
+    productDetailsMap = new HashMap<>();
+    for (ProductDetails productDetails : products) {
+      productDetailsMap.put(productDetails.getProductId(), productDetails);
+    }
+    // The same products with another base plan, so their details differ.
+    changedBatch = SyntheticBillingData.subscriptions(PRODUCT_ID_PREFIX, BATCH_SIZE, 2);
+  }
+
+  @Benchmark
+  public ProductCatalog.Delta publishBatch() {
+    return productCatalog.putAll(changedBatch);
+  }
+
+  @Benchmark
+  public Map<String, ProductDetails> copyAndPutBatch() {
+    Map<String, ProductDetails> copy = new HashMap<>(productDetailsMap);
+    for (ProductDetails productDetails : changedBatch) {
+      copy.put(productDetails.getProductId(), productDetails);
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,121 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.BillingFlowParams.ProductDetailsParams.SubscriptionProductReplacementParams.ReplacementMode;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.SyntheticBillingData;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+
+/**
+ * Measures building a {@link ReplacementMatrix} over a catalog of synthetic tiers, which happens
+ * on every catalog or purchases change, and looking up a cell, which happens on every tap. The
+ * user owns the first {@code ownedCount} tiers, and every replacement mode is built.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class ReplacementMatrixBenchmark {
+
+  private static final String PRODUCT_ID_PREFIX = "tier";
+  private static final List<Integer> REPLACEMENT_MODES =
+      Arrays.asList(
+          ReplacementMode.CHARGE_FULL_PRICE,
+          ReplacementMode.CHARGE_PRORATED_PRICE,
+          ReplacementMode.WITH_TIME_PRORATION,
+          ReplacementMode.WITHOUT_PRORATION,
+          ReplacementMode.DEFERRED);
+
+  @Param({"100", "500"})
+  public int tierCount;
+
+  @Param({"1", "10"})
+  public int ownedCount;
+
+  private ProductCatalog.Snapshot catalog;
+  private SubscriptionOfferIndex offerIndex;
+  private PlanPricingIndex pricingIndex;
+  private SubscriptionPurchaseIndex.Snapshot purchases;
+  private final Map<String, String> basePlanIds = Collections.emptyMap();
+  private ReplacementMatrix replacementMatrix;
+  private String currentProductId;
+  private String targetProductId;
+
+  @Setup
+  public void setUp() {
+    List<ProductDetails> tiers =
+        SyntheticBillingData.subscriptions(
+            PRODUCT_ID_PREFIX, tierCount, /* basePlansPerProduct= */ 1);
+    ProductCatalog productCatalog = new ProductCatalog();
+    productCatalog.putAll(tiers);
+    catalog = productCatalog.getSnapshot();
+    offerIndex = new SubscriptionOfferIndex();
+    pricingIndex = new PlanPricingIndex();
+    for (ProductDetails details : tiers) {
+      offerIndex.put(details);
+      pricingIndex.put(details);
+    }
+    List<Purchase> ownedPurchases = new ArrayList<>(ownedCount);
+    for (int i = 0; i < ownedCount; i++) {
+      ownedPurchases.add(
+          SyntheticBillingData.purchase(
+              Collections.singletonList(SyntheticBillingData.productId(PRODUCT_ID_PREFIX, i)),
+              "purchase-token-" + i,
+              /* acknowledged= */ true));
+    }
+    SubscriptionPurchaseIndex purchaseIndex = new SubscriptionPurchaseIndex();
+    purchaseIndex.replaceAll(ownedPurchases);
+    purchases = purchaseIndex.getSnapshot();
+    replacementMatrix = build();
+    currentProductId = SyntheticBillingData.productId(PRODUCT_ID_PREFIX, ownedCount - 1);
+    targetProductId = SyntheticBillingData.productId(PRODUCT_ID_PREFIX, tierCount - 1);
+  }
+
+  @Benchmark
+  public ReplacementMatrix buildMatrix() {
+    return build();
+  }
+
+  @Benchmark
+  public ReplacementMatrix.Cell lookUpCell() {
+    return replacementMatrix.get(
+        currentProductId, targetProductId, ReplacementMode.CHARGE_PRORATED_PRICE);
+  }
+
+  private ReplacementMatrix build() {
+    return ReplacementMatrix.build(
+        catalog,
+        offerIndex,
+        pricingIndex,
+        purchases,
+        basePlanIds,
+        REPLACEMENT_MODES,
+        /* nowMillis= */ 1_700_000_000_000L);
+  }
+}
@@ -0,0 +1,148 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.managedcatalogue.billing;
+
+import androidx.appcompat.app.AppCompatActivity;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClient.ProductType;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.FakeBillingClient;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import com.android.billingclient.api.SyntheticBillingData;
+import com.google.play.billing.samples.soak.SoakRun;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Soak test of the managed catalogue {@link BillingServiceClient}: a large catalog queried in
+ * batches, then a steady rate of billing flows, each completed by the fake backend with a purchase.
+ *
+ * <p>The fake is passed to the {@code @VisibleForTesting} constructor, so the purchases it
+ * delivers are counted here rather than going to the app's no-op listener.
+ */
+public final class ManagedCatalogueSoak {
+
+  private static final String PRODUCT_ID_PREFIX = "soak_preorder";
+  private static final int PRODUCT_COUNT = 2000;
+
+  private ManagedCatalogueSoak() {}
+
+  public static void main(String[] args) throws Exception {
+    SoakRun run = SoakRun.fromArgs("ManagedCatalogueSoak", args);
+    AtomicLong purchasesDelivered = new AtomicLong();
+    FakeBillingClient fake =
+        new FakeBillingClient(
+            SoakRun.defaultBackend(),
+            (billingResult, purchases) -> purchasesDelivered.addAndGet(purchases.size()));
+    AtomicReference<List<ProductDetails>> productDetailsResponse = new AtomicReference<>();
+    AtomicReference<String> billingError = new AtomicReference<>();
+    AppCompatActivity activity = SoakRun.createActivity();
+    BillingServiceClient billingServiceClient =
+        new BillingServiceClient(
+            activity,
+            new BillingServiceClientListener() {
+              @Override
+              public void onProductDetailsResponse(List<ProductDetails> productDetailsList) {
+                productDetailsResponse.set(productDetailsList);
+              }
+
+              @Override
+              public void onBillingSetupFailed(BillingResult billingResult) {
+                billingError.set("Setup failed: " + billingResult.getResponseCode());
+              }
+
+              @Override
+              public void onBillingError(String errorMsg) {
+                billingError.set(errorMsg);
+              }
+            },
+            fake);
+
+    List<ProductDetails> catalog =
+        SyntheticBillingData.oneTimeProducts(PRODUCT_ID_PREFIX, PRODUCT_COUNT);
+    fake.setCatalog(catalog);
+    List<Product> productList = new ArrayList<>();
+    for (ProductDetails productDetails : catalog) {
+      productList.add(
+          Product.newBuilder()
+              .setProductId(productDetails.getProductId())
+              .setProductType(ProductType.INAPP)
+              .build());
+    }
+    billingServiceClient.startBillingConnection(productList);
+    boolean catalogLoaded = run.awaitDrained(() -> productDetailsResponse.get() != null);
+    run.check(catalogLoaded, "The catalog was not loaded: " + billingError.get());
+    List<ProductDetails> products =
+        catalogLoaded ? productDetailsResponse.get() : new ArrayList<>();
+    // Batches that fail twice in a row are given up on, so a few products may be missing.
+    System.out.println(products.size() + " of " + PRODUCT_COUNT + " products fetched");
+
+    long launched = 0;
+    if (!products.isEmpty()) {
+      long startNanos = System.nanoTime();
+      long endNanos = startNanos + TimeUnit.SECONDS.toNanos(run.durationSeconds);
+      long now;
+      while ((now = System.nanoTime()) < endNanos) {
+        long launchesDue = (now - startNanos) * run.eventsPerSecond / 1_000_000_000L;
+        for (; launched < launchesDue; launched++) {
+          ProductDetails productDetails = products.get((int) (launched % products.size()));
+          billingServiceClient.launchPurchase(
+              activity,
+              productDetails,
+              productDetails.getOneTimePurchaseOfferDetails().getOfferToken());
+        }
+        TimeUnit.MILLISECONDS.sleep(1);
+      }
+    }
+
+    // Every launch that was not failed by the backend results in one purchase.
+    long launchesOk = launchesWithResponseCode(billingServiceClient, BillingResponseCode.OK);
+    boolean drained = run.awaitDrained(() -> purchasesDelivered.get() >= launchesOk);
+    for (BillingLatencyRecorder.OperationSnapshot snapshot :
+        billingServiceClient.getLatencySnapshot()) {
+      System.out.println(snapshot);
+    }
+    billingServiceClient.endBillingConnection();
+
+    run.checkBackend(fake);
+    run.check(
+        launchesWithResponseCode(billingServiceClient, null) == launched,
+        "Not every launch was recorded");
+    run.check(
+        drained && purchasesDelivered.get() == launchesOk,
+        purchasesDelivered.get() + " purchases for " + launchesOk + " successful launches");
+    run.finish();
+  }
+
+  /** Returns the launches with the given response code, or all launches if it is null. */
+  private static long launchesWithResponseCode(
+      BillingServiceClient billingServiceClient, Integer responseCode) {
+    for (BillingLatencyRecorder.OperationSnapshot snapshot :
+        billingServiceClient.getLatencySnapshot()) {
+      if (snapshot.operation == BillingLatencyRecorder.Operation.LAUNCH_BILLING_FLOW) {
+        if (responseCode == null) {
+          return snapshot.count;
+        }
+        Long count = snapshot.responseCodeCounts.get(responseCode);
+        return count == null ? 0 : count;
+      }
+    }
+    return 0;
+  }
+}
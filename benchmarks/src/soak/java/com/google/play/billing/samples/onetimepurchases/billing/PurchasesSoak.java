@@ -0,0 +1,153 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.ProductType;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.FakeBillingClient;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import com.android.billingclient.api.StubBillingClient;
+import com.android.billingclient.api.SyntheticBillingData;
+import com.google.common.collect.ImmutableList;
+import com.google.play.billing.samples.onetimepurchases.billing.ProductClassRegistry.ProductClass;
+import com.google.play.billing.samples.soak.SoakRun;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Soak test of the one-time purchases {@link BillingServiceClient}: a stream of purchase updates
+ * through the purchase processor, the seen-purchase set, verification, the journal and the
+ * acknowledge/consume dispatcher.
+ *
+ * <p>Checks that every new purchase is acknowledged or consumed, and that the dispatcher drains
+ * once the stream stops.
+ */
+public final class PurchasesSoak {
+
+  private static final String PRODUCT_ID_PREFIX = "soak_product";
+  private static final int PRODUCT_COUNT = 200;
+
+  private PurchasesSoak() {}
+
+  public static void main(String[] args) throws Exception {
+    SoakRun run = SoakRun.fromArgs("PurchasesSoak", args);
+    FakeBillingClient.Config backend = SoakRun.defaultBackend();
+    FakeBillingClient[] fakeBillingClient = new FakeBillingClient[1];
+    Set<String> processedTokens = ConcurrentHashMap.newKeySet();
+    AtomicInteger productDetailsFetched = new AtomicInteger();
+    BillingServiceClient billingServiceClient =
+        new BillingServiceClient(
+            SoakRun.createActivity(),
+            new BillingServiceClientListener() {
+              @Override
+              public void onBillingResponse(int responseCode, BillingResult billingResult) {}
+
+              @Override
+              public void onProductDetailsFetched(Map<String, ProductDetails> productDetailsMap) {
+                productDetailsFetched.set(productDetailsMap.size());
+              }
+
+              @Override
+              public void onProductDetailsUpdated(
+                  Map<String, ProductDetails> updatedProductDetailsMap) {}
+
+              @Override
+              public void onPurchaseProcessed(String purchaseToken, BillingResult billingResult) {
+                processedTokens.add(purchaseToken);
+              }
+            }) {
+          @Override
+          protected BillingClient createBillingClient() {
+            StubBillingClient builtClient = (StubBillingClient) super.createBillingClient();
+            fakeBillingClient[0] =
+                new FakeBillingClient(backend, builtClient.getPurchasesUpdatedListener());
+            return fakeBillingClient[0];
+          }
+        };
+    FakeBillingClient fake = fakeBillingClient[0];
+
+    List<ProductDetails> catalog =
+        SyntheticBillingData.oneTimeProducts(PRODUCT_ID_PREFIX, PRODUCT_COUNT);
+    fake.setCatalog(catalog);
+    List<String> productIds = new ArrayList<>();
+    ImmutableList.Builder<Product> productList = ImmutableList.builder();
+    Map<String, ProductClass> productClasses = new HashMap<>();
+    for (ProductDetails productDetails : catalog) {
+      String productId = productDetails.getProductId();
+      productIds.add(productId);
+      productList.add(
+          Product.newBuilder().setProductId(productId).setProductType(ProductType.INAPP).build());
+      // Half of the purchases are consumed and half acknowledged.
+      productClasses.put(
+          productId,
+          productIds.size() % 2 == 0 ? ProductClass.CONSUMABLE : ProductClass.NON_CONSUMABLE);
+    }
+    billingServiceClient.setProductClassRegistry(ProductClassRegistry.of(productClasses));
+    billingServiceClient.startBillingConnection(productList.build());
+
+    fake.startPurchaseStream(productIds, run.eventsPerSecond, /* purchasesPerUpdate= */ 1);
+    run.runFor(
+        () -> System.out.println(billingServiceClient.getAcknowledgeConsumeStats().toString()));
+    fake.stopPurchaseStream();
+
+    boolean drained =
+        run.awaitDrained(
+            () -> {
+              AcknowledgeConsumeDispatcher.Stats stats =
+                  billingServiceClient.getAcknowledgeConsumeStats();
+              PurchaseProcessor.Stats processorStats =
+                  billingServiceClient.getPurchaseProcessorStats();
+              return processorStats.queued == 0
+                  && processorStats.spilled == 0
+                  && stats.queued == 0
+                  && stats.inFlight == 0
+                  && stats.waitingForRetry == 0
+                  && processedTokens.size() >= fake.getStats().newPurchases;
+            });
+    AcknowledgeConsumeDispatcher.Stats dispatcherStats =
+        billingServiceClient.getAcknowledgeConsumeStats();
+    FakeBillingClient.Stats backendStats = fake.getStats();
+    System.out.println("Processor: " + billingServiceClient.getPurchaseProcessorStats());
+    System.out.println("Verification: " + billingServiceClient.getPurchaseVerificationStats());
+    System.out.println("Dispatcher: " + dispatcherStats);
+    System.out.println(
+        "Seen purchases: hits="
+            + billingServiceClient.getSeenPurchaseHitCount()
+            + ", misses="
+            + billingServiceClient.getSeenPurchaseMissCount());
+    for (BillingLatencyRecorder.OperationSnapshot snapshot :
+        billingServiceClient.getLatencySnapshot()) {
+      System.out.println(snapshot);
+    }
+    billingServiceClient.endBillingConnection();
+
+    run.checkBackend(fake);
+    run.check(drained, "The dispatcher did not drain: " + dispatcherStats);
+    run.check(
+        processedTokens.size() == backendStats.newPurchases,
+        processedTokens.size() + " of " + backendStats.newPurchases + " purchases processed");
+    // Batches that fail twice in a row are given up on, so a few products may be missing.
+    System.out.println(productDetailsFetched.get() + " of " + PRODUCT_COUNT + " products fetched");
+    run.check(productDetailsFetched.get() > 0, "No products were fetched");
+    run.finish();
+  }
+}
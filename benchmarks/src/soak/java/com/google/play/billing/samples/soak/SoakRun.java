@@ -0,0 +1,148 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.soak;
+
+import androidx.appcompat.app.AppCompatActivity;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.FakeBillingClient;
+import com.android.billingclient.api.FakeBillingClient.LatencyDistribution;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Options, fixtures and checks shared by the soak tests.
+ *
+ * <p>A soak test runs as a {@code main} method taking the duration in seconds and the target rate
+ * of events per second. It prints a report, and exits with status 1 if any check failed.
+ */
+public final class SoakRun {
+
+  private static final int DEFAULT_DURATION_SECONDS = 60;
+  private static final int DEFAULT_EVENTS_PER_SECOND = 2000;
+  private static final long DRAIN_TIMEOUT_MILLIS = TimeUnit.MINUTES.toMillis(2);
+
+  private final String name;
+  public final int durationSeconds;
+  public final int eventsPerSecond;
+  private final List<String> failures = new ArrayList<>();
+
+  private SoakRun(String name, int durationSeconds, int eventsPerSecond) {
+    this.name = name;
+    this.durationSeconds = durationSeconds;
+    this.eventsPerSecond = eventsPerSecond;
+  }
+
+  /**
+   * @param name The name of the soak test, for the report.
+   * @param args The duration in seconds and the events per second, both optional.
+   */
+  public static SoakRun fromArgs(String name, String[] args) {
+    int durationSeconds = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_DURATION_SECONDS;
+    int eventsPerSecond = args.length > 1 ? Integer.parseInt(args[1]) : DEFAULT_EVENTS_PER_SECOND;
+    System.out.println(
+        name + ": " + durationSeconds + "s at " + eventsPerSecond + " events per second");
+    return new SoakRun(name, durationSeconds, eventsPerSecond);
+  }
+
+  /**
+   * Returns the backend the soak tests run against: log-normal latencies around 2 ms, 1.5% of the
+   * requests failing with transient errors, and 5% of the streamed purchases delivered again.
+   */
+  public static FakeBillingClient.Config defaultBackend() {
+    return FakeBillingClient.Config.newBuilder()
+        .setLatency(LatencyDistribution.logNormal(/* medianMicros= */ 2000, /* sigma= */ 0.6))
+        .addErrorRate(BillingResponseCode.SERVICE_UNAVAILABLE, 0.01)
+        .addErrorRate(BillingResponseCode.NETWORK_ERROR, 0.005)
+        .setRedeliveryProbability(0.05)
+        .build();
+  }
+
+  /** Creates an activity whose cache and files directories are a fresh temporary directory. */
+  public static AppCompatActivity createActivity() throws IOException {
+    File directory = Files.createTempDirectory("billing-soak").toFile();
+    return new AppCompatActivity() {
+      @Override
+      public File getCacheDir() {
+        return directory;
+      }
+
+      @Override
+      public File getFilesDir() {
+        return directory;
+      }
+    };
+  }
+
+  /** Sleeps for the duration of the run, reporting the progress every ten seconds. */
+  public void runFor(Runnable progress) throws InterruptedException {
+    long endNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(durationSeconds);
+    long remainingNanos;
+    while ((remainingNanos = endNanos - System.nanoTime()) > 0) {
+      TimeUnit.NANOSECONDS.sleep(Math.min(remainingNanos, TimeUnit.SECONDS.toNanos(10)));
+      progress.run();
+    }
+  }
+
+  /**
+   * Waits for the work still in flight once the load stops.
+   *
+   * @return True if the condition became true before the timeout.
+   */
+  public boolean awaitDrained(BooleanSupplier drained) throws InterruptedException {
+    long deadlineNanos = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(DRAIN_TIMEOUT_MILLIS);
+    while (!drained.getAsBoolean()) {
+      if (System.nanoTime() > deadlineNanos) {
+        return false;
+      }
+      TimeUnit.MILLISECONDS.sleep(10);
+    }
+    return true;
+  }
+
+  /** Records a failure if the condition is false. */
+  public void check(boolean condition, String failure) {
+    if (!condition) {
+      failures.add(failure);
+    }
+  }
+
+  /** Checks the fake backend's counters and records a failure for every app callback that threw. */
+  public void checkBackend(FakeBillingClient fakeBillingClient) {
+    FakeBillingClient.Stats stats = fakeBillingClient.getStats();
+    System.out.println("Backend: " + stats);
+    if (stats.callbackFailures > 0) {
+      failures.add(stats.callbackFailures + " callbacks threw, the first one was:");
+      failures.add(String.valueOf(fakeBillingClient.getFirstCallbackFailure()));
+    }
+  }
+
+  /** Prints the checks that failed, and exits with status 1 if there were any. */
+  public void finish() {
+    if (failures.isEmpty()) {
+      System.out.println(name + ": PASSED");
+      System.exit(0);
+    }
+    for (String failure : failures) {
+      System.out.println("  " + failure);
+    }
+    System.out.println(name + ": FAILED");
+    System.exit(1);
+  }
+}
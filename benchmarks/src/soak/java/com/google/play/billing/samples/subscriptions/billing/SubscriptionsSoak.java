@@ -0,0 +1,154 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.ProductType;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.FakeBillingClient;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import com.android.billingclient.api.StubBillingClient;
+import com.android.billingclient.api.SyntheticBillingData;
+import com.google.common.collect.ImmutableList;
+import com.google.play.billing.samples.soak.SoakRun;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Soak test of the subscriptions {@link BillingServiceClient}: a stream of purchase updates, each
+ * acknowledged, with a burst of purchases queries every ten seconds.
+ *
+ * <p>Checks that every delivered purchase gets an acknowledge response, redeliveries included, as
+ * this client does not skip purchases it has already handled. Also checks that each burst of
+ * queries reaches Google Play as a single query.
+ */
+public final class SubscriptionsSoak {
+
+  private static final String PRODUCT_ID_PREFIX = "soak_subscription";
+  private static final int PRODUCT_COUNT = 50;
+  private static final int BASE_PLANS_PER_PRODUCT = 4;
+  // As many callers as ask for purchases when an activity resumes after a purchase.
+  private static final int QUERIES_PER_BURST = 4;
+
+  private SubscriptionsSoak() {}
+
+  public static void main(String[] args) throws Exception {
+    SoakRun run = SoakRun.fromArgs("SubscriptionsSoak", args);
+    FakeBillingClient.Config backend = SoakRun.defaultBackend();
+    FakeBillingClient[] fakeBillingClient = new FakeBillingClient[1];
+    AtomicLong purchasesFetched = new AtomicLong();
+    AtomicInteger productDetailsFetched = new AtomicInteger();
+    BillingServiceClient billingServiceClient =
+        new BillingServiceClient(
+            SoakRun.createActivity(),
+            new BillingServiceClientListener() {
+              @Override
+              public void onBillingResponse(int responseCode, BillingResult billingResult) {}
+
+              @Override
+              public void onProductDetailsFetched(
+                  ProductCatalog.Snapshot catalog, ProductCatalog.Delta delta) {
+                productDetailsFetched.set(catalog.size());
+              }
+
+              @Override
+              public void onPurchasesFetched(List<Purchase> purchases) {
+                purchasesFetched.addAndGet(purchases.size());
+              }
+            }) {
+          @Override
+          protected BillingClient createBillingClient() {
+            StubBillingClient builtClient = (StubBillingClient) super.createBillingClient();
+            fakeBillingClient[0] =
+                new FakeBillingClient(backend, builtClient.getPurchasesUpdatedListener());
+            return fakeBillingClient[0];
+          }
+        };
+    FakeBillingClient fake = fakeBillingClient[0];
+
+    List<ProductDetails> catalog =
+        SyntheticBillingData.subscriptions(
+            PRODUCT_ID_PREFIX, PRODUCT_COUNT, BASE_PLANS_PER_PRODUCT);
+    fake.setCatalog(catalog);
+    List<String> productIds = new ArrayList<>();
+    ImmutableList.Builder<Product> productList = ImmutableList.builder();
+    for (ProductDetails productDetails : catalog) {
+      productIds.add(productDetails.getProductId());
+      productList.add(
+          Product.newBuilder()
+              .setProductId(productDetails.getProductId())
+              .setProductType(ProductType.SUBS)
+              .build());
+    }
+    billingServiceClient.startBillingConnection(productList.build());
+
+    fake.startPurchaseStream(productIds, run.eventsPerSecond, /* purchasesPerUpdate= */ 1);
+    run.runFor(
+        () -> {
+          for (int i = 0; i < QUERIES_PER_BURST; i++) {
+            billingServiceClient.queryPurchases();
+          }
+        });
+    fake.stopPurchaseStream();
+
+    boolean drained =
+        run.awaitDrained(
+            () -> acknowledgeResponses(billingServiceClient) >= purchasesDelivered(fake));
+    for (BillingLatencyRecorder.OperationSnapshot snapshot :
+        billingServiceClient.getLatencySnapshot()) {
+      System.out.println(snapshot);
+    }
+    PurchasesQueryCoordinator.Stats queryStats = billingServiceClient.getPurchasesQueryStats();
+    System.out.println(queryStats);
+    long acknowledgeResponses = acknowledgeResponses(billingServiceClient);
+    long purchasesDelivered = purchasesDelivered(fake);
+    billingServiceClient.endBillingConnection();
+
+    run.checkBackend(fake);
+    run.check(
+        drained && acknowledgeResponses == purchasesDelivered,
+        acknowledgeResponses + " acknowledge responses for " + purchasesDelivered + " purchases");
+    // The product details query asks for purchases once too.
+    run.check(
+        queryStats.queries * QUERIES_PER_BURST <= queryStats.requests + QUERIES_PER_BURST,
+        queryStats.queries + " purchases queries for " + queryStats.requests + " requests");
+    run.check(
+        purchasesFetched.get() >= purchasesDelivered,
+        purchasesFetched.get() + " of " + purchasesDelivered + " purchases reported");
+    // Batches that fail twice in a row are given up on, so a few products may be missing.
+    System.out.println(productDetailsFetched.get() + " of " + PRODUCT_COUNT + " products fetched");
+    run.check(productDetailsFetched.get() > 0, "No products were fetched");
+    run.finish();
+  }
+
+  private static long purchasesDelivered(FakeBillingClient fake) {
+    FakeBillingClient.Stats stats = fake.getStats();
+    return stats.newPurchases + stats.redeliveredPurchases;
+  }
+
+  private static long acknowledgeResponses(BillingServiceClient billingServiceClient) {
+    for (BillingLatencyRecorder.OperationSnapshot snapshot :
+        billingServiceClient.getLatencySnapshot()) {
+      if (snapshot.operation == BillingLatencyRecorder.Operation.ACKNOWLEDGE_PURCHASE) {
+        return snapshot.count;
+      }
+    }
+    return 0;
+  }
+}
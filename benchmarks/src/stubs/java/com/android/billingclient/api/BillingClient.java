@@ -0,0 +1,105 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import android.app.Activity;
+import android.content.Context;
+
+/**
+ * JVM stand-in for the Play Billing Library {@code BillingClient}. {@link Builder#build()} returns
+ * a {@link StubBillingClient}.
+ */
+public abstract class BillingClient {
+
+  /** Possible response codes. */
+  public @interface BillingResponseCode {
+    int SERVICE_TIMEOUT = -3;
+    int FEATURE_NOT_SUPPORTED = -2;
+    int SERVICE_DISCONNECTED = -1;
+    int OK = 0;
+    int USER_CANCELED = 1;
+    int SERVICE_UNAVAILABLE = 2;
+    int BILLING_UNAVAILABLE = 3;
+    int ITEM_UNAVAILABLE = 4;
+    int DEVELOPER_ERROR = 5;
+    int ERROR = 6;
+    int ITEM_ALREADY_OWNED = 7;
+    int ITEM_NOT_OWNED = 8;
+    int NETWORK_ERROR = 12;
+  }
+
+  /** Supported product types. */
+  public @interface ProductType {
+    String INAPP = "inapp";
+    String SUBS = "subs";
+  }
+
+  /** Connection states. */
+  public @interface ConnectionState {
+    int DISCONNECTED = 0;
+    int CONNECTING = 1;
+    int CONNECTED = 2;
+    int CLOSED = 3;
+  }
+
+  public static Builder newBuilder(Context context) {
+    return new Builder();
+  }
+
+  public abstract void startConnection(BillingClientStateListener listener);
+
+  public abstract void endConnection();
+
+  public abstract boolean isReady();
+
+  public abstract int getConnectionState();
+
+  public abstract void queryProductDetailsAsync(
+      QueryProductDetailsParams params, ProductDetailsResponseListener listener);
+
+  public abstract void queryPurchasesAsync(
+      QueryPurchasesParams params, PurchasesResponseListener listener);
+
+  public abstract BillingResult launchBillingFlow(Activity activity, BillingFlowParams params);
+
+  public abstract void acknowledgePurchase(
+      AcknowledgePurchaseParams params, AcknowledgePurchaseResponseListener listener);
+
+  public abstract void consumeAsync(ConsumeParams params, ConsumeResponseListener listener);
+
+  /** Builder for {@link BillingClient}. */
+  public static final class Builder {
+    private PurchasesUpdatedListener purchasesUpdatedListener;
+
+    private Builder() {}
+
+    public Builder setListener(PurchasesUpdatedListener listener) {
+      this.purchasesUpdatedListener = listener;
+      return this;
+    }
+
+    public Builder enablePendingPurchases(PendingPurchasesParams params) {
+      return this;
+    }
+
+    public Builder enableAutoServiceReconnection() {
+      return this;
+    }
+
+    public BillingClient build() {
+      return new StubBillingClient(purchasesUpdatedListener);
+    }
+  }
+}
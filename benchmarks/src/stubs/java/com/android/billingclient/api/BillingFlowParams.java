@@ -0,0 +1,166 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * JVM stand-in for the Play Billing Library {@code BillingFlowParams}. Only the products to
+ * purchase are retained, so {@link FakeBillingClient} can deliver a purchase for them.
+ */
+public final class BillingFlowParams {
+
+  private final List<ProductDetailsParams> productDetailsParamsList;
+
+  private BillingFlowParams(List<ProductDetailsParams> productDetailsParamsList) {
+    this.productDetailsParamsList = productDetailsParamsList;
+  }
+
+  /** Returns the IDs of the products to purchase. */
+  List<String> getProductIds() {
+    List<String> productIds = new ArrayList<>(productDetailsParamsList.size());
+    for (ProductDetailsParams productDetailsParams : productDetailsParamsList) {
+      productIds.add(productDetailsParams.productDetails.getProductId());
+    }
+    return productIds;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Builder for {@link BillingFlowParams}. */
+  public static final class Builder {
+    private List<ProductDetailsParams> productDetailsParamsList = Collections.emptyList();
+
+    private Builder() {}
+
+    public Builder setProductDetailsParamsList(List<ProductDetailsParams> productDetailsParamsList) {
+      this.productDetailsParamsList = new ArrayList<>(productDetailsParamsList);
+      return this;
+    }
+
+    public Builder setSubscriptionUpdateParams(SubscriptionUpdateParams subscriptionUpdateParams) {
+      return this;
+    }
+
+    public Builder setIsOfferPersonalized(boolean isOfferPersonalized) {
+      return this;
+    }
+
+    public BillingFlowParams build() {
+      return new BillingFlowParams(productDetailsParamsList);
+    }
+  }
+
+  /** The product and offer to purchase. */
+  public static final class ProductDetailsParams {
+    private final ProductDetails productDetails;
+
+    private ProductDetailsParams(ProductDetails productDetails) {
+      this.productDetails = productDetails;
+    }
+
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    /** Builder for {@link ProductDetailsParams}. */
+    public static final class Builder {
+      private ProductDetails productDetails;
+
+      private Builder() {}
+
+      public Builder setProductDetails(ProductDetails productDetails) {
+        this.productDetails = productDetails;
+        return this;
+      }
+
+      public Builder setOfferToken(String offerToken) {
+        return this;
+      }
+
+      public Builder setSubscriptionProductReplacementParams(
+          SubscriptionProductReplacementParams subscriptionProductReplacementParams) {
+        return this;
+      }
+
+      public ProductDetailsParams build() {
+        return new ProductDetailsParams(productDetails);
+      }
+    }
+
+    /** How a subscription product replaces an existing one. */
+    public static final class SubscriptionProductReplacementParams {
+      private SubscriptionProductReplacementParams() {}
+
+      public static Builder newBuilder() {
+        return new Builder();
+      }
+
+      /** Supported replacement modes. */
+      public @interface ReplacementMode {
+        int UNKNOWN_REPLACEMENT_MODE = 0;
+        int WITH_TIME_PRORATION = 1;
+        int CHARGE_PRORATED_PRICE = 2;
+        int WITHOUT_PRORATION = 3;
+        int CHARGE_FULL_PRICE = 5;
+        int DEFERRED = 6;
+        int KEEP_EXISTING = 7;
+      }
+
+      /** Builder for {@link SubscriptionProductReplacementParams}. */
+      public static final class Builder {
+        private Builder() {}
+
+        public Builder setOldProductId(String oldProductId) {
+          return this;
+        }
+
+        public Builder setReplacementMode(int replacementMode) {
+          return this;
+        }
+
+        public SubscriptionProductReplacementParams build() {
+          return new SubscriptionProductReplacementParams();
+        }
+      }
+    }
+  }
+
+  /** The subscription being replaced. */
+  public static final class SubscriptionUpdateParams {
+    private SubscriptionUpdateParams() {}
+
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    /** Builder for {@link SubscriptionUpdateParams}. */
+    public static final class Builder {
+      private Builder() {}
+
+      public Builder setOldPurchaseToken(String oldPurchaseToken) {
+        return this;
+      }
+
+      public SubscriptionUpdateParams build() {
+        return new SubscriptionUpdateParams();
+      }
+    }
+  }
+}
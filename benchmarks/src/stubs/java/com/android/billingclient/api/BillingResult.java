@@ -0,0 +1,64 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+/** JVM stand-in for the Play Billing Library {@code BillingResult}. */
+public final class BillingResult {
+
+  private int responseCode;
+  private String debugMessage = "";
+
+  public int getResponseCode() {
+    return responseCode;
+  }
+
+  public String getDebugMessage() {
+    return debugMessage;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  @Override
+  public String toString() {
+    return "Response Code: " + responseCode + ", Debug Message: " + debugMessage;
+  }
+
+  /** Builder for {@link BillingResult}. */
+  public static final class Builder {
+    private int responseCode;
+    private String debugMessage = "";
+
+    private Builder() {}
+
+    public Builder setResponseCode(int responseCode) {
+      this.responseCode = responseCode;
+      return this;
+    }
+
+    public Builder setDebugMessage(String debugMessage) {
+      this.debugMessage = debugMessage;
+      return this;
+    }
+
+    public BillingResult build() {
+      BillingResult billingResult = new BillingResult();
+      billingResult.responseCode = responseCode;
+      billingResult.debugMessage = debugMessage;
+      return billingResult;
+    }
+  }
+}
@@ -0,0 +1,451 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import android.app.Activity;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * {@link StubBillingClient} that behaves like a remote Google Play, for load and soak tests.
+ *
+ * <p>Responses are delivered on a single callback thread, standing in for the main thread, after a
+ * latency drawn from the configured {@link LatencyDistribution}. A configurable fraction of requests
+ * fails with injected response codes, and {@link #startPurchaseStream} delivers synthetic purchase
+ * updates at a fixed rate. All randomness comes from one seeded {@link Random}.
+ *
+ * <p>Exceptions thrown by the app's callbacks are counted in {@link Stats#callbackFailures} rather
+ * than lost in the executor, so a soak test can fail on them.
+ */
+public class FakeBillingClient extends StubBillingClient {
+
+  /** Draws the latency of a single response. */
+  public interface LatencyDistribution {
+    /** Returns a latency in microseconds. */
+    long sampleMicros(Random random);
+
+    /** Responses are delivered as soon as the callback thread is free. */
+    static LatencyDistribution none() {
+      return random -> 0;
+    }
+
+    static LatencyDistribution fixed(long micros) {
+      return random -> micros;
+    }
+
+    /** Latencies spread evenly between the bounds, inclusive. */
+    static LatencyDistribution uniform(long minMicros, long maxMicros) {
+      return random -> minMicros + (long) (random.nextDouble() * (maxMicros - minMicros + 1));
+    }
+
+    /**
+     * Log-normal latencies, whose long tail resembles calls to a remote service.
+     *
+     * @param medianMicros The median latency.
+     * @param sigma The standard deviation of the log of the latency. With 0.5, the p99 latency is
+     *     about 3.2 times the median.
+     */
+    static LatencyDistribution logNormal(long medianMicros, double sigma) {
+      return random -> (long) (medianMicros * Math.exp(sigma * random.nextGaussian()));
+    }
+  }
+
+  /** How the fake backend behaves. */
+  public static final class Config {
+    final LatencyDistribution latency;
+    final BillingResult[] errorResults;
+    final double[] errorProbabilities;
+    final double redeliveryProbability;
+    final long seed;
+
+    private Config(Builder builder) {
+      latency = builder.latency;
+      errorResults = new BillingResult[builder.errorResponseCodes.size()];
+      errorProbabilities = new double[builder.errorResponseCodes.size()];
+      for (int i = 0; i < errorResults.length; i++) {
+        errorResults[i] =
+            BillingResult.newBuilder()
+                .setResponseCode(builder.errorResponseCodes.get(i))
+                .setDebugMessage("Injected by FakeBillingClient")
+                .build();
+        errorProbabilities[i] = builder.errorProbabilities.get(i);
+      }
+      redeliveryProbability = builder.redeliveryProbability;
+      seed = builder.seed;
+    }
+
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    /** Builder for {@link Config}. */
+    public static final class Builder {
+      private LatencyDistribution latency = LatencyDistribution.none();
+      private final List<Integer> errorResponseCodes = new ArrayList<>();
+      private final List<Double> errorProbabilities = new ArrayList<>();
+      private double redeliveryProbability;
+      private long seed = 1;
+
+      private Builder() {}
+
+      /** Sets the latency of every response. Defaults to {@link LatencyDistribution#none()}. */
+      public Builder setLatency(LatencyDistribution latency) {
+        this.latency = latency;
+        return this;
+      }
+
+      /**
+       * Makes a fraction of the product details, purchases, billing flow, acknowledge and consume
+       * requests fail with the given response code. The rates of several codes add up. Connection
+       * requests always succeed.
+       */
+      public Builder addErrorRate(int responseCode, double probability) {
+        errorResponseCodes.add(responseCode);
+        errorProbabilities.add(probability);
+        return this;
+      }
+
+      /** Sets the fraction of streamed purchases that repeat a recently delivered purchase. */
+      public Builder setRedeliveryProbability(double redeliveryProbability) {
+        this.redeliveryProbability = redeliveryProbability;
+        return this;
+      }
+
+      public Builder setSeed(long seed) {
+        this.seed = seed;
+        return this;
+      }
+
+      public Config build() {
+        double totalErrorProbability = 0;
+        for (double probability : errorProbabilities) {
+          totalErrorProbability += probability;
+        }
+        if (totalErrorProbability > 1 || redeliveryProbability > 1) {
+          throw new IllegalArgumentException("Probabilities must not exceed 1");
+        }
+        return new Config(this);
+      }
+    }
+  }
+
+  /** Counters of the traffic the fake has served. */
+  public static final class Stats {
+    public final long requests;
+    public final long injectedErrors;
+    public final long purchaseUpdates;
+    public final long newPurchases;
+    public final long redeliveredPurchases;
+    public final long acknowledged;
+    public final long consumed;
+    public final long callbackFailures;
+
+    private Stats(
+        long requests,
+        long injectedErrors,
+        long purchaseUpdates,
+        long newPurchases,
+        long redeliveredPurchases,
+        long acknowledged,
+        long consumed,
+        long callbackFailures) {
+      this.requests = requests;
+      this.injectedErrors = injectedErrors;
+      this.purchaseUpdates = purchaseUpdates;
+      this.newPurchases = newPurchases;
+      this.redeliveredPurchases = redeliveredPurchases;
+      this.acknowledged = acknowledged;
+      this.consumed = consumed;
+      this.callbackFailures = callbackFailures;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{requests="
+          + requests
+          + ", injectedErrors="
+          + injectedErrors
+          + ", purchaseUpdates="
+          + purchaseUpdates
+          + ", newPurchases="
+          + newPurchases
+          + ", redeliveredPurchases="
+          + redeliveredPurchases
+          + ", acknowledged="
+          + acknowledged
+          + ", consumed="
+          + consumed
+          + ", callbackFailures="
+          + callbackFailures
+          + "}";
+    }
+  }
+
+  private static final BillingResult OK =
+      BillingResult.newBuilder().setResponseCode(BillingResponseCode.OK).build();
+  private static final QueryProductDetailsResult EMPTY_PRODUCT_DETAILS_RESULT =
+      new QueryProductDetailsResult(Collections.emptyList(), Collections.emptyList());
+  private static final long STREAM_TICK_MICROS = 1000;
+  // The number of recently delivered purchases that redeliveries are picked from.
+  private static final int RECENT_PURCHASES_CAPACITY = 1024;
+
+  private final Config config;
+  private final Random random;
+  private final ScheduledThreadPoolExecutor callbackThread;
+  private final AtomicLong requests = new AtomicLong();
+  private final AtomicLong injectedErrors = new AtomicLong();
+  private final AtomicLong purchaseUpdates = new AtomicLong();
+  private final AtomicLong newPurchases = new AtomicLong();
+  private final AtomicLong redeliveredPurchases = new AtomicLong();
+  private final AtomicLong acknowledged = new AtomicLong();
+  private final AtomicLong consumed = new AtomicLong();
+  private final AtomicLong callbackFailures = new AtomicLong();
+  private final AtomicReference<Throwable> firstCallbackFailure = new AtomicReference<>();
+  // Only accessed on the callback thread.
+  private final Purchase[] recentPurchases = new Purchase[RECENT_PURCHASES_CAPACITY];
+  private int recentPurchaseCount;
+  private ScheduledFuture<?> purchaseStream;
+
+  /**
+   * @param config How the fake backend behaves.
+   * @param purchasesUpdatedListener The listener that purchase updates are delivered to. In an app
+   *     that builds its client in {@code createBillingClient()}, take it from the client built by
+   *     {@code super.createBillingClient()} with {@link #getPurchasesUpdatedListener()}.
+   */
+  public FakeBillingClient(Config config, PurchasesUpdatedListener purchasesUpdatedListener) {
+    super(purchasesUpdatedListener);
+    this.config = config;
+    random = new Random(config.seed);
+    callbackThread =
+        new ScheduledThreadPoolExecutor(
+            1,
+            runnable -> {
+              Thread thread = new Thread(runnable, "FakeBillingClient callbacks");
+              thread.setDaemon(true);
+              return thread;
+            });
+    // Like Google Play, drop the responses still pending when the connection ends.
+    callbackThread.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+  }
+
+  /**
+   * Starts delivering purchase updates at a fixed rate, replacing any running stream. Each update
+   * holds new purchases of products picked at random, except for the fraction set with {@link
+   * Config.Builder#setRedeliveryProbability}, which repeat recently delivered purchases.
+   *
+   * @param productIds The products to purchase.
+   * @param updatesPerSecond The number of purchase updates per second.
+   * @param purchasesPerUpdate The number of purchases in each update.
+   */
+  public synchronized void startPurchaseStream(
+      List<String> productIds, int updatesPerSecond, int purchasesPerUpdate) {
+    stopPurchaseStream();
+    PurchaseStream stream =
+        new PurchaseStream(new ArrayList<>(productIds), updatesPerSecond, purchasesPerUpdate);
+    purchaseStream =
+        callbackThread.scheduleAtFixedRate(
+            guarded(stream), 0, STREAM_TICK_MICROS, TimeUnit.MICROSECONDS);
+  }
+
+  /** Stops the purchase stream. Updates already delivered are not affected. */
+  public synchronized void stopPurchaseStream() {
+    if (purchaseStream != null) {
+      purchaseStream.cancel(false);
+      purchaseStream = null;
+    }
+  }
+
+  public Stats getStats() {
+    return new Stats(
+        requests.get(),
+        injectedErrors.get(),
+        purchaseUpdates.get(),
+        newPurchases.get(),
+        redeliveredPurchases.get(),
+        acknowledged.get(),
+        consumed.get(),
+        callbackFailures.get());
+  }
+
+  /** Returns the first exception thrown by an app callback, or null if there was none. */
+  public Throwable getFirstCallbackFailure() {
+    return firstCallbackFailure.get();
+  }
+
+  @Override
+  public void startConnection(BillingClientStateListener listener) {
+    requests.incrementAndGet();
+    deliver(() -> super.startConnection(listener));
+  }
+
+  @Override
+  public void endConnection() {
+    stopPurchaseStream();
+    super.endConnection();
+    callbackThread.shutdown();
+  }
+
+  @Override
+  public void queryProductDetailsAsync(
+      QueryProductDetailsParams params, ProductDetailsResponseListener listener) {
+    BillingResult error = sampleError();
+    if (error != null) {
+      deliver(() -> listener.onProductDetailsResponse(error, EMPTY_PRODUCT_DETAILS_RESULT));
+    } else {
+      deliver(() -> super.queryProductDetailsAsync(params, listener));
+    }
+  }
+
+  @Override
+  public void queryPurchasesAsync(QueryPurchasesParams params, PurchasesResponseListener listener) {
+    BillingResult error = sampleError();
+    if (error != null) {
+      deliver(() -> listener.onQueryPurchasesResponse(error, Collections.emptyList()));
+    } else {
+      deliver(() -> super.queryPurchasesAsync(params, listener));
+    }
+  }
+
+  /**
+   * Returns at once, like the real client. Unless an error is injected, the user then completes
+   * the purchase, and a new purchase of the products is delivered to the purchases updated
+   * listener after a sampled latency.
+   */
+  @Override
+  public BillingResult launchBillingFlow(Activity activity, BillingFlowParams params) {
+    BillingResult error = sampleError();
+    if (error != null) {
+      return error;
+    }
+    List<String> productIds = params.getProductIds();
+    deliver(
+        () -> {
+          purchaseUpdates.incrementAndGet();
+          deliverPurchases(OK, Collections.singletonList(newPurchase(productIds)));
+        });
+    return OK;
+  }
+
+  @Override
+  public void acknowledgePurchase(
+      AcknowledgePurchaseParams params, AcknowledgePurchaseResponseListener listener) {
+    BillingResult error = sampleError();
+    if (error != null) {
+      deliver(() -> listener.onAcknowledgePurchaseResponse(error));
+    } else {
+      acknowledged.incrementAndGet();
+      deliver(() -> super.acknowledgePurchase(params, listener));
+    }
+  }
+
+  @Override
+  public void consumeAsync(ConsumeParams params, ConsumeResponseListener listener) {
+    BillingResult error = sampleError();
+    if (error != null) {
+      deliver(() -> listener.onConsumeResponse(error, params.getPurchaseToken()));
+    } else {
+      consumed.incrementAndGet();
+      deliver(() -> super.consumeAsync(params, listener));
+    }
+  }
+
+  /** Counts a request and returns the error injected into it, or null if it goes through. */
+  private BillingResult sampleError() {
+    requests.incrementAndGet();
+    double sample = random.nextDouble();
+    for (int i = 0; i < config.errorResults.length; i++) {
+      sample -= config.errorProbabilities[i];
+      if (sample < 0) {
+        injectedErrors.incrementAndGet();
+        return config.errorResults[i];
+      }
+    }
+    return null;
+  }
+
+  private void deliver(Runnable callback) {
+    long latencyMicros = Math.max(0, config.latency.sampleMicros(random));
+    try {
+      callbackThread.schedule(guarded(callback), latencyMicros, TimeUnit.MICROSECONDS);
+    } catch (RejectedExecutionException e) {
+      // The connection has ended, so the response is dropped.
+    }
+  }
+
+  private Runnable guarded(Runnable callback) {
+    return () -> {
+      try {
+        callback.run();
+      } catch (RuntimeException | Error e) {
+        callbackFailures.incrementAndGet();
+        firstCallbackFailure.compareAndSet(null, e);
+      }
+    };
+  }
+
+  private Purchase newPurchase(List<String> productIds) {
+    long purchaseNumber = newPurchases.incrementAndGet();
+    Purchase purchase =
+        SyntheticBillingData.purchase(
+            productIds, "fake-token-" + purchaseNumber, /* acknowledged= */ false);
+    recentPurchases[(int) ((purchaseNumber - 1) % RECENT_PURCHASES_CAPACITY)] = purchase;
+    recentPurchaseCount = Math.min(recentPurchaseCount + 1, RECENT_PURCHASES_CAPACITY);
+    return purchase;
+  }
+
+  /** Delivers the purchase updates that are due on every tick of the callback thread. */
+  private final class PurchaseStream implements Runnable {
+    private final List<String> productIds;
+    private final int updatesPerSecond;
+    private final int purchasesPerUpdate;
+    private final long startNanos = System.nanoTime();
+    private long updatesDelivered;
+
+    PurchaseStream(List<String> productIds, int updatesPerSecond, int purchasesPerUpdate) {
+      this.productIds = productIds;
+      this.updatesPerSecond = updatesPerSecond;
+      this.purchasesPerUpdate = purchasesPerUpdate;
+    }
+
+    @Override
+    public void run() {
+      // Catch up from the start time rather than the last tick, so a slow listener or a late tick
+      // doesn't lower the rate.
+      long updatesDue = (System.nanoTime() - startNanos) * updatesPerSecond / 1_000_000_000L;
+      for (; updatesDelivered < updatesDue; updatesDelivered++) {
+        List<Purchase> purchases = new ArrayList<>(purchasesPerUpdate);
+        for (int i = 0; i < purchasesPerUpdate; i++) {
+          if (recentPurchaseCount > 0 && random.nextDouble() < config.redeliveryProbability) {
+            redeliveredPurchases.incrementAndGet();
+            purchases.add(recentPurchases[random.nextInt(recentPurchaseCount)]);
+          } else {
+            String productId = productIds.get(random.nextInt(productIds.size()));
+            purchases.add(newPurchase(Collections.singletonList(productId)));
+          }
+        }
+        purchaseUpdates.incrementAndGet();
+        deliverPurchases(OK, purchases);
+      }
+    }
+  }
+}
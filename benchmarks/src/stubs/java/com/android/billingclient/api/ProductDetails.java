@@ -0,0 +1,265 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * JVM stand-in for the Play Billing Library {@code ProductDetails}, parsed from Play's product
+ * details JSON.
+ */
+public final class ProductDetails {
+
+  /** Recurrence modes of a pricing phase. */
+  public @interface RecurrenceMode {
+    int INFINITE_RECURRING = 1;
+    int FINITE_RECURRING = 2;
+    int NON_RECURRING = 3;
+  }
+
+  private final String jsonString;
+  private final String productId;
+  private final String productType;
+  private final String title;
+  private final String name;
+  private final String description;
+  private final List<OneTimePurchaseOfferDetails> oneTimePurchaseOfferDetailsList;
+  private final List<SubscriptionOfferDetails> subscriptionOfferDetails;
+
+  private ProductDetails(String jsonString) throws JSONException {
+    this.jsonString = jsonString;
+    JSONObject parsedJson = new JSONObject(jsonString);
+    productId = parsedJson.getString("productId");
+    productType = parsedJson.getString("type");
+    title = parsedJson.optString("title");
+    name = parsedJson.optString("name");
+    description = parsedJson.optString("description");
+    JSONObject oneTimeOffer = parsedJson.optJSONObject("oneTimePurchaseOfferDetails");
+    if (oneTimeOffer != null) {
+      oneTimePurchaseOfferDetailsList =
+          Collections.singletonList(new OneTimePurchaseOfferDetails(oneTimeOffer));
+    } else {
+      oneTimePurchaseOfferDetailsList = null;
+    }
+    JSONArray subscriptionOffers = parsedJson.optJSONArray("subscriptionOfferDetails");
+    if (subscriptionOffers != null) {
+      List<SubscriptionOfferDetails> offers = new ArrayList<>();
+      for (int i = 0; i < subscriptionOffers.length(); i++) {
+        offers.add(new SubscriptionOfferDetails(subscriptionOffers.getJSONObject(i)));
+      }
+      subscriptionOfferDetails = Collections.unmodifiableList(offers);
+    } else {
+      subscriptionOfferDetails = null;
+    }
+  }
+
+  public static ProductDetails fromJson(String jsonString) throws JSONException {
+    return new ProductDetails(jsonString);
+  }
+
+  public String getProductId() {
+    return productId;
+  }
+
+  public String getProductType() {
+    return productType;
+  }
+
+  public String getTitle() {
+    return title;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public String getDescription() {
+    return description;
+  }
+
+  public OneTimePurchaseOfferDetails getOneTimePurchaseOfferDetails() {
+    return oneTimePurchaseOfferDetailsList == null ? null : oneTimePurchaseOfferDetailsList.get(0);
+  }
+
+  public List<OneTimePurchaseOfferDetails> getOneTimePurchaseOfferDetailsList() {
+    return oneTimePurchaseOfferDetailsList;
+  }
+
+  public List<SubscriptionOfferDetails> getSubscriptionOfferDetails() {
+    return subscriptionOfferDetails;
+  }
+
+  @Override
+  public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
+    if (!(o instanceof ProductDetails)) {
+      return false;
+    }
+    return jsonString.equals(((ProductDetails) o).jsonString);
+  }
+
+  @Override
+  public int hashCode() {
+    return jsonString.hashCode();
+  }
+
+  @Override
+  public String toString() {
+    return "ProductDetails{jsonString='" + jsonString + "', productId='" + productId + "'}";
+  }
+
+  /** The offer of a one-time product. */
+  public static final class OneTimePurchaseOfferDetails {
+    private final String formattedPrice;
+    private final long priceAmountMicros;
+    private final String priceCurrencyCode;
+    private final String offerToken;
+
+    private OneTimePurchaseOfferDetails(JSONObject json) {
+      formattedPrice = json.optString("formattedPrice");
+      priceAmountMicros = json.optLong("priceAmountMicros");
+      priceCurrencyCode = json.optString("priceCurrencyCode");
+      offerToken = json.optString("offerIdToken");
+    }
+
+    public String getFormattedPrice() {
+      return formattedPrice;
+    }
+
+    public long getPriceAmountMicros() {
+      return priceAmountMicros;
+    }
+
+    public String getPriceCurrencyCode() {
+      return priceCurrencyCode;
+    }
+
+    public String getOfferToken() {
+      return offerToken;
+    }
+  }
+
+  /** An offer of a subscription base plan. */
+  public static final class SubscriptionOfferDetails {
+    private final String basePlanId;
+    private final String offerId;
+    private final String offerToken;
+    private final List<String> offerTags;
+    private final PricingPhases pricingPhases;
+
+    private SubscriptionOfferDetails(JSONObject json) throws JSONException {
+      basePlanId = json.getString("basePlanId");
+      String parsedOfferId = json.optString("offerId");
+      offerId = parsedOfferId.isEmpty() ? null : parsedOfferId;
+      offerToken = json.getString("offerIdToken");
+      List<String> tags = new ArrayList<>();
+      JSONArray tagArray = json.optJSONArray("offerTags");
+      if (tagArray != null) {
+        for (int i = 0; i < tagArray.length(); i++) {
+          tags.add(tagArray.getString(i));
+        }
+      }
+      offerTags = Collections.unmodifiableList(tags);
+      pricingPhases = new PricingPhases(json.getJSONArray("pricingPhases"));
+    }
+
+    public String getBasePlanId() {
+      return basePlanId;
+    }
+
+    public String getOfferId() {
+      return offerId;
+    }
+
+    public String getOfferToken() {
+      return offerToken;
+    }
+
+    public List<String> getOfferTags() {
+      return offerTags;
+    }
+
+    public PricingPhases getPricingPhases() {
+      return pricingPhases;
+    }
+  }
+
+  /** The ordered pricing phases of a subscription offer. */
+  public static final class PricingPhases {
+    private final List<PricingPhase> pricingPhaseList;
+
+    private PricingPhases(JSONArray json) throws JSONException {
+      List<PricingPhase> phases = new ArrayList<>();
+      for (int i = 0; i < json.length(); i++) {
+        phases.add(new PricingPhase(json.getJSONObject(i)));
+      }
+      pricingPhaseList = Collections.unmodifiableList(phases);
+    }
+
+    public List<PricingPhase> getPricingPhaseList() {
+      return pricingPhaseList;
+    }
+  }
+
+  /** A single pricing phase of a subscription offer. */
+  public static final class PricingPhase {
+    private final String formattedPrice;
+    private final long priceAmountMicros;
+    private final String priceCurrencyCode;
+    private final String billingPeriod;
+    private final int billingCycleCount;
+    private final int recurrenceMode;
+
+    private PricingPhase(JSONObject json) {
+      formattedPrice = json.optString("formattedPrice");
+      priceAmountMicros = json.optLong("priceAmountMicros");
+      priceCurrencyCode = json.optString("priceCurrencyCode");
+      billingPeriod = json.optString("billingPeriod");
+      billingCycleCount = json.optInt("billingCycleCount");
+      recurrenceMode = json.optInt("recurrenceMode");
+    }
+
+    public String getFormattedPrice() {
+      return formattedPrice;
+    }
+
+    public long getPriceAmountMicros() {
+      return priceAmountMicros;
+    }
+
+    public String getPriceCurrencyCode() {
+      return priceCurrencyCode;
+    }
+
+    public String getBillingPeriod() {
+      return billingPeriod;
+    }
+
+    public int getBillingCycleCount() {
+      return billingCycleCount;
+    }
+
+    public int getRecurrenceMode() {
+      return recurrenceMode;
+    }
+  }
+}
@@ -0,0 +1,109 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/** JVM stand-in for the Play Billing Library {@code Purchase}, parsed from Play's purchase JSON. */
+public class Purchase {
+
+  /** Possible purchase states. */
+  public @interface PurchaseState {
+    int UNSPECIFIED_STATE = 0;
+    int PURCHASED = 1;
+    int PENDING = 2;
+  }
+
+  // The value of the purchaseState field of a pending purchase in Play's purchase JSON.
+  private static final int JSON_PURCHASE_STATE_PENDING = 4;
+
+  private final String originalJson;
+  private final String signature;
+  private final JSONObject parsedJson;
+  private final List<String> products;
+
+  public Purchase(String jsonPurchaseInfo, String signature) throws JSONException {
+    this.originalJson = jsonPurchaseInfo;
+    this.signature = signature;
+    this.parsedJson = new JSONObject(jsonPurchaseInfo);
+    List<String> productIds = new ArrayList<>();
+    JSONArray productIdArray = parsedJson.optJSONArray("productIds");
+    if (productIdArray != null) {
+      for (int i = 0; i < productIdArray.length(); i++) {
+        productIds.add(productIdArray.getString(i));
+      }
+    } else if (parsedJson.has("productId")) {
+      productIds.add(parsedJson.getString("productId"));
+    }
+    this.products = Collections.unmodifiableList(productIds);
+  }
+
+  public List<String> getProducts() {
+    return products;
+  }
+
+  public String getPurchaseToken() {
+    return parsedJson.optString("token", parsedJson.optString("purchaseToken"));
+  }
+
+  public int getPurchaseState() {
+    return parsedJson.optInt("purchaseState", 1) == JSON_PURCHASE_STATE_PENDING
+        ? PurchaseState.PENDING
+        : PurchaseState.PURCHASED;
+  }
+
+  public boolean isAcknowledged() {
+    return parsedJson.optBoolean("acknowledged", true);
+  }
+
+  public boolean isAutoRenewing() {
+    return parsedJson.optBoolean("autoRenewing");
+  }
+
+  public String getOrderId() {
+    String orderId = parsedJson.optString("orderId");
+    return orderId.isEmpty() ? null : orderId;
+  }
+
+  public String getPackageName() {
+    return parsedJson.optString("packageName");
+  }
+
+  public long getPurchaseTime() {
+    return parsedJson.optLong("purchaseTime");
+  }
+
+  public int getQuantity() {
+    return parsedJson.optInt("quantity", 1);
+  }
+
+  public String getOriginalJson() {
+    return originalJson;
+  }
+
+  public String getSignature() {
+    return signature;
+  }
+
+  @Override
+  public String toString() {
+    return "Purchase. Json: " + originalJson;
+  }
+}
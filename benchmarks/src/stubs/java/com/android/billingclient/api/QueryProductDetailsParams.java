@@ -0,0 +1,97 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/** JVM stand-in for the Play Billing Library {@code QueryProductDetailsParams}. */
+public final class QueryProductDetailsParams {
+
+  private final List<Product> productList;
+
+  private QueryProductDetailsParams(List<Product> productList) {
+    this.productList = productList;
+  }
+
+  List<Product> getProductList() {
+    return productList;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Builder for {@link QueryProductDetailsParams}. */
+  public static final class Builder {
+    private List<Product> productList = new ArrayList<>();
+
+    private Builder() {}
+
+    public Builder setProductList(List<Product> productList) {
+      this.productList = new ArrayList<>(productList);
+      return this;
+    }
+
+    public QueryProductDetailsParams build() {
+      return new QueryProductDetailsParams(productList);
+    }
+  }
+
+  /** A product to query. */
+  public static final class Product {
+    private final String productId;
+    private final String productType;
+
+    private Product(String productId, String productType) {
+      this.productId = productId;
+      this.productType = productType;
+    }
+
+    String getProductId() {
+      return productId;
+    }
+
+    String getProductType() {
+      return productType;
+    }
+
+    public static Builder newBuilder() {
+      return new Builder();
+    }
+
+    /** Builder for {@link Product}. */
+    public static final class Builder {
+      private String productId;
+      private String productType;
+
+      private Builder() {}
+
+      public Builder setProductId(String productId) {
+        this.productId = productId;
+        return this;
+      }
+
+      public Builder setProductType(String productType) {
+        this.productType = productType;
+        return this;
+      }
+
+      public Product build() {
+        return new Product(productId, productType);
+      }
+    }
+  }
+}
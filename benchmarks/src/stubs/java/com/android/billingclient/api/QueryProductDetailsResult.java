@@ -0,0 +1,38 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import java.util.List;
+
+/** JVM stand-in for the Play Billing Library {@code QueryProductDetailsResult}. */
+public final class QueryProductDetailsResult {
+
+  private final List<ProductDetails> productDetailsList;
+  private final List<UnfetchedProduct> unfetchedProductList;
+
+  QueryProductDetailsResult(
+      List<ProductDetails> productDetailsList, List<UnfetchedProduct> unfetchedProductList) {
+    this.productDetailsList = productDetailsList;
+    this.unfetchedProductList = unfetchedProductList;
+  }
+
+  public List<ProductDetails> getProductDetailsList() {
+    return productDetailsList;
+  }
+
+  public List<UnfetchedProduct> getUnfetchedProductList() {
+    return unfetchedProductList;
+  }
+}
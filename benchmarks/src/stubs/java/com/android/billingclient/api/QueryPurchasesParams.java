@@ -0,0 +1,49 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+/** JVM stand-in for the Play Billing Library {@code QueryPurchasesParams}. */
+public final class QueryPurchasesParams {
+
+  private final String productType;
+
+  private QueryPurchasesParams(String productType) {
+    this.productType = productType;
+  }
+
+  String getProductType() {
+    return productType;
+  }
+
+  public static Builder newBuilder() {
+    return new Builder();
+  }
+
+  /** Builder for {@link QueryPurchasesParams}. */
+  public static final class Builder {
+    private String productType;
+
+    private Builder() {}
+
+    public Builder setProductType(String productType) {
+      this.productType = productType;
+      return this;
+    }
+
+    public QueryPurchasesParams build() {
+      return new QueryPurchasesParams(productType);
+    }
+  }
+}
@@ -0,0 +1,127 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import android.app.Activity;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * In-memory {@link BillingClient} for benchmarks. Every request succeeds immediately on the calling
+ * thread, product details are served from {@link #setCatalog}, and purchase updates are injected
+ * with {@link #deliverPurchases}.
+ */
+public class StubBillingClient extends BillingClient {
+
+  private static final BillingResult OK =
+      BillingResult.newBuilder().setResponseCode(BillingResponseCode.OK).build();
+
+  private final PurchasesUpdatedListener purchasesUpdatedListener;
+  private volatile Map<String, ProductDetails> catalog = Collections.emptyMap();
+  private volatile List<Purchase> ownedPurchases = Collections.emptyList();
+  private volatile int connectionState = ConnectionState.DISCONNECTED;
+
+  StubBillingClient(PurchasesUpdatedListener purchasesUpdatedListener) {
+    this.purchasesUpdatedListener = purchasesUpdatedListener;
+  }
+
+  /** Sets the products returned by {@link #queryProductDetailsAsync}. */
+  public void setCatalog(List<ProductDetails> productDetailsList) {
+    Map<String, ProductDetails> newCatalog = new HashMap<>();
+    for (ProductDetails productDetails : productDetailsList) {
+      newCatalog.put(productDetails.getProductId(), productDetails);
+    }
+    catalog = newCatalog;
+  }
+
+  /** Sets the purchases returned by {@link #queryPurchasesAsync}, whatever the product type. */
+  public void setOwnedPurchases(List<Purchase> purchases) {
+    ownedPurchases = new ArrayList<>(purchases);
+  }
+
+  /** Returns the listener set on the {@link BillingClient.Builder}. */
+  public PurchasesUpdatedListener getPurchasesUpdatedListener() {
+    return purchasesUpdatedListener;
+  }
+
+  /** Delivers a purchase update to the listener set on the {@link BillingClient.Builder}. */
+  public void deliverPurchases(BillingResult billingResult, List<Purchase> purchases) {
+    purchasesUpdatedListener.onPurchasesUpdated(billingResult, purchases);
+  }
+
+  @Override
+  public void startConnection(BillingClientStateListener listener) {
+    connectionState = ConnectionState.CONNECTED;
+    listener.onBillingSetupFinished(OK);
+  }
+
+  @Override
+  public void endConnection() {
+    connectionState = ConnectionState.CLOSED;
+  }
+
+  @Override
+  public boolean isReady() {
+    return connectionState == ConnectionState.CONNECTED;
+  }
+
+  @Override
+  public int getConnectionState() {
+    return connectionState;
+  }
+
+  @Override
+  public void queryProductDetailsAsync(
+      QueryProductDetailsParams params, ProductDetailsResponseListener listener) {
+    Map<String, ProductDetails> currentCatalog = catalog;
+    List<ProductDetails> productDetailsList = new ArrayList<>();
+    List<UnfetchedProduct> unfetchedProductList = new ArrayList<>();
+    for (QueryProductDetailsParams.Product product : params.getProductList()) {
+      ProductDetails productDetails = currentCatalog.get(product.getProductId());
+      if (productDetails != null) {
+        productDetailsList.add(productDetails);
+      } else {
+        unfetchedProductList.add(
+            new UnfetchedProduct(product.getProductId(), product.getProductType()));
+      }
+    }
+    listener.onProductDetailsResponse(
+        OK, new QueryProductDetailsResult(productDetailsList, unfetchedProductList));
+  }
+
+  @Override
+  public void queryPurchasesAsync(QueryPurchasesParams params, PurchasesResponseListener listener) {
+    listener.onQueryPurchasesResponse(OK, new ArrayList<>(ownedPurchases));
+  }
+
+  @Override
+  public BillingResult launchBillingFlow(Activity activity, BillingFlowParams params) {
+    return OK;
+  }
+
+  @Override
+  public void acknowledgePurchase(
+      AcknowledgePurchaseParams params, AcknowledgePurchaseResponseListener listener) {
+    listener.onAcknowledgePurchaseResponse(OK);
+  }
+
+  @Override
+  public void consumeAsync(ConsumeParams params, ConsumeResponseListener listener) {
+    listener.onConsumeResponse(OK, params.getPurchaseToken());
+  }
+}
@@ -0,0 +1,137 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Synthetic catalogs and purchases for {@link FakeBillingClient}, built through the same JSON that
+ * Google Play returns.
+ */
+public final class SyntheticBillingData {
+
+  private SyntheticBillingData() {}
+
+  /** Returns the ID of the product at the given index of a synthetic catalog. */
+  public static String productId(String productIdPrefix, int index) {
+    return productIdPrefix + "_" + index;
+  }
+
+  /**
+   * Builds one-time products with a single offer each.
+   *
+   * @param productIdPrefix The prefix of the product IDs, see {@link #productId}.
+   * @param productCount The number of products.
+   */
+  public static List<ProductDetails> oneTimeProducts(String productIdPrefix, int productCount) {
+    List<ProductDetails> productDetailsList = new ArrayList<>(productCount);
+    try {
+      for (int i = 0; i < productCount; i++) {
+        JSONObject offer =
+            new JSONObject()
+                .put("formattedPrice", "$0.99")
+                .put("priceAmountMicros", 990000)
+                .put("priceCurrencyCode", "USD")
+                .put("offerIdToken", "offer-token-" + i);
+        JSONObject json =
+            new JSONObject()
+                .put("productId", productId(productIdPrefix, i))
+                .put("type", BillingClient.ProductType.INAPP)
+                .put("title", "Product " + i + " (Sample)")
+                .put("name", "Product " + i)
+                .put("description", "A synthetic one-time product")
+                .put("oneTimePurchaseOfferDetails", offer);
+        productDetailsList.add(ProductDetails.fromJson(json.toString()));
+      }
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+    return productDetailsList;
+  }
+
+  /**
+   * Builds subscriptions with monthly base plans, each with a single pricing phase.
+   *
+   * @param productIdPrefix The prefix of the product IDs, see {@link #productId}.
+   * @param productCount The number of products.
+   * @param basePlansPerProduct The number of base plans of each product, with IDs {@code plan_0},
+   *     {@code plan_1} and so on.
+   */
+  public static List<ProductDetails> subscriptions(
+      String productIdPrefix, int productCount, int basePlansPerProduct) {
+    List<ProductDetails> productDetailsList = new ArrayList<>(productCount);
+    try {
+      for (int i = 0; i < productCount; i++) {
+        JSONArray offers = new JSONArray();
+        for (int plan = 0; plan < basePlansPerProduct; plan++) {
+          JSONObject pricingPhase =
+              new JSONObject()
+                  .put("formattedPrice", "$4.99")
+                  .put("priceAmountMicros", 4990000)
+                  .put("priceCurrencyCode", "USD")
+                  .put("billingPeriod", "P1M")
+                  .put("billingCycleCount", 0)
+                  .put("recurrenceMode", 1);
+          offers.put(
+              new JSONObject()
+                  .put("basePlanId", "plan_" + plan)
+                  .put("offerIdToken", "offer-token-" + i + "-" + plan)
+                  .put("pricingPhases", new JSONArray().put(pricingPhase)));
+        }
+        JSONObject json =
+            new JSONObject()
+                .put("productId", productId(productIdPrefix, i))
+                .put("type", BillingClient.ProductType.SUBS)
+                .put("title", "Subscription " + i + " (Sample)")
+                .put("name", "Subscription " + i)
+                .put("subscriptionOfferDetails", offers);
+        productDetailsList.add(ProductDetails.fromJson(json.toString()));
+      }
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+    return productDetailsList;
+  }
+
+  /**
+   * Builds a purchased purchase of the given products.
+   *
+   * @param productIds The purchased products.
+   * @param purchaseToken The purchase token, which must be unique.
+   * @param acknowledged Whether the purchase is already acknowledged.
+   */
+  public static Purchase purchase(
+      List<String> productIds, String purchaseToken, boolean acknowledged) {
+    try {
+      JSONObject json =
+          new JSONObject()
+              .put("orderId", "GPA." + purchaseToken)
+              .put("packageName", "com.google.play.billing.samples")
+              .put("productIds", new JSONArray(productIds))
+              .put("purchaseTime", System.currentTimeMillis())
+              .put("purchaseState", 0)
+              .put("purchaseToken", purchaseToken)
+              .put("quantity", 1)
+              .put("acknowledged", acknowledged);
+      return new Purchase(json.toString(), "signature");
+    } catch (JSONException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,47 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.android.billingclient.api;
+
+/** JVM stand-in for the Play Billing Library {@code UnfetchedProduct}. */
+public final class UnfetchedProduct {
+
+  /** Why a product was not fetched. */
+  public @interface StatusCode {
+    int UNKNOWN = 0;
+    int INVALID_PRODUCT_ID_FORMAT = 1;
+    int NO_ELIGIBLE_OFFER = 2;
+    int PRODUCT_NOT_FOUND = 3;
+  }
+
+  private final String productId;
+  private final String productType;
+
+  UnfetchedProduct(String productId, String productType) {
+    this.productId = productId;
+    this.productType = productType;
+  }
+
+  public String getProductId() {
+    return productId;
+  }
+
+  public String getProductType() {
+    return productType;
+  }
+
+  public int getStatusCode() {
+    return StatusCode.PRODUCT_NOT_FOUND;
+  }
+}
@@ -24,12 +24,11 @@ import androidx.core.widget.NestedScrollView;
 import com.android.billingclient.api.BillingClient.ProductType;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.ProductDetails;
-import com.android.billingclient.api.QueryProductDetailsParams.Product;
 import com.google.android.gms.oss.licenses.OssLicensesMenuActivity;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.card.MaterialCardView;
-import com.google.play.billing.samples.managedcatalogue.billing.BillingServiceClient;
 import com.google.play.billing.samples.managedcatalogue.billing.BillingServiceClientListener;
+import com.google.play.billing.samples.managedcatalogue.billing.CatalogRepository;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.List;
@@ -43,7 +42,7 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   private static final String UPCOMING_MOVIE_PRODUCT_ID = "upcoming_movie_1";
   private static final String TAG = "BillingServiceClient";
 
-  private BillingServiceClient billingServiceClient;
+  private CatalogRepository catalogRepository;
   private NestedScrollView landingPage;
 
   private TextView trendingMovieTitle, trendingMovieDesc, trendingMoviePrice;
@@ -52,7 +51,6 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   private AtomicBoolean isTrendingProductFound = new AtomicBoolean(false);
   private AtomicBoolean isUpcomingProductFound = new AtomicBoolean(false);
   private String trendingProductName, upcomingProductName;
-  private String trendingProductDescription, upcomingProductDescription;
   private MaterialButton licenseButton, githubButton, codelabButton;
 
   @Override
@@ -72,14 +70,13 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
     upcomingMovieDesc = findViewById(R.id.upcoming_movie_desc);
     upcomingMoviePrice = findViewById(R.id.upcoming_movie_price);
 
-    billingServiceClient = new BillingServiceClient(this, this);
+    catalogRepository = CatalogRepository.getInstance(this);
     trendingMovieCard.setOnClickListener(
         v -> {
           if (isTrendingProductFound.get()) {
             Intent intent = new Intent(MainActivity.this, TrendingMovieActivity.class);
+            // The movie screen reads the product's details from the catalog repository.
             intent.putExtra("productId", TRENDING_MOVIE_PRODUCT_ID);
-            intent.putExtra("productName", trendingProductName);
-            intent.putExtra("productDescription", trendingProductDescription);
             startActivity(intent);
           }
         });
@@ -88,8 +85,6 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
           if (isUpcomingProductFound.get()) {
             Intent intent = new Intent(MainActivity.this, UpcomingMovieActivity.class);
             intent.putExtra("productId", UPCOMING_MOVIE_PRODUCT_ID);
-            intent.putExtra("productName", upcomingProductName);
-            intent.putExtra("productDescription", upcomingProductDescription);
             startActivity(intent);
           }
         });
@@ -118,17 +113,10 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   }
 
   private void queryProducts() {
-    List<Product> productList =
-        List.of(
-            Product.newBuilder()
-                .setProductId(TRENDING_MOVIE_PRODUCT_ID)
-                .setProductType(ProductType.INAPP)
-                .build(),
-            Product.newBuilder()
-                .setProductId(UPCOMING_MOVIE_PRODUCT_ID)
-                .setProductType(ProductType.INAPP)
-                .build());
-    billingServiceClient.startBillingConnection(productList);
+    // Products fetched before, such as ahead of a rotation, are handed over from the cache.
+    catalogRepository.addListener(this);
+    catalogRepository.fetch(
+        List.of(TRENDING_MOVIE_PRODUCT_ID, UPCOMING_MOVIE_PRODUCT_ID), ProductType.INAPP);
   }
 
   @Override
@@ -139,8 +127,6 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
             if (TRENDING_MOVIE_PRODUCT_ID.equals(productDetails.getProductId())) {
               isTrendingProductFound.set(true);
               trendingProductName = productDetails.getName();
-              trendingProductDescription = productDetails.getDescription();
-              trendingProductDescription = trendingProductDescription.replace("\n", "");
               trendingMovieTitle.setText(trendingProductName);
               trendingMovieDesc.setText(R.string.default_movie_desc);
 
@@ -163,10 +149,7 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
             }
             if (UPCOMING_MOVIE_PRODUCT_ID.equals(productDetails.getProductId())) {
               isUpcomingProductFound.set(true);
-              // Setting these to pass in intents
               upcomingProductName = productDetails.getName();
-              upcomingProductDescription = productDetails.getDescription();
-              upcomingProductDescription = upcomingProductDescription.replace("\n", "");
               upcomingMovieTitle.setText(upcomingProductName);
 
               List<ProductDetails.OneTimePurchaseOfferDetails> offerDetailsList =
@@ -224,8 +207,7 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   @Override
   protected void onDestroy() {
     super.onDestroy();
-    if (billingServiceClient != null) {
-      billingServiceClient.endBillingConnection();
-    }
+    // The connection belongs to the app, so other screens keep using it.
+    catalogRepository.removeListener(this);
   }
 }
@@ -23,10 +23,9 @@ import androidx.core.view.WindowCompat;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.ProductDetails;
-import com.android.billingclient.api.QueryProductDetailsParams.Product;
 import com.google.android.material.button.MaterialButton;
-import com.google.play.billing.samples.managedcatalogue.billing.BillingServiceClient;
 import com.google.play.billing.samples.managedcatalogue.billing.BillingServiceClientListener;
+import com.google.play.billing.samples.managedcatalogue.billing.CatalogRepository;
 import java.util.List;
 
 /**
@@ -37,9 +36,9 @@ public class TrendingMovieActivity extends AppCompatActivity implements BillingS
   private static final String TAG = "TrendingMovieActivity";
     private MaterialButton buyButton, rentButton;
     private TextView movieTitleText, movieDesc;
-    private String productId, productName, productDescription;
+    private String productId;
     private String buyOfferToken, buyFormattedPrice, rentOfferToken, rentFormattedPrice;
-    private BillingServiceClient billingServiceClient;
+    private CatalogRepository catalogRepository;
     private ProductDetails currentProductDetails;
 
 
@@ -54,18 +53,21 @@ public class TrendingMovieActivity extends AppCompatActivity implements BillingS
         movieTitleText = findViewById(R.id.movie_title_overlay);
         movieDesc = findViewById(R.id.movie_description_trending);
         productId = getIntent().getStringExtra("productId");
-        productName = getIntent().getStringExtra("productName");
-        productDescription = getIntent().getStringExtra("productDescription");
 
-        billingServiceClient = new BillingServiceClient(this, this);
-        queryProducts();
-
-        movieTitleText.setText(productName);
-        movieDesc.setText(productDescription);
+        catalogRepository = CatalogRepository.getInstance(this);
+        // The main screen fetched the product before opening this one, so it is usually cached.
+        ProductDetails productDetails = catalogRepository.getProductDetails(productId);
+        if (productDetails != null) {
+            showProduct(productDetails);
+        } else {
+            // The process was recreated on this screen, so the product must be fetched again.
+            catalogRepository.addListener(this);
+            catalogRepository.fetch(List.of(productId), BillingClient.ProductType.INAPP);
+        }
 
         buyButton.setOnClickListener(v -> {
             if (currentProductDetails != null && buyOfferToken != null) {
-                billingServiceClient.launchPurchase(this, currentProductDetails, buyOfferToken);
+                catalogRepository.launchPurchase(this, currentProductDetails, buyOfferToken);
             } else {
                 Toast.makeText(this, "Buy option not available.", Toast.LENGTH_SHORT).show();
             }
@@ -73,53 +75,52 @@ public class TrendingMovieActivity extends AppCompatActivity implements BillingS
 
         rentButton.setOnClickListener(v -> {
             if (currentProductDetails != null && rentOfferToken != null) {
-                billingServiceClient.launchPurchase(this, currentProductDetails, rentOfferToken);
+                catalogRepository.launchPurchase(this, currentProductDetails, rentOfferToken);
             } else {
                 Toast.makeText(this, "Rent option not available.", Toast.LENGTH_SHORT).show();
             }
         });
     }
 
-    private void queryProducts() {
-        List<Product> productList = List.of(
-                Product.newBuilder()
-                        .setProductId(productId)
-                        .setProductType(BillingClient.ProductType.INAPP)
-                        .build()
-        );
-        billingServiceClient.startBillingConnection(productList);
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        catalogRepository.removeListener(this);
     }
 
     @Override
     public void onProductDetailsResponse(List<ProductDetails> productDetailsList) {
-        if (productDetailsList != null && !productDetailsList.isEmpty()) {
-            for (ProductDetails productDetails : productDetailsList) {
-                if (productId.equals(productDetails.getProductId())) {
-                    currentProductDetails = productDetails;
-
-                    List<ProductDetails.OneTimePurchaseOfferDetails> offerDetailsList =
-                            productDetails.getOneTimePurchaseOfferDetailsList();
-
-                    if(offerDetailsList == null || offerDetailsList.isEmpty()) {
-                        Log.i(TAG, "Offer details are missing");
-                    }
-
-                    for (ProductDetails.OneTimePurchaseOfferDetails offerDetails : offerDetailsList) {
-                        if (offerDetails.getRentalDetails() != null) {
-                            rentFormattedPrice = offerDetails.getFormattedPrice();
-                            rentOfferToken = offerDetails.getOfferToken();
-                        } else {
-                            buyFormattedPrice = offerDetails.getFormattedPrice();
-                            buyOfferToken = offerDetails.getOfferToken();
-                        }
-                    }
-                    updateUIButtons();
-                    return;
-                }
+        for (ProductDetails productDetails : productDetailsList) {
+            if (productId.equals(productDetails.getProductId())) {
+                runOnUiThread(() -> showProduct(productDetails));
+                return;
+            }
+        }
+    }
+
+    private void showProduct(ProductDetails productDetails) {
+        currentProductDetails = productDetails;
+        movieTitleText.setText(productDetails.getName());
+        movieDesc.setText(productDetails.getDescription().replace("\n", ""));
+
+        List<ProductDetails.OneTimePurchaseOfferDetails> offerDetailsList =
+                productDetails.getOneTimePurchaseOfferDetailsList();
+
+        if (offerDetailsList == null || offerDetailsList.isEmpty()) {
+            Log.i(TAG, "Offer details are missing");
+            return;
+        }
+
+        for (ProductDetails.OneTimePurchaseOfferDetails offerDetails : offerDetailsList) {
+            if (offerDetails.getRentalDetails() != null) {
+                rentFormattedPrice = offerDetails.getFormattedPrice();
+                rentOfferToken = offerDetails.getOfferToken();
+            } else {
+                buyFormattedPrice = offerDetails.getFormattedPrice();
+                buyOfferToken = offerDetails.getOfferToken();
             }
-        } else {
-            Log.e(TAG, "No product details found for " + productId);
         }
+        updateUIButtons();
     }
 
      @Override
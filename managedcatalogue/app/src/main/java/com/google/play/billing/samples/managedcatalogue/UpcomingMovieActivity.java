@@ -23,10 +23,9 @@ import androidx.core.view.WindowCompat;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.ProductDetails;
-import com.android.billingclient.api.QueryProductDetailsParams.Product;
 import com.google.android.material.button.MaterialButton;
-import com.google.play.billing.samples.managedcatalogue.billing.BillingServiceClient;
 import com.google.play.billing.samples.managedcatalogue.billing.BillingServiceClientListener;
+import com.google.play.billing.samples.managedcatalogue.billing.CatalogRepository;
 import java.util.List;
 
 /**
@@ -39,9 +38,9 @@ public class UpcomingMovieActivity extends AppCompatActivity
   private static final String TAG = "UpcomingMovieActivity";
   private MaterialButton preorderButton;
   private TextView movieTitleText, movieDesc;
-  private String productId, productName, productDescription;
+  private String productId;
   private String offerToken, formattedPrice;
-  private BillingServiceClient billingServiceClient;
+  private CatalogRepository catalogRepository;
   private ProductDetails currentProductDetails;
 
   @Override
@@ -54,62 +53,64 @@ public class UpcomingMovieActivity extends AppCompatActivity
     movieTitleText = findViewById(R.id.upcoming_title_overlay);
     movieDesc = findViewById(R.id.upcoming_movie_description);
     productId = getIntent().getStringExtra("productId");
-    productName = getIntent().getStringExtra("productName");
-    productDescription = getIntent().getStringExtra("productDescription");
 
-    billingServiceClient = new BillingServiceClient(this, this);
-    queryProducts();
-
-    movieTitleText.setText(productName);
-    movieDesc.setText(productDescription);
+    catalogRepository = CatalogRepository.getInstance(this);
+    // The main screen fetched the product before opening this one, so it is usually cached.
+    ProductDetails productDetails = catalogRepository.getProductDetails(productId);
+    if (productDetails != null) {
+      showProduct(productDetails);
+    } else {
+      // The process was recreated on this screen, so the product must be fetched again.
+      catalogRepository.addListener(this);
+      catalogRepository.fetch(List.of(productId), BillingClient.ProductType.INAPP);
+    }
 
     preorderButton.setOnClickListener(
         v -> {
           if (currentProductDetails != null && offerToken != null) {
-            billingServiceClient.launchPurchase(this, currentProductDetails, offerToken);
+            catalogRepository.launchPurchase(this, currentProductDetails, offerToken);
           } else {
             Toast.makeText(this, "Preorder option not available.", Toast.LENGTH_SHORT).show();
           }
         });
   }
 
-  private void queryProducts() {
-    List<Product> productList =
-        List.of(
-            Product.newBuilder()
-                .setProductId(productId)
-                .setProductType(BillingClient.ProductType.INAPP)
-                .build());
-    billingServiceClient.startBillingConnection(productList);
+  @Override
+  protected void onDestroy() {
+    super.onDestroy();
+    catalogRepository.removeListener(this);
   }
 
   @Override
   public void onProductDetailsResponse(List<ProductDetails> productDetailsList) {
-    if (productDetailsList != null && !productDetailsList.isEmpty()) {
-      for (ProductDetails productDetails : productDetailsList) {
-        if (productId.equals(productDetails.getProductId())) {
-          currentProductDetails = productDetails;
+    for (ProductDetails productDetails : productDetailsList) {
+      if (productId.equals(productDetails.getProductId())) {
+        runOnUiThread(() -> showProduct(productDetails));
+        return;
+      }
+    }
+  }
 
-          List<ProductDetails.OneTimePurchaseOfferDetails> offerDetailsList =
-              productDetails.getOneTimePurchaseOfferDetailsList();
+  private void showProduct(ProductDetails productDetails) {
+    currentProductDetails = productDetails;
+    movieTitleText.setText(productDetails.getName());
+    movieDesc.setText(productDetails.getDescription().replace("\n", ""));
 
-          if (offerDetailsList == null || offerDetailsList.isEmpty()) {
-            Log.i(TAG, "Offer details are missing");
-          }
+    List<ProductDetails.OneTimePurchaseOfferDetails> offerDetailsList =
+        productDetails.getOneTimePurchaseOfferDetailsList();
 
-          for (ProductDetails.OneTimePurchaseOfferDetails offerDetails : offerDetailsList) {
-            if (offerDetails.getPreorderDetails() != null) {
-              formattedPrice = offerDetails.getFormattedPrice();
-              offerToken = offerDetails.getOfferToken();
-            }
-          }
-          updateUIButtons();
-          return;
-        }
+    if (offerDetailsList == null || offerDetailsList.isEmpty()) {
+      Log.i(TAG, "Offer details are missing");
+      return;
+    }
+
+    for (ProductDetails.OneTimePurchaseOfferDetails offerDetails : offerDetailsList) {
+      if (offerDetails.getPreorderDetails() != null) {
+        formattedPrice = offerDetails.getFormattedPrice();
+        offerToken = offerDetails.getOfferToken();
       }
-    } else {
-      Log.e(TAG, "No product details found for " + productId);
     }
+    updateUIButtons();
   }
 
   @Override
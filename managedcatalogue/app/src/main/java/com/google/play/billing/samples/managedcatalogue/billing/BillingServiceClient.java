@@ -15,9 +15,9 @@
 package com.google.play.billing.samples.managedcatalogue.billing;
 
 import android.app.Activity;
+import android.content.Context;
 import android.util.Log;
 import androidx.annotation.VisibleForTesting;
-import androidx.appcompat.app.AppCompatActivity;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingClient.BillingResponseCode;
 import com.android.billingclient.api.BillingClientStateListener;
@@ -25,10 +25,7 @@ import com.android.billingclient.api.BillingFlowParams;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.PendingPurchasesParams;
 import com.android.billingclient.api.ProductDetails;
-import com.android.billingclient.api.ProductDetailsResponseListener;
-import com.android.billingclient.api.QueryProductDetailsParams;
 import com.android.billingclient.api.QueryProductDetailsParams.Product;
-import com.android.billingclient.api.QueryProductDetailsResult;
 import com.google.common.collect.ImmutableList;
 import java.util.List;
 
@@ -42,11 +39,17 @@ public class BillingServiceClient {
 
   private static final String TAG = "BillingServiceClient";
   private BillingClient billingClient;
-  private final AppCompatActivity activity;
+  private final Context context;
   private final BillingServiceClientListener listener;
+  private final BillingLatencyRecorder latencyRecorder = new BillingLatencyRecorder();
 
-  public BillingServiceClient(AppCompatActivity activity, BillingServiceClientListener listener) {
-    this.activity = activity;
+  /**
+   * @param context The context to bind to Google Play with. Pass the application context when the
+   *     client outlives the screen that creates it, as in {@link CatalogRepository}.
+   * @param listener Receives the product details and errors.
+   */
+  public BillingServiceClient(Context context, BillingServiceClientListener listener) {
+    this.context = context;
     this.listener = listener;
     billingClient = createBillingClient();
   }
@@ -54,10 +57,8 @@ public class BillingServiceClient {
   // Constructor for testing
   @VisibleForTesting
   BillingServiceClient(
-      AppCompatActivity activity,
-      BillingServiceClientListener listener,
-      BillingClient billingClient) {
-    this.activity = activity;
+      Context context, BillingServiceClientListener listener, BillingClient billingClient) {
+    this.context = context;
     this.listener = listener;
     this.billingClient = billingClient;
   }
@@ -70,24 +71,27 @@ public class BillingServiceClient {
    */
   public void startBillingConnection(List<Product> productList) {
     billingClient.startConnection(
-        new BillingClientStateListener() {
-          @Override
-          public void onBillingSetupFinished(BillingResult billingResult) {
-            if (billingResult.getResponseCode() == BillingResponseCode.OK) {
-              Log.d(TAG, "Billing Client Connection Successful");
-              queryProductDetails(productList);
-            } else {
-              Log.e(TAG, "Billing Client Connection Failed: " + billingResult.getDebugMessage());
-              listener.onBillingSetupFailed(billingResult); // Propagate the error to the listener to show a message to the user.
-            }
-          }
+        latencyRecorder.timeConnection(
+            new BillingClientStateListener() {
+              @Override
+              public void onBillingSetupFinished(BillingResult billingResult) {
+                if (billingResult.getResponseCode() == BillingResponseCode.OK) {
+                  Log.d(TAG, "Billing Client Connection Successful");
+                  listener.onBillingSetupFinished();
+                  queryProductDetails(productList);
+                } else {
+                  Log.e(TAG, "Billing Client Connection Failed: " + billingResult.getDebugMessage());
+                  listener.onBillingSetupFailed(billingResult); // Propagate the error to the listener to show a message to the user.
+                }
+              }
 
-          @Override
-          public void onBillingServiceDisconnected() {
-            Log.e(TAG, "Billing Client Connection Lost");
-            listener.onBillingError("Billing Connection Lost");
-          }
-        });
+              @Override
+              public void onBillingServiceDisconnected() {
+                Log.e(TAG, "Billing Client Connection Lost");
+                listener.onBillingServiceDisconnected();
+                listener.onBillingError("Billing Connection Lost");
+              }
+            }));
   }
 
   /**
@@ -108,9 +112,17 @@ public class BillingServiceClient {
     BillingFlowParams billingFlowParams = BillingFlowParams.newBuilder()
         .setProductDetailsParamsList(productDetailsParamsList)
         .build();
-    billingClient.launchBillingFlow(activity, billingFlowParams);
+    long startNanos = BillingLatencyRecorder.startNanos();
+    BillingResult billingResult = billingClient.launchBillingFlow(activity, billingFlowParams);
+    latencyRecorder.record(
+        BillingLatencyRecorder.Operation.LAUNCH_BILLING_FLOW, startNanos, billingResult);
 }
 
+  /** Returns the latency percentiles and response code counts of each Billing Library call. */
+  public List<BillingLatencyRecorder.OperationSnapshot> getLatencySnapshot() {
+    return latencyRecorder.getSnapshot();
+  }
+
   /**
    * Ends the billing connection with Google Play. This method should be called when the app is
    * closed.
@@ -123,7 +135,7 @@ public class BillingServiceClient {
   }
 
   private BillingClient createBillingClient() {
-    return BillingClient.newBuilder(activity)
+    return BillingClient.newBuilder(context)
         .enablePendingPurchases(PendingPurchasesParams.newBuilder().enableOneTimeProducts().build())
         // For one-time products, add a listener to acknowledge the purchases. This will notify
         // Google the purchase was processed.
@@ -136,25 +148,39 @@ public class BillingServiceClient {
         .build();
   }
 
-  private void queryProductDetails(List<Product> productList) {
-    QueryProductDetailsParams queryProductDetailsParams =
-        QueryProductDetailsParams.newBuilder().setProductList(productList).build();
+  /**
+   * Queries the details of products once the connection is established, reporting them through
+   * the listener like the query made on connection.
+   */
+  void queryProductDetails(List<Product> productList) {
+    new ProductDetailsBatchQuery(
+            billingClient,
+            latencyRecorder,
+            ProductDetailsBatchQuery.DEFAULT_BATCH_SIZE,
+            ProductDetailsBatchQuery.DEFAULT_MAX_CONCURRENT_BATCHES,
+            new ProductDetailsBatchQuery.Listener() {
+              @Override
+              public void onBatchFetched(List<ProductDetails> productDetailsList) {
+                listener.onProductDetailsBatchResponse(productDetailsList);
+              }
 
-    billingClient.queryProductDetailsAsync(
-        queryProductDetailsParams,
-        new ProductDetailsResponseListener() {
-          @Override
-          public void onProductDetailsResponse(
-              BillingResult billingResult, QueryProductDetailsResult productDetailsResponse) {
-            if (billingResult.getResponseCode() == BillingResponseCode.OK) {
-              List<ProductDetails> productDetailsList =
-                  productDetailsResponse.getProductDetailsList();
-                listener.onProductDetailsResponse(productDetailsList);
-            } else {
-              Log.e(TAG, "QueryProductDetailsAsync Failed: " + billingResult.getDebugMessage());
-              listener.onBillingError("Query Products Failed: " + billingResult.getResponseCode());
-            }
-          }
-        });
+              @Override
+              public void onComplete(
+                  List<ProductDetails> productDetailsList,
+                  List<String> unavailableProductIds,
+                  BillingResult failure) {
+                if (!unavailableProductIds.isEmpty()) {
+                  Log.w(TAG, "Products not available: " + unavailableProductIds);
+                }
+                if (failure != null) {
+                  Log.e(TAG, "QueryProductDetailsAsync Failed: " + failure.getDebugMessage());
+                  listener.onBillingError("Query Products Failed: " + failure.getResponseCode());
+                }
+                if (failure == null || !productDetailsList.isEmpty()) {
+                  listener.onProductDetailsResponse(productDetailsList);
+                }
+              }
+            })
+        .start(productList);
   }
 }
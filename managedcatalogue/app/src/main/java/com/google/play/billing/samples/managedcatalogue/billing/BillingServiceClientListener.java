@@ -22,6 +22,20 @@ import java.util.List;
 public interface BillingServiceClientListener {
     void onProductDetailsResponse(List<ProductDetails> productDetailsList);
 
+    /**
+     * Called as each batch of a product details query lands, before {@link
+     * #onProductDetailsResponse} reports the whole query.
+     */
+    default void onProductDetailsBatchResponse(List<ProductDetails> productDetailsList) {}
+
+    /** Called once the connection is established, before the products are queried. */
+    default void onBillingSetupFinished() {}
+
+    /**
+     * Called when the connection to Google Play is lost, before {@link #onBillingError} reports it.
+     */
+    default void onBillingServiceDisconnected() {}
+
     void onBillingSetupFailed(BillingResult billingResult);
 
     void onBillingError(String errorMsg);
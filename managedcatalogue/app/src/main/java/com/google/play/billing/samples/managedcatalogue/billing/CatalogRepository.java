@@ -0,0 +1,204 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.managedcatalogue.billing;
+
+import android.app.Activity;
+import android.content.Context;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The product catalog of the app, shared by every screen.
+ *
+ * <p>The repository owns the app's one connection to Google Play, made on the application context
+ * the first time products are fetched, and caches the details of every product it fetched by
+ * product ID. A screen that opens a product reads its details from {@link #getProductDetails}
+ * instead of querying Google Play again.
+ */
+public class CatalogRepository implements BillingServiceClientListener {
+
+  private static CatalogRepository instance;
+
+  private final BillingServiceClient billingServiceClient;
+  private final Map<String, ProductDetails> productDetailsCache = new ConcurrentHashMap<>();
+  private final List<BillingServiceClientListener> listeners = new CopyOnWriteArrayList<>();
+
+  // The fields below are guarded by this.
+  private boolean connectionStarted;
+  private boolean connected;
+  // Products asked for while connecting, queried once the connection is established.
+  private final List<Product> pendingProducts = new ArrayList<>();
+
+  /**
+   * Returns the repository of this process.
+   *
+   * @param context Any context of the app. Only its application context is kept.
+   */
+  public static synchronized CatalogRepository getInstance(Context context) {
+    if (instance == null) {
+      instance = new CatalogRepository(context.getApplicationContext());
+    }
+    return instance;
+  }
+
+  CatalogRepository(Context applicationContext) {
+    billingServiceClient = createBillingServiceClient(applicationContext);
+  }
+
+  protected BillingServiceClient createBillingServiceClient(Context applicationContext) {
+    return new BillingServiceClient(applicationContext, this);
+  }
+
+  /**
+   * Returns the cached details of a product, or null if they were not fetched. Safe to call from
+   * any thread.
+   */
+  public ProductDetails getProductDetails(String productId) {
+    return productDetailsCache.get(productId);
+  }
+
+  /**
+   * Fetches the details of the products that are not cached yet, connecting to Google Play on the
+   * first call. Listeners are told of them through {@link
+   * BillingServiceClientListener#onProductDetailsResponse}.
+   *
+   * @param productIds The IDs of the products to fetch.
+   * @param productType The type of the products, such as {@code ProductType.INAPP}.
+   */
+  public void fetch(Collection<String> productIds, String productType) {
+    List<Product> missingProducts = new ArrayList<>();
+    for (String productId : productIds) {
+      if (!productDetailsCache.containsKey(productId)) {
+        missingProducts.add(
+            Product.newBuilder().setProductId(productId).setProductType(productType).build());
+      }
+    }
+    if (missingProducts.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      if (!connectionStarted) {
+        connectionStarted = true;
+        billingServiceClient.startBillingConnection(missingProducts);
+        return;
+      }
+      if (!connected) {
+        pendingProducts.addAll(missingProducts);
+        return;
+      }
+    }
+    billingServiceClient.queryProductDetails(missingProducts);
+  }
+
+  /**
+   * Adds a listener for the responses of later fetches and for billing errors. A listener added
+   * after products were cached is handed them at once, on the calling thread.
+   */
+  public void addListener(BillingServiceClientListener listener) {
+    listeners.add(listener);
+    if (!productDetailsCache.isEmpty()) {
+      listener.onProductDetailsResponse(new ArrayList<>(productDetailsCache.values()));
+    }
+  }
+
+  public void removeListener(BillingServiceClientListener listener) {
+    listeners.remove(listener);
+  }
+
+  /** Launches the billing flow for a product over the shared connection. */
+  public void launchPurchase(Activity activity, ProductDetails productDetails, String offerToken) {
+    billingServiceClient.launchPurchase(activity, productDetails, offerToken);
+  }
+
+  /** Returns the latency percentiles and response code counts of each Billing Library call. */
+  public List<BillingLatencyRecorder.OperationSnapshot> getLatencySnapshot() {
+    return billingServiceClient.getLatencySnapshot();
+  }
+
+  @Override
+  public void onBillingSetupFinished() {
+    List<Product> productsToQuery;
+    synchronized (this) {
+      connected = true;
+      productsToQuery = new ArrayList<>(pendingProducts);
+      pendingProducts.clear();
+    }
+    if (!productsToQuery.isEmpty()) {
+      billingServiceClient.queryProductDetails(productsToQuery);
+    }
+    for (BillingServiceClientListener listener : listeners) {
+      listener.onBillingSetupFinished();
+    }
+  }
+
+  @Override
+  public void onProductDetailsBatchResponse(List<ProductDetails> productDetailsList) {
+    // Cached as each batch lands, so a screen opened mid-query already finds its product.
+    for (ProductDetails productDetails : productDetailsList) {
+      productDetailsCache.put(productDetails.getProductId(), productDetails);
+    }
+    for (BillingServiceClientListener listener : listeners) {
+      listener.onProductDetailsBatchResponse(productDetailsList);
+    }
+  }
+
+  @Override
+  public void onProductDetailsResponse(List<ProductDetails> productDetailsList) {
+    for (ProductDetails productDetails : productDetailsList) {
+      productDetailsCache.put(productDetails.getProductId(), productDetails);
+    }
+    for (BillingServiceClientListener listener : listeners) {
+      listener.onProductDetailsResponse(productDetailsList);
+    }
+  }
+
+  @Override
+  public void onBillingSetupFailed(BillingResult billingResult) {
+    synchronized (this) {
+      // The next fetch connects again.
+      connectionStarted = false;
+      pendingProducts.clear();
+    }
+    for (BillingServiceClientListener listener : listeners) {
+      listener.onBillingSetupFailed(billingResult);
+    }
+  }
+
+  @Override
+  public void onBillingServiceDisconnected() {
+    synchronized (this) {
+      // The next fetch connects again instead of querying over the lost connection.
+      connectionStarted = false;
+      connected = false;
+    }
+    for (BillingServiceClientListener listener : listeners) {
+      listener.onBillingServiceDisconnected();
+    }
+  }
+
+  @Override
+  public void onBillingError(String errorMsg) {
+    for (BillingServiceClientListener listener : listeners) {
+      listener.onBillingError(errorMsg);
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.managedcatalogue.billing;
+
+import android.util.Log;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.QueryProductDetailsParams;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import com.android.billingclient.api.QueryProductDetailsResult;
+import com.android.billingclient.api.UnfetchedProduct;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+
+/**
+ * Queries product details in fixed-size batches, with a bounded number of batches in flight.
+ *
+ * <p>Each batch is reported as soon as it lands. Batches that failed, and products that Google Play
+ * did not return for an unknown reason, are collected and queried once more after all other
+ * batches finish. Products that Google Play reported as not found, malformed or without an
+ * eligible offer are not retried; their IDs are reported on completion instead.
+ */
+final class ProductDetailsBatchQuery {
+
+  /** Receives the results of a batched query. */
+  interface Listener {
+    /** Called for every batch that returns, including the batches of the retry pass. */
+    void onBatchFetched(List<ProductDetails> productDetailsList);
+
+    /**
+     * Called once after the retry pass.
+     *
+     * @param productDetailsList All the product details fetched by this query.
+     * @param unavailableProductIds The IDs of the products that Google Play reported as
+     *     unavailable. These are final and were not retried.
+     * @param failure The result of the last failed batch, or null if every batch succeeded.
+     */
+    void onComplete(
+        List<ProductDetails> productDetailsList,
+        List<String> unavailableProductIds,
+        BillingResult failure);
+  }
+
+  private static final String TAG = "ProductDetailsBatchQuery";
+  static final int DEFAULT_BATCH_SIZE = 20;
+  static final int DEFAULT_MAX_CONCURRENT_BATCHES = 2;
+
+  private final BillingClient billingClient;
+  private final BillingLatencyRecorder latencyRecorder;
+  private final int batchSize;
+  private final int maxConcurrentBatches;
+  private final Listener listener;
+
+  // The fields below are guarded by this.
+  private final Deque<List<Product>> pendingBatches = new ArrayDeque<>();
+  private final List<Product> retryProducts = new ArrayList<>();
+  private final List<ProductDetails> fetchedProductDetails = new ArrayList<>();
+  private final List<String> unavailableProductIds = new ArrayList<>();
+  private BillingResult failure;
+  private int batchesInFlight;
+  private boolean isRetryPass;
+  // Set by the one dispatch that reports completion, so racing responses cannot report it twice.
+  private boolean completed;
+
+  /**
+   * @param billingClient The connected client to query.
+   * @param latencyRecorder Records the latency of every query.
+   * @param batchSize The maximum number of products per query.
+   * @param maxConcurrentBatches The maximum number of queries in flight at any time.
+   * @param listener The listener to receive the results.
+   * @throws IllegalArgumentException If {@code batchSize} or {@code maxConcurrentBatches} is not
+   *     positive.
+   */
+  ProductDetailsBatchQuery(
+      BillingClient billingClient,
+      BillingLatencyRecorder latencyRecorder,
+      int batchSize,
+      int maxConcurrentBatches,
+      Listener listener) {
+    if (batchSize <= 0) {
+      throw new IllegalArgumentException("batchSize must be positive: " + batchSize);
+    }
+    if (maxConcurrentBatches <= 0) {
+      throw new IllegalArgumentException(
+          "maxConcurrentBatches must be positive: " + maxConcurrentBatches);
+    }
+    this.billingClient = billingClient;
+    this.latencyRecorder = latencyRecorder;
+    this.batchSize = batchSize;
+    this.maxConcurrentBatches = maxConcurrentBatches;
+    this.listener = listener;
+  }
+
+  /**
+   * Starts querying the given products. Must be called at most once.
+   *
+   * @param productList The products to query.
+   */
+  void start(List<Product> productList) {
+    synchronized (this) {
+      enqueueBatches(productList);
+    }
+    dispatch();
+  }
+
+  private void enqueueBatches(List<Product> productList) {
+    for (int start = 0; start < productList.size(); start += batchSize) {
+      pendingBatches.addLast(
+          new ArrayList<>(
+              productList.subList(start, Math.min(start + batchSize, productList.size()))));
+    }
+  }
+
+  private void dispatch() {
+    List<List<Product>> batchesToStart = new ArrayList<>();
+    boolean complete = false;
+    synchronized (this) {
+      while (batchesInFlight < maxConcurrentBatches && !pendingBatches.isEmpty()) {
+        batchesToStart.add(pendingBatches.pollFirst());
+        batchesInFlight++;
+      }
+      if (batchesInFlight == 0 && pendingBatches.isEmpty()) {
+        if (!isRetryPass && !retryProducts.isEmpty()) {
+          Log.i(TAG, "Retrying " + retryProducts.size() + " products");
+          isRetryPass = true;
+          failure = null;
+          enqueueBatches(retryProducts);
+          retryProducts.clear();
+          while (batchesInFlight < maxConcurrentBatches && !pendingBatches.isEmpty()) {
+            batchesToStart.add(pendingBatches.pollFirst());
+            batchesInFlight++;
+          }
+        } else if (!completed) {
+          completed = true;
+          complete = true;
+        }
+      }
+    }
+    if (complete) {
+      listener.onComplete(fetchedProductDetails, unavailableProductIds, failure);
+      return;
+    }
+    for (List<Product> batch : batchesToStart) {
+      queryBatch(batch);
+    }
+  }
+
+  private void queryBatch(List<Product> batch) {
+    QueryProductDetailsParams queryProductDetailsParams =
+        QueryProductDetailsParams.newBuilder().setProductList(batch).build();
+    billingClient.queryProductDetailsAsync(
+        queryProductDetailsParams,
+        latencyRecorder.timeProductDetailsQuery(
+            (billingResult, productDetailsResponse) ->
+                onBatchResponse(batch, billingResult, productDetailsResponse)));
+  }
+
+  private void onBatchResponse(
+      List<Product> batch,
+      BillingResult billingResult,
+      QueryProductDetailsResult productDetailsResponse) {
+    boolean isOk = billingResult.getResponseCode() == BillingResponseCode.OK;
+    List<ProductDetails> productDetailsList =
+        isOk ? productDetailsResponse.getProductDetailsList() : null;
+    synchronized (this) {
+      batchesInFlight--;
+      if (!isOk) {
+        Log.e(TAG, "Product details batch failed: " + billingResult.getResponseCode());
+        failure = billingResult;
+        retryProducts.addAll(batch);
+      } else {
+        fetchedProductDetails.addAll(productDetailsList);
+        for (UnfetchedProduct unfetchedProduct : productDetailsResponse.getUnfetchedProductList()) {
+          if (!isTransient(unfetchedProduct)) {
+            unavailableProductIds.add(unfetchedProduct.getProductId());
+            continue;
+          }
+          retryProducts.add(
+              Product.newBuilder()
+                  .setProductId(unfetchedProduct.getProductId())
+                  .setProductType(unfetchedProduct.getProductType())
+                  .build());
+        }
+      }
+    }
+    if (isOk) {
+      listener.onBatchFetched(productDetailsList);
+    }
+    dispatch();
+  }
+
+  /**
+   * Returns whether querying the product again may return it. Only an unknown status is
+   * transient; the other statuses describe the product itself and do not change on retry.
+   */
+  private static boolean isTransient(UnfetchedProduct unfetchedProduct) {
+    return unfetchedProduct.getStatusCode() == UnfetchedProduct.StatusCode.UNKNOWN;
+  }
+}
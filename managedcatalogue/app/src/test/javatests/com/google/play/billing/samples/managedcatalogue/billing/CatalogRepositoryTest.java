@@ -0,0 +1,161 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.managedcatalogue.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClient.ProductType;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.QueryProductDetailsParams;
+import com.android.billingclient.api.QueryProductDetailsResult;
+import com.google.common.collect.ImmutableList;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.ArgumentCaptor;
+import org.mockito.Captor;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.stubbing.Answer;
+
+/** Unit tests for {@link CatalogRepository}. */
+@RunWith(AndroidJUnit4.class)
+public class CatalogRepositoryTest {
+  @Rule public final MockitoRule mockito = MockitoJUnit.rule();
+
+  @Mock private BillingClient mockPblBillingClient;
+  @Mock private BillingServiceClientListener mockListener;
+  @Mock private Context mockContext;
+
+  @Captor private ArgumentCaptor<BillingClientStateListener> billingClientStateListenerCaptor;
+
+  private CatalogRepository catalogRepository;
+
+  private static final String TEST_PRODUCT_ID = "test_movie";
+  private static final String OTHER_PRODUCT_ID = "other_movie";
+  private static final BillingResult BILLING_RESULT_OK =
+      BillingResult.newBuilder().setResponseCode(BillingResponseCode.OK).build();
+
+  @Before
+  public void setUp() throws JSONException {
+    ProductDetails productDetails =
+        ProductDetails.fromJson(
+            "{\"productId\":\"" + TEST_PRODUCT_ID + "\",\"type\":\"inapp\"}");
+    QueryProductDetailsResult queryResult = mock(QueryProductDetailsResult.class);
+    when(queryResult.getProductDetailsList()).thenReturn(ImmutableList.of(productDetails));
+    doAnswer(
+            (Answer<Void>)
+                invocation -> {
+                  ProductDetailsResponseListener listener = invocation.getArgument(1);
+                  listener.onProductDetailsResponse(BILLING_RESULT_OK, queryResult);
+                  return null;
+                })
+        .when(mockPblBillingClient)
+        .queryProductDetailsAsync(
+            any(QueryProductDetailsParams.class), any(ProductDetailsResponseListener.class));
+
+    catalogRepository =
+        new CatalogRepository(mockContext) {
+          @Override
+          protected BillingServiceClient createBillingServiceClient(Context applicationContext) {
+            return new BillingServiceClient(applicationContext, this, mockPblBillingClient);
+          }
+        };
+  }
+
+  private void finishSetup() {
+    verify(mockPblBillingClient).startConnection(billingClientStateListenerCaptor.capture());
+    billingClientStateListenerCaptor.getValue().onBillingSetupFinished(BILLING_RESULT_OK);
+  }
+
+  @Test
+  public void fetch_cachesProductDetails() {
+    assertNull(catalogRepository.getProductDetails(TEST_PRODUCT_ID));
+
+    catalogRepository.fetch(ImmutableList.of(TEST_PRODUCT_ID), ProductType.INAPP);
+    finishSetup();
+
+    assertEquals(
+        TEST_PRODUCT_ID, catalogRepository.getProductDetails(TEST_PRODUCT_ID).getProductId());
+  }
+
+  @Test
+  public void fetch_cachedProduct_doesNotQueryAgain() {
+    catalogRepository.fetch(ImmutableList.of(TEST_PRODUCT_ID), ProductType.INAPP);
+    finishSetup();
+
+    catalogRepository.fetch(ImmutableList.of(TEST_PRODUCT_ID), ProductType.INAPP);
+
+    verify(mockPblBillingClient).startConnection(any(BillingClientStateListener.class));
+    verify(mockPblBillingClient).queryProductDetailsAsync(any(), any());
+  }
+
+  @Test
+  public void fetch_whileConnecting_queriesOnceConnected() {
+    catalogRepository.fetch(ImmutableList.of(TEST_PRODUCT_ID), ProductType.INAPP);
+    catalogRepository.fetch(ImmutableList.of(OTHER_PRODUCT_ID), ProductType.INAPP);
+
+    verify(mockPblBillingClient, never()).queryProductDetailsAsync(any(), any());
+    finishSetup();
+
+    verify(mockPblBillingClient).startConnection(any(BillingClientStateListener.class));
+    verify(mockPblBillingClient, times(2)).queryProductDetailsAsync(any(), any());
+  }
+
+  @Test
+  public void fetch_afterDisconnect_connectsAgain() {
+    catalogRepository.fetch(ImmutableList.of(TEST_PRODUCT_ID), ProductType.INAPP);
+    finishSetup();
+    catalogRepository.addListener(mockListener);
+
+    billingClientStateListenerCaptor.getValue().onBillingServiceDisconnected();
+    catalogRepository.fetch(ImmutableList.of(OTHER_PRODUCT_ID), ProductType.INAPP);
+
+    verify(mockListener).onBillingServiceDisconnected();
+    verify(mockListener).onBillingError(any());
+    verify(mockPblBillingClient, times(2)).startConnection(any(BillingClientStateListener.class));
+    verify(mockPblBillingClient).queryProductDetailsAsync(any(), any());
+  }
+
+  @Test
+  public void addListener_handsOverCachedProducts() {
+    catalogRepository.fetch(ImmutableList.of(TEST_PRODUCT_ID), ProductType.INAPP);
+    finishSetup();
+
+    catalogRepository.addListener(mockListener);
+
+    verify(mockListener)
+        .onProductDetailsResponse(
+            ImmutableList.of(catalogRepository.getProductDetails(TEST_PRODUCT_ID)));
+  }
+}
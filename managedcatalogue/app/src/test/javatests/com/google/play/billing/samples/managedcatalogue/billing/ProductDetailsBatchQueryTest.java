@@ -0,0 +1,320 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.managedcatalogue.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.lenient;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClient.ProductType;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.QueryProductDetailsParams;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import com.android.billingclient.api.QueryProductDetailsResult;
+import com.android.billingclient.api.UnfetchedProduct;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.mockito.Mock;
+import org.mockito.junit.MockitoJUnit;
+import org.mockito.junit.MockitoRule;
+import org.mockito.stubbing.Answer;
+
+/** Unit tests for {@link ProductDetailsBatchQuery} */
+@RunWith(AndroidJUnit4.class)
+public class ProductDetailsBatchQueryTest {
+  @Rule public final MockitoRule mockito = MockitoJUnit.rule();
+
+  @Mock private BillingClient mockBillingClient;
+
+  /** Records every callback it receives. */
+  private static final class RecordingListener implements ProductDetailsBatchQuery.Listener {
+    private final AtomicInteger batchCount = new AtomicInteger();
+    private final AtomicInteger completeCount = new AtomicInteger();
+    private volatile List<ProductDetails> productDetailsList;
+    private volatile List<String> unavailableProductIds;
+    private volatile BillingResult failure;
+
+    @Override
+    public void onBatchFetched(List<ProductDetails> productDetailsList) {
+      batchCount.incrementAndGet();
+    }
+
+    @Override
+    public void onComplete(
+        List<ProductDetails> productDetailsList,
+        List<String> unavailableProductIds,
+        BillingResult failure) {
+      completeCount.incrementAndGet();
+      this.productDetailsList = new ArrayList<>(productDetailsList);
+      this.unavailableProductIds = new ArrayList<>(unavailableProductIds);
+      this.failure = failure;
+    }
+  }
+
+  // The queries started on the mocked client, in order. The test answers them.
+  private final List<ProductDetailsResponseListener> startedQueries =
+      Collections.synchronizedList(new ArrayList<>());
+  private final RecordingListener listener = new RecordingListener();
+
+  @Before
+  public void setUp() {
+    doAnswer(
+            (Answer<Void>)
+                invocation -> {
+                  startedQueries.add(invocation.getArgument(1));
+                  return null;
+                })
+        .when(mockBillingClient)
+        .queryProductDetailsAsync(
+            any(QueryProductDetailsParams.class), any(ProductDetailsResponseListener.class));
+  }
+
+  private ProductDetailsBatchQuery newQuery(int batchSize, int maxConcurrentBatches) {
+    return new ProductDetailsBatchQuery(
+        mockBillingClient,
+        new BillingLatencyRecorder(),
+        batchSize,
+        maxConcurrentBatches,
+        listener);
+  }
+
+  private static List<Product> products(int count) {
+    List<Product> products = new ArrayList<>();
+    for (int i = 0; i < count; i++) {
+      products.add(
+          Product.newBuilder()
+              .setProductId("product_" + i)
+              .setProductType(ProductType.INAPP)
+              .build());
+    }
+    return products;
+  }
+
+  private static ProductDetails productDetails(String productId) {
+    try {
+      return ProductDetails.fromJson("{\"productId\":\"" + productId + "\",\"type\":\"inapp\"}");
+    } catch (JSONException e) {
+      throw new AssertionError(e);
+    }
+  }
+
+  private static UnfetchedProduct unfetchedProduct(String productId, int statusCode) {
+    UnfetchedProduct unfetchedProduct = mock(UnfetchedProduct.class);
+    when(unfetchedProduct.getProductId()).thenReturn(productId);
+    // Only read when the product is retried.
+    lenient().when(unfetchedProduct.getProductType()).thenReturn(ProductType.INAPP);
+    when(unfetchedProduct.getStatusCode()).thenReturn(statusCode);
+    return unfetchedProduct;
+  }
+
+  private static BillingResult result(int responseCode) {
+    return BillingResult.newBuilder().setResponseCode(responseCode).build();
+  }
+
+  /** Answers the query at {@code index} with the given products. */
+  private void respond(
+      int index, List<ProductDetails> productDetailsList, List<UnfetchedProduct> unfetched) {
+    QueryProductDetailsResult queryResult = mock(QueryProductDetailsResult.class);
+    when(queryResult.getProductDetailsList()).thenReturn(productDetailsList);
+    when(queryResult.getUnfetchedProductList()).thenReturn(unfetched);
+    startedQueries
+        .get(index)
+        .onProductDetailsResponse(result(BillingResponseCode.OK), queryResult);
+  }
+
+  private void respondOk(int index, String productId) {
+    respond(index, ImmutableList.of(productDetails(productId)), ImmutableList.of());
+  }
+
+  private void fail(int index, BillingResult billingResult) {
+    startedQueries.get(index).onProductDetailsResponse(billingResult, null);
+  }
+
+  @Test
+  public void testStart_splitsProductsIntoBatches() {
+    newQuery(2, 10).start(products(5));
+
+    assertEquals(3, startedQueries.size());
+    respond(
+        0,
+        ImmutableList.of(productDetails("product_0"), productDetails("product_1")),
+        ImmutableList.of());
+    respond(
+        1,
+        ImmutableList.of(productDetails("product_2"), productDetails("product_3")),
+        ImmutableList.of());
+    respondOk(2, "product_4");
+
+    assertEquals(3, listener.batchCount.get());
+    assertEquals(1, listener.completeCount.get());
+    assertEquals(5, listener.productDetailsList.size());
+    assertTrue(listener.unavailableProductIds.isEmpty());
+    assertNull(listener.failure);
+  }
+
+  @Test
+  public void testStart_capsBatchesInFlight() {
+    newQuery(1, 2).start(products(4));
+
+    assertEquals(2, startedQueries.size());
+    respondOk(0, "product_0");
+    assertEquals(3, startedQueries.size());
+    respondOk(1, "product_1");
+    assertEquals(4, startedQueries.size());
+    respondOk(2, "product_2");
+    respondOk(3, "product_3");
+
+    assertEquals(4, startedQueries.size());
+    assertEquals(1, listener.completeCount.get());
+    assertEquals(4, listener.productDetailsList.size());
+  }
+
+  @Test
+  public void testFailedBatch_isRetriedAfterOtherBatches() {
+    newQuery(1, 2).start(products(2));
+
+    fail(0, result(BillingResponseCode.SERVICE_UNAVAILABLE));
+    assertEquals(2, startedQueries.size());
+    respondOk(1, "product_1");
+    assertEquals(3, startedQueries.size());
+    respondOk(2, "product_0");
+
+    assertEquals(1, listener.completeCount.get());
+    assertEquals(2, listener.productDetailsList.size());
+    assertNull(listener.failure);
+  }
+
+  @Test
+  public void testFailedRetry_reportsFailureWithoutRetryingAgain() {
+    newQuery(1, 1).start(products(1));
+    BillingResult failure = result(BillingResponseCode.SERVICE_UNAVAILABLE);
+
+    fail(0, failure);
+    fail(1, failure);
+
+    assertEquals(2, startedQueries.size());
+    assertEquals(1, listener.completeCount.get());
+    assertTrue(listener.productDetailsList.isEmpty());
+    assertSame(failure, listener.failure);
+  }
+
+  @Test
+  public void testUnfetchedProductWithUnknownStatus_isRetried() {
+    newQuery(2, 1).start(products(2));
+
+    respond(
+        0,
+        ImmutableList.of(productDetails("product_0")),
+        ImmutableList.of(unfetchedProduct("product_1", UnfetchedProduct.StatusCode.UNKNOWN)));
+    assertEquals(2, startedQueries.size());
+    respondOk(1, "product_1");
+
+    assertEquals(1, listener.completeCount.get());
+    assertEquals(2, listener.productDetailsList.size());
+    assertTrue(listener.unavailableProductIds.isEmpty());
+  }
+
+  @Test
+  public void testUnfetchedProductNotFound_isReportedAndNotRetried() {
+    newQuery(3, 1).start(products(3));
+
+    respond(
+        0,
+        ImmutableList.of(productDetails("product_0")),
+        ImmutableList.of(
+            unfetchedProduct("product_1", UnfetchedProduct.StatusCode.PRODUCT_NOT_FOUND),
+            unfetchedProduct("product_2", UnfetchedProduct.StatusCode.NO_ELIGIBLE_OFFER)));
+
+    assertEquals(1, startedQueries.size());
+    assertEquals(1, listener.completeCount.get());
+    assertEquals(1, listener.productDetailsList.size());
+    assertEquals(ImmutableList.of("product_1", "product_2"), listener.unavailableProductIds);
+    assertNull(listener.failure);
+  }
+
+  @Test
+  public void testResponsesOnDifferentThreads_completeOnce() throws InterruptedException {
+    int batchCount = 16;
+    newQuery(1, batchCount).start(products(batchCount));
+    assertEquals(batchCount, startedQueries.size());
+
+    CountDownLatch startSignal = new CountDownLatch(1);
+    List<Thread> threads = new ArrayList<>();
+    for (int i = 0; i < batchCount; i++) {
+      int index = i;
+      Thread thread =
+          new Thread(
+              () -> {
+                try {
+                  startSignal.await();
+                } catch (InterruptedException e) {
+                  Thread.currentThread().interrupt();
+                  return;
+                }
+                respondOk(index, "product_" + index);
+              });
+      thread.start();
+      threads.add(thread);
+    }
+    startSignal.countDown();
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertEquals(batchCount, startedQueries.size());
+    assertEquals(batchCount, listener.batchCount.get());
+    assertEquals(1, listener.completeCount.get());
+    assertEquals(batchCount, listener.productDetailsList.size());
+  }
+
+  @Test
+  public void testEmptyProductList_completesWithoutQuerying() {
+    newQuery(2, 2).start(ImmutableList.of());
+
+    assertTrue(startedQueries.isEmpty());
+    assertEquals(1, listener.completeCount.get());
+    assertTrue(listener.productDetailsList.isEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_zeroBatchSize_throws() {
+    newQuery(0, 2);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_zeroMaxConcurrentBatches_throws() {
+    newQuery(2, 0);
+  }
+}
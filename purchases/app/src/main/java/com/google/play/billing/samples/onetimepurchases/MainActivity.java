@@ -17,8 +17,8 @@ package com.google.play.billing.samples.onetimepurchases;
 import android.content.Intent;
 import android.net.Uri;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
-import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
 import androidx.constraintlayout.motion.widget.MotionLayout;
 import androidx.constraintlayout.widget.ConstraintSet;
@@ -33,17 +33,20 @@ import com.android.billingclient.api.QueryProductDetailsParams.Product;
 import com.google.android.gms.oss.licenses.OssLicensesMenuActivity;
 import com.google.android.material.button.MaterialButton;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
-import com.google.android.material.imageview.ShapeableImageView;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.play.billing.samples.onetimepurchases.billing.BillingServiceClient;
 import com.google.play.billing.samples.onetimepurchases.billing.BillingServiceClientListener;
+import com.google.play.billing.samples.onetimepurchases.billing.ProductClassRegistry;
+import com.google.play.billing.samples.onetimepurchases.billing.ProductClassRegistry.ProductClass;
 import java.util.Map;
-import java.util.Objects;
 
 /** This is the main activity class */
 public class MainActivity extends AppCompatActivity implements BillingServiceClientListener {
 
+  private static final String TAG = "MainActivity";
   private BillingServiceClient billingServiceClient;
+  private ProductCardRegistry productCardRegistry;
   private static final String ONE_TIME_PRODUCT_01 = "one_time_product_01";
   private static final String CONSUMABLE_PRODUCT_01 = "consumable_product_01";
   private static final String CONSUMABLE_PRODUCT_02 = "consumable_product_02";
@@ -68,6 +71,35 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
               .setProductType(ProductType.INAPP)
               .build());
 
+  // How each product is handled once purchased. In a production app this would typically come
+  // from your backend or remote config rather than being compiled in.
+  private static final ImmutableMap<String, ProductClass> PRODUCT_CLASSES =
+      ImmutableMap.of(
+          ONE_TIME_PRODUCT_01, ProductClass.NON_CONSUMABLE,
+          CONSUMABLE_PRODUCT_01, ProductClass.CONSUMABLE,
+          CONSUMABLE_PRODUCT_02, ProductClass.CONSUMABLE,
+          CONSUMABLE_PRODUCT_03, ProductClass.CONSUMABLE);
+
+  // Where each product is shown. A new product needs a card in the layout and an entry here.
+  private static final ImmutableList<ProductCardRegistry.Spec> PRODUCT_CARDS =
+      ImmutableList.of(
+          ProductCardRegistry.Spec.of(
+              ONE_TIME_PRODUCT_01,
+              R.id.product_one_time_product_01,
+              R.drawable.one_time_product_01),
+          ProductCardRegistry.Spec.of(
+              CONSUMABLE_PRODUCT_01,
+              R.id.product_consumable_product_01,
+              R.drawable.consumable_product_01),
+          ProductCardRegistry.Spec.of(
+              CONSUMABLE_PRODUCT_02,
+              R.id.product_consumable_product_02,
+              R.drawable.consumable_product_02),
+          ProductCardRegistry.Spec.of(
+              CONSUMABLE_PRODUCT_03,
+              R.id.product_consumable_product_03,
+              R.drawable.consumable_product_03));
+
   @Override
   protected void onCreate(Bundle savedInstanceState) {
     super.onCreate(savedInstanceState);
@@ -107,8 +139,13 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
         startActivity(new Intent(this, OssLicensesMenuActivity.class));
     });
 
+    productCardRegistry =
+        ProductCardRegistry.bind(
+            this, PRODUCT_CARDS, productId -> billingServiceClient.launchBillingFlow(productId));
+
     // Setup Billing Client
     billingServiceClient = new BillingServiceClient(this, this);
+    billingServiceClient.setProductClassRegistry(ProductClassRegistry.of(PRODUCT_CLASSES));
     billingServiceClient.startBillingConnection(PRODUCT_LIST);
 
   }
@@ -118,16 +155,13 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
         responseCode == BillingResponseCode.OK ? "Purchase Successful" : "Purchase Failed";
     final String dialogMessage = billingResult.toString();
 
-    // Run on UI thread in case this is called from a background thread
-    runOnUiThread(
-        () -> {
-          MaterialAlertDialogBuilder dialogBuilder = new MaterialAlertDialogBuilder(this);
-          dialogBuilder
-              .setTitle(dialogTitle)
-              .setMessage(dialogMessage)
-              .setPositiveButton("OK", (dialog, which) -> dialog.dismiss())
-              .show();
-        });
+    // Billing responses are delivered on the main thread.
+    MaterialAlertDialogBuilder dialogBuilder = new MaterialAlertDialogBuilder(this);
+    dialogBuilder
+        .setTitle(dialogTitle)
+        .setMessage(dialogMessage)
+        .setPositiveButton("OK", (dialog, which) -> dialog.dismiss())
+        .show();
     }
 
   @Override
@@ -138,32 +172,6 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
     billingServiceClient.endBillingConnection();
   }
 
-    private void updateProductCardUI(ProductDetails productDetails) {
-
-        String productId = productDetails.getProductId();
-
-        String cardIdName = "product_" + productId;
-        int cardResId = getResources().getIdentifier(cardIdName, "id", getPackageName());
-
-        // Find views by their resource IDs
-        View cardView = findViewById(cardResId);
-        TextView titleView = cardView.findViewById(R.id.product_title);
-        TextView descView = cardView.findViewById(R.id.product_description);
-        MaterialButton buyButton = cardView.findViewById(R.id.buy_button);
-        ShapeableImageView productImageView = cardView.findViewById(R.id.product_image);
-
-        // Update views with product details
-        titleView.setText(productDetails.getName());
-        descView.setText(productDetails.getDescription());
-
-        productImageView.setImageResource(getDrawableProductImageForProductId(productId));
-
-        String formattedPrice =
-                Objects.requireNonNull(productDetails.getOneTimePurchaseOfferDetails()).getFormattedPrice();
-        buyButton.setText(formattedPrice);
-        buyButton.setOnClickListener(v -> billingServiceClient.launchBillingFlow(productId));
-    }
-
   @Override
   public void onBillingResponse(int responseCode, BillingResult billingResult) {
       showBillingResponseDialog(responseCode, billingResult);
@@ -174,18 +182,18 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
       runOnUiThread(
               () -> {
                   for (ProductDetails productDetails : productDetailsMap.values()) {
-                      updateProductCardUI(productDetails);
+                      productCardRegistry.update(productDetails);
                   }
               });
   }
 
-  private int getDrawableProductImageForProductId(String productId) {
-      return switch (productId) {
-        case ONE_TIME_PRODUCT_01 -> R.drawable.one_time_product_01;
-        case CONSUMABLE_PRODUCT_01 -> R.drawable.consumable_product_01;
-        case CONSUMABLE_PRODUCT_02 -> R.drawable.consumable_product_02;
-        case CONSUMABLE_PRODUCT_03 -> R.drawable.consumable_product_03;
-        default -> 0;
-      };
+  @Override
+  public void onProductDetailsUpdated(Map<String, ProductDetails> updatedProductDetailsMap) {
+      onProductDetailsFetched(updatedProductDetailsMap);
+  }
+
+  @Override
+  public void onPurchaseProcessed(String purchaseToken, BillingResult billingResult) {
+      Log.i(TAG, "Purchase processed with response code: " + billingResult.getResponseCode());
   }
 }
@@ -0,0 +1,128 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases;
+
+import android.app.Activity;
+import android.view.View;
+import android.widget.TextView;
+import com.android.billingclient.api.ProductDetails;
+import com.google.android.material.button.MaterialButton;
+import com.google.android.material.imageview.ShapeableImageView;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The product cards of the catalog, looked up once and indexed by product ID.
+ *
+ * <p>The catalog is described by a list of {@link Spec}s rather than code, so products can be
+ * added without touching the lookup. Every view is found when the registry is built; later catalog
+ * updates only write the text of views that are already bound.
+ */
+public final class ProductCardRegistry {
+
+  /** Where a product is shown: its card view and product image. */
+  public static final class Spec {
+    final String productId;
+    final int cardViewId;
+    final int drawableResId;
+
+    private Spec(String productId, int cardViewId, int drawableResId) {
+      this.productId = productId;
+      this.cardViewId = cardViewId;
+      this.drawableResId = drawableResId;
+    }
+
+    /**
+     * @param productId The ID of the product.
+     * @param cardViewId The ID of the card view in the layout.
+     * @param drawableResId The image shown on the card.
+     */
+    public static Spec of(String productId, int cardViewId, int drawableResId) {
+      return new Spec(productId, cardViewId, drawableResId);
+    }
+  }
+
+  /** Receives clicks on a card's buy button. */
+  public interface BuyClickListener {
+    void onBuyClicked(String productId);
+  }
+
+  /** The views of one product card. */
+  private static final class ProductCard {
+    private final TextView titleView;
+    private final TextView descriptionView;
+    private final MaterialButton buyButton;
+
+    private ProductCard(View cardView) {
+      titleView = cardView.findViewById(R.id.product_title);
+      descriptionView = cardView.findViewById(R.id.product_description);
+      buyButton = cardView.findViewById(R.id.buy_button);
+    }
+  }
+
+  private final Map<String, ProductCard> productCards;
+
+  private ProductCardRegistry(Map<String, ProductCard> productCards) {
+    this.productCards = productCards;
+  }
+
+  /**
+   * Finds the card views of every product and sets their images and buy buttons. Call once the
+   * content view is set.
+   *
+   * @param activity The activity showing the cards.
+   * @param specs Where each product is shown.
+   * @param buyClickListener Receives clicks on the buy buttons.
+   */
+  public static ProductCardRegistry bind(
+      Activity activity, List<Spec> specs, BuyClickListener buyClickListener) {
+    Map<String, ProductCard> productCards = new HashMap<>();
+    for (Spec spec : specs) {
+      View cardView = activity.findViewById(spec.cardViewId);
+      if (cardView == null) {
+        throw new IllegalArgumentException("No card view for " + spec.productId);
+      }
+      ShapeableImageView productImageView = cardView.findViewById(R.id.product_image);
+      productImageView.setImageResource(spec.drawableResId);
+      ProductCard productCard = new ProductCard(cardView);
+      productCard.buyButton.setOnClickListener(
+          v -> buyClickListener.onBuyClicked(spec.productId));
+      productCards.put(spec.productId, productCard);
+    }
+    return new ProductCardRegistry(productCards);
+  }
+
+  /**
+   * Shows the details of a product on its card.
+   *
+   * @param productDetails The details to show.
+   * @return Whether the product has a card.
+   */
+  public boolean update(ProductDetails productDetails) {
+    ProductCard productCard = productCards.get(productDetails.getProductId());
+    if (productCard == null) {
+      return false;
+    }
+    productCard.titleView.setText(productDetails.getName());
+    productCard.descriptionView.setText(productDetails.getDescription());
+    ProductDetails.OneTimePurchaseOfferDetails offerDetails =
+        productDetails.getOneTimePurchaseOfferDetails();
+    if (offerDetails != null) {
+      productCard.buyButton.setText(offerDetails.getFormattedPrice());
+    }
+    return true;
+  }
+}
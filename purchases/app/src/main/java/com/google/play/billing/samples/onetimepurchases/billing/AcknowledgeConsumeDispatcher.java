@@ -0,0 +1,308 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import android.os.SystemClock;
+import android.util.Log;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.google.play.billing.samples.onetimepurchases.billing.PurchaseJournal.Operation;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Sends acknowledge and consume requests to Google Play with a bounded number in flight.
+ *
+ * <p>Each purchase token is only dispatched once while it is queued, in flight or waiting for a
+ * retry. Transient failures are retried with exponential backoff and jitter. Every request is
+ * recorded in the {@link PurchaseJournal} before it is sent, and marked complete once a final
+ * response arrives.
+ */
+public class AcknowledgeConsumeDispatcher {
+
+  /** Issues the Billing Library request for a purchase token. */
+  public interface RequestSender {
+    void send(String purchaseToken, Operation operation, ResponseListener responseListener);
+  }
+
+  /** Receives the Billing Library response for a request. */
+  public interface ResponseListener {
+    void onResponse(BillingResult billingResult);
+  }
+
+  /** Receives the final result for a purchase token, after any retries. */
+  public interface CompletionListener {
+    void onCompleted(String purchaseToken, BillingResult billingResult);
+  }
+
+  /** A point-in-time view of the dispatcher counters. */
+  public static final class Stats {
+    public final int queued;
+    public final int inFlight;
+    public final int waitingForRetry;
+    public final long submitted;
+    public final long duplicatesDropped;
+    public final long retried;
+    public final long succeeded;
+    public final long failed;
+    public final double completedPerSecond;
+
+    private Stats(
+        int queued,
+        int inFlight,
+        int waitingForRetry,
+        long submitted,
+        long duplicatesDropped,
+        long retried,
+        long succeeded,
+        long failed,
+        double completedPerSecond) {
+      this.queued = queued;
+      this.inFlight = inFlight;
+      this.waitingForRetry = waitingForRetry;
+      this.submitted = submitted;
+      this.duplicatesDropped = duplicatesDropped;
+      this.retried = retried;
+      this.succeeded = succeeded;
+      this.failed = failed;
+      this.completedPerSecond = completedPerSecond;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{queued="
+          + queued
+          + ", inFlight="
+          + inFlight
+          + ", waitingForRetry="
+          + waitingForRetry
+          + ", submitted="
+          + submitted
+          + ", duplicatesDropped="
+          + duplicatesDropped
+          + ", retried="
+          + retried
+          + ", succeeded="
+          + succeeded
+          + ", failed="
+          + failed
+          + ", completedPerSecond="
+          + completedPerSecond
+          + "}";
+    }
+  }
+
+  private static final String TAG = "AcknowledgeConsumeDispatcher";
+  static final int DEFAULT_MAX_IN_FLIGHT = 4;
+  static final int DEFAULT_MAX_ATTEMPTS = 4;
+  static final long DEFAULT_INITIAL_BACKOFF_MILLIS = 500;
+  private static final long MAX_BACKOFF_MILLIS = TimeUnit.SECONDS.toMillis(30);
+
+  private final PurchaseJournal purchaseJournal;
+  private final RequestSender requestSender;
+  private final CompletionListener completionListener;
+  private final int maxInFlight;
+  private final int maxAttempts;
+  private final long initialBackoffMillis;
+  private final ScheduledExecutorService retryScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+
+  // The fields below are guarded by this.
+  private final Deque<String> queue = new ArrayDeque<>();
+  // Operation and attempt count of every token that is queued, in flight or waiting for a retry.
+  private final Map<String, Operation> pendingOperations = new HashMap<>();
+  private final Map<String, Integer> attempts = new HashMap<>();
+  private int inFlight;
+  private int waitingForRetry;
+  private long submitted;
+  private long duplicatesDropped;
+  private long retried;
+  private long succeeded;
+  private long failed;
+  private long firstSubmitElapsedMillis = -1;
+
+  /**
+   * @param purchaseJournal The journal recording every request before it is sent.
+   * @param requestSender Issues the acknowledge or consume request.
+   * @param completionListener Notified once per token with its final result.
+   * @param maxInFlight The maximum number of requests awaiting a response at any time.
+   * @param maxAttempts The maximum number of attempts per token, including the first one.
+   * @param initialBackoffMillis The delay before the first retry; doubled on each further retry.
+   */
+  public AcknowledgeConsumeDispatcher(
+      PurchaseJournal purchaseJournal,
+      RequestSender requestSender,
+      CompletionListener completionListener,
+      int maxInFlight,
+      int maxAttempts,
+      long initialBackoffMillis) {
+    this.purchaseJournal = purchaseJournal;
+    this.requestSender = requestSender;
+    this.completionListener = completionListener;
+    this.maxInFlight = maxInFlight;
+    this.maxAttempts = maxAttempts;
+    this.initialBackoffMillis = initialBackoffMillis;
+  }
+
+  /**
+   * Queues an acknowledge or consume request, unless one is already pending for the token.
+   *
+   * @param purchaseToken The token of the purchase to acknowledge or consume.
+   * @param operation The request to send.
+   */
+  public void submit(String purchaseToken, Operation operation) {
+    synchronized (this) {
+      if (pendingOperations.containsKey(purchaseToken)) {
+        duplicatesDropped++;
+        return;
+      }
+      if (firstSubmitElapsedMillis < 0) {
+        firstSubmitElapsedMillis = SystemClock.elapsedRealtime();
+      }
+      submitted++;
+      pendingOperations.put(purchaseToken, operation);
+      attempts.put(purchaseToken, 0);
+      queue.addLast(purchaseToken);
+    }
+    dispatch();
+  }
+
+  /** Returns a snapshot of the queue depth and throughput counters. */
+  public synchronized Stats getStats() {
+    long completed = succeeded + failed;
+    long elapsedMillis =
+        firstSubmitElapsedMillis < 0
+            ? 0
+            : SystemClock.elapsedRealtime() - firstSubmitElapsedMillis;
+    double completedPerSecond = elapsedMillis > 0 ? completed * 1000.0 / elapsedMillis : 0;
+    return new Stats(
+        queue.size(),
+        inFlight,
+        waitingForRetry,
+        submitted,
+        duplicatesDropped,
+        retried,
+        succeeded,
+        failed,
+        completedPerSecond);
+  }
+
+  /** Stops scheduling retries. Requests already in flight still complete. */
+  public void shutdown() {
+    retryScheduler.shutdownNow();
+  }
+
+  /** Starts as many queued requests as the in-flight window allows. */
+  private void dispatch() {
+    List<String> purchaseTokens = new ArrayList<>();
+    List<Operation> operations = new ArrayList<>();
+    synchronized (this) {
+      while (inFlight < maxInFlight && !queue.isEmpty()) {
+        String purchaseToken = queue.pollFirst();
+        purchaseTokens.add(purchaseToken);
+        operations.add(pendingOperations.get(purchaseToken));
+        attempts.put(purchaseToken, attempts.get(purchaseToken) + 1);
+        inFlight++;
+      }
+    }
+    // Requests are started outside the lock, as the response may be delivered synchronously.
+    for (int i = 0; i < purchaseTokens.size(); i++) {
+      String purchaseToken = purchaseTokens.get(i);
+      Operation operation = operations.get(i);
+      purchaseJournal.recordStarted(
+          purchaseToken,
+          operation,
+          () ->
+              requestSender.send(
+                  purchaseToken,
+                  operation,
+                  billingResult -> onResponse(purchaseToken, billingResult)));
+    }
+  }
+
+  private void onResponse(String purchaseToken, BillingResult billingResult) {
+    int responseCode = billingResult.getResponseCode();
+    long backoffMillis = -1;
+    synchronized (this) {
+      inFlight--;
+      int attempt = attempts.get(purchaseToken);
+      if (isTransientError(responseCode) && attempt < maxAttempts) {
+        long maxBackoff = Math.min(MAX_BACKOFF_MILLIS, initialBackoffMillis << (attempt - 1));
+        // Jitter spreads out the retries of a burst that failed together.
+        backoffMillis = maxBackoff / 2 + ThreadLocalRandom.current().nextLong(maxBackoff / 2 + 1);
+        retried++;
+        waitingForRetry++;
+      } else {
+        pendingOperations.remove(purchaseToken);
+        attempts.remove(purchaseToken);
+        if (responseCode == BillingResponseCode.OK) {
+          succeeded++;
+        } else {
+          failed++;
+        }
+      }
+    }
+    if (backoffMillis >= 0) {
+      Log.w(TAG, "Retrying " + purchaseToken + " in " + backoffMillis + "ms: " + responseCode);
+      scheduleRetry(purchaseToken, backoffMillis);
+    } else {
+      // Transient failures that ran out of attempts stay incomplete and are replayed on next start.
+      if (!isTransientError(responseCode)) {
+        purchaseJournal.recordCompleted(purchaseToken);
+      }
+      completionListener.onCompleted(purchaseToken, billingResult);
+    }
+    dispatch();
+  }
+
+  private void scheduleRetry(String purchaseToken, long backoffMillis) {
+    try {
+      retryScheduler.schedule(
+          () -> {
+            synchronized (this) {
+              waitingForRetry--;
+              queue.addFirst(purchaseToken);
+            }
+            dispatch();
+          },
+          backoffMillis,
+          TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Dispatcher is shut down, not retrying " + purchaseToken);
+      synchronized (this) {
+        waitingForRetry--;
+        pendingOperations.remove(purchaseToken);
+        attempts.remove(purchaseToken);
+        failed++;
+      }
+    }
+  }
+
+  static boolean isTransientError(int responseCode) {
+    return responseCode == BillingResponseCode.SERVICE_DISCONNECTED
+        || responseCode == BillingResponseCode.SERVICE_UNAVAILABLE
+        || responseCode == BillingResponseCode.NETWORK_ERROR
+        || responseCode == BillingResponseCode.ERROR;
+  }
+}
@@ -0,0 +1,314 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.ConsumeResponseListener;
+import com.android.billingclient.api.ProductDetailsResponseListener;
+import com.android.billingclient.api.PurchasesResponseListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records how long each {@link com.android.billingclient.api.BillingClient} operation takes and
+ * which response codes it returns.
+ *
+ * <p>Latencies are counted in fixed log-linear buckets of microseconds, with at most 12.5% error,
+ * so memory use does not grow with the number of calls. Recording a result is lock-free and does
+ * not allocate: a few atomic increments on the callback thread. Call sites wrap their listener with
+ * one of the {@code time} methods just before issuing the request, or call {@link #record} for
+ * synchronous calls.
+ */
+public class BillingLatencyRecorder {
+
+  /** Key under which response codes outside the known range are counted. */
+  public static final int UNKNOWN_RESPONSE_CODE = Integer.MIN_VALUE;
+
+  /** The instrumented Billing Library operations. */
+  public enum Operation {
+    START_CONNECTION,
+    QUERY_PRODUCT_DETAILS,
+    QUERY_PURCHASES,
+    ACKNOWLEDGE_PURCHASE,
+    CONSUME,
+    LAUNCH_BILLING_FLOW
+  }
+
+  /** A point-in-time view of the latencies and outcomes of one operation. */
+  public static final class OperationSnapshot {
+    public final Operation operation;
+    public final long count;
+    public final long p50Micros;
+    public final long p90Micros;
+    public final long p99Micros;
+    public final long maxMicros;
+    // Number of calls per response code. Unknown codes are counted under UNKNOWN_RESPONSE_CODE.
+    public final Map<Integer, Long> responseCodeCounts;
+
+    private OperationSnapshot(
+        Operation operation,
+        long count,
+        long p50Micros,
+        long p90Micros,
+        long p99Micros,
+        long maxMicros,
+        Map<Integer, Long> responseCodeCounts) {
+      this.operation = operation;
+      this.count = count;
+      this.p50Micros = p50Micros;
+      this.p90Micros = p90Micros;
+      this.p99Micros = p99Micros;
+      this.maxMicros = maxMicros;
+      this.responseCodeCounts = responseCodeCounts;
+    }
+
+    @Override
+    public String toString() {
+      return operation
+          + "{count="
+          + count
+          + ", p50="
+          + p50Micros
+          + "us, p90="
+          + p90Micros
+          + "us, p99="
+          + p99Micros
+          + "us, max="
+          + maxMicros
+          + "us, responseCodes="
+          + responseCodeCounts
+          + "}";
+    }
+  }
+
+  // Latencies below LINEAR_BUCKET_COUNT microseconds get one bucket each; every larger power of
+  // two is split into SUB_BUCKET_COUNT buckets.
+  private static final int SUB_BUCKET_BITS = 3;
+  private static final int SUB_BUCKET_COUNT = 1 << SUB_BUCKET_BITS;
+  private static final int LINEAR_BUCKET_COUNT = 2 * SUB_BUCKET_COUNT;
+  // Latencies from 2^MAX_EXPONENT microseconds (about 19 hours) up share the last bucket.
+  private static final int MAX_EXPONENT = 36;
+  private static final int BUCKET_COUNT =
+      LINEAR_BUCKET_COUNT + (MAX_EXPONENT - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT;
+
+  // Billing response codes range from SERVICE_TIMEOUT (-3) to NETWORK_ERROR (12). Anything outside
+  // that range is counted in the last slot.
+  private static final int MIN_RESPONSE_CODE = -3;
+  private static final int MAX_RESPONSE_CODE = 12;
+  private static final int RESPONSE_CODE_SLOTS = MAX_RESPONSE_CODE - MIN_RESPONSE_CODE + 2;
+  private static final int OTHER_RESPONSE_CODE_SLOT = RESPONSE_CODE_SLOTS - 1;
+
+  private static final Operation[] OPERATIONS = Operation.values();
+
+  private final AtomicLongArray buckets = new AtomicLongArray(OPERATIONS.length * BUCKET_COUNT);
+  private final AtomicLongArray responseCodeCounts =
+      new AtomicLongArray(OPERATIONS.length * RESPONSE_CODE_SLOTS);
+  private final AtomicLong[] maxMicros = new AtomicLong[OPERATIONS.length];
+
+  public BillingLatencyRecorder() {
+    for (int i = 0; i < maxMicros.length; i++) {
+      maxMicros[i] = new AtomicLong();
+    }
+  }
+
+  /** Returns the start time to pass to {@link #record}. */
+  public static long startNanos() {
+    return System.nanoTime();
+  }
+
+  /**
+   * Records a completed operation.
+   *
+   * @param operation The operation that completed.
+   * @param startNanos The value of {@link #startNanos()} when the operation was issued.
+   * @param responseCode The response code of the operation.
+   */
+  public void record(Operation operation, long startNanos, int responseCode) {
+    long micros = Math.max(0, (System.nanoTime() - startNanos) / 1000);
+    int index = operation.ordinal();
+    buckets.incrementAndGet(index * BUCKET_COUNT + bucketFor(micros));
+    responseCodeCounts.incrementAndGet(index * RESPONSE_CODE_SLOTS + slotFor(responseCode));
+    AtomicLong max = maxMicros[index];
+    long currentMax;
+    while (micros > (currentMax = max.get()) && !max.compareAndSet(currentMax, micros)) {
+      // Another thread raised the maximum concurrently; re-read and retry.
+    }
+  }
+
+  /**
+   * Records a completed synchronous operation.
+   *
+   * @param operation The operation that completed.
+   * @param startNanos The value of {@link #startNanos()} when the operation was issued.
+   * @param billingResult The result of the operation. A missing result is counted under {@link
+   *     #UNKNOWN_RESPONSE_CODE}.
+   */
+  public void record(Operation operation, long startNanos, BillingResult billingResult) {
+    record(
+        operation,
+        startNanos,
+        billingResult != null ? billingResult.getResponseCode() : UNKNOWN_RESPONSE_CODE);
+  }
+
+  /** Wraps a connection listener to record the time until the first setup result. */
+  public BillingClientStateListener timeConnection(BillingClientStateListener listener) {
+    long startNanos = startNanos();
+    return new BillingClientStateListener() {
+      private boolean recorded;
+
+      @Override
+      public void onBillingSetupFinished(BillingResult billingResult) {
+        // Automatic reconnections call back again; only the first setup is timed.
+        if (!recorded) {
+          recorded = true;
+          record(Operation.START_CONNECTION, startNanos, billingResult.getResponseCode());
+        }
+        listener.onBillingSetupFinished(billingResult);
+      }
+
+      @Override
+      public void onBillingServiceDisconnected() {
+        listener.onBillingServiceDisconnected();
+      }
+    };
+  }
+
+  /** Wraps a product details listener to record the query latency. */
+  public ProductDetailsResponseListener timeProductDetailsQuery(
+      ProductDetailsResponseListener listener) {
+    long startNanos = startNanos();
+    return (billingResult, productDetailsResult) -> {
+      record(Operation.QUERY_PRODUCT_DETAILS, startNanos, billingResult.getResponseCode());
+      listener.onProductDetailsResponse(billingResult, productDetailsResult);
+    };
+  }
+
+  /** Wraps a purchases listener to record the query latency. */
+  public PurchasesResponseListener timePurchasesQuery(PurchasesResponseListener listener) {
+    long startNanos = startNanos();
+    return (billingResult, purchases) -> {
+      record(Operation.QUERY_PURCHASES, startNanos, billingResult.getResponseCode());
+      listener.onQueryPurchasesResponse(billingResult, purchases);
+    };
+  }
+
+  /** Wraps an acknowledge listener to record the request latency. */
+  public AcknowledgePurchaseResponseListener timeAcknowledge(
+      AcknowledgePurchaseResponseListener listener) {
+    long startNanos = startNanos();
+    return billingResult -> {
+      record(Operation.ACKNOWLEDGE_PURCHASE, startNanos, billingResult.getResponseCode());
+      listener.onAcknowledgePurchaseResponse(billingResult);
+    };
+  }
+
+  /** Wraps a consume listener to record the request latency. */
+  public ConsumeResponseListener timeConsume(ConsumeResponseListener listener) {
+    long startNanos = startNanos();
+    return (billingResult, purchaseToken) -> {
+      record(Operation.CONSUME, startNanos, billingResult.getResponseCode());
+      listener.onConsumeResponse(billingResult, purchaseToken);
+    };
+  }
+
+  /**
+   * Returns the latencies and outcomes of every operation that was recorded at least once. Each
+   * counter is read atomically, but calls completing during the snapshot may be partially included.
+   */
+  public List<OperationSnapshot> getSnapshot() {
+    List<OperationSnapshot> snapshots = new ArrayList<>();
+    long[] counts = new long[BUCKET_COUNT];
+    for (Operation operation : OPERATIONS) {
+      int index = operation.ordinal();
+      long count = 0;
+      for (int bucket = 0; bucket < BUCKET_COUNT; bucket++) {
+        counts[bucket] = buckets.get(index * BUCKET_COUNT + bucket);
+        count += counts[bucket];
+      }
+      if (count == 0) {
+        continue;
+      }
+      long max = maxMicros[index].get();
+      Map<Integer, Long> codes = new LinkedHashMap<>();
+      for (int slot = 0; slot < RESPONSE_CODE_SLOTS; slot++) {
+        long codeCount = responseCodeCounts.get(index * RESPONSE_CODE_SLOTS + slot);
+        if (codeCount > 0) {
+          codes.put(
+              slot == OTHER_RESPONSE_CODE_SLOT ? UNKNOWN_RESPONSE_CODE : slot + MIN_RESPONSE_CODE,
+              codeCount);
+        }
+      }
+      snapshots.add(
+          new OperationSnapshot(
+              operation,
+              count,
+              percentile(counts, count, 0.50, max),
+              percentile(counts, count, 0.90, max),
+              percentile(counts, count, 0.99, max),
+              max,
+              Collections.unmodifiableMap(codes)));
+    }
+    return snapshots;
+  }
+
+  /** Returns the upper bound of the bucket holding the given percentile, capped at the maximum. */
+  private static long percentile(long[] counts, long total, double percentile, long max) {
+    long rank = (long) Math.ceil(total * percentile);
+    long seen = 0;
+    for (int bucket = 0; bucket < counts.length; bucket++) {
+      seen += counts[bucket];
+      if (seen >= rank) {
+        return Math.min(bucketUpperBound(bucket), max);
+      }
+    }
+    return max;
+  }
+
+  static int bucketFor(long micros) {
+    if (micros < LINEAR_BUCKET_COUNT) {
+      return (int) micros;
+    }
+    int exponent = 63 - Long.numberOfLeadingZeros(micros);
+    if (exponent >= MAX_EXPONENT) {
+      return BUCKET_COUNT - 1;
+    }
+    int subBucket = (int) (micros >>> (exponent - SUB_BUCKET_BITS)) & (SUB_BUCKET_COUNT - 1);
+    return LINEAR_BUCKET_COUNT + (exponent - SUB_BUCKET_BITS - 1) * SUB_BUCKET_COUNT + subBucket;
+  }
+
+  static long bucketUpperBound(int bucket) {
+    if (bucket < LINEAR_BUCKET_COUNT) {
+      return bucket;
+    }
+    int exponent = (bucket - LINEAR_BUCKET_COUNT) / SUB_BUCKET_COUNT + SUB_BUCKET_BITS + 1;
+    long subBucket = (bucket - LINEAR_BUCKET_COUNT) % SUB_BUCKET_COUNT;
+    long width = 1L << (exponent - SUB_BUCKET_BITS);
+    return (1L << exponent) + (subBucket + 1) * width - 1;
+  }
+
+  private static int slotFor(int responseCode) {
+    if (responseCode < MIN_RESPONSE_CODE || responseCode > MAX_RESPONSE_CODE) {
+      return OTHER_RESPONSE_CODE_SLOT;
+    }
+    return responseCode - MIN_RESPONSE_CODE;
+  }
+}
@@ -17,7 +17,6 @@ package com.google.play.billing.samples.onetimepurchases.billing;
 import android.util.Log;
 import androidx.appcompat.app.AppCompatActivity;
 import com.android.billingclient.api.AcknowledgePurchaseParams;
-import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingClient.BillingResponseCode;
 import com.android.billingclient.api.BillingClientStateListener;
@@ -25,20 +24,25 @@ import com.android.billingclient.api.BillingFlowParams;
 import com.android.billingclient.api.BillingFlowParams.ProductDetailsParams;
 import com.android.billingclient.api.BillingResult;
 import com.android.billingclient.api.ConsumeParams;
-import com.android.billingclient.api.ConsumeResponseListener;
 import com.android.billingclient.api.PendingPurchasesParams;
 import com.android.billingclient.api.ProductDetails;
-import com.android.billingclient.api.ProductDetailsResponseListener;
 import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.Purchase.PurchaseState;
 import com.android.billingclient.api.PurchasesUpdatedListener;
-import com.android.billingclient.api.QueryProductDetailsParams;
 import com.android.billingclient.api.QueryProductDetailsParams.Product;
-import com.android.billingclient.api.QueryProductDetailsResult;
+import com.android.billingclient.api.QueryPurchasesParams;
 import com.google.common.collect.ImmutableList;
+import com.google.play.billing.samples.onetimepurchases.billing.ProductClassRegistry.ProductClass;
+import com.google.play.billing.samples.onetimepurchases.billing.PurchaseJournal.Operation;
+import java.io.File;
+import java.util.AbstractMap;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Manages interactions with the Google Play Billing Library for handling one-time purchases.
@@ -46,43 +50,63 @@ import java.util.Map;
  * <p>This class encapsulates the setup of the {@link BillingClient}, manages the connection
  * lifecycle (including retries), queries product details, initiates the purchase flow, and
  * processes purchase updates by acknowledging them and notifying a listener.
+ *
+ * <p>Product details are also persisted in a {@link ProductDetailsCache}, so the last known catalog
+ * can be rendered while the live query to Google Play is still in flight.
+ *
+ * <p>Purchase updates are handled off the main thread by a {@link PurchaseProcessor}. Billing
+ * responses and processed purchases are handed back to the listener on the main thread in batches.
+ * Each purchase is checked by a {@link PurchaseVerifier}, in batches, before it is acknowledged or
+ * consumed.
+ *
+ * <p>Once connected, the purchases the user owns are queried and reconciled against a {@link
+ * PurchaseWatermark} of the purchases already handled, so purchases completed while the app was
+ * not running are picked up without handling every owned purchase again.
  */
 public class BillingServiceClient {
 
   private static final String TAG = "Billing Service Client";
   private static final String CONSUMABLE_PRODUCT_PREFIX = "consumable_";
+  private static final int SEEN_PURCHASES_CAPACITY = 256;
+  private static final String PURCHASE_SPILL_FILE_NAME = "purchase_spill";
   private final BillingClient billingClient;
   private final AppCompatActivity activity;
   private final BillingServiceClientListener billingServiceClientListener;
   // Map to store product details for the products that are available to the user.
   private final Map<String, ProductDetails> productDetailsMap = new HashMap<>();
-  private final AcknowledgePurchaseResponseListener acknowledgePurchaseResponseListener =
-      new AcknowledgePurchaseResponseListener() {
-        @Override
-        public void onAcknowledgePurchaseResponse(BillingResult billingResult) {
-          Log.i(TAG, "Acknowledge purchase response: " + billingResult.getResponseCode());
-        }
-      };
-
-  private final ConsumeResponseListener consumeResponseListener =
-      new ConsumeResponseListener() {
-        @Override
-        public void onConsumeResponse(BillingResult billingResult, String purchaseToken) {
-          Log.i(TAG, "Consume response: " + billingResult.getResponseCode());
-        }
-      };
+  // Replaced as a whole, never mutated, so it can be read from the billing callbacks.
+  private volatile ProductClassRegistry productClassRegistry = ProductClassRegistry.empty();
+  private final BillingLatencyRecorder latencyRecorder = new BillingLatencyRecorder();
+  private final SeenPurchaseSet seenPurchases = new SeenPurchaseSet(SEEN_PURCHASES_CAPACITY);
+  private final EntitlementStore entitlementStore = new EntitlementStore();
+  private final ProductDetailsCache productDetailsCache;
+  // Single background thread for all product details cache I/O.
+  private final ExecutorService cacheExecutor = Executors.newSingleThreadExecutor();
+  private final Object productDetailsLock = new Object();
+  // Product details served from the cache, or null if the cache was not used.
+  private Map<String, ProductDetails> cachedProductDetailsMap;
+  private boolean liveProductDetailsReceived;
+  private final PurchaseJournal purchaseJournal;
+  private final AcknowledgeConsumeDispatcher acknowledgeConsumeDispatcher;
+  private boolean purchaseJournalReplayed;
+  private final PurchaseWatermark purchaseWatermark;
+  private boolean purchasesReconciled;
+  private final PurchaseProcessor purchaseProcessor;
+  private final PurchaseVerificationBatcher purchaseVerificationBatcher;
+  private final MainThreadBatcher<BillingResult> billingResponseBatcher;
+  private final MainThreadBatcher<Map.Entry<String, BillingResult>> processedPurchaseBatcher;
+  private final MainThreadBatcher<EntitlementStore.Snapshot> entitlementsBatcher;
 
   private final PurchasesUpdatedListener purchasesUpdatedListener =
       new PurchasesUpdatedListener() {
         @Override
         public void onPurchasesUpdated(BillingResult billingResult, List<Purchase> purchases) {
           int responseCode = billingResult.getResponseCode();
-          billingServiceClientListener.onBillingResponse(responseCode, billingResult);
+          billingResponseBatcher.add(billingResult);
 
           if (responseCode == BillingResponseCode.OK && purchases != null) {
-            for (Purchase purchase : purchases) {
-              handlePurchase(purchase);
-            }
+            // Only queued here, so a burst of purchases can't hold up the main thread.
+            purchaseProcessor.submit(purchases);
           } else if (responseCode == BillingResponseCode.USER_CANCELED) {
             Log.e(TAG, "Purchase failed: User cancelled");
           } else {
@@ -99,7 +123,93 @@ public class BillingServiceClient {
       AppCompatActivity activity, BillingServiceClientListener billingServiceClientListener) {
     this.activity = activity;
     this.billingServiceClientListener = billingServiceClientListener;
+    Executor mainThreadExecutor = activity::runOnUiThread;
+    billingResponseBatcher =
+        new MainThreadBatcher<>(
+            mainThreadExecutor,
+            billingResults -> {
+              for (BillingResult billingResult : billingResults) {
+                billingServiceClientListener.onBillingResponse(
+                    billingResult.getResponseCode(), billingResult);
+              }
+            });
+    processedPurchaseBatcher =
+        new MainThreadBatcher<>(
+            mainThreadExecutor,
+            processedPurchases -> {
+              Map<String, BillingResult> billingResults = new LinkedHashMap<>();
+              for (Map.Entry<String, BillingResult> processedPurchase : processedPurchases) {
+                billingResults.put(processedPurchase.getKey(), processedPurchase.getValue());
+              }
+              billingServiceClientListener.onPurchasesProcessed(billingResults);
+            });
+    entitlementsBatcher =
+        new MainThreadBatcher<>(
+            mainThreadExecutor,
+            // Only the latest snapshot of a batch matters.
+            snapshots ->
+                billingServiceClientListener.onEntitlementsChanged(
+                    snapshots.get(snapshots.size() - 1)));
     billingClient = createBillingClient();
+    productDetailsCache = createProductDetailsCache();
+    purchaseJournal = createPurchaseJournal();
+    purchaseWatermark = createPurchaseWatermark();
+    purchaseVerificationBatcher =
+        new PurchaseVerificationBatcher(
+            createPurchaseVerifier(),
+            new PurchaseVerificationBatcher.VerificationListener() {
+              @Override
+              public void onVerified(Purchase purchase) {
+                grantPurchase(purchase);
+              }
+
+              @Override
+              public void onRejected(Purchase purchase) {
+                Log.w(TAG, "Purchase rejected by verification: " + purchase.getPurchaseToken());
+                if (entitlementStore.remove(purchase.getPurchaseToken())) {
+                  entitlementsBatcher.add(entitlementStore.getSnapshot());
+                }
+              }
+
+              @Override
+              public void onVerificationFailed(Purchase purchase, Exception e) {
+                // Let the next delivery of this purchase try again.
+                seenPurchases.remove(purchase.getPurchaseToken(), purchase.getPurchaseState());
+              }
+            },
+            PurchaseVerificationBatcher.DEFAULT_MAX_BATCH_SIZE,
+            PurchaseVerificationBatcher.DEFAULT_MAX_DELAY_MILLIS,
+            PurchaseVerificationBatcher.DEFAULT_MAX_IN_FLIGHT_BATCHES);
+    purchaseProcessor = createPurchaseProcessor();
+    acknowledgeConsumeDispatcher =
+        new AcknowledgeConsumeDispatcher(
+            purchaseJournal,
+            this::sendAcknowledgeOrConsume,
+            (purchaseToken, billingResult) -> {
+              Log.i(TAG, "Purchase processed: " + billingResult.getResponseCode());
+              if (billingResult.getResponseCode() == BillingResponseCode.OK) {
+                purchaseWatermark.recordHandled(purchaseToken, PurchaseState.PURCHASED);
+              } else {
+                // Let the next delivery of this purchase try again.
+                seenPurchases.remove(purchaseToken, PurchaseState.PURCHASED);
+              }
+              processedPurchaseBatcher.add(
+                  new AbstractMap.SimpleImmutableEntry<>(purchaseToken, billingResult));
+            },
+            AcknowledgeConsumeDispatcher.DEFAULT_MAX_IN_FLIGHT,
+            AcknowledgeConsumeDispatcher.DEFAULT_MAX_ATTEMPTS,
+            AcknowledgeConsumeDispatcher.DEFAULT_INITIAL_BACKOFF_MILLIS);
+  }
+
+  /**
+   * Sets how each product is handled once purchased. Products missing from the registry are
+   * consumed if their ID starts with "consumable_" and acknowledged otherwise. Must be called
+   * before {@link #startBillingConnection}.
+   *
+   * @param productClassRegistry The class of each product in the catalog.
+   */
+  public void setProductClassRegistry(ProductClassRegistry productClassRegistry) {
+    this.productClassRegistry = productClassRegistry;
   }
 
   /**
@@ -110,29 +220,36 @@ public class BillingServiceClient {
    */
   public void startBillingConnection(ImmutableList<Product> productList) {
     Log.i(TAG, "Product list sent: " + productList);
+    cacheExecutor.execute(this::loadCachedProductDetails);
     Log.i(TAG, "Starting connection");
     billingClient.startConnection(
-        new BillingClientStateListener() {
-          @Override
-          public void onBillingSetupFinished(BillingResult billingResult) {
-            if (billingResult.getResponseCode() == BillingResponseCode.OK) {
-              // Query product details to get the product details list.
-              queryProductDetails(productList);
-            } else {
-              // BillingClient.enableAutoServiceReconnection() will retry the connection on
-              // transient errors automatically.
-              // We don't need to retry on terminal errors (e.g., BILLING_UNAVAILABLE,
-              // DEVELOPER_ERROR).
-              Log.e(TAG, "Billing connection failed: " + billingResult.getDebugMessage());
-              Log.e(TAG, "Billing response code: " + billingResult.getResponseCode());
-            }
-          }
+        latencyRecorder.timeConnection(
+            new BillingClientStateListener() {
+              @Override
+              public void onBillingSetupFinished(BillingResult billingResult) {
+                if (billingResult.getResponseCode() == BillingResponseCode.OK) {
+                  // Finish the acknowledge and consume requests cut short by the last process
+                  // death.
+                  replayPurchaseJournal();
+                  // Pick up the purchases completed while the app was not running.
+                  reconcilePurchases();
+                  // Query product details to get the product details list.
+                  queryProductDetails(productList);
+                } else {
+                  // BillingClient.enableAutoServiceReconnection() will retry the connection on
+                  // transient errors automatically.
+                  // We don't need to retry on terminal errors (e.g., BILLING_UNAVAILABLE,
+                  // DEVELOPER_ERROR).
+                  Log.e(TAG, "Billing connection failed: " + billingResult.getDebugMessage());
+                  Log.e(TAG, "Billing response code: " + billingResult.getResponseCode());
+                }
+              }
 
-          @Override
-          public void onBillingServiceDisconnected() {
-            Log.e(TAG, "Billing Service connection lost.");
-          }
-        });
+              @Override
+              public void onBillingServiceDisconnected() {
+                Log.e(TAG, "Billing Service connection lost.");
+              }
+            }));
   }
 
   /**
@@ -159,7 +276,10 @@ public class BillingServiceClient {
             .setProductDetailsParamsList(productDetailsParamsList)
             .build();
 
-    billingClient.launchBillingFlow(activity, billingFlowParams);
+    long startNanos = BillingLatencyRecorder.startNanos();
+    BillingResult billingResult = billingClient.launchBillingFlow(activity, billingFlowParams);
+    latencyRecorder.record(
+        BillingLatencyRecorder.Operation.LAUNCH_BILLING_FLOW, startNanos, billingResult);
   }
 
   /**
@@ -168,6 +288,56 @@ public class BillingServiceClient {
    */
   public void endBillingConnection() {
     billingClient.endConnection();
+    // Pending cache and journal writes still run to completion.
+    cacheExecutor.shutdown();
+    purchaseProcessor.shutdown();
+    purchaseVerificationBatcher.shutdown();
+    acknowledgeConsumeDispatcher.shutdown();
+    purchaseJournal.close();
+    purchaseWatermark.close();
+  }
+
+  /** Returns the queue depth and throughput counters of the acknowledge/consume pipeline. */
+  public AcknowledgeConsumeDispatcher.Stats getAcknowledgeConsumeStats() {
+    return acknowledgeConsumeDispatcher.getStats();
+  }
+
+  /** Returns the queue depth and counters of the purchase processing thread. */
+  public PurchaseProcessor.Stats getPurchaseProcessorStats() {
+    return purchaseProcessor.getStats();
+  }
+
+  /** Returns the current entitlements. Safe to call from any thread. */
+  public EntitlementStore.Snapshot getEntitlements() {
+    return entitlementStore.getSnapshot();
+  }
+
+  /**
+   * Returns whether the user owns a product, without querying Google Play. Safe to call from any
+   * thread.
+   */
+  public boolean isEntitled(String productId) {
+    return entitlementStore.isEntitled(productId);
+  }
+
+  /** Returns the batch counters of the purchase verification stage. */
+  public PurchaseVerificationBatcher.Stats getPurchaseVerificationStats() {
+    return purchaseVerificationBatcher.getStats();
+  }
+
+  /** Returns how many purchase deliveries were skipped as already handled. */
+  public long getSeenPurchaseHitCount() {
+    return seenPurchases.getHitCount();
+  }
+
+  /** Returns how many purchase deliveries were new and handled. */
+  public long getSeenPurchaseMissCount() {
+    return seenPurchases.getMissCount();
+  }
+
+  /** Returns the latency percentiles and response code counts of each Billing Library call. */
+  public List<BillingLatencyRecorder.OperationSnapshot> getLatencySnapshot() {
+    return latencyRecorder.getSnapshot();
   }
 
   /**
@@ -179,6 +349,39 @@ public class BillingServiceClient {
     Log.i(TAG, "Rendered products map: " + productDetailsMap);
   }
 
+  protected ProductDetailsCache createProductDetailsCache() {
+    return new ProductDetailsCache(activity.getCacheDir(), ProductDetailsCache.DEFAULT_TTL_MILLIS);
+  }
+
+  protected PurchaseJournal createPurchaseJournal() {
+    return new PurchaseJournal(activity.getFilesDir());
+  }
+
+  protected PurchaseWatermark createPurchaseWatermark() {
+    return new PurchaseWatermark(activity.getFilesDir());
+  }
+
+  /**
+   * Creates the processor that purchase updates are handled on. Purchases overflowing its queue are
+   * spilled to the cache directory, so a burst never blocks the main thread.
+   */
+  protected PurchaseProcessor createPurchaseProcessor() {
+    return new PurchaseProcessor(
+        new File(activity.getCacheDir(), PURCHASE_SPILL_FILE_NAME),
+        PurchaseProcessor.DEFAULT_CAPACITY,
+        PurchaseProcessor.OverflowPolicy.SPILL_TO_DISK,
+        this::processPurchase);
+  }
+
+  /**
+   * Creates the verifier that purchases are checked with before they are granted. This sample has
+   * no backend, so every purchase is treated as verified. Return an {@link HttpPurchaseVerifier}
+   * pointed at your secure backend instead.
+   */
+  protected PurchaseVerifier createPurchaseVerifier() {
+    return PurchaseVerifier.acceptAll();
+  }
+
   protected BillingClient createBillingClient() {
     return BillingClient.newBuilder(activity)
         .setListener(purchasesUpdatedListener)
@@ -187,15 +390,32 @@ public class BillingServiceClient {
         .build();
   }
 
+  /** Handles a purchase on the processing thread. */
+  private void processPurchase(Purchase purchase) {
+    // Play may deliver the same purchase again; only handle it once per state.
+    if (seenPurchases.markSeen(purchase.getPurchaseToken(), purchase.getPurchaseState())) {
+      return;
+    }
+    handlePurchase(purchase);
+  }
+
   private void handlePurchase(Purchase purchase) {
     // Step 1: Send the purchase to your secure backend to verify the purchase following
     // https://developer.android.com/google/play/billing/security#verify
+    // Purchases are verified in batches, and only granted once verified.
+    purchaseVerificationBatcher.submit(purchase);
+  }
 
+  /** Grants a purchase once it has been verified. */
+  private void grantPurchase(Purchase purchase) {
     // Step 2: Update your entitlement storage with the purchase. If purchase is
     // in PENDING state then ensure the entitlement is marked as pending and the
     // user does not receive benefits yet. It is recommended that this step is
     // done on your secure backend and can combine in the API call to your
     // backend in step 1.
+    if (entitlementStore.update(purchase)) {
+      entitlementsBatcher.add(entitlementStore.getSnapshot());
+    }
 
     // Step 3: Notify the user using appropriate messaging.
     if (purchase.getPurchaseState() == PurchaseState.PURCHASED) {
@@ -212,56 +432,184 @@ public class BillingServiceClient {
     // If you have a secure backend, you must acknowledge purchases on your server using the
     // server-side API.
     // See https://developer.android.com/google/play/billing/security#acknowledge
+    // Requests are recorded in the journal before they are sent, so they can be replayed if the
+    // process dies before the response arrives.
     if (purchase.getPurchaseState() == PurchaseState.PURCHASED && !purchase.isAcknowledged()) {
+      acknowledgeConsumeDispatcher.submit(
+          purchase.getPurchaseToken(),
+          shouldConsume(purchase) ? Operation.CONSUME : Operation.ACKNOWLEDGE);
+    } else {
+      // Nothing is left to do until the purchase changes state.
+      purchaseWatermark.recordHandled(purchase.getPurchaseToken(), purchase.getPurchaseState());
+    }
+  }
 
-      if (shouldConsume(purchase)) {
-        ConsumeParams consumeParams =
-            ConsumeParams.newBuilder().setPurchaseToken(purchase.getPurchaseToken()).build();
-        billingClient.consumeAsync(consumeParams, consumeResponseListener);
-
-      } else {
-        AcknowledgePurchaseParams acknowledgePurchaseParams =
-            AcknowledgePurchaseParams.newBuilder()
-                .setPurchaseToken(purchase.getPurchaseToken())
-                .build();
-        billingClient.acknowledgePurchase(
-            acknowledgePurchaseParams, acknowledgePurchaseResponseListener);
-      }
+  private void sendAcknowledgeOrConsume(
+      String purchaseToken,
+      Operation operation,
+      AcknowledgeConsumeDispatcher.ResponseListener responseListener) {
+    if (operation == Operation.CONSUME) {
+      ConsumeParams consumeParams =
+          ConsumeParams.newBuilder().setPurchaseToken(purchaseToken).build();
+      billingClient.consumeAsync(
+          consumeParams,
+          latencyRecorder.timeConsume(
+              (billingResult, token) -> {
+                // A consumed purchase no longer grants anything; its benefits were delivered.
+                if (billingResult.getResponseCode() == BillingResponseCode.OK
+                    && entitlementStore.remove(purchaseToken)) {
+                  entitlementsBatcher.add(entitlementStore.getSnapshot());
+                }
+                responseListener.onResponse(billingResult);
+              }));
+    } else {
+      AcknowledgePurchaseParams acknowledgePurchaseParams =
+          AcknowledgePurchaseParams.newBuilder().setPurchaseToken(purchaseToken).build();
+      billingClient.acknowledgePurchase(
+          acknowledgePurchaseParams, latencyRecorder.timeAcknowledge(responseListener::onResponse));
+    }
+  }
+
+  private void replayPurchaseJournal() {
+    if (purchaseJournalReplayed) {
+      return;
+    }
+    purchaseJournalReplayed = true;
+    purchaseJournal.replayIncomplete(acknowledgeConsumeDispatcher::submit);
+  }
+
+  /**
+   * Queries the purchases the user owns and handles only those that are new or changed since the
+   * last run. The rest were verified before, so their entitlements are restored directly.
+   */
+  private void reconcilePurchases() {
+    if (purchasesReconciled) {
+      return;
     }
+    purchasesReconciled = true;
+    QueryPurchasesParams queryPurchasesParams =
+        QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.INAPP).build();
+    billingClient.queryPurchasesAsync(
+        queryPurchasesParams,
+        latencyRecorder.timePurchasesQuery(
+            (billingResult, purchases) -> {
+              if (billingResult.getResponseCode() != BillingResponseCode.OK) {
+                Log.e(TAG, "Purchases query failed: " + billingResult.getDebugMessage());
+                // Try again on the next connection.
+                purchasesReconciled = false;
+                return;
+              }
+              purchaseWatermark.reconcile(
+                  purchases,
+                  (changedPurchases, unchangedPurchases) -> {
+                    if (entitlementStore.updateAll(unchangedPurchases)) {
+                      entitlementsBatcher.add(entitlementStore.getSnapshot());
+                    }
+                    if (!changedPurchases.isEmpty()) {
+                      purchaseProcessor.submit(changedPurchases);
+                    }
+                  });
+            }));
   }
 
   private void queryProductDetails(ImmutableList<Product> productList) {
     Log.i(TAG, "Querying products for: " + productList);
-    QueryProductDetailsParams queryProductDetailsParams =
-        QueryProductDetailsParams.newBuilder().setProductList(productList).build();
-    billingClient.queryProductDetailsAsync(
-        queryProductDetailsParams,
-        new ProductDetailsResponseListener() {
-          @Override
-          public void onProductDetailsResponse(
-              BillingResult billingResult, QueryProductDetailsResult productDetailsResponse) {
-            // check billingResult
-            Log.i(TAG, "Billing result after querying: " + billingResult.getResponseCode());
-            // process returned productDetailsList
-            Log.i(
-                TAG,
-                "Print unfetched products: " + productDetailsResponse.getUnfetchedProductList());
-            setupProductDetailsMap(productDetailsResponse.getProductDetailsList());
-            billingServiceClientListener.onProductDetailsFetched(productDetailsMap);
-          }
-        });
+    new ProductDetailsBatchQuery(
+            billingClient,
+            latencyRecorder,
+            ProductDetailsBatchQuery.DEFAULT_BATCH_SIZE,
+            ProductDetailsBatchQuery.DEFAULT_MAX_CONCURRENT_BATCHES,
+            new ProductDetailsBatchQuery.Listener() {
+              @Override
+              public void onBatchFetched(List<ProductDetails> productDetailsList) {
+                setupProductDetailsMap(productDetailsList);
+                billingServiceClientListener.onProductDetailsBatchFetched(
+                    toProductDetailsMap(productDetailsList));
+              }
+
+              @Override
+              public void onComplete(
+                  List<ProductDetails> productDetailsList,
+                  List<String> unavailableProductIds,
+                  BillingResult failure) {
+                if (!unavailableProductIds.isEmpty()) {
+                  Log.w(TAG, "Products not available: " + unavailableProductIds);
+                }
+                if (failure != null) {
+                  Log.e(TAG, "Some products could not be queried: " + failure.getResponseCode());
+                }
+                notifyLiveProductDetails(productDetailsList);
+                cacheExecutor.execute(() -> productDetailsCache.save(productDetailsList));
+              }
+            })
+        .start(productList);
+  }
+
+  private static Map<String, ProductDetails> toProductDetailsMap(
+      List<ProductDetails> productDetailsList) {
+    Map<String, ProductDetails> productDetailsMap = new HashMap<>();
+    for (ProductDetails productDetails : productDetailsList) {
+      productDetailsMap.put(productDetails.getProductId(), productDetails);
+    }
+    return productDetailsMap;
+  }
+
+  private void loadCachedProductDetails() {
+    Map<String, ProductDetails> cached = productDetailsCache.load();
+    synchronized (productDetailsLock) {
+      // The live query won the race, so there is nothing to gain from the cache.
+      if (liveProductDetailsReceived || cached.isEmpty()) {
+        return;
+      }
+      Log.i(TAG, "Serving cached products: " + cached.keySet());
+      cachedProductDetailsMap = cached;
+      billingServiceClientListener.onProductDetailsFetched(cached);
+    }
+  }
+
+  private void notifyLiveProductDetails(List<ProductDetails> productDetailsList) {
+    synchronized (productDetailsLock) {
+      liveProductDetailsReceived = true;
+      if (cachedProductDetailsMap == null) {
+        billingServiceClientListener.onProductDetailsFetched(productDetailsMap);
+        return;
+      }
+      // Only report the products whose rendering differs from what the cache already showed.
+      Map<String, ProductDetails> updatedProductDetailsMap = new HashMap<>();
+      for (ProductDetails productDetails : productDetailsList) {
+        ProductDetails cached = cachedProductDetailsMap.get(productDetails.getProductId());
+        if (cached == null || !ProductDetailsCache.isSameListing(cached, productDetails)) {
+          updatedProductDetailsMap.put(productDetails.getProductId(), productDetails);
+        }
+      }
+      if (!updatedProductDetailsMap.isEmpty()) {
+        billingServiceClientListener.onProductDetailsUpdated(updatedProductDetailsMap);
+      }
+    }
   }
 
   /**
-   * Determines if a purchase should be consumed. **Note:** This implementation is provided as an
-   * example. Developers should implement their specific business logic to accurately determine if a
-   * purchase should be consumed.
+   * Determines if a purchase should be consumed, which is the case when every product in it is of a
+   * consumable {@link ProductClassRegistry.ProductClass}. Products missing from the registry fall
+   * back to the "consumable_" ID prefix.
    *
    * @param purchase The purchase to check.
    * @return True if the purchase should be consumed, false otherwise.
    */
   private boolean shouldConsume(Purchase purchase) {
-    return purchase.getProducts().stream()
-        .allMatch(productId -> productId.startsWith(CONSUMABLE_PRODUCT_PREFIX));
+    ProductClassRegistry registry = productClassRegistry;
+    List<String> products = purchase.getProducts();
+    for (int i = 0; i < products.size(); i++) {
+      String productId = products.get(i);
+      ProductClass productClass = registry.getProductClass(productId, null);
+      boolean consumable =
+          productClass != null
+              ? productClass.isConsumable()
+              : productId.startsWith(CONSUMABLE_PRODUCT_PREFIX);
+      if (!consumable) {
+        return false;
+      }
+    }
+    return true;
   }
 }
@@ -22,11 +22,62 @@ import java.util.Map;
 /** Interface for handling events from the BillingServiceClient class. */
 public interface BillingServiceClientListener {
   /**
-   * Called when a purchase is updated.
+   * Called when a purchase is updated. Purchase updates are reported on the main thread.
    *
    * @param billingResult The contains the message to display to the user.
    * @param responseCode The responseCode returned by the Billing API after billing flow
    */
   void onBillingResponse(int responseCode, BillingResult billingResult);
+
+  /**
+   * Called with the product details to render first. These may come from the on-disk cache, in
+   * which case they can only be displayed and {@link #onProductDetailsUpdated} follows once the
+   * live query returns.
+   *
+   * @param productDetailsMap A map of productId to ProductDetails.
+   */
   void onProductDetailsFetched(Map<String, ProductDetails> productDetailsMap);
+
+  /**
+   * Called as each batch of a product details query lands, before {@link
+   * #onProductDetailsFetched} or {@link #onProductDetailsUpdated} reports the whole query.
+   *
+   * @param productDetailsMap A map of productId to ProductDetails for this batch only.
+   */
+  default void onProductDetailsBatchFetched(Map<String, ProductDetails> productDetailsMap) {}
+
+  /**
+   * Called when the live query returns after cached product details were served, with only the
+   * products whose details changed.
+   *
+   * @param updatedProductDetailsMap A map of productId to the changed ProductDetails.
+   */
+  void onProductDetailsUpdated(Map<String, ProductDetails> updatedProductDetailsMap);
+
+  /**
+   * Called once a purchase has been acknowledged or consumed, or has failed after retries.
+   *
+   * @param purchaseToken The token of the processed purchase.
+   * @param billingResult The final result of the acknowledge or consume request.
+   */
+  void onPurchaseProcessed(String purchaseToken, BillingResult billingResult);
+
+  /**
+   * Called on the main thread when purchases are granted, become pending or are consumed.
+   *
+   * @param entitlements The entitlements after the change.
+   */
+  default void onEntitlementsChanged(EntitlementStore.Snapshot entitlements) {}
+
+  /**
+   * Called on the main thread with the purchases processed since the last call. The default
+   * implementation calls {@link #onPurchaseProcessed} for each of them.
+   *
+   * @param billingResults A map of purchase token to the final result, in completion order.
+   */
+  default void onPurchasesProcessed(Map<String, BillingResult> billingResults) {
+    for (Map.Entry<String, BillingResult> entry : billingResults.entrySet()) {
+      onPurchaseProcessed(entry.getKey(), entry.getValue());
+    }
+  }
 }
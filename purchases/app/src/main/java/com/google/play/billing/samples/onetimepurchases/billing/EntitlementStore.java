@@ -0,0 +1,310 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.Purchase.PurchaseState;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The purchases the user owns or is waiting on, indexed by product ID and purchase token.
+ *
+ * <p>Reads go through an immutable {@link Snapshot}, so {@link #isEntitled} is a lock-free set
+ * lookup from any thread. Each update publishes a new snapshot, rebuilding only the index entries
+ * of the products it touched.
+ */
+public class EntitlementStore {
+
+  /** Whether the user has the benefits of a purchase yet. */
+  public enum State {
+    /** Paid for but awaiting payment; the user must not receive benefits yet. */
+    PENDING,
+    /** Paid for; the user receives the benefits. */
+    PURCHASED
+  }
+
+  /** A purchase the user owns or is waiting on. */
+  public static final class Entitlement {
+    public final String purchaseToken;
+    public final List<String> productIds;
+    public final State state;
+    public final long purchaseTimeMillis;
+
+    private Entitlement(
+        String purchaseToken, List<String> productIds, State state, long purchaseTimeMillis) {
+      this.purchaseToken = purchaseToken;
+      this.productIds = productIds;
+      this.state = state;
+      this.purchaseTimeMillis = purchaseTimeMillis;
+    }
+
+    @Override
+    public String toString() {
+      return "Entitlement{purchaseToken="
+          + purchaseToken
+          + ", productIds="
+          + productIds
+          + ", state="
+          + state
+          + ", purchaseTimeMillis="
+          + purchaseTimeMillis
+          + "}";
+    }
+  }
+
+  /** An immutable view of the store. Safe to read from any thread. */
+  public static final class Snapshot {
+    static final Snapshot EMPTY =
+        new Snapshot(
+            Collections.emptyMap(),
+            Collections.emptyMap(),
+            Collections.emptySet(),
+            Collections.emptySet());
+
+    private final Map<String, Entitlement> entitlementsByToken;
+    private final Map<String, List<Entitlement>> entitlementsByProduct;
+    private final Set<String> entitledProductIds;
+    private final Set<String> pendingProductIds;
+
+    private Snapshot(
+        Map<String, Entitlement> entitlementsByToken,
+        Map<String, List<Entitlement>> entitlementsByProduct,
+        Set<String> entitledProductIds,
+        Set<String> pendingProductIds) {
+      this.entitlementsByToken = entitlementsByToken;
+      this.entitlementsByProduct = entitlementsByProduct;
+      this.entitledProductIds = entitledProductIds;
+      this.pendingProductIds = pendingProductIds;
+    }
+
+    /** Returns whether the user has a purchased entitlement to the product. */
+    public boolean isEntitled(String productId) {
+      return entitledProductIds.contains(productId);
+    }
+
+    /** Returns whether the user has a pending purchase of the product. */
+    public boolean isPending(String productId) {
+      return pendingProductIds.contains(productId);
+    }
+
+    /** Returns the entitlement of a purchase token, or null if there is none. */
+    public Entitlement getEntitlement(String purchaseToken) {
+      return entitlementsByToken.get(purchaseToken);
+    }
+
+    /** Returns the entitlements that include the product, pending ones included. */
+    public List<Entitlement> getEntitlements(String productId) {
+      List<Entitlement> entitlements = entitlementsByProduct.get(productId);
+      return entitlements == null ? Collections.emptyList() : entitlements;
+    }
+
+    /** Returns the IDs of the products the user has a purchased entitlement to. */
+    public Set<String> getEntitledProductIds() {
+      return entitledProductIds;
+    }
+
+    /** Returns the number of entitlements. */
+    public int size() {
+      return entitlementsByToken.size();
+    }
+  }
+
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  /** Returns the current snapshot. Later updates do not change it. */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /** Returns whether the user has a purchased entitlement to the product. */
+  public boolean isEntitled(String productId) {
+    return snapshot.isEntitled(productId);
+  }
+
+  /**
+   * Records a purchase delivered by Google Play. Purchases in an unspecified state are removed.
+   *
+   * @param purchase The purchase to record.
+   * @return Whether the store changed.
+   */
+  public synchronized boolean update(Purchase purchase) {
+    Entitlement entitlement = toEntitlement(purchase);
+    if (entitlement == null) {
+      return remove(purchase.getPurchaseToken());
+    }
+    Entitlement previous = snapshot.entitlementsByToken.get(entitlement.purchaseToken);
+    if (previous != null && previous.state == entitlement.state) {
+      return false;
+    }
+    Map<String, Entitlement> entitlementsByToken = new HashMap<>(snapshot.entitlementsByToken);
+    entitlementsByToken.put(entitlement.purchaseToken, entitlement);
+    publish(entitlementsByToken, previous, entitlement);
+    return true;
+  }
+
+  /**
+   * Removes the entitlement of a purchase token, such as once a consumable is consumed.
+   *
+   * @param purchaseToken The token of the purchase to remove.
+   * @return Whether the store changed.
+   */
+  public synchronized boolean remove(String purchaseToken) {
+    Entitlement previous = snapshot.entitlementsByToken.get(purchaseToken);
+    if (previous == null) {
+      return false;
+    }
+    Map<String, Entitlement> entitlementsByToken = new HashMap<>(snapshot.entitlementsByToken);
+    entitlementsByToken.remove(purchaseToken);
+    publish(entitlementsByToken, previous, /* updated= */ null);
+    return true;
+  }
+
+  /**
+   * Records many purchases at once, such as those restored on startup, rebuilding the indexes once
+   * rather than once per purchase. Entitlements of other purchases are kept.
+   *
+   * @param purchases The purchases to record.
+   * @return Whether the store changed.
+   */
+  public synchronized boolean updateAll(List<Purchase> purchases) {
+    Map<String, Entitlement> entitlementsByToken = new HashMap<>(snapshot.entitlementsByToken);
+    boolean changed = false;
+    for (Purchase purchase : purchases) {
+      Entitlement entitlement = toEntitlement(purchase);
+      if (entitlement == null) {
+        changed |= entitlementsByToken.remove(purchase.getPurchaseToken()) != null;
+        continue;
+      }
+      Entitlement previous = entitlementsByToken.put(entitlement.purchaseToken, entitlement);
+      changed |= previous == null || previous.state != entitlement.state;
+    }
+    if (changed) {
+      publishAll(entitlementsByToken);
+    }
+    return changed;
+  }
+
+  /** Publishes a snapshot with every index rebuilt from the entitlements. Must hold the lock. */
+  private void publishAll(Map<String, Entitlement> entitlementsByToken) {
+    Map<String, List<Entitlement>> entitlementsByProduct = new HashMap<>();
+    for (Entitlement entitlement : entitlementsByToken.values()) {
+      for (String productId : entitlement.productIds) {
+        List<Entitlement> entitlements = entitlementsByProduct.get(productId);
+        if (entitlements == null) {
+          entitlements = new ArrayList<>();
+          entitlementsByProduct.put(productId, entitlements);
+        }
+        entitlements.add(entitlement);
+      }
+    }
+    Set<String> entitledProductIds = new HashSet<>();
+    Set<String> pendingProductIds = new HashSet<>();
+    for (Map.Entry<String, List<Entitlement>> entry : entitlementsByProduct.entrySet()) {
+      entry.setValue(Collections.unmodifiableList(entry.getValue()));
+      indexProduct(entry.getKey(), entry.getValue(), entitledProductIds, pendingProductIds);
+    }
+    snapshot =
+        new Snapshot(
+            Collections.unmodifiableMap(entitlementsByToken),
+            Collections.unmodifiableMap(entitlementsByProduct),
+            Collections.unmodifiableSet(entitledProductIds),
+            Collections.unmodifiableSet(pendingProductIds));
+  }
+
+  /**
+   * Publishes a snapshot in which a token's entitlement changed from {@code previous} to {@code
+   * updated}, either of which may be null. Only the indexes of their products are rebuilt. Must
+   * hold the lock.
+   */
+  private void publish(
+      Map<String, Entitlement> entitlementsByToken, Entitlement previous, Entitlement updated) {
+    String purchaseToken = previous != null ? previous.purchaseToken : updated.purchaseToken;
+    Set<String> changedProductIds = new HashSet<>();
+    if (previous != null) {
+      changedProductIds.addAll(previous.productIds);
+    }
+    if (updated != null) {
+      changedProductIds.addAll(updated.productIds);
+    }
+    Map<String, List<Entitlement>> entitlementsByProduct =
+        new HashMap<>(snapshot.entitlementsByProduct);
+    Set<String> entitledProductIds = new HashSet<>(snapshot.entitledProductIds);
+    Set<String> pendingProductIds = new HashSet<>(snapshot.pendingProductIds);
+    for (String productId : changedProductIds) {
+      List<Entitlement> entitlements = new ArrayList<>();
+      for (Entitlement entitlement : snapshot.getEntitlements(productId)) {
+        if (!entitlement.purchaseToken.equals(purchaseToken)) {
+          entitlements.add(entitlement);
+        }
+      }
+      if (updated != null && updated.productIds.contains(productId)) {
+        entitlements.add(updated);
+      }
+      entitledProductIds.remove(productId);
+      pendingProductIds.remove(productId);
+      if (entitlements.isEmpty()) {
+        entitlementsByProduct.remove(productId);
+      } else {
+        entitlementsByProduct.put(productId, Collections.unmodifiableList(entitlements));
+        indexProduct(productId, entitlements, entitledProductIds, pendingProductIds);
+      }
+    }
+    snapshot =
+        new Snapshot(
+            Collections.unmodifiableMap(entitlementsByToken),
+            Collections.unmodifiableMap(entitlementsByProduct),
+            Collections.unmodifiableSet(entitledProductIds),
+            Collections.unmodifiableSet(pendingProductIds));
+  }
+
+  private static void indexProduct(
+      String productId,
+      List<Entitlement> entitlements,
+      Set<String> entitledProductIds,
+      Set<String> pendingProductIds) {
+    for (Entitlement entitlement : entitlements) {
+      if (entitlement.state == State.PURCHASED) {
+        entitledProductIds.add(productId);
+      } else {
+        pendingProductIds.add(productId);
+      }
+    }
+  }
+
+  private static Entitlement toEntitlement(Purchase purchase) {
+    State state;
+    switch (purchase.getPurchaseState()) {
+      case PurchaseState.PURCHASED:
+        state = State.PURCHASED;
+        break;
+      case PurchaseState.PENDING:
+        state = State.PENDING;
+        break;
+      default:
+        return null;
+    }
+    return new Entitlement(
+        purchase.getPurchaseToken(),
+        Collections.unmodifiableList(new ArrayList<>(purchase.getProducts())),
+        state,
+        purchase.getPurchaseTime());
+  }
+}
@@ -0,0 +1,147 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.Purchase;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Verifies purchases by posting each batch to a backend endpoint.
+ *
+ * <p>The request body is {@code {"purchases":[{"purchaseToken":..., "originalJson":...,
+ * "signature":...}]}} and the backend responds with {@code {"verifiedTokens":[...]}}. Up to {@code
+ * maxConcurrentRequests} requests run at once, reusing kept-alive connections.
+ */
+public class HttpPurchaseVerifier implements PurchaseVerifier {
+
+  static final String PURCHASES_KEY = "purchases";
+  static final String PURCHASE_TOKEN_KEY = "purchaseToken";
+  static final String ORIGINAL_JSON_KEY = "originalJson";
+  static final String SIGNATURE_KEY = "signature";
+  static final String VERIFIED_TOKENS_KEY = "verifiedTokens";
+
+  private final URL endpoint;
+  private final int timeoutMillis;
+  private final ExecutorService requestExecutor;
+
+  /**
+   * @param endpoint The backend URL that batches are posted to.
+   * @param maxConcurrentRequests The maximum number of requests in flight at once.
+   * @param timeoutMillis The connect and read timeout of each request.
+   */
+  public HttpPurchaseVerifier(URL endpoint, int maxConcurrentRequests, int timeoutMillis) {
+    this.endpoint = endpoint;
+    this.timeoutMillis = timeoutMillis;
+    requestExecutor = Executors.newFixedThreadPool(maxConcurrentRequests);
+  }
+
+  @Override
+  public void verify(List<Purchase> purchases, ResultListener resultListener) {
+    try {
+      requestExecutor.execute(
+          () -> {
+            Set<String> verifiedTokens;
+            try {
+              verifiedTokens = post(purchases);
+            } catch (IOException | JSONException e) {
+              resultListener.onFailed(e);
+              return;
+            }
+            resultListener.onVerified(verifiedTokens);
+          });
+    } catch (RejectedExecutionException e) {
+      resultListener.onFailed(e);
+    }
+  }
+
+  /** Stops sending requests. Requests already in flight still complete. */
+  public void shutdown() {
+    requestExecutor.shutdown();
+  }
+
+  private Set<String> post(List<Purchase> purchases) throws IOException, JSONException {
+    JSONArray purchaseArray = new JSONArray();
+    for (Purchase purchase : purchases) {
+      purchaseArray.put(
+          new JSONObject()
+              .put(PURCHASE_TOKEN_KEY, purchase.getPurchaseToken())
+              .put(ORIGINAL_JSON_KEY, purchase.getOriginalJson())
+              .put(SIGNATURE_KEY, purchase.getSignature()));
+    }
+    byte[] requestBody =
+        new JSONObject()
+            .put(PURCHASES_KEY, purchaseArray)
+            .toString()
+            .getBytes(StandardCharsets.UTF_8);
+
+    HttpURLConnection connection = (HttpURLConnection) endpoint.openConnection();
+    // The connection is only closed on failure. Otherwise, fully reading the response returns it
+    // to the keep-alive pool for the next request.
+    try {
+      connection.setConnectTimeout(timeoutMillis);
+      connection.setReadTimeout(timeoutMillis);
+      connection.setRequestMethod("POST");
+      connection.setRequestProperty("Content-Type", "application/json; charset=utf-8");
+      // Not streamed, so the headers and body go out in one write instead of waiting on an ACK.
+      connection.setDoOutput(true);
+      try (OutputStream outputStream = connection.getOutputStream()) {
+        outputStream.write(requestBody);
+      }
+      int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        throw new IOException("Verification request failed with HTTP " + responseCode);
+      }
+      String responseBody;
+      try (InputStream inputStream = connection.getInputStream()) {
+        responseBody = readFully(inputStream);
+      }
+      JSONArray verifiedTokenArray =
+          new JSONObject(responseBody).getJSONArray(VERIFIED_TOKENS_KEY);
+      Set<String> verifiedTokens = new HashSet<>();
+      for (int i = 0; i < verifiedTokenArray.length(); i++) {
+        verifiedTokens.add(verifiedTokenArray.getString(i));
+      }
+      return verifiedTokens;
+    } catch (IOException | JSONException e) {
+      connection.disconnect();
+      throw e;
+    }
+  }
+
+  private static String readFully(InputStream inputStream) throws IOException {
+    ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+    byte[] buffer = new byte[8192];
+    int read;
+    while ((read = inputStream.read(buffer)) != -1) {
+      outputStream.write(buffer, 0, read);
+    }
+    return new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+  }
+}
@@ -0,0 +1,73 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executor;
+
+/**
+ * Hands items produced on background threads to the main thread in batches.
+ *
+ * <p>At most one task is posted to the main thread at a time. Items added while it is pending join
+ * its batch, so a burst of results costs one main thread task rather than one per item.
+ *
+ * @param <T> The type of the items.
+ */
+final class MainThreadBatcher<T> {
+
+  /** Receives each batch on the main thread. */
+  interface BatchListener<T> {
+    void onBatch(List<T> batch);
+  }
+
+  private final Executor mainThreadExecutor;
+  private final BatchListener<T> batchListener;
+
+  // The fields below are guarded by this.
+  private List<T> pending = new ArrayList<>();
+  private boolean posted;
+
+  /**
+   * @param mainThreadExecutor Runs tasks on the main thread.
+   * @param batchListener Receives each batch on the main thread.
+   */
+  MainThreadBatcher(Executor mainThreadExecutor, BatchListener<T> batchListener) {
+    this.mainThreadExecutor = mainThreadExecutor;
+    this.batchListener = batchListener;
+  }
+
+  /** Adds an item to the next batch, posting the batch to the main thread unless it already is. */
+  void add(T item) {
+    synchronized (this) {
+      pending.add(item);
+      if (posted) {
+        return;
+      }
+      posted = true;
+    }
+    mainThreadExecutor.execute(this::deliver);
+  }
+
+  private void deliver() {
+    List<T> batch;
+    synchronized (this) {
+      batch = pending;
+      pending = new ArrayList<>();
+      posted = false;
+    }
+    batchListener.onBatch(batch);
+  }
+}
@@ -0,0 +1,132 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import java.util.Collections;
+import java.util.Map;
+
+/**
+ * Immutable lookup table from product ID to {@link ProductClass}.
+ *
+ * <p>The table is built once from app-supplied data and then only read, so it can be shared across
+ * threads without locking. Product IDs are interned and stored in an open-addressing table with
+ * their hashes, so a lookup is a hash, a few array reads and usually a single string comparison.
+ */
+public final class ProductClassRegistry {
+
+  /** How a one-time product is handled once purchased. */
+  public enum ProductClass {
+    /** Consumed after purchase, so it can be bought again. */
+    CONSUMABLE(true),
+    /** Acknowledged and owned permanently. */
+    NON_CONSUMABLE(false),
+    /** Consumed after purchase, so it can be rented again once the rental expires. */
+    RENTAL(true),
+    /** Acknowledged; the content is delivered once it is released. */
+    PREORDER(false);
+
+    private final boolean consumable;
+
+    ProductClass(boolean consumable) {
+      this.consumable = consumable;
+    }
+
+    /** Returns true if purchases of this class should be consumed rather than acknowledged. */
+    public boolean isConsumable() {
+      return consumable;
+    }
+  }
+
+  /** The class of products missing from the registry. Acknowledging is always safe. */
+  public static final ProductClass DEFAULT_CLASS = ProductClass.NON_CONSUMABLE;
+
+  private static final ProductClassRegistry EMPTY =
+      new ProductClassRegistry(Collections.emptyMap());
+
+  private final String[] productIds;
+  private final int[] hashes;
+  private final ProductClass[] productClasses;
+  private final int mask;
+
+  private ProductClassRegistry(Map<String, ProductClass> productClassMap) {
+    // Keep the table at most half full, so probe sequences stay short.
+    int tableSize = Integer.highestOneBit(Math.max(1, productClassMap.size()) * 2 - 1) << 1;
+    productIds = new String[tableSize];
+    hashes = new int[tableSize];
+    productClasses = new ProductClass[tableSize];
+    mask = tableSize - 1;
+    for (Map.Entry<String, ProductClass> entry : productClassMap.entrySet()) {
+      String productId = entry.getKey().intern();
+      int hash = spread(productId.hashCode());
+      int slot = hash & mask;
+      while (productIds[slot] != null) {
+        slot = (slot + 1) & mask;
+      }
+      productIds[slot] = productId;
+      hashes[slot] = hash;
+      productClasses[slot] = entry.getValue();
+    }
+  }
+
+  /**
+   * Builds a registry from product ID to class, for example as parsed from a config file or
+   * received from a backend.
+   *
+   * @param productClassMap The class of each known product.
+   * @return The registry.
+   */
+  public static ProductClassRegistry of(Map<String, ProductClass> productClassMap) {
+    return new ProductClassRegistry(productClassMap);
+  }
+
+  /** Returns a registry in which every product has the {@link #DEFAULT_CLASS}. */
+  public static ProductClassRegistry empty() {
+    return EMPTY;
+  }
+
+  /**
+   * Returns the class of the given product, or {@link #DEFAULT_CLASS} if it is not registered.
+   *
+   * @param productId The product ID to look up.
+   */
+  public ProductClass getProductClass(String productId) {
+    return getProductClass(productId, DEFAULT_CLASS);
+  }
+
+  /**
+   * Returns the class of the given product, or {@code defaultClass} if it is not registered.
+   *
+   * @param productId The product ID to look up.
+   * @param defaultClass The value to return for unregistered products; may be null.
+   */
+  public ProductClass getProductClass(String productId, ProductClass defaultClass) {
+    int hash = spread(productId.hashCode());
+    int slot = hash & mask;
+    String candidate;
+    while ((candidate = productIds[slot]) != null) {
+      // Reference equality catches interned IDs; the hash check skips most other mismatches.
+      if (candidate == productId || (hashes[slot] == hash && candidate.equals(productId))) {
+        return productClasses[slot];
+      }
+      slot = (slot + 1) & mask;
+    }
+    return defaultClass;
+  }
+
+  /** String hash codes of similar IDs differ mostly in the low bits; spread the high bits down. */
+  private static int spread(int hash) {
+    return hash ^ (hash >>> 16);
+  }
+}
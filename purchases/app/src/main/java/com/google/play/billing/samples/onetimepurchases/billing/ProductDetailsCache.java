@@ -0,0 +1,190 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import android.util.Log;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetails.OneTimePurchaseOfferDetails;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+/**
+ * Disk-backed cache of the last known {@link ProductDetails} catalog, keyed by product ID.
+ *
+ * <p>Only the fields needed to render a product card (name, description and price) are persisted.
+ * The cached {@link ProductDetails} do not carry the offer tokens required by {@code
+ * launchBillingFlow()}, so they must only be used for display until the live query returns
+ * (stale-while-revalidate).
+ *
+ * <p>Entries older than the configured TTL are never served. This class does blocking file I/O and
+ * is not thread-safe; call it from a single background thread.
+ */
+public class ProductDetailsCache {
+
+  private static final String TAG = "ProductDetailsCache";
+  static final String CACHE_FILE_NAME = "product_details_cache.json";
+  static final long DEFAULT_TTL_MILLIS = TimeUnit.DAYS.toMillis(1);
+
+  private static final String KEY_ENTRIES = "entries";
+  private static final String KEY_FETCHED_AT = "fetchedAt";
+  private static final String KEY_DETAILS = "details";
+
+  private final File cacheFile;
+  private final long ttlMillis;
+  // Entries read from or written to disk, keyed by product ID.
+  private final Map<String, JSONObject> entries = new HashMap<>();
+
+  /**
+   * @param cacheDir The directory in which to store the cache file.
+   * @param ttlMillis The maximum age of an entry, in milliseconds, for it to be served.
+   */
+  public ProductDetailsCache(File cacheDir, long ttlMillis) {
+    this.cacheFile = new File(cacheDir, CACHE_FILE_NAME);
+    this.ttlMillis = ttlMillis;
+  }
+
+  /**
+   * Reads the cache file and returns the entries that are still within the TTL.
+   *
+   * @return A map of product ID to cached {@link ProductDetails}. Empty if there is no usable
+   *     cache.
+   */
+  public Map<String, ProductDetails> load() {
+    Map<String, ProductDetails> productDetailsMap = new HashMap<>();
+    entries.clear();
+    if (!cacheFile.exists()) {
+      return productDetailsMap;
+    }
+    try {
+      JSONObject cachedEntries = new JSONObject(readCacheFile()).getJSONObject(KEY_ENTRIES);
+      long now = System.currentTimeMillis();
+      Iterator<String> productIds = cachedEntries.keys();
+      while (productIds.hasNext()) {
+        String productId = productIds.next();
+        JSONObject entry = cachedEntries.getJSONObject(productId);
+        if (now - entry.getLong(KEY_FETCHED_AT) > ttlMillis) {
+          continue;
+        }
+        entries.put(productId, entry);
+        productDetailsMap.put(
+            productId, ProductDetails.fromJson(entry.getJSONObject(KEY_DETAILS).toString()));
+      }
+    } catch (IOException | JSONException e) {
+      Log.w(TAG, "Discarding unreadable product details cache", e);
+      entries.clear();
+      productDetailsMap.clear();
+    }
+    return productDetailsMap;
+  }
+
+  /**
+   * Stores the given product details, keeping previously cached entries that were not part of
+   * this update until they expire.
+   *
+   * @param productDetailsList The freshly fetched product details.
+   */
+  public void save(Collection<ProductDetails> productDetailsList) {
+    long now = System.currentTimeMillis();
+    try {
+      for (ProductDetails productDetails : productDetailsList) {
+        JSONObject entry = new JSONObject();
+        entry.put(KEY_FETCHED_AT, now);
+        entry.put(KEY_DETAILS, toCacheJson(productDetails));
+        entries.put(productDetails.getProductId(), entry);
+      }
+      JSONObject cachedEntries = new JSONObject();
+      for (Map.Entry<String, JSONObject> entry : entries.entrySet()) {
+        if (now - entry.getValue().getLong(KEY_FETCHED_AT) <= ttlMillis) {
+          cachedEntries.put(entry.getKey(), entry.getValue());
+        }
+      }
+      writeCacheFile(new JSONObject().put(KEY_ENTRIES, cachedEntries).toString());
+    } catch (IOException | JSONException e) {
+      Log.w(TAG, "Failed to write product details cache", e);
+    }
+  }
+
+  /**
+   * Returns whether two {@link ProductDetails} render the same, i.e. whether they have the same
+   * cached representation.
+   */
+  static boolean isSameListing(ProductDetails first, ProductDetails second) {
+    try {
+      return toCacheJson(first).toString().equals(toCacheJson(second).toString());
+    } catch (JSONException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Projects the displayable fields of a {@link ProductDetails} onto the JSON format returned by
+   * Google Play, so the result can be parsed back with {@link ProductDetails#fromJson(String)}.
+   */
+  private static JSONObject toCacheJson(ProductDetails productDetails) throws JSONException {
+    JSONObject json =
+        new JSONObject()
+            .put("productId", productDetails.getProductId())
+            .put("type", productDetails.getProductType())
+            .put("title", productDetails.getTitle())
+            .put("name", productDetails.getName())
+            .put("description", productDetails.getDescription());
+    OneTimePurchaseOfferDetails offerDetails = productDetails.getOneTimePurchaseOfferDetails();
+    if (offerDetails != null) {
+      json.put(
+          "oneTimePurchaseOfferDetails",
+          new JSONObject()
+              .put("formattedPrice", offerDetails.getFormattedPrice())
+              .put("priceAmountMicros", offerDetails.getPriceAmountMicros())
+              .put("priceCurrencyCode", offerDetails.getPriceCurrencyCode()));
+    }
+    return json;
+  }
+
+  private String readCacheFile() throws IOException {
+    try (InputStream inputStream = new FileInputStream(cacheFile)) {
+      byte[] buffer = new byte[(int) cacheFile.length()];
+      int offset = 0;
+      int read;
+      while (offset < buffer.length
+          && (read = inputStream.read(buffer, offset, buffer.length - offset)) != -1) {
+        offset += read;
+      }
+      return new String(buffer, 0, offset, StandardCharsets.UTF_8);
+    }
+  }
+
+  private void writeCacheFile(String contents) throws IOException {
+    // Write to a temporary file first so a crash mid-write never leaves a truncated cache behind.
+    File tempFile = new File(cacheFile.getPath() + ".tmp");
+    try (OutputStream outputStream = new FileOutputStream(tempFile)) {
+      outputStream.write(contents.getBytes(StandardCharsets.UTF_8));
+    }
+    if (!tempFile.renameTo(cacheFile)) {
+      throw new IOException("Could not replace " + cacheFile);
+    }
+  }
+}
@@ -0,0 +1,298 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import android.util.Log;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Append-only, memory-mapped journal of the acknowledge and consume requests sent to Google Play.
+ *
+ * <p>A record is appended for each purchase token before its request is issued, and a completion
+ * record once a final response arrives. On startup only the requests without a completion record
+ * are replayed, so recovery cost is proportional to what was in flight rather than to the whole
+ * purchase history.
+ *
+ * <p>All file access happens on a single background thread. Records appended back to back are made
+ * durable with one {@link MappedByteBuffer#force()}, after which the requests waiting on them are
+ * issued.
+ */
+public class PurchaseJournal {
+
+  /** The request recorded for a purchase token. */
+  public enum Operation {
+    ACKNOWLEDGE,
+    CONSUME
+  }
+
+  /** Receives the operations that were started but never completed. */
+  public interface ReplayListener {
+    void onIncompleteOperation(String purchaseToken, Operation operation);
+  }
+
+  private static final String TAG = "PurchaseJournal";
+  static final String JOURNAL_FILE_NAME = "purchase_journal.bin";
+  private static final int INITIAL_CAPACITY_BYTES = 16 * 1024;
+
+  // Record layout: [type: 1 byte][token length: 2 bytes][token: UTF-8 bytes]. A zero type byte
+  // marks the end of the journal, so the type is written last to make a torn append invisible.
+  private static final byte RECORD_END = 0;
+  private static final byte RECORD_ACKNOWLEDGE = 1;
+  private static final byte RECORD_CONSUME = 2;
+  private static final byte RECORD_COMPLETE = 3;
+  private static final int RECORD_HEADER_BYTES = 3;
+
+  private final File journalFile;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // The fields below are only accessed on the executor thread.
+  private final Map<String, Operation> incompleteOperations = new LinkedHashMap<>();
+  private final List<Runnable> pendingContinuations = new ArrayList<>();
+  private RandomAccessFile randomAccessFile;
+  private MappedByteBuffer buffer;
+  private boolean openFailed;
+  private boolean flushScheduled;
+
+  /**
+   * @param directory The directory in which to store the journal file. It must survive process
+   *     death, so it should not be a cache directory.
+   */
+  public PurchaseJournal(File directory) {
+    this.journalFile = new File(directory, JOURNAL_FILE_NAME);
+  }
+
+  /**
+   * Records that an operation is about to be issued for the given purchase token.
+   *
+   * @param purchaseToken The token of the purchase to acknowledge or consume.
+   * @param operation The operation about to be issued.
+   * @param onDurable Run on the journal thread once the record is on disk. Issue the request here.
+   */
+  public void recordStarted(String purchaseToken, Operation operation, Runnable onDurable) {
+    execute(
+        () -> {
+          if (ensureOpen() && !incompleteOperations.containsKey(purchaseToken)) {
+            append(
+                operation == Operation.CONSUME ? RECORD_CONSUME : RECORD_ACKNOWLEDGE,
+                purchaseToken);
+            incompleteOperations.put(purchaseToken, operation);
+          }
+          // Even without a journal the request is still issued; it just is not recoverable.
+          pendingContinuations.add(onDurable);
+          scheduleFlush();
+        });
+  }
+
+  /**
+   * Records that a final response was received for the given purchase token.
+   *
+   * @param purchaseToken The token of the acknowledged or consumed purchase.
+   */
+  public void recordCompleted(String purchaseToken) {
+    execute(
+        () -> {
+          if (ensureOpen() && incompleteOperations.remove(purchaseToken) != null) {
+            append(RECORD_COMPLETE, purchaseToken);
+            scheduleFlush();
+          }
+        });
+  }
+
+  /**
+   * Reports every operation that was started but not completed, on the journal thread.
+   *
+   * @param replayListener The listener to receive the incomplete operations.
+   */
+  public void replayIncomplete(ReplayListener replayListener) {
+    execute(
+        () -> {
+          if (!ensureOpen()) {
+            return;
+          }
+          Log.i(TAG, "Replaying " + incompleteOperations.size() + " incomplete operations");
+          for (Map.Entry<String, Operation> entry :
+              new ArrayList<>(incompleteOperations.entrySet())) {
+            replayListener.onIncompleteOperation(entry.getKey(), entry.getValue());
+          }
+        });
+  }
+
+  /** Flushes pending records and releases the journal file. */
+  public void close() {
+    execute(
+        () -> {
+          flush();
+          closeFile();
+        });
+    executor.shutdown();
+  }
+
+  private void execute(Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Journal is closed, dropping update");
+    }
+  }
+
+  private void scheduleFlush() {
+    // Every task queued before the flush is covered by the same force().
+    if (!flushScheduled) {
+      flushScheduled = true;
+      execute(this::flush);
+    }
+  }
+
+  private void flush() {
+    flushScheduled = false;
+    if (buffer != null) {
+      buffer.force();
+    }
+    List<Runnable> continuations = new ArrayList<>(pendingContinuations);
+    pendingContinuations.clear();
+    for (Runnable continuation : continuations) {
+      continuation.run();
+    }
+  }
+
+  private boolean ensureOpen() {
+    if (buffer != null) {
+      return true;
+    }
+    if (openFailed) {
+      return false;
+    }
+    try {
+      int recordCount = map(Math.max(INITIAL_CAPACITY_BYTES, (int) journalFile.length()));
+      if (recordCount > incompleteOperations.size()) {
+        compact(buffer.capacity());
+      }
+      return true;
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to open purchase journal", e);
+      openFailed = true;
+      closeFile();
+      return false;
+    }
+  }
+
+  /** Maps the journal file and rebuilds the incomplete operations from it. */
+  private int map(int capacity) throws IOException {
+    randomAccessFile = new RandomAccessFile(journalFile, "rw");
+    buffer = randomAccessFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+    incompleteOperations.clear();
+    int recordCount = 0;
+    while (buffer.remaining() >= RECORD_HEADER_BYTES) {
+      int recordStart = buffer.position();
+      byte type = buffer.get();
+      int tokenLength = buffer.getShort() & 0xFFFF;
+      if (type == RECORD_END || tokenLength > buffer.remaining()) {
+        buffer.position(recordStart);
+        break;
+      }
+      byte[] token = new byte[tokenLength];
+      buffer.get(token);
+      String purchaseToken = new String(token, StandardCharsets.UTF_8);
+      if (type == RECORD_COMPLETE) {
+        incompleteOperations.remove(purchaseToken);
+      } else {
+        incompleteOperations.put(
+            purchaseToken, type == RECORD_CONSUME ? Operation.CONSUME : Operation.ACKNOWLEDGE);
+      }
+      recordCount++;
+    }
+    return recordCount;
+  }
+
+  private void append(byte type, String purchaseToken) {
+    byte[] token = purchaseToken.getBytes(StandardCharsets.UTF_8);
+    int recordLength = RECORD_HEADER_BYTES + token.length;
+    if (buffer.remaining() < recordLength) {
+      try {
+        // Compaction drops completed pairs; grow as well if what is in flight still does not fit.
+        int liveBytes = recordLength;
+        for (String incompleteToken : incompleteOperations.keySet()) {
+          liveBytes +=
+              RECORD_HEADER_BYTES + incompleteToken.getBytes(StandardCharsets.UTF_8).length;
+        }
+        int capacity = buffer.capacity();
+        while (capacity < 2 * liveBytes) {
+          capacity *= 2;
+        }
+        compact(capacity);
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to compact purchase journal", e);
+        return;
+      }
+    }
+    int recordStart = buffer.position();
+    buffer.position(recordStart + 1);
+    buffer.putShort((short) token.length);
+    buffer.put(token);
+    buffer.put(recordStart, type);
+  }
+
+  /**
+   * Rewrites the journal with only the incomplete operations. The new journal is written to a
+   * temporary file and swapped in, so a crash mid-compaction leaves the old journal intact.
+   */
+  private void compact(int capacity) throws IOException {
+    File compactedFile = new File(journalFile.getPath() + ".tmp");
+    if (compactedFile.exists() && !compactedFile.delete()) {
+      throw new IOException("Could not delete " + compactedFile);
+    }
+    try (RandomAccessFile compacted = new RandomAccessFile(compactedFile, "rw")) {
+      MappedByteBuffer compactedBuffer =
+          compacted.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacity);
+      for (Map.Entry<String, Operation> entry : incompleteOperations.entrySet()) {
+        byte[] token = entry.getKey().getBytes(StandardCharsets.UTF_8);
+        compactedBuffer.put(
+            entry.getValue() == Operation.CONSUME ? RECORD_CONSUME : RECORD_ACKNOWLEDGE);
+        compactedBuffer.putShort((short) token.length);
+        compactedBuffer.put(token);
+      }
+      compactedBuffer.force();
+    }
+    closeFile();
+    if (!compactedFile.renameTo(journalFile)) {
+      throw new IOException("Could not replace " + journalFile);
+    }
+    map(capacity);
+  }
+
+  private void closeFile() {
+    buffer = null;
+    if (randomAccessFile != null) {
+      try {
+        randomAccessFile.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to close purchase journal", e);
+      }
+      randomAccessFile = null;
+    }
+  }
+}
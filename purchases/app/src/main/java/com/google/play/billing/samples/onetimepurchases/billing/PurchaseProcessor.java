@@ -0,0 +1,393 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import android.util.Log;
+import com.android.billingclient.api.Purchase;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import org.json.JSONException;
+
+/**
+ * Handles purchase updates on a dedicated thread, with a bounded queue.
+ *
+ * <p>The Billing Library delivers purchase updates on the main thread, so {@link #submit} only
+ * queues them. What happens once the queue is full is set by the {@link OverflowPolicy}.
+ */
+public class PurchaseProcessor {
+
+  /** What {@link #submit} does with a purchase once the queue is full. */
+  public enum OverflowPolicy {
+    /** Waits for space. Every delivery is queued, including duplicates of queued purchases. */
+    BLOCK,
+    /**
+     * Drops deliveries of purchases that are already queued, then waits for space for new ones. A
+     * burst of redeliveries never blocks the caller.
+     */
+    DROP_DUPLICATES,
+    /**
+     * Drops deliveries of purchases that are already queued, and hands new ones to the processing
+     * thread, which appends them to a file that is read back once the queue empties. The caller
+     * never blocks or touches the disk.
+     */
+    SPILL_TO_DISK
+  }
+
+  /** Handles a single purchase on the processing thread. */
+  public interface PurchaseHandler {
+    void handle(Purchase purchase);
+  }
+
+  /** A point-in-time view of the processor counters. */
+  public static final class Stats {
+    public final int queued;
+    public final long spilled;
+    public final long submitted;
+    public final long duplicatesDropped;
+    public final long overflowDropped;
+    public final long processed;
+
+    private Stats(
+        int queued,
+        long spilled,
+        long submitted,
+        long duplicatesDropped,
+        long overflowDropped,
+        long processed) {
+      this.queued = queued;
+      this.spilled = spilled;
+      this.submitted = submitted;
+      this.duplicatesDropped = duplicatesDropped;
+      this.overflowDropped = overflowDropped;
+      this.processed = processed;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{queued="
+          + queued
+          + ", spilled="
+          + spilled
+          + ", submitted="
+          + submitted
+          + ", duplicatesDropped="
+          + duplicatesDropped
+          + ", overflowDropped="
+          + overflowDropped
+          + ", processed="
+          + processed
+          + "}";
+    }
+  }
+
+  private static final String TAG = "PurchaseProcessor";
+  static final int DEFAULT_CAPACITY = 256;
+
+  private final File spillFile;
+  private final int capacity;
+  private final OverflowPolicy overflowPolicy;
+  private final PurchaseHandler purchaseHandler;
+  private final ExecutorService processingExecutor = Executors.newSingleThreadExecutor();
+
+  // The fields below are guarded by this.
+  private final Deque<Purchase> queue = new ArrayDeque<>();
+  // Keys of the purchases that are queued, spilled or being handled.
+  private final Set<Long> pendingKeys = new HashSet<>();
+  // Purchases that overflowed the queue, waiting for the processing thread to spill them.
+  private List<Purchase> overflow = new ArrayList<>();
+  // Purchases overflowed or spilled but not yet read back.
+  private long spilled;
+  // Set while the processing thread reads spilled purchases back, which fill the whole queue.
+  private boolean refilling;
+  private boolean draining;
+  private boolean shutDown;
+  private long submitted;
+  private long duplicatesDropped;
+  private long overflowDropped;
+  private long processed;
+
+  // The fields below are only accessed on the processing thread.
+  private DataOutputStream spillOutput;
+  private DataInputStream spillInput;
+  private long spillWritten;
+  private long spillRead;
+
+  /**
+   * @param spillFile The file that purchases overflow to with {@link OverflowPolicy#SPILL_TO_DISK}.
+   * @param capacity The maximum number of purchases held in memory.
+   * @param overflowPolicy What to do with purchases once the queue is full.
+   * @param purchaseHandler Handles each purchase on the processing thread.
+   */
+  public PurchaseProcessor(
+      File spillFile,
+      int capacity,
+      OverflowPolicy overflowPolicy,
+      PurchaseHandler purchaseHandler) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.spillFile = spillFile;
+    this.capacity = capacity;
+    this.overflowPolicy = overflowPolicy;
+    this.purchaseHandler = purchaseHandler;
+    // Purchases spilled by a previous process are delivered again by Google Play.
+    spillFile.delete();
+  }
+
+  /**
+   * Queues purchases for handling. Only blocks with {@link OverflowPolicy#BLOCK} and {@link
+   * OverflowPolicy#DROP_DUPLICATES}, while the queue is full.
+   *
+   * @param purchases The purchases delivered by the Billing Library.
+   */
+  public synchronized void submit(List<Purchase> purchases) {
+    for (Purchase purchase : purchases) {
+      if (shutDown) {
+        return;
+      }
+      submitted++;
+      if (overflowPolicy != OverflowPolicy.BLOCK && !pendingKeys.add(key(purchase))) {
+        duplicatesDropped++;
+        continue;
+      }
+      if (isQueueFull() && overflowPolicy == OverflowPolicy.SPILL_TO_DISK) {
+        overflow.add(purchase);
+        spilled++;
+        continue;
+      }
+      if (isQueueFull()) {
+        // The queue may have filled up within this call, before anything started draining it.
+        startDraining();
+      }
+      while (isQueueFull() && !shutDown) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (isQueueFull() || shutDown) {
+        pendingKeys.remove(key(purchase));
+        overflowDropped++;
+        continue;
+      }
+      queue.addLast(purchase);
+    }
+    startDraining();
+  }
+
+  /** Returns a snapshot of the queue depth and counters. */
+  public synchronized Stats getStats() {
+    return new Stats(
+        queue.size(),
+        spilled,
+        submitted,
+        duplicatesDropped,
+        overflowDropped,
+        processed);
+  }
+
+  /**
+   * Stops processing after the purchase being handled. Queued and spilled purchases are dropped,
+   * since Google Play delivers unacknowledged purchases again.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      shutDown = true;
+      queue.clear();
+      overflow.clear();
+      spilled = 0;
+      pendingKeys.clear();
+      // Wake up the callers waiting for space.
+      notifyAll();
+    }
+    processingExecutor.shutdown();
+  }
+
+  /** Returns whether the queue has no space for another purchase. Must hold the lock. */
+  private boolean isQueueFull() {
+    return refilling || queue.size() >= capacity;
+  }
+
+  /** Starts draining on the processing thread, unless it already is. Must hold the lock. */
+  private void startDraining() {
+    if (draining || shutDown || (queue.isEmpty() && spilled == 0)) {
+      return;
+    }
+    try {
+      processingExecutor.execute(this::drain);
+      draining = true;
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Processor is shut down, dropping purchases");
+    }
+  }
+
+  private void drain() {
+    while (true) {
+      spillOverflow();
+      Purchase purchase;
+      boolean stopped = false;
+      synchronized (this) {
+        purchase = queue.pollFirst();
+        if (purchase == null) {
+          if (shutDown || spilled == 0) {
+            draining = false;
+            stopped = true;
+          } else {
+            refilling = true;
+          }
+        } else {
+          notifyAll();
+        }
+      }
+      if (stopped) {
+        // Nothing is left to read back, or the processor is shut down and drops it.
+        closeSpill();
+        return;
+      }
+      if (purchase == null) {
+        refillFromSpill();
+        continue;
+      }
+      try {
+        purchaseHandler.handle(purchase);
+      } catch (RuntimeException e) {
+        Log.e(TAG, "Failed to handle purchase " + purchase.getPurchaseToken(), e);
+      }
+      synchronized (this) {
+        pendingKeys.remove(key(purchase));
+        processed++;
+      }
+    }
+  }
+
+  /** Appends the purchases that overflowed the queue to the spill file. */
+  private void spillOverflow() {
+    List<Purchase> purchases;
+    synchronized (this) {
+      if (overflow.isEmpty()) {
+        return;
+      }
+      purchases = overflow;
+      overflow = new ArrayList<>();
+    }
+    List<Purchase> droppedPurchases = new ArrayList<>();
+    for (Purchase purchase : purchases) {
+      try {
+        if (spillOutput == null) {
+          spillOutput =
+              new DataOutputStream(
+                  new BufferedOutputStream(new FileOutputStream(spillFile, /* append= */ true)));
+        }
+        spillOutput.writeUTF(purchase.getOriginalJson());
+        spillOutput.writeUTF(purchase.getSignature());
+        spillWritten++;
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to spill purchase, dropping it", e);
+        droppedPurchases.add(purchase);
+      }
+    }
+    if (droppedPurchases.isEmpty()) {
+      return;
+    }
+    synchronized (this) {
+      if (shutDown) {
+        return;
+      }
+      for (Purchase purchase : droppedPurchases) {
+        pendingKeys.remove(key(purchase));
+      }
+      spilled -= droppedPurchases.size();
+      overflowDropped += droppedPurchases.size();
+    }
+  }
+
+  /** Moves up to a queue's worth of spilled purchases back to the queue. */
+  private void refillFromSpill() {
+    List<Purchase> purchases = new ArrayList<>();
+    long droppedCount = 0;
+    if (spillRead < spillWritten) {
+      try {
+        spillOutput.flush();
+        if (spillInput == null) {
+          spillInput =
+              new DataInputStream(new BufferedInputStream(new FileInputStream(spillFile)));
+        }
+        while (purchases.size() < capacity && spillRead < spillWritten) {
+          String originalJson = spillInput.readUTF();
+          String signature = spillInput.readUTF();
+          spillRead++;
+          purchases.add(new Purchase(originalJson, signature));
+        }
+      } catch (IOException | JSONException e) {
+        Log.e(TAG, "Failed to read spilled purchases, dropping them", e);
+        droppedCount = spillWritten - spillRead;
+        spillRead = spillWritten;
+      }
+      if (spillRead == spillWritten) {
+        // Everything spilled has been read back, so start the next spill from an empty file.
+        closeSpill();
+      }
+    }
+    synchronized (this) {
+      refilling = false;
+      if (shutDown) {
+        return;
+      }
+      queue.addAll(purchases);
+      spilled -= purchases.size() + droppedCount;
+      overflowDropped += droppedCount;
+    }
+  }
+
+  /** Closes and deletes the spill file. */
+  private void closeSpill() {
+    try {
+      if (spillOutput != null) {
+        spillOutput.close();
+      }
+      if (spillInput != null) {
+        spillInput.close();
+      }
+    } catch (IOException e) {
+      Log.w(TAG, "Failed to close spill file", e);
+    }
+    spillOutput = null;
+    spillInput = null;
+    spillWritten = 0;
+    spillRead = 0;
+    spillFile.delete();
+  }
+
+  private static long key(Purchase purchase) {
+    return SeenPurchaseSet.hash(purchase.getPurchaseToken(), purchase.getPurchaseState());
+  }
+}
@@ -0,0 +1,311 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import android.util.Log;
+import com.android.billingclient.api.Purchase;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects purchases into micro-batches and sends them to a {@link PurchaseVerifier}.
+ *
+ * <p>A batch is sent once it holds {@code maxBatchSize} purchases, or {@code maxDelayMillis} after
+ * its first purchase arrived, whichever comes first. Up to {@code maxInFlightBatches} batches are
+ * verified at once, so one slow request does not hold up the batches behind it.
+ */
+public class PurchaseVerificationBatcher {
+
+  /** Receives the verification result of each purchase. May be called on any thread. */
+  public interface VerificationListener {
+    /** Called when the backend verified the purchase. Only then may it be granted. */
+    void onVerified(Purchase purchase);
+
+    /** Called when the backend rejected the purchase. */
+    void onRejected(Purchase purchase);
+
+    /** Called when the purchase could not be verified, so it may be verified again later. */
+    void onVerificationFailed(Purchase purchase, Exception e);
+  }
+
+  /** A point-in-time view of the batcher counters. */
+  public static final class Stats {
+    public final int pending;
+    public final int inFlightBatches;
+    public final long submitted;
+    public final long batchesSent;
+    public final long verified;
+    public final long rejected;
+    public final long failed;
+
+    private Stats(
+        int pending,
+        int inFlightBatches,
+        long submitted,
+        long batchesSent,
+        long verified,
+        long rejected,
+        long failed) {
+      this.pending = pending;
+      this.inFlightBatches = inFlightBatches;
+      this.submitted = submitted;
+      this.batchesSent = batchesSent;
+      this.verified = verified;
+      this.rejected = rejected;
+      this.failed = failed;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{pending="
+          + pending
+          + ", inFlightBatches="
+          + inFlightBatches
+          + ", submitted="
+          + submitted
+          + ", batchesSent="
+          + batchesSent
+          + ", verified="
+          + verified
+          + ", rejected="
+          + rejected
+          + ", failed="
+          + failed
+          + "}";
+    }
+  }
+
+  private static final String TAG = "PurchaseVerificationBatcher";
+  static final int DEFAULT_MAX_BATCH_SIZE = 50;
+  static final long DEFAULT_MAX_DELAY_MILLIS = 100;
+  static final int DEFAULT_MAX_IN_FLIGHT_BATCHES = 4;
+
+  private final PurchaseVerifier purchaseVerifier;
+  private final VerificationListener verificationListener;
+  private final int maxBatchSize;
+  private final long maxDelayMillis;
+  private final int maxInFlightBatches;
+  private final ScheduledExecutorService deadlineScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+
+  // The fields below are guarded by this.
+  private List<Purchase> openBatch = new ArrayList<>();
+  private ScheduledFuture<?> openBatchDeadline;
+  // Batches that are full or past their deadline, waiting for a free in-flight slot.
+  private final Deque<List<Purchase>> readyBatches = new ArrayDeque<>();
+  private int pending;
+  private int inFlightBatches;
+  private boolean shutDown;
+  private long submitted;
+  private long batchesSent;
+  private long verified;
+  private long rejected;
+  private long failed;
+
+  /**
+   * @param purchaseVerifier Verifies each batch.
+   * @param verificationListener Notified once per purchase with its result.
+   * @param maxBatchSize The maximum number of purchases per verification request.
+   * @param maxDelayMillis The longest a purchase waits for its batch to fill up.
+   * @param maxInFlightBatches The maximum number of batches awaiting a result at any time.
+   */
+  public PurchaseVerificationBatcher(
+      PurchaseVerifier purchaseVerifier,
+      VerificationListener verificationListener,
+      int maxBatchSize,
+      long maxDelayMillis,
+      int maxInFlightBatches) {
+    if (maxBatchSize <= 0 || maxInFlightBatches <= 0) {
+      throw new IllegalArgumentException(
+          "maxBatchSize and maxInFlightBatches must be positive: "
+              + maxBatchSize
+              + ", "
+              + maxInFlightBatches);
+    }
+    this.purchaseVerifier = purchaseVerifier;
+    this.verificationListener = verificationListener;
+    this.maxBatchSize = maxBatchSize;
+    this.maxDelayMillis = maxDelayMillis;
+    this.maxInFlightBatches = maxInFlightBatches;
+  }
+
+  /**
+   * Adds a purchase to the open batch. Blocks while every in-flight slot is taken and as many
+   * batches again are waiting for one, so a slow backend pushes back on the caller.
+   *
+   * @param purchase The purchase to verify.
+   */
+  public void submit(Purchase purchase) {
+    synchronized (this) {
+      while (readyBatches.size() >= maxInFlightBatches && !shutDown) {
+        try {
+          wait();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+      }
+      if (shutDown) {
+        Log.w(TAG, "Batcher is shut down, not verifying " + purchase.getPurchaseToken());
+        return;
+      }
+      submitted++;
+      pending++;
+      openBatch.add(purchase);
+      if (openBatch.size() >= maxBatchSize) {
+        closeOpenBatch();
+      } else if (openBatch.size() == 1) {
+        scheduleDeadline();
+      }
+    }
+    sendReadyBatches();
+  }
+
+  /** Returns a snapshot of the batch counters. */
+  public synchronized Stats getStats() {
+    return new Stats(
+        pending, inFlightBatches, submitted, batchesSent, verified, rejected, failed);
+  }
+
+  /**
+   * Stops batching. Purchases that were not sent yet are dropped, since Google Play delivers
+   * unacknowledged purchases again. Batches in flight still report their results.
+   */
+  public void shutdown() {
+    synchronized (this) {
+      shutDown = true;
+      for (List<Purchase> batch : readyBatches) {
+        pending -= batch.size();
+      }
+      readyBatches.clear();
+      pending -= openBatch.size();
+      openBatch = new ArrayList<>();
+      // Wake up the callers waiting for space.
+      notifyAll();
+    }
+    deadlineScheduler.shutdownNow();
+  }
+
+  /** Moves the open batch to the ready batches. Must hold the lock. */
+  private void closeOpenBatch() {
+    if (openBatchDeadline != null) {
+      openBatchDeadline.cancel(/* mayInterruptIfRunning= */ false);
+      openBatchDeadline = null;
+    }
+    readyBatches.addLast(openBatch);
+    openBatch = new ArrayList<>();
+  }
+
+  /** Closes the open batch once its deadline passes. Must hold the lock. */
+  private void scheduleDeadline() {
+    try {
+      openBatchDeadline =
+          deadlineScheduler.schedule(
+              () -> {
+                synchronized (this) {
+                  if (openBatch.isEmpty()) {
+                    return;
+                  }
+                  closeOpenBatch();
+                }
+                sendReadyBatches();
+              },
+              maxDelayMillis,
+              TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Only happens after shutdown, which drops the open batch anyway.
+      Log.w(TAG, "Batcher is shut down, not scheduling deadline");
+    }
+  }
+
+  /** Sends as many ready batches as the in-flight window allows. */
+  private void sendReadyBatches() {
+    List<List<Purchase>> batches = new ArrayList<>();
+    synchronized (this) {
+      while (inFlightBatches < maxInFlightBatches && !readyBatches.isEmpty()) {
+        batches.add(readyBatches.pollFirst());
+        inFlightBatches++;
+        batchesSent++;
+      }
+      if (!batches.isEmpty()) {
+        notifyAll();
+      }
+    }
+    // Requests are started outside the lock, as the result may be delivered synchronously.
+    for (List<Purchase> batch : batches) {
+      purchaseVerifier.verify(
+          batch,
+          new PurchaseVerifier.ResultListener() {
+            @Override
+            public void onVerified(Set<String> verifiedTokens) {
+              onResult(batch, verifiedTokens, null);
+            }
+
+            @Override
+            public void onFailed(Exception e) {
+              onResult(batch, null, e);
+            }
+          });
+    }
+  }
+
+  private void onResult(List<Purchase> batch, Set<String> verifiedTokens, Exception e) {
+    List<Purchase> verifiedPurchases = new ArrayList<>();
+    List<Purchase> rejectedPurchases = new ArrayList<>();
+    if (verifiedTokens != null) {
+      for (Purchase purchase : batch) {
+        if (verifiedTokens.contains(purchase.getPurchaseToken())) {
+          verifiedPurchases.add(purchase);
+        } else {
+          rejectedPurchases.add(purchase);
+        }
+      }
+    }
+    synchronized (this) {
+      inFlightBatches--;
+      pending -= batch.size();
+      verified += verifiedPurchases.size();
+      rejected += rejectedPurchases.size();
+      if (e != null) {
+        failed += batch.size();
+      }
+    }
+    try {
+      if (e != null) {
+        Log.w(TAG, "Failed to verify a batch of " + batch.size() + " purchases", e);
+        for (Purchase purchase : batch) {
+          verificationListener.onVerificationFailed(purchase, e);
+        }
+      }
+      for (Purchase purchase : verifiedPurchases) {
+        verificationListener.onVerified(purchase);
+      }
+      for (Purchase purchase : rejectedPurchases) {
+        verificationListener.onRejected(purchase);
+      }
+    } finally {
+      // The slot is free even if the listener threw, so the batches behind it are not stranded.
+      sendReadyBatches();
+    }
+  }
+}
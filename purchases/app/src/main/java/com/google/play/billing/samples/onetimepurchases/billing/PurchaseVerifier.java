@@ -0,0 +1,67 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import com.android.billingclient.api.Purchase;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Verifies purchases with your secure backend, a batch at a time.
+ *
+ * <p>See https://developer.android.com/google/play/billing/security#verify
+ */
+public interface PurchaseVerifier {
+
+  /** Receives the result of a verification request. May be called on any thread. */
+  interface ResultListener {
+    /**
+     * Called with the tokens in the batch that the backend verified. The others were rejected.
+     *
+     * @param verifiedTokens The purchase tokens that were verified.
+     */
+    void onVerified(Set<String> verifiedTokens);
+
+    /**
+     * Called when the request failed, so no purchase in the batch was verified or rejected.
+     *
+     * @param e The cause of the failure.
+     */
+    void onFailed(Exception e);
+  }
+
+  /**
+   * Starts verifying a batch of purchases. Must not block, as several batches may be in flight.
+   *
+   * @param purchases The purchases to verify.
+   * @param resultListener Receives the result, exactly once.
+   */
+  void verify(List<Purchase> purchases, ResultListener resultListener);
+
+  /**
+   * Returns a verifier that treats every purchase as verified, for apps without a backend, like
+   * this sample.
+   */
+  static PurchaseVerifier acceptAll() {
+    return (purchases, resultListener) -> {
+      Set<String> verifiedTokens = new HashSet<>();
+      for (Purchase purchase : purchases) {
+        verifiedTokens.add(purchase.getPurchaseToken());
+      }
+      resultListener.onVerified(verifiedTokens);
+    };
+  }
+}
@@ -0,0 +1,249 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import android.util.Log;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.Purchase.PurchaseState;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Persisted record of the purchases that were fully handled on this device.
+ *
+ * <p>A purchase is recorded as a 64-bit hash of its token and state, appended to a file once it
+ * needs no more work. {@link #reconcile} splits the result of a purchases query into the purchases
+ * that are new or changed since then and those that are not, so reconciling on startup only
+ * handles the change set. Entries of purchases that are no longer owned are dropped along the way.
+ *
+ * <p>All file access happens on a single background thread.
+ */
+public class PurchaseWatermark {
+
+  /** Receives the result of {@link #reconcile}, on the watermark thread. */
+  public interface ReconcileListener {
+    /**
+     * @param changedPurchases The purchases that are new or changed since they were handled.
+     * @param unchangedPurchases The purchases that were already handled in their current state.
+     */
+    void onReconciled(List<Purchase> changedPurchases, List<Purchase> unchangedPurchases);
+  }
+
+  private static final String TAG = "PurchaseWatermark";
+  static final String WATERMARK_FILE_NAME = "purchase_watermark.bin";
+  private static final int KEY_BYTES = 8;
+
+  private final File watermarkFile;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // The fields below are only accessed on the executor thread.
+  private final Set<Long> handledKeys = new HashSet<>();
+  private DataOutputStream output;
+  private boolean loaded;
+  private boolean flushScheduled;
+
+  /**
+   * @param directory The directory in which to store the watermark file. It must survive process
+   *     death, so it should not be a cache directory.
+   */
+  public PurchaseWatermark(File directory) {
+    this.watermarkFile = new File(directory, WATERMARK_FILE_NAME);
+  }
+
+  /**
+   * Records that a purchase needs no more work in its current state.
+   *
+   * @param purchaseToken The purchase token.
+   * @param purchaseState The state the purchase was handled in.
+   */
+  public void recordHandled(String purchaseToken, int purchaseState) {
+    execute(
+        () -> {
+          ensureLoaded();
+          long key = SeenPurchaseSet.hash(purchaseToken, purchaseState);
+          if (handledKeys.add(key) && output != null) {
+            try {
+              output.writeLong(key);
+              scheduleFlush();
+            } catch (IOException e) {
+              Log.e(TAG, "Failed to record handled purchase", e);
+              closeOutput();
+            }
+          }
+        });
+  }
+
+  /**
+   * Compares the purchases the user owns against the handled ones. A purchased but unacknowledged
+   * purchase always counts as changed, so it is never left unacknowledged. Purchases recorded
+   * before this call are on disk by the time the listener runs.
+   *
+   * @param ownedPurchases Every purchase returned by a purchases query.
+   * @param reconcileListener Receives the purchases split by whether they need handling.
+   */
+  public void reconcile(List<Purchase> ownedPurchases, ReconcileListener reconcileListener) {
+    execute(
+        () -> {
+          ensureLoaded();
+          List<Purchase> changedPurchases = new ArrayList<>();
+          List<Purchase> unchangedPurchases = new ArrayList<>();
+          Set<Long> ownedKeys = new HashSet<>();
+          for (Purchase purchase : ownedPurchases) {
+            long key =
+                SeenPurchaseSet.hash(purchase.getPurchaseToken(), purchase.getPurchaseState());
+            ownedKeys.add(key);
+            if (handledKeys.contains(key)
+                && (purchase.getPurchaseState() != PurchaseState.PURCHASED
+                    || purchase.isAcknowledged())) {
+              unchangedPurchases.add(purchase);
+            } else {
+              changedPurchases.add(purchase);
+            }
+          }
+          // Consumed purchases and old states are not returned again, so forget them.
+          if (handledKeys.retainAll(ownedKeys)) {
+            rewrite();
+          } else {
+            flush();
+          }
+          Log.i(
+              TAG,
+              "Reconciled "
+                  + ownedPurchases.size()
+                  + " owned purchases, "
+                  + changedPurchases.size()
+                  + " changed");
+          reconcileListener.onReconciled(changedPurchases, unchangedPurchases);
+        });
+  }
+
+  /** Flushes pending records and releases the watermark file. */
+  public void close() {
+    execute(this::closeOutput);
+    executor.shutdown();
+  }
+
+  private void execute(Runnable task) {
+    try {
+      executor.execute(task);
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Watermark is closed, dropping update");
+    }
+  }
+
+  private void scheduleFlush() {
+    // Records appended back to back are written out together.
+    if (!flushScheduled) {
+      flushScheduled = true;
+      execute(this::flush);
+    }
+  }
+
+  private void flush() {
+    flushScheduled = false;
+    if (output == null) {
+      return;
+    }
+    try {
+      output.flush();
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to flush purchase watermark", e);
+      closeOutput();
+    }
+  }
+
+  /** Reads the handled keys and opens the file for appending, once. */
+  private void ensureLoaded() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (watermarkFile.exists()) {
+      // A torn trailing record is shorter than a key, so it is never read.
+      long keyCount = watermarkFile.length() / KEY_BYTES;
+      try (DataInputStream input =
+          new DataInputStream(new BufferedInputStream(new FileInputStream(watermarkFile)))) {
+        for (long i = 0; i < keyCount; i++) {
+          handledKeys.add(input.readLong());
+        }
+      } catch (IOException e) {
+        Log.e(TAG, "Failed to read purchase watermark, reconciling from scratch", e);
+        handledKeys.clear();
+      }
+      if (keyCount * KEY_BYTES != watermarkFile.length() || keyCount != handledKeys.size()) {
+        rewrite();
+        return;
+      }
+    }
+    openOutput();
+  }
+
+  /**
+   * Rewrites the file with only the handled keys. The new file is written to a temporary file and
+   * swapped in, so a crash mid-rewrite leaves the old one intact.
+   */
+  private void rewrite() {
+    closeOutput();
+    File rewrittenFile = new File(watermarkFile.getPath() + ".tmp");
+    try (DataOutputStream rewritten =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(rewrittenFile)))) {
+      for (long key : handledKeys) {
+        rewritten.writeLong(key);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to rewrite purchase watermark", e);
+      return;
+    }
+    if (!rewrittenFile.renameTo(watermarkFile)) {
+      Log.e(TAG, "Could not replace " + watermarkFile);
+      return;
+    }
+    openOutput();
+  }
+
+  private void openOutput() {
+    try {
+      output =
+          new DataOutputStream(
+              new BufferedOutputStream(new FileOutputStream(watermarkFile, /* append= */ true)));
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to open purchase watermark", e);
+    }
+  }
+
+  private void closeOutput() {
+    if (output != null) {
+      try {
+        output.close();
+      } catch (IOException e) {
+        Log.w(TAG, "Failed to close purchase watermark", e);
+      }
+      output = null;
+    }
+  }
+}
@@ -0,0 +1,215 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import java.util.Arrays;
+
+/**
+ * Bounded set of the purchases that have already been handled, evicting the least recently seen
+ * entry once full.
+ *
+ * <p>Entries are 64-bit hashes of the purchase token and purchase state, so a purchase moving from
+ * PENDING to PURCHASED is handled again. All storage is preallocated: an open-addressing hash table
+ * points into fixed arrays holding the keys and an intrusive LRU list, so lookups and updates do
+ * not allocate.
+ */
+public class SeenPurchaseSet {
+
+  private static final int NONE = -1;
+
+  private final int capacity;
+  // Open-addressing table of entry indices, NONE for an empty slot. Always at most half full.
+  private final int[] table;
+  private final int tableMask;
+  // Per-entry key and LRU links, indexed by entry index.
+  private final long[] keys;
+  private final int[] previous;
+  private final int[] next;
+  private int head = NONE;
+  private int tail = NONE;
+  private int size;
+  private long hitCount;
+  private long missCount;
+
+  /**
+   * @param capacity The maximum number of purchases to remember.
+   */
+  public SeenPurchaseSet(int capacity) {
+    if (capacity <= 0) {
+      throw new IllegalArgumentException("capacity must be positive: " + capacity);
+    }
+    this.capacity = capacity;
+    int tableSize = Integer.highestOneBit(Math.max(2, capacity) * 2 - 1) << 1;
+    table = new int[tableSize];
+    Arrays.fill(table, NONE);
+    tableMask = tableSize - 1;
+    keys = new long[capacity];
+    previous = new int[capacity];
+    next = new int[capacity];
+  }
+
+  /**
+   * Records a purchase as seen.
+   *
+   * @param purchaseToken The purchase token.
+   * @param purchaseState The purchase state.
+   * @return True if the purchase had already been seen in this state, false if it is new.
+   */
+  public synchronized boolean markSeen(String purchaseToken, int purchaseState) {
+    long key = hash(purchaseToken, purchaseState);
+    int slot = findSlot(key);
+    if (table[slot] != NONE) {
+      hitCount++;
+      moveToHead(table[slot]);
+      return true;
+    }
+    missCount++;
+    int entry;
+    if (size == capacity) {
+      entry = tail;
+      unlink(entry);
+      removeFromTable(keys[entry]);
+      // The eviction may have shifted the slot the new key belongs in.
+      slot = findSlot(key);
+    } else {
+      entry = size++;
+    }
+    keys[entry] = key;
+    table[slot] = entry;
+    linkAtHead(entry);
+    return false;
+  }
+
+  /**
+   * Forgets a purchase, so the next delivery is handled again.
+   *
+   * @param purchaseToken The purchase token.
+   * @param purchaseState The purchase state it was seen in.
+   */
+  public synchronized void remove(String purchaseToken, int purchaseState) {
+    long key = hash(purchaseToken, purchaseState);
+    int entry = table[findSlot(key)];
+    if (entry == NONE) {
+      return;
+    }
+    unlink(entry);
+    removeFromTable(key);
+    // Keep entries packed in [0, size) by moving the last entry into the freed index.
+    int last = --size;
+    if (entry != last) {
+      keys[entry] = keys[last];
+      table[findSlot(keys[entry])] = entry;
+      previous[entry] = previous[last];
+      next[entry] = next[last];
+      if (previous[entry] != NONE) {
+        next[previous[entry]] = entry;
+      } else {
+        head = entry;
+      }
+      if (next[entry] != NONE) {
+        previous[next[entry]] = entry;
+      } else {
+        tail = entry;
+      }
+    }
+  }
+
+  /** Returns the number of deliveries that were short-circuited as duplicates. */
+  public synchronized long getHitCount() {
+    return hitCount;
+  }
+
+  /** Returns the number of deliveries that were new. */
+  public synchronized long getMissCount() {
+    return missCount;
+  }
+
+  public synchronized int size() {
+    return size;
+  }
+
+  /** Returns the slot holding the key, or the empty slot where it would be inserted. */
+  private int findSlot(long key) {
+    int slot = (int) key & tableMask;
+    while (table[slot] != NONE && keys[table[slot]] != key) {
+      slot = (slot + 1) & tableMask;
+    }
+    return slot;
+  }
+
+  /** Removes a key with backward-shift deletion, so no tombstones are needed. */
+  private void removeFromTable(long key) {
+    int slot = findSlot(key);
+    table[slot] = NONE;
+    int candidate = (slot + 1) & tableMask;
+    while (table[candidate] != NONE) {
+      int home = (int) keys[table[candidate]] & tableMask;
+      // Move the entry back if the freed slot lies on its probe path from its home slot.
+      if (((candidate - home) & tableMask) >= ((candidate - slot) & tableMask)) {
+        table[slot] = table[candidate];
+        table[candidate] = NONE;
+        slot = candidate;
+      }
+      candidate = (candidate + 1) & tableMask;
+    }
+  }
+
+  private void moveToHead(int entry) {
+    if (entry != head) {
+      unlink(entry);
+      linkAtHead(entry);
+    }
+  }
+
+  private void linkAtHead(int entry) {
+    previous[entry] = NONE;
+    next[entry] = head;
+    if (head != NONE) {
+      previous[head] = entry;
+    }
+    head = entry;
+    if (tail == NONE) {
+      tail = entry;
+    }
+  }
+
+  private void unlink(int entry) {
+    if (previous[entry] != NONE) {
+      next[previous[entry]] = next[entry];
+    } else {
+      head = next[entry];
+    }
+    if (next[entry] != NONE) {
+      previous[next[entry]] = previous[entry];
+    } else {
+      tail = previous[entry];
+    }
+  }
+
+  /** FNV-1a over the token characters, mixed with the state and finalized with fmix64. */
+  static long hash(String purchaseToken, int purchaseState) {
+    long hash = 0xcbf29ce484222325L;
+    for (int i = 0; i < purchaseToken.length(); i++) {
+      hash = (hash ^ purchaseToken.charAt(i)) * 0x100000001b3L;
+    }
+    hash ^= purchaseState * 0x9E3779B97F4A7C15L;
+    hash ^= hash >>> 33;
+    hash *= 0xff51afd7ed558ccdL;
+    hash ^= hash >>> 33;
+    hash *= 0xc4ceb9fe1a85ec53L;
+    hash ^= hash >>> 33;
+    return hash;
+  }
+}
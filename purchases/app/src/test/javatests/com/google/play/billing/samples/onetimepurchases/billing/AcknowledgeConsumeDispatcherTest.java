@@ -0,0 +1,146 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.google.play.billing.samples.onetimepurchases.billing.PurchaseJournal.Operation;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link AcknowledgeConsumeDispatcher} */
+@RunWith(AndroidJUnit4.class)
+public class AcknowledgeConsumeDispatcherTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final long NO_REQUEST_TIMEOUT_MILLIS = 200;
+  private static final int MAX_IN_FLIGHT = 2;
+  private static final int MAX_ATTEMPTS = 3;
+
+  /** A request issued by the dispatcher, waiting for the test to respond. */
+  private static final class SentRequest {
+    private final String purchaseToken;
+    private final AcknowledgeConsumeDispatcher.ResponseListener responseListener;
+
+    private SentRequest(
+        String purchaseToken, AcknowledgeConsumeDispatcher.ResponseListener responseListener) {
+      this.purchaseToken = purchaseToken;
+      this.responseListener = responseListener;
+    }
+
+    private void respond(int responseCode) {
+      responseListener.onResponse(
+          BillingResult.newBuilder().setResponseCode(responseCode).build());
+    }
+  }
+
+  private final BlockingQueue<SentRequest> sentRequests = new LinkedBlockingQueue<>();
+  private final BlockingQueue<BillingResult> completions = new LinkedBlockingQueue<>();
+  private PurchaseJournal purchaseJournal;
+  private AcknowledgeConsumeDispatcher dispatcher;
+
+  @Before
+  public void setUp() throws Exception {
+    purchaseJournal = new PurchaseJournal(temporaryFolder.newFolder());
+    dispatcher =
+        new AcknowledgeConsumeDispatcher(
+            purchaseJournal,
+            (purchaseToken, operation, responseListener) ->
+                sentRequests.add(new SentRequest(purchaseToken, responseListener)),
+            (purchaseToken, billingResult) -> completions.add(billingResult),
+            MAX_IN_FLIGHT,
+            MAX_ATTEMPTS,
+            /* initialBackoffMillis= */ 0);
+  }
+
+  @After
+  public void tearDown() {
+    dispatcher.shutdown();
+    purchaseJournal.close();
+  }
+
+  private SentRequest nextRequest() throws InterruptedException {
+    SentRequest sentRequest = sentRequests.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull(sentRequest);
+    return sentRequest;
+  }
+
+  @Test
+  public void testSubmit_duplicateToken_sentOnce() throws InterruptedException {
+    dispatcher.submit("token", Operation.ACKNOWLEDGE);
+    dispatcher.submit("token", Operation.ACKNOWLEDGE);
+
+    nextRequest().respond(BillingResponseCode.OK);
+
+    assertNotNull(completions.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    assertNull(sentRequests.poll(NO_REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    assertEquals(1, dispatcher.getStats().duplicatesDropped);
+  }
+
+  @Test
+  public void testSubmit_burst_boundedInFlight() throws InterruptedException {
+    for (int i = 0; i < 5; i++) {
+      dispatcher.submit("token_" + i, Operation.CONSUME);
+    }
+
+    SentRequest first = nextRequest();
+    nextRequest();
+    assertNull(sentRequests.poll(NO_REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+    assertEquals(3, dispatcher.getStats().queued);
+
+    first.respond(BillingResponseCode.OK);
+
+    assertEquals("token_2", nextRequest().purchaseToken);
+  }
+
+  @Test
+  public void testResponse_transientError_retried() throws InterruptedException {
+    dispatcher.submit("token", Operation.ACKNOWLEDGE);
+
+    nextRequest().respond(BillingResponseCode.SERVICE_UNAVAILABLE);
+    nextRequest().respond(BillingResponseCode.OK);
+
+    BillingResult completion = completions.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertEquals(BillingResponseCode.OK, completion.getResponseCode());
+    assertEquals(1, dispatcher.getStats().retried);
+    assertEquals(1, dispatcher.getStats().succeeded);
+  }
+
+  @Test
+  public void testResponse_transientErrorExhaustsAttempts_fails() throws InterruptedException {
+    dispatcher.submit("token", Operation.ACKNOWLEDGE);
+
+    for (int i = 0; i < MAX_ATTEMPTS; i++) {
+      nextRequest().respond(BillingResponseCode.NETWORK_ERROR);
+    }
+
+    BillingResult completion = completions.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertEquals(BillingResponseCode.NETWORK_ERROR, completion.getResponseCode());
+    assertEquals(1, dispatcher.getStats().failed);
+  }
+}
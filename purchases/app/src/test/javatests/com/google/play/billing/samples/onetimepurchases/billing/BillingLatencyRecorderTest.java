@@ -0,0 +1,150 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingClientStateListener;
+import com.android.billingclient.api.BillingResult;
+import com.google.play.billing.samples.onetimepurchases.billing.BillingLatencyRecorder.Operation;
+import com.google.play.billing.samples.onetimepurchases.billing.BillingLatencyRecorder.OperationSnapshot;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link BillingLatencyRecorder} */
+@RunWith(AndroidJUnit4.class)
+public class BillingLatencyRecorderTest {
+
+  private final BillingLatencyRecorder recorder = new BillingLatencyRecorder();
+
+  @Test
+  public void testBucketFor_valueWithinBucketBounds() {
+    for (long micros = 0; micros < 1_000_000; micros = micros * 3 / 2 + 1) {
+      int bucket = BillingLatencyRecorder.bucketFor(micros);
+      assertTrue(micros <= BillingLatencyRecorder.bucketUpperBound(bucket));
+      if (bucket > 0) {
+        assertTrue(micros > BillingLatencyRecorder.bucketUpperBound(bucket - 1));
+      }
+    }
+  }
+
+  @Test
+  public void testGetSnapshot_percentilesWithinBucketError() {
+    for (int i = 1; i <= 100; i++) {
+      recordWithLatency(Operation.CONSUME, i * 1000L, BillingResponseCode.OK);
+    }
+
+    OperationSnapshot snapshot = getSnapshot(Operation.CONSUME);
+
+    assertEquals(100, snapshot.count);
+    assertWithinBucketError(50_000, snapshot.p50Micros);
+    assertWithinBucketError(90_000, snapshot.p90Micros);
+    assertWithinBucketError(99_000, snapshot.p99Micros);
+    assertTrue(snapshot.maxMicros >= 100_000);
+  }
+
+  @Test
+  public void testGetSnapshot_countsResponseCodes() {
+    recordWithLatency(Operation.ACKNOWLEDGE_PURCHASE, 10, BillingResponseCode.OK);
+    recordWithLatency(Operation.ACKNOWLEDGE_PURCHASE, 10, BillingResponseCode.OK);
+    recordWithLatency(Operation.ACKNOWLEDGE_PURCHASE, 10, BillingResponseCode.SERVICE_TIMEOUT);
+    recordWithLatency(Operation.ACKNOWLEDGE_PURCHASE, 10, 42);
+
+    OperationSnapshot snapshot = getSnapshot(Operation.ACKNOWLEDGE_PURCHASE);
+
+    assertEquals(Long.valueOf(2), snapshot.responseCodeCounts.get(BillingResponseCode.OK));
+    assertEquals(
+        Long.valueOf(1), snapshot.responseCodeCounts.get(BillingResponseCode.SERVICE_TIMEOUT));
+    assertEquals(
+        Long.valueOf(1),
+        snapshot.responseCodeCounts.get(BillingLatencyRecorder.UNKNOWN_RESPONSE_CODE));
+  }
+
+  @Test
+  public void testGetSnapshot_onlyRecordedOperations() {
+    recordWithLatency(Operation.LAUNCH_BILLING_FLOW, 10, BillingResponseCode.OK);
+
+    List<OperationSnapshot> snapshots = recorder.getSnapshot();
+
+    assertEquals(1, snapshots.size());
+    assertEquals(Operation.LAUNCH_BILLING_FLOW, snapshots.get(0).operation);
+  }
+
+  @Test
+  public void testTimeAcknowledge_recordsAndDelegates() {
+    AtomicInteger delegated = new AtomicInteger();
+
+    recorder
+        .timeAcknowledge(billingResult -> delegated.incrementAndGet())
+        .onAcknowledgePurchaseResponse(result(BillingResponseCode.ERROR));
+
+    assertEquals(1, delegated.get());
+    assertEquals(
+        Long.valueOf(1),
+        getSnapshot(Operation.ACKNOWLEDGE_PURCHASE)
+            .responseCodeCounts
+            .get(BillingResponseCode.ERROR));
+  }
+
+  @Test
+  public void testTimeConnection_reconnectionNotRecorded() {
+    AtomicInteger delegated = new AtomicInteger();
+    BillingClientStateListener listener =
+        recorder.timeConnection(
+            new BillingClientStateListener() {
+              @Override
+              public void onBillingSetupFinished(BillingResult billingResult) {
+                delegated.incrementAndGet();
+              }
+
+              @Override
+              public void onBillingServiceDisconnected() {}
+            });
+
+    listener.onBillingSetupFinished(result(BillingResponseCode.OK));
+    listener.onBillingSetupFinished(result(BillingResponseCode.OK));
+
+    assertEquals(2, delegated.get());
+    assertEquals(1, getSnapshot(Operation.START_CONNECTION).count);
+  }
+
+  private void recordWithLatency(Operation operation, long micros, int responseCode) {
+    recorder.record(operation, BillingLatencyRecorder.startNanos() - micros * 1000, responseCode);
+  }
+
+  private OperationSnapshot getSnapshot(Operation operation) {
+    for (OperationSnapshot snapshot : recorder.getSnapshot()) {
+      if (snapshot.operation == operation) {
+        return snapshot;
+      }
+    }
+    throw new AssertionError("No snapshot for " + operation);
+  }
+
+  private static void assertWithinBucketError(long expectedMicros, long actualMicros) {
+    assertTrue(
+        "Expected about " + expectedMicros + " but was " + actualMicros,
+        actualMicros >= expectedMicros && actualMicros <= expectedMicros * 1.125 + 1);
+  }
+
+  private static BillingResult result(int responseCode) {
+    return BillingResult.newBuilder().setResponseCode(responseCode).build();
+  }
+}
@@ -0,0 +1,155 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.Purchase;
+import java.util.Arrays;
+import org.json.JSONException;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link EntitlementStore} */
+@RunWith(AndroidJUnit4.class)
+public class EntitlementStoreTest {
+
+  // The values of the purchaseState field in Play's purchase JSON.
+  private static final int JSON_PURCHASED = 0;
+  private static final int JSON_PENDING = 4;
+
+  private final EntitlementStore entitlementStore = new EntitlementStore();
+
+  private static Purchase purchase(
+      String purchaseToken, int jsonPurchaseState, String... productIds) throws JSONException {
+    StringBuilder products = new StringBuilder();
+    for (String productId : productIds) {
+      products.append(products.length() == 0 ? "" : ",").append('"').append(productId).append('"');
+    }
+    return new Purchase(
+        "{\"productIds\":["
+            + products
+            + "],\"purchaseToken\":\""
+            + purchaseToken
+            + "\",\"purchaseState\":"
+            + jsonPurchaseState
+            + "}",
+        "signature");
+  }
+
+  @Test
+  public void testUpdate_purchased_isEntitled() throws JSONException {
+    assertTrue(entitlementStore.update(purchase("token", JSON_PURCHASED, "product")));
+
+    assertTrue(entitlementStore.isEntitled("product"));
+    assertFalse(entitlementStore.isEntitled("other_product"));
+    assertEquals(
+        EntitlementStore.State.PURCHASED,
+        entitlementStore.getSnapshot().getEntitlement("token").state);
+  }
+
+  @Test
+  public void testUpdate_pending_isNotEntitled() throws JSONException {
+    entitlementStore.update(purchase("token", JSON_PENDING, "product"));
+
+    assertFalse(entitlementStore.isEntitled("product"));
+    assertTrue(entitlementStore.getSnapshot().isPending("product"));
+  }
+
+  @Test
+  public void testUpdate_pendingThenPurchased_isEntitled() throws JSONException {
+    entitlementStore.update(purchase("token", JSON_PENDING, "product"));
+
+    assertTrue(entitlementStore.update(purchase("token", JSON_PURCHASED, "product")));
+
+    EntitlementStore.Snapshot snapshot = entitlementStore.getSnapshot();
+    assertTrue(snapshot.isEntitled("product"));
+    assertFalse(snapshot.isPending("product"));
+    assertEquals(1, snapshot.getEntitlements("product").size());
+  }
+
+  @Test
+  public void testUpdate_sameState_isUnchanged() throws JSONException {
+    entitlementStore.update(purchase("token", JSON_PURCHASED, "product"));
+    EntitlementStore.Snapshot snapshot = entitlementStore.getSnapshot();
+
+    assertFalse(entitlementStore.update(purchase("token", JSON_PURCHASED, "product")));
+    assertTrue(snapshot == entitlementStore.getSnapshot());
+  }
+
+  @Test
+  public void testUpdate_multipleProducts_indexesEach() throws JSONException {
+    entitlementStore.update(purchase("token", JSON_PURCHASED, "first", "second"));
+
+    assertTrue(entitlementStore.isEntitled("first"));
+    assertTrue(entitlementStore.isEntitled("second"));
+  }
+
+  @Test
+  public void testRemove_keepsOtherPurchasesOfProduct() throws JSONException {
+    entitlementStore.update(purchase("first_token", JSON_PURCHASED, "product"));
+    entitlementStore.update(purchase("second_token", JSON_PENDING, "product"));
+
+    assertTrue(entitlementStore.remove("first_token"));
+
+    EntitlementStore.Snapshot snapshot = entitlementStore.getSnapshot();
+    assertFalse(snapshot.isEntitled("product"));
+    assertTrue(snapshot.isPending("product"));
+    assertNull(snapshot.getEntitlement("first_token"));
+    assertFalse(entitlementStore.remove("first_token"));
+  }
+
+  @Test
+  public void testSnapshot_isNotChangedByLaterUpdates() throws JSONException {
+    entitlementStore.update(purchase("token", JSON_PURCHASED, "product"));
+    EntitlementStore.Snapshot snapshot = entitlementStore.getSnapshot();
+
+    entitlementStore.remove("token");
+
+    assertTrue(snapshot.isEntitled("product"));
+    assertFalse(entitlementStore.isEntitled("product"));
+  }
+
+  @Test
+  public void testUpdateAll_keepsOtherPurchases() throws JSONException {
+    entitlementStore.update(purchase("live_token", JSON_PURCHASED, "live_product"));
+
+    assertTrue(
+        entitlementStore.updateAll(
+            Arrays.asList(
+                purchase("restored_token", JSON_PURCHASED, "restored_product"),
+                purchase("pending_token", JSON_PENDING, "pending_product"))));
+
+    EntitlementStore.Snapshot snapshot = entitlementStore.getSnapshot();
+    assertTrue(snapshot.isEntitled("live_product"));
+    assertTrue(snapshot.isEntitled("restored_product"));
+    assertTrue(snapshot.isPending("pending_product"));
+    assertEquals(3, snapshot.size());
+  }
+
+  @Test
+  public void testUpdateAll_sameState_isUnchanged() throws JSONException {
+    entitlementStore.update(purchase("token", JSON_PURCHASED, "product"));
+    EntitlementStore.Snapshot snapshot = entitlementStore.getSnapshot();
+
+    assertFalse(
+        entitlementStore.updateAll(Arrays.asList(purchase("token", JSON_PURCHASED, "product"))));
+    assertTrue(snapshot == entitlementStore.getSnapshot());
+  }
+}
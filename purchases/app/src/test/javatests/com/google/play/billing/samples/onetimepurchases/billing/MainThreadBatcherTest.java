@@ -0,0 +1,61 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Queue;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link MainThreadBatcher} */
+@RunWith(AndroidJUnit4.class)
+public class MainThreadBatcherTest {
+
+  // Stands in for the main thread's message queue; tasks run when the test runs them.
+  private final Queue<Runnable> mainThreadTasks = new ArrayDeque<>();
+  private final List<List<String>> batches = new ArrayList<>();
+  private final MainThreadBatcher<String> batcher =
+      new MainThreadBatcher<>(mainThreadTasks::add, batches::add);
+
+  @Test
+  public void testAdd_whilePosted_joinsPendingBatch() {
+    batcher.add("first");
+    batcher.add("second");
+    batcher.add("third");
+
+    assertEquals(1, mainThreadTasks.size());
+    mainThreadTasks.remove().run();
+    assertEquals(Arrays.asList(Arrays.asList("first", "second", "third")), batches);
+  }
+
+  @Test
+  public void testAdd_afterDelivery_postsNewBatch() {
+    batcher.add("first");
+    mainThreadTasks.remove().run();
+
+    batcher.add("second");
+
+    assertEquals(1, mainThreadTasks.size());
+    mainThreadTasks.remove().run();
+    assertEquals(
+        Arrays.asList(Arrays.asList("first"), Arrays.asList("second")), batches);
+  }
+}
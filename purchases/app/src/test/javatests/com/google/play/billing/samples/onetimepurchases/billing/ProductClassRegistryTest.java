@@ -0,0 +1,109 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.play.billing.samples.onetimepurchases.billing.ProductClassRegistry.ProductClass;
+import java.util.HashMap;
+import java.util.Map;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ProductClassRegistry} */
+@RunWith(AndroidJUnit4.class)
+public class ProductClassRegistryTest {
+
+  @Test
+  public void testGetProductClass_registeredProduct_returnsItsClass() {
+    Map<String, ProductClass> productClassMap = new HashMap<>();
+    productClassMap.put("coins", ProductClass.CONSUMABLE);
+    productClassMap.put("remove_ads", ProductClass.NON_CONSUMABLE);
+    productClassMap.put("movie", ProductClass.RENTAL);
+    productClassMap.put("album", ProductClass.PREORDER);
+
+    ProductClassRegistry registry = ProductClassRegistry.of(productClassMap);
+
+    assertEquals(ProductClass.CONSUMABLE, registry.getProductClass("coins"));
+    assertEquals(ProductClass.NON_CONSUMABLE, registry.getProductClass("remove_ads"));
+    assertEquals(ProductClass.RENTAL, registry.getProductClass("movie"));
+    assertEquals(ProductClass.PREORDER, registry.getProductClass("album"));
+  }
+
+  @Test
+  public void testGetProductClass_nonInternedId_matches() {
+    ProductClassRegistry registry =
+        ProductClassRegistry.of(singletonMap("coins", ProductClass.CONSUMABLE));
+
+    assertEquals(
+        ProductClass.CONSUMABLE, registry.getProductClass(new String("coins".toCharArray())));
+  }
+
+  @Test
+  public void testGetProductClass_unknownProduct_returnsDefault() {
+    ProductClassRegistry registry =
+        ProductClassRegistry.of(singletonMap("coins", ProductClass.CONSUMABLE));
+
+    assertEquals(ProductClassRegistry.DEFAULT_CLASS, registry.getProductClass("consumable_01"));
+    assertEquals(
+        ProductClassRegistry.DEFAULT_CLASS, ProductClassRegistry.empty().getProductClass(""));
+  }
+
+  @Test
+  public void testGetProductClass_unknownProductWithDefault_returnsGivenDefault() {
+    ProductClassRegistry registry =
+        ProductClassRegistry.of(singletonMap("coins", ProductClass.CONSUMABLE));
+
+    assertEquals(ProductClass.CONSUMABLE, registry.getProductClass("coins", null));
+    assertNull(registry.getProductClass("consumable_01", null));
+    assertEquals(
+        ProductClass.RENTAL, registry.getProductClass("consumable_01", ProductClass.RENTAL));
+  }
+
+  @Test
+  public void testGetProductClass_manyProducts_allFound() {
+    Map<String, ProductClass> productClassMap = new HashMap<>();
+    ProductClass[] classes = ProductClass.values();
+    for (int i = 0; i < 1000; i++) {
+      productClassMap.put("product_" + i, classes[i % classes.length]);
+    }
+
+    ProductClassRegistry registry = ProductClassRegistry.of(productClassMap);
+
+    for (int i = 0; i < 1000; i++) {
+      assertEquals(classes[i % classes.length], registry.getProductClass("product_" + i));
+    }
+    assertEquals(ProductClassRegistry.DEFAULT_CLASS, registry.getProductClass("product_1000"));
+  }
+
+  @Test
+  public void testIsConsumable() {
+    assertTrue(ProductClass.CONSUMABLE.isConsumable());
+    assertTrue(ProductClass.RENTAL.isConsumable());
+    assertFalse(ProductClass.NON_CONSUMABLE.isConsumable());
+    assertFalse(ProductClass.PREORDER.isConsumable());
+  }
+
+  private static Map<String, ProductClass> singletonMap(
+      String productId, ProductClass productClass) {
+    Map<String, ProductClass> productClassMap = new HashMap<>();
+    productClassMap.put(productId, productClass);
+    return productClassMap;
+  }
+}
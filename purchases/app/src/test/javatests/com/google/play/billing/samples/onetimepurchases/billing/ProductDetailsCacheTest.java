@@ -0,0 +1,108 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.ProductDetails;
+import com.google.common.collect.ImmutableList;
+import java.io.File;
+import java.util.Map;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ProductDetailsCache} */
+@RunWith(AndroidJUnit4.class)
+public class ProductDetailsCacheTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final String TEST_PRODUCT_ID = "test_product_id";
+  private static final String PRODUCT_DETAILS_JSON =
+      "{\"productId\":\"test_product_id\",\"type\":\"inapp\",\"title\":\"Test Product Title\","
+          + "\"name\":\"Test Product\",\"description\":\"Test Description\","
+          + "\"oneTimePurchaseOfferDetails\":{\"priceAmountMicros\":990000,"
+          + "\"priceCurrencyCode\":\"USD\",\"formattedPrice\":\"$0.99\"}}";
+  private static final String UPDATED_PRODUCT_DETAILS_JSON =
+      PRODUCT_DETAILS_JSON.replace("$0.99", "$1.99").replace("990000", "1990000");
+
+  private File cacheDir;
+  private ProductDetails productDetails;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = temporaryFolder.newFolder();
+    productDetails = createProductDetails(PRODUCT_DETAILS_JSON);
+  }
+
+  private static ProductDetails createProductDetails(String json) {
+    try {
+      return ProductDetails.fromJson(json);
+    } catch (JSONException e) {
+      throw new RuntimeException(e);
+    }
+  }
+
+  @Test
+  public void testLoad_noCacheFile_returnsEmpty() {
+    ProductDetailsCache cache =
+        new ProductDetailsCache(cacheDir, ProductDetailsCache.DEFAULT_TTL_MILLIS);
+
+    assertTrue(cache.load().isEmpty());
+  }
+
+  @Test
+  public void testSaveAndLoad_roundTripsDisplayedFields() {
+    new ProductDetailsCache(cacheDir, ProductDetailsCache.DEFAULT_TTL_MILLIS)
+        .save(ImmutableList.of(productDetails));
+
+    Map<String, ProductDetails> cached =
+        new ProductDetailsCache(cacheDir, ProductDetailsCache.DEFAULT_TTL_MILLIS).load();
+
+    ProductDetails cachedProductDetails = cached.get(TEST_PRODUCT_ID);
+    assertEquals("Test Product", cachedProductDetails.getName());
+    assertEquals(
+        "$0.99", cachedProductDetails.getOneTimePurchaseOfferDetails().getFormattedPrice());
+    assertTrue(ProductDetailsCache.isSameListing(productDetails, cachedProductDetails));
+  }
+
+  @Test
+  public void testLoad_expiredEntry_isNotServed() {
+    new ProductDetailsCache(cacheDir, /* ttlMillis= */ -1).save(ImmutableList.of(productDetails));
+
+    assertTrue(new ProductDetailsCache(cacheDir, /* ttlMillis= */ -1).load().isEmpty());
+  }
+
+  @Test
+  public void testLoad_corruptFile_returnsEmpty() throws Exception {
+    new File(cacheDir, ProductDetailsCache.CACHE_FILE_NAME).createNewFile();
+
+    assertTrue(
+        new ProductDetailsCache(cacheDir, ProductDetailsCache.DEFAULT_TTL_MILLIS).load().isEmpty());
+  }
+
+  @Test
+  public void testIsSameListing_priceChange_isDifferent() {
+    assertFalse(
+        ProductDetailsCache.isSameListing(
+            productDetails, createProductDetails(UPDATED_PRODUCT_DETAILS_JSON)));
+  }
+}
@@ -0,0 +1,106 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.play.billing.samples.onetimepurchases.billing.PurchaseJournal.Operation;
+import java.io.File;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link PurchaseJournal} */
+@RunWith(AndroidJUnit4.class)
+public class PurchaseJournalTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final String ACKNOWLEDGE_TOKEN = "acknowledge_token";
+  private static final String CONSUME_TOKEN = "consume_token";
+
+  private File journalDir;
+
+  @Before
+  public void setUp() throws Exception {
+    journalDir = temporaryFolder.newFolder();
+  }
+
+  /** Replays a freshly opened journal and waits for the result. */
+  private Map<String, Operation> replay() throws InterruptedException {
+    Map<String, Operation> replayed = new ConcurrentHashMap<>();
+    CountDownLatch replayDone = new CountDownLatch(1);
+    PurchaseJournal journal = new PurchaseJournal(journalDir);
+    journal.replayIncomplete(replayed::put);
+    // Tasks run in order, so once this continuation runs the replay has finished.
+    journal.recordStarted("sentinel_token", Operation.ACKNOWLEDGE, replayDone::countDown);
+    assertTrue(replayDone.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    journal.close();
+    return replayed;
+  }
+
+  @Test
+  public void testRecordStarted_runsContinuation() throws InterruptedException {
+    PurchaseJournal journal = new PurchaseJournal(journalDir);
+    CountDownLatch durable = new CountDownLatch(1);
+
+    journal.recordStarted(ACKNOWLEDGE_TOKEN, Operation.ACKNOWLEDGE, durable::countDown);
+
+    assertTrue(durable.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    journal.close();
+  }
+
+  @Test
+  public void testReplay_onlyReturnsIncompleteOperations() throws InterruptedException {
+    PurchaseJournal journal = new PurchaseJournal(journalDir);
+    CountDownLatch durable = new CountDownLatch(2);
+    journal.recordStarted(ACKNOWLEDGE_TOKEN, Operation.ACKNOWLEDGE, durable::countDown);
+    journal.recordStarted(CONSUME_TOKEN, Operation.CONSUME, durable::countDown);
+    journal.recordCompleted(ACKNOWLEDGE_TOKEN);
+    assertTrue(durable.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    journal.close();
+
+    Map<String, Operation> replayed = replay();
+
+    assertEquals(1, replayed.size());
+    assertEquals(Operation.CONSUME, replayed.get(CONSUME_TOKEN));
+  }
+
+  @Test
+  public void testReplay_survivesCompaction() throws InterruptedException {
+    PurchaseJournal journal = new PurchaseJournal(journalDir);
+    int operationCount = 2000;
+    CountDownLatch durable = new CountDownLatch(operationCount);
+    for (int i = 0; i < operationCount; i++) {
+      String purchaseToken = "purchase_token_" + i;
+      journal.recordStarted(purchaseToken, Operation.CONSUME, durable::countDown);
+      if (i % 2 == 0) {
+        journal.recordCompleted(purchaseToken);
+      }
+    }
+    assertTrue(durable.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    journal.close();
+
+    assertEquals(operationCount / 2, replay().size());
+  }
+}
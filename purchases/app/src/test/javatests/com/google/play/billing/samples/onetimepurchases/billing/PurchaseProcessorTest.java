@@ -0,0 +1,206 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.Purchase;
+import com.google.play.billing.samples.onetimepurchases.billing.PurchaseProcessor.OverflowPolicy;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link PurchaseProcessor} */
+@RunWith(AndroidJUnit4.class)
+public class PurchaseProcessorTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final int CAPACITY = 2;
+
+  private final List<String> handledTokens = Collections.synchronizedList(new ArrayList<>());
+  // Holds the processing thread in the handler until the test releases it.
+  private final CountDownLatch handlerStarted = new CountDownLatch(1);
+  private final CountDownLatch releaseHandler = new CountDownLatch(1);
+
+  private File spillFile;
+  private PurchaseProcessor processor;
+
+  @Before
+  public void setUp() throws Exception {
+    spillFile = new File(temporaryFolder.newFolder(), "purchase_spill");
+  }
+
+  @After
+  public void tearDown() {
+    releaseHandler.countDown();
+    if (processor != null) {
+      processor.shutdown();
+    }
+  }
+
+  private PurchaseProcessor createProcessor(OverflowPolicy overflowPolicy) {
+    processor =
+        new PurchaseProcessor(
+            spillFile,
+            CAPACITY,
+            overflowPolicy,
+            purchase -> {
+              handlerStarted.countDown();
+              try {
+                releaseHandler.await(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+              } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+              }
+              handledTokens.add(purchase.getPurchaseToken());
+            });
+    return processor;
+  }
+
+  private static Purchase purchase(String purchaseToken) throws JSONException {
+    return new Purchase(
+        "{\"productId\":\"product\",\"purchaseToken\":\""
+            + purchaseToken
+            + "\",\"purchaseState\":1}",
+        "signature");
+  }
+
+  private static List<Purchase> purchases(String... purchaseTokens) throws JSONException {
+    List<Purchase> purchases = new ArrayList<>();
+    for (String purchaseToken : purchaseTokens) {
+      purchases.add(purchase(purchaseToken));
+    }
+    return purchases;
+  }
+
+  /** Waits until every submitted purchase has been handled or dropped. */
+  private void awaitIdle() throws InterruptedException {
+    long deadlineNanos = System.nanoTime() + TimeUnit.SECONDS.toNanos(TIMEOUT_SECONDS);
+    while (System.nanoTime() < deadlineNanos) {
+      PurchaseProcessor.Stats stats = processor.getStats();
+      if (stats.processed + stats.duplicatesDropped + stats.overflowDropped == stats.submitted) {
+        return;
+      }
+      Thread.sleep(1);
+    }
+    throw new AssertionError("Processor did not become idle: " + processor.getStats());
+  }
+
+  @Test
+  public void testSubmit_handlesPurchasesInOrder() throws Exception {
+    createProcessor(OverflowPolicy.BLOCK);
+    releaseHandler.countDown();
+
+    processor.submit(purchases("first", "second"));
+    awaitIdle();
+
+    assertEquals(Arrays.asList("first", "second"), handledTokens);
+    assertEquals(2, processor.getStats().processed);
+  }
+
+  @Test
+  public void testSubmit_dropDuplicates_dropsQueuedPurchases() throws Exception {
+    createProcessor(OverflowPolicy.DROP_DUPLICATES);
+    processor.submit(purchases("first"));
+    assertTrue(handlerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    processor.submit(purchases("first", "second", "second"));
+    releaseHandler.countDown();
+    awaitIdle();
+
+    assertEquals(Arrays.asList("first", "second"), handledTokens);
+    assertEquals(2, processor.getStats().duplicatesDropped);
+  }
+
+  @Test
+  public void testSubmit_block_waitsForSpace() throws Exception {
+    createProcessor(OverflowPolicy.BLOCK);
+    processor.submit(purchases("first"));
+    assertTrue(handlerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    processor.submit(purchases("second", "third"));
+
+    Thread submitter =
+        new Thread(
+            () -> {
+              try {
+                processor.submit(purchases("fourth"));
+              } catch (JSONException e) {
+                throw new IllegalStateException(e);
+              }
+            });
+    submitter.start();
+    while (submitter.getState() != Thread.State.WAITING) {
+      assertTrue(submitter.isAlive());
+      Thread.sleep(1);
+    }
+    releaseHandler.countDown();
+    submitter.join(TimeUnit.SECONDS.toMillis(TIMEOUT_SECONDS));
+    awaitIdle();
+
+    assertFalse(submitter.isAlive());
+    assertEquals(Arrays.asList("first", "second", "third", "fourth"), handledTokens);
+  }
+
+  @Test
+  public void testSubmit_spillToDisk_readsSpilledPurchasesBackInOrder() throws Exception {
+    createProcessor(OverflowPolicy.SPILL_TO_DISK);
+    processor.submit(purchases("first"));
+    assertTrue(handlerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    processor.submit(purchases("second", "third", "fourth", "fifth", "fourth"));
+
+    PurchaseProcessor.Stats stats = processor.getStats();
+    assertEquals(CAPACITY, stats.queued);
+    assertEquals(2, stats.spilled);
+    assertEquals(1, stats.duplicatesDropped);
+    // The overflow is written by the processing thread, which is still busy with the handler.
+    assertFalse(spillFile.exists());
+    releaseHandler.countDown();
+    awaitIdle();
+    assertEquals(
+        Arrays.asList("first", "second", "third", "fourth", "fifth"), handledTokens);
+    assertEquals(0, processor.getStats().spilled);
+    assertFalse(spillFile.exists());
+  }
+
+  @Test
+  public void testShutdown_dropsQueuedPurchases() throws Exception {
+    createProcessor(OverflowPolicy.SPILL_TO_DISK);
+    processor.submit(purchases("first"));
+    assertTrue(handlerStarted.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    processor.submit(purchases("second", "third", "fourth"));
+
+    processor.shutdown();
+    releaseHandler.countDown();
+    processor.submit(purchases("fifth"));
+
+    assertEquals(0, processor.getStats().queued);
+    assertFalse(spillFile.exists());
+  }
+}
@@ -0,0 +1,162 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.Purchase;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link PurchaseVerificationBatcher} */
+@RunWith(AndroidJUnit4.class)
+public class PurchaseVerificationBatcherTest {
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final long NO_REQUEST_TIMEOUT_MILLIS = 200;
+  private static final long LONG_DELAY_MILLIS = TimeUnit.MINUTES.toMillis(1);
+
+  /** A batch sent by the batcher, waiting for the test to respond. */
+  private static final class SentBatch {
+    private final List<String> purchaseTokens = new ArrayList<>();
+    private final PurchaseVerifier.ResultListener resultListener;
+
+    private SentBatch(List<Purchase> purchases, PurchaseVerifier.ResultListener resultListener) {
+      for (Purchase purchase : purchases) {
+        purchaseTokens.add(purchase.getPurchaseToken());
+      }
+      this.resultListener = resultListener;
+    }
+
+    private void verify(String... verifiedTokens) {
+      resultListener.onVerified(new HashSet<>(Arrays.asList(verifiedTokens)));
+    }
+  }
+
+  private final BlockingQueue<SentBatch> sentBatches = new LinkedBlockingQueue<>();
+  private final List<String> verifiedTokens = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> rejectedTokens = Collections.synchronizedList(new ArrayList<>());
+  private final List<String> failedTokens = Collections.synchronizedList(new ArrayList<>());
+  private PurchaseVerificationBatcher batcher;
+
+  @After
+  public void tearDown() {
+    batcher.shutdown();
+  }
+
+  private void createBatcher(int maxBatchSize, long maxDelayMillis, int maxInFlightBatches) {
+    batcher =
+        new PurchaseVerificationBatcher(
+            (purchases, resultListener) ->
+                sentBatches.add(new SentBatch(purchases, resultListener)),
+            new PurchaseVerificationBatcher.VerificationListener() {
+              @Override
+              public void onVerified(Purchase purchase) {
+                verifiedTokens.add(purchase.getPurchaseToken());
+              }
+
+              @Override
+              public void onRejected(Purchase purchase) {
+                rejectedTokens.add(purchase.getPurchaseToken());
+              }
+
+              @Override
+              public void onVerificationFailed(Purchase purchase, Exception e) {
+                failedTokens.add(purchase.getPurchaseToken());
+              }
+            },
+            maxBatchSize,
+            maxDelayMillis,
+            maxInFlightBatches);
+  }
+
+  private static Purchase purchase(String purchaseToken) throws JSONException {
+    return new Purchase(
+        "{\"productId\":\"product\",\"purchaseToken\":\"" + purchaseToken + "\"}", "signature");
+  }
+
+  private SentBatch nextBatch() throws InterruptedException {
+    SentBatch sentBatch = sentBatches.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull(sentBatch);
+    return sentBatch;
+  }
+
+  @Test
+  public void testSubmit_fullBatch_sentImmediately() throws Exception {
+    createBatcher(/* maxBatchSize= */ 2, LONG_DELAY_MILLIS, /* maxInFlightBatches= */ 1);
+
+    batcher.submit(purchase("first"));
+    batcher.submit(purchase("second"));
+
+    assertEquals(Arrays.asList("first", "second"), nextBatch().purchaseTokens);
+  }
+
+  @Test
+  public void testSubmit_partialBatch_sentAtDeadline() throws Exception {
+    createBatcher(/* maxBatchSize= */ 10, /* maxDelayMillis= */ 10, /* maxInFlightBatches= */ 1);
+
+    batcher.submit(purchase("first"));
+
+    assertEquals(Arrays.asList("first"), nextBatch().purchaseTokens);
+  }
+
+  @Test
+  public void testSubmit_windowFull_waitsForResult() throws Exception {
+    createBatcher(/* maxBatchSize= */ 1, LONG_DELAY_MILLIS, /* maxInFlightBatches= */ 1);
+    batcher.submit(purchase("first"));
+    batcher.submit(purchase("second"));
+    SentBatch firstBatch = nextBatch();
+    assertNull(sentBatches.poll(NO_REQUEST_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+
+    firstBatch.verify("first");
+
+    assertEquals(Arrays.asList("second"), nextBatch().purchaseTokens);
+    assertEquals(1, batcher.getStats().inFlightBatches);
+  }
+
+  @Test
+  public void testResult_routesEachPurchase() throws Exception {
+    createBatcher(/* maxBatchSize= */ 2, LONG_DELAY_MILLIS, /* maxInFlightBatches= */ 2);
+    batcher.submit(purchase("verified"));
+    batcher.submit(purchase("rejected"));
+    batcher.submit(purchase("failed_first"));
+    batcher.submit(purchase("failed_second"));
+
+    nextBatch().verify("verified");
+    nextBatch().resultListener.onFailed(new IOException("unreachable"));
+
+    assertEquals(Arrays.asList("verified"), verifiedTokens);
+    assertEquals(Arrays.asList("rejected"), rejectedTokens);
+    assertEquals(Arrays.asList("failed_first", "failed_second"), failedTokens);
+    PurchaseVerificationBatcher.Stats stats = batcher.getStats();
+    assertEquals(0, stats.pending);
+    assertEquals(2, stats.batchesSent);
+    assertEquals(2, stats.failed);
+  }
+}
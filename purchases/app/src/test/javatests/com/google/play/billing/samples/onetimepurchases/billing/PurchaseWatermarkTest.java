@@ -0,0 +1,156 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.Purchase;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link PurchaseWatermark} */
+@RunWith(AndroidJUnit4.class)
+public class PurchaseWatermarkTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long TIMEOUT_SECONDS = 5;
+  // The values of the purchaseState field in Play's purchase JSON.
+  private static final int JSON_PURCHASED = 0;
+  private static final int JSON_PENDING = 4;
+
+  private File watermarkDir;
+
+  @Before
+  public void setUp() throws Exception {
+    watermarkDir = temporaryFolder.newFolder();
+  }
+
+  private static Purchase purchase(
+      String purchaseToken, int jsonPurchaseState, boolean acknowledged) throws JSONException {
+    return new Purchase(
+        "{\"productId\":\"product\",\"purchaseToken\":\""
+            + purchaseToken
+            + "\",\"purchaseState\":"
+            + jsonPurchaseState
+            + ",\"acknowledged\":"
+            + acknowledged
+            + "}",
+        "signature");
+  }
+
+  /** Reconciles with a freshly opened watermark and returns the changed purchases. */
+  private List<Purchase> reconcile(List<Purchase> ownedPurchases) throws InterruptedException {
+    PurchaseWatermark purchaseWatermark = new PurchaseWatermark(watermarkDir);
+    List<Purchase> changed = reconcile(purchaseWatermark, ownedPurchases);
+    purchaseWatermark.close();
+    return changed;
+  }
+
+  private static List<Purchase> reconcile(
+      PurchaseWatermark purchaseWatermark, List<Purchase> ownedPurchases)
+      throws InterruptedException {
+    List<Purchase> changed = Collections.synchronizedList(new ArrayList<>());
+    CountDownLatch reconciled = new CountDownLatch(1);
+    purchaseWatermark.reconcile(
+        ownedPurchases,
+        (changedPurchases, unchangedPurchases) -> {
+          changed.addAll(changedPurchases);
+          reconciled.countDown();
+        });
+    assertTrue(reconciled.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+    return changed;
+  }
+
+  /** Records purchases as handled and waits until they are written. */
+  private void recordHandled(Purchase... purchases) throws InterruptedException {
+    PurchaseWatermark purchaseWatermark = new PurchaseWatermark(watermarkDir);
+    for (Purchase purchase : purchases) {
+      purchaseWatermark.recordHandled(purchase.getPurchaseToken(), purchase.getPurchaseState());
+    }
+    // Tasks run in order, and the reconciliation flushes the records before it reports.
+    reconcile(purchaseWatermark, Arrays.asList(purchases));
+    purchaseWatermark.close();
+  }
+
+  @Test
+  public void testReconcile_empty_everythingChanged() throws Exception {
+    Purchase purchase = purchase("token", JSON_PURCHASED, /* acknowledged= */ true);
+
+    assertEquals(Arrays.asList(purchase), reconcile(Arrays.asList(purchase)));
+  }
+
+  @Test
+  public void testReconcile_onlyReturnsUnhandledPurchases() throws Exception {
+    Purchase handled = purchase("handled_token", JSON_PURCHASED, /* acknowledged= */ true);
+    Purchase unhandled = purchase("unhandled_token", JSON_PURCHASED, /* acknowledged= */ true);
+    recordHandled(handled);
+
+    assertEquals(Arrays.asList(unhandled), reconcile(Arrays.asList(handled, unhandled)));
+  }
+
+  @Test
+  public void testReconcile_stateChanged_returnsPurchase() throws Exception {
+    recordHandled(purchase("token", JSON_PENDING, /* acknowledged= */ false));
+    Purchase purchased = purchase("token", JSON_PURCHASED, /* acknowledged= */ true);
+
+    assertEquals(Arrays.asList(purchased), reconcile(Arrays.asList(purchased)));
+  }
+
+  @Test
+  public void testReconcile_unacknowledged_returnsPurchase() throws Exception {
+    Purchase unacknowledged = purchase("token", JSON_PURCHASED, /* acknowledged= */ false);
+    recordHandled(unacknowledged);
+
+    assertEquals(Arrays.asList(unacknowledged), reconcile(Arrays.asList(unacknowledged)));
+  }
+
+  @Test
+  public void testReconcile_forgetsPurchasesNoLongerOwned() throws Exception {
+    Purchase consumed = purchase("consumed_token", JSON_PURCHASED, /* acknowledged= */ true);
+    recordHandled(consumed);
+
+    reconcile(Collections.emptyList());
+
+    assertEquals(0, new File(watermarkDir, PurchaseWatermark.WATERMARK_FILE_NAME).length());
+    assertEquals(Arrays.asList(consumed), reconcile(Arrays.asList(consumed)));
+  }
+
+  @Test
+  public void testRecordHandled_survivesTornRecord() throws Exception {
+    Purchase handled = purchase("token", JSON_PURCHASED, /* acknowledged= */ true);
+    recordHandled(handled);
+    try (FileOutputStream output =
+        new FileOutputStream(
+            new File(watermarkDir, PurchaseWatermark.WATERMARK_FILE_NAME), /* append= */ true)) {
+      output.write(new byte[] {1, 2, 3});
+    }
+
+    assertTrue(reconcile(Arrays.asList(handled)).isEmpty());
+  }
+}
@@ -0,0 +1,75 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.onetimepurchases.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.Purchase.PurchaseState;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SeenPurchaseSet} */
+@RunWith(AndroidJUnit4.class)
+public class SeenPurchaseSetTest {
+
+  @Test
+  public void testMarkSeen_sameTokenAndState_isHit() {
+    SeenPurchaseSet seenPurchases = new SeenPurchaseSet(4);
+
+    assertFalse(seenPurchases.markSeen("token", PurchaseState.PURCHASED));
+    assertTrue(seenPurchases.markSeen("token", PurchaseState.PURCHASED));
+    assertEquals(1, seenPurchases.getHitCount());
+    assertEquals(1, seenPurchases.getMissCount());
+  }
+
+  @Test
+  public void testMarkSeen_stateChange_isMiss() {
+    SeenPurchaseSet seenPurchases = new SeenPurchaseSet(4);
+
+    seenPurchases.markSeen("token", PurchaseState.PENDING);
+
+    assertFalse(seenPurchases.markSeen("token", PurchaseState.PURCHASED));
+  }
+
+  @Test
+  public void testMarkSeen_full_evictsLeastRecentlySeen() {
+    SeenPurchaseSet seenPurchases = new SeenPurchaseSet(2);
+    seenPurchases.markSeen("first", PurchaseState.PURCHASED);
+    seenPurchases.markSeen("second", PurchaseState.PURCHASED);
+    seenPurchases.markSeen("first", PurchaseState.PURCHASED);
+
+    seenPurchases.markSeen("third", PurchaseState.PURCHASED);
+
+    assertEquals(2, seenPurchases.size());
+    assertTrue(seenPurchases.markSeen("first", PurchaseState.PURCHASED));
+    assertFalse(seenPurchases.markSeen("second", PurchaseState.PURCHASED));
+  }
+
+  @Test
+  public void testRemove_nextDeliveryIsMiss() {
+    SeenPurchaseSet seenPurchases = new SeenPurchaseSet(4);
+    seenPurchases.markSeen("first", PurchaseState.PURCHASED);
+    seenPurchases.markSeen("second", PurchaseState.PURCHASED);
+
+    seenPurchases.remove("first", PurchaseState.PURCHASED);
+
+    assertEquals(1, seenPurchases.size());
+    assertFalse(seenPurchases.markSeen("first", PurchaseState.PURCHASED));
+    assertTrue(seenPurchases.markSeen("second", PurchaseState.PURCHASED));
+  }
+}
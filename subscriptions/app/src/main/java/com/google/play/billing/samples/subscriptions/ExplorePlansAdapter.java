@@ -0,0 +1,162 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+import com.android.billingclient.api.ProductDetails;
+import com.google.android.material.button.MaterialButton;
+import com.google.play.billing.samples.subscriptions.billing.PlanPricingIndex;
+import java.text.NumberFormat;
+import java.util.Currency;
+
+/**
+ * The plan cards of the home screen.
+ *
+ * <p>Each new list is diffed against the shown one on a background thread, and only the cards whose
+ * product, offer or subscribe/switch mode changed are rebound.
+ */
+final class ExplorePlansAdapter
+    extends ListAdapter<ExplorePlansAdapter.Plan, ExplorePlansAdapter.ViewHolder> {
+
+  /** Receives taps on a plan's action button. */
+  interface PlanClickListener {
+    void onPlanClicked(Plan plan);
+  }
+
+  /** What a plan card shows. Immutable, so the diff can run off the main thread. */
+  static final class Plan {
+    final ProductDetails productDetails;
+    final PlanPricingIndex.PricedOffer offer;
+    // Whether the user has another subscription to switch from.
+    final boolean switching;
+
+    Plan(ProductDetails productDetails, PlanPricingIndex.PricedOffer offer, boolean switching) {
+      this.productDetails = productDetails;
+      this.offer = offer;
+      this.switching = switching;
+    }
+  }
+
+  private static final DiffUtil.ItemCallback<Plan> DIFF_CALLBACK =
+      new DiffUtil.ItemCallback<Plan>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Plan oldPlan, @NonNull Plan newPlan) {
+          return oldPlan.productDetails
+              .getProductId()
+              .equals(newPlan.productDetails.getProductId());
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Plan oldPlan, @NonNull Plan newPlan) {
+          return oldPlan.productDetails.equals(newPlan.productDetails)
+              && oldPlan.offer.offerToken.equals(newPlan.offer.offerToken)
+              && oldPlan.switching == newPlan.switching;
+        }
+      };
+
+  /** The views of one card, looked up once per inflation. */
+  static final class ViewHolder extends RecyclerView.ViewHolder {
+    private final TextView titleView;
+    private final TextView priceView;
+    private final MaterialButton actionButton;
+
+    private ViewHolder(View card) {
+      super(card);
+      titleView = card.findViewById(R.id.product_title);
+      priceView = card.findViewById(R.id.product_price);
+      actionButton = card.findViewById(R.id.switch_button);
+    }
+  }
+
+  private final PlanClickListener planClickListener;
+
+  ExplorePlansAdapter(PlanClickListener planClickListener) {
+    super(DIFF_CALLBACK);
+    this.planClickListener = planClickListener;
+  }
+
+  @NonNull
+  @Override
+  public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+    ViewHolder holder =
+        new ViewHolder(
+            LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.subscription_card_item, parent, false));
+    holder.actionButton.setOnClickListener(
+        v -> {
+          int position = holder.getBindingAdapterPosition();
+          if (position != RecyclerView.NO_POSITION) {
+            planClickListener.onPlanClicked(getItem(position));
+          }
+        });
+    return holder;
+  }
+
+  @Override
+  public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+    Plan plan = getItem(position);
+    holder.titleView.setText(plan.productDetails.getName());
+    holder.priceView.setText(formatPrice(plan.offer));
+    holder.actionButton.setText(
+        plan.switching ? R.string.switch_button_text : R.string.subscribe_btn_text);
+  }
+
+  /**
+   * Formats the recurring price per its own billing period, such as "$99.99/yr", followed by the
+   * monthly cost when the period is not a month.
+   */
+  private static String formatPrice(PlanPricingIndex.PricedOffer offer) {
+    PlanPricingIndex.BillingPeriod period = offer.recurringPhase.billingPeriod;
+    String price = offer.recurringPhase.formattedPrice + "/" + formatPeriod(period);
+    if (period.years == 0 && period.months == 1 && period.weeks == 0 && period.days == 0) {
+      return price;
+    }
+    return String.format(
+        "%s (%s/mo)", price, formatMicros(offer.monthlyMicros, offer.currencyCode));
+  }
+
+  private static String formatPeriod(PlanPricingIndex.BillingPeriod period) {
+    int[] counts = {period.years, period.months, period.weeks, period.days};
+    String[] units = {"yr", "mo", "wk", "day"};
+    StringBuilder label = new StringBuilder();
+    int unitCount = 0;
+    for (int i = 0; i < counts.length; i++) {
+      if (counts[i] != 0) {
+        label.append(unitCount++ == 0 ? "" : " ").append(counts[i]).append(' ').append(units[i]);
+      }
+    }
+    // A period of one unit reads as "/mo" rather than "/1 mo".
+    return unitCount == 1 && label.charAt(0) == '1' && label.charAt(1) == ' '
+        ? label.substring(2)
+        : label.toString();
+  }
+
+  private static String formatMicros(long micros, String currencyCode) {
+    NumberFormat format = NumberFormat.getCurrencyInstance();
+    try {
+      format.setCurrency(Currency.getInstance(currencyCode));
+    } catch (IllegalArgumentException e) {
+      return String.format("%.2f %s", micros / 1_000_000.0, currencyCode);
+    }
+    return format.format(micros / 1_000_000.0);
+  }
+}
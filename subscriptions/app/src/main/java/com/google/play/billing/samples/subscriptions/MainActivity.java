@@ -19,9 +19,10 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
-import android.widget.LinearLayout;
 import android.widget.TextView;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import com.android.billingclient.api.BillingClient;
 import com.android.billingclient.api.BillingClient.ProductType;
 import com.android.billingclient.api.BillingFlowParams.ProductDetailsParams.SubscriptionProductReplacementParams;
@@ -30,14 +31,20 @@ import com.android.billingclient.api.ProductDetails;
 import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.QueryProductDetailsParams.Product;
 import com.google.android.material.bottomnavigation.BottomNavigationView;
-import com.google.android.material.button.MaterialButton;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.play.billing.samples.subscriptions.billing.ActiveSubscriptionStore;
 import com.google.play.billing.samples.subscriptions.billing.BillingServiceClient;
 import com.google.play.billing.samples.subscriptions.billing.BillingServiceClientListener;
-import java.util.HashMap;
+import com.google.play.billing.samples.subscriptions.billing.BillingSession;
+import com.google.play.billing.samples.subscriptions.billing.PlanPricingIndex;
+import com.google.play.billing.samples.subscriptions.billing.ProductCatalog;
+import com.google.play.billing.samples.subscriptions.billing.SubscriptionOfferIndex;
+import com.google.play.billing.samples.subscriptions.billing.SubscriptionPurchaseIndex;
+import java.util.ArrayList;
 import java.util.List;
-import java.util.Map;
+import java.util.Objects;
 
 public class MainActivity extends AppCompatActivity implements BillingServiceClientListener {
 
@@ -64,9 +71,15 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
               .setProductType(ProductType.SUBS)
               .build());
 
-  private final Map<String, ProductDetails> productDetailsMap = new HashMap<>();
+  // The IDs in PRODUCT_LIST. The shared session also holds the products added in the playground,
+  // which are not offered here.
+  private static final ImmutableSet<String> HOME_PRODUCT_IDS =
+      ImmutableSet.of(SUBSCRIPTION_PRODUCT_01, SUBSCRIPTION_PRODUCT_02, SUBSCRIPTION_PRODUCT_03);
+
+  private ProductCatalog.Snapshot catalog = ProductCatalog.Snapshot.EMPTY;
   private String activeProductId = null;
   private String activePurchaseToken = null;
+  private ExplorePlansAdapter plansAdapter;
 
   @Override
   protected void onCreate(Bundle savedInstanceState) {
@@ -75,9 +88,17 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
 
     setupNavigation();
 
-    // Setup Billing Client
-    billingServiceClient = new BillingServiceClient(this, this);
-    billingServiceClient.startBillingConnection(PRODUCT_LIST);
+    plansAdapter = new ExplorePlansAdapter(this::onPlanClicked);
+    RecyclerView plansView = findViewById(R.id.plans_container);
+    plansView.setLayoutManager(new LinearLayoutManager(this));
+    plansView.setAdapter(plansAdapter);
+
+    // Share the app's billing connection, catalog and purchases with the other screens.
+    billingServiceClient = BillingSession.getInstance().acquire(this, PRODUCT_LIST);
+    // Render the last known plan on the first frame; the purchases query revalidates it.
+    setActiveSubscription(billingServiceClient.getLastKnownActiveSubscription());
+    refreshActivePlanUI();
+    billingServiceClient.addListener(this);
   }
 
   private void setupNavigation() {
@@ -113,7 +134,8 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   @Override
   protected void onDestroy() {
     super.onDestroy();
-    billingServiceClient.endBillingConnection();
+    billingServiceClient.removeListener(this);
+    BillingSession.getInstance().release();
   }
 
   @Override
@@ -137,10 +159,19 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   }
 
   @Override
-  public void onProductDetailsFetched(Map<String, ProductDetails> productDetailsMap) {
+  public void onProductDetailsFetched(ProductCatalog.Snapshot catalog, ProductCatalog.Delta delta) {
+    if (delta.isEmpty()) {
+      return;
+    }
     runOnUiThread(
         () -> {
-          this.productDetailsMap.putAll(productDetailsMap);
+          // Queries that overlap may report out of order; never go back to an older catalog.
+          if (catalog.version <= this.catalog.version) {
+            return;
+          }
+          this.catalog = catalog;
+          // The plan shown before the catalog arrived has no display name yet.
+          refreshActivePlanUI();
           refreshExplorePlans();
         });
   }
@@ -149,23 +180,34 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   public void onPurchasesFetched(List<Purchase> purchases) {
     runOnUiThread(
         () -> {
-          if (purchases != null && !purchases.isEmpty()) {
-            activeProductId = purchases.get(0).getProducts().get(0);
-            activePurchaseToken = purchases.get(0).getPurchaseToken();
-          } else {
-            activeProductId = null;
-            activePurchaseToken = null;
+          // The client has indexed the purchases; only refresh if that changed what is shown.
+          if (setActiveSubscription(billingServiceClient.getActiveSubscription())) {
+            refreshActivePlanUI();
           }
-          refreshActivePlanUI();
+          // Other owned plans may have changed too. The list is diffed, so this rebinds nothing
+          // if they did not.
           refreshExplorePlans();
         });
   }
 
+  /** Shows a subscription as the active one. Returns whether it differs from the shown one. */
+  private boolean setActiveSubscription(ActiveSubscriptionStore.ActiveSubscription subscription) {
+    String productId = subscription != null ? subscription.productId : null;
+    String purchaseToken = subscription != null ? subscription.purchaseToken : null;
+    if (Objects.equals(productId, activeProductId)
+        && Objects.equals(purchaseToken, activePurchaseToken)) {
+      return false;
+    }
+    activeProductId = productId;
+    activePurchaseToken = purchaseToken;
+    return true;
+  }
+
   private void refreshActivePlanUI() {
     if (activeProductId != null && !activeProductId.isEmpty()) {
       findViewById(R.id.active_subscription_card).setVisibility(View.VISIBLE);
       String displayName = activeProductId;
-      ProductDetails details = productDetailsMap.get(activeProductId);
+      ProductDetails details = catalog.get(activeProductId);
       if (details != null) {
         displayName = details.getName();
       }
@@ -188,64 +230,58 @@ public class MainActivity extends AppCompatActivity implements BillingServiceCli
   }
 
   private void refreshExplorePlans() {
-    LinearLayout container = findViewById(R.id.plans_container);
-    container.removeAllViews();
-
-    for (ProductDetails details : productDetailsMap.values()) {
-      if (activeProductId != null && activeProductId.equals(details.getProductId())) {
+    SubscriptionOfferIndex offerIndex = billingServiceClient.getSubscriptionOffers();
+    SubscriptionPurchaseIndex.Snapshot purchases = billingServiceClient.getPurchaseIndex();
+    boolean switching = activeProductId != null && !activeProductId.isEmpty();
+    List<ExplorePlansAdapter.Plan> plans = new ArrayList<>();
+    // Plans are listed by monthly cost, whatever their billing periods.
+    for (PlanPricingIndex.PricedOffer pricedOffer :
+        billingServiceClient.getPlanPricing().getRankedOffers()) {
+      String productId = pricedOffer.productId;
+      if (!HOME_PRODUCT_IDS.contains(productId)) {
+        continue;
+      }
+      ProductDetails details = catalog.get(productId);
+      // Every plan the user already has is left out, not only the one a switch replaces.
+      if (details == null || productId.equals(activeProductId) || purchases.isEntitled(productId)) {
         continue;
       }
-      addPlanToUI(container, details);
+      // Each product is shown with the one offer selected for it.
+      SubscriptionOfferIndex.Offer offer = offerIndex.selectOffer(productId, BASE_PLAN_MONTHLY);
+      if (offer != null && offer.offerToken.equals(pricedOffer.offerToken)) {
+        plans.add(new ExplorePlansAdapter.Plan(details, pricedOffer, switching));
+      }
     }
+    plansAdapter.submitList(plans);
   }
 
-  private void addPlanToUI(LinearLayout container, ProductDetails details) {
-    View card = getLayoutInflater().inflate(R.layout.subscription_card_item, container, false);
-
-    TextView titleView = card.findViewById(R.id.product_title);
-    TextView priceView = card.findViewById(R.id.product_price);
-    MaterialButton actionButton = card.findViewById(R.id.switch_button);
-
-    titleView.setText(details.getName());
-
-    List<ProductDetails.SubscriptionOfferDetails> offers = details.getSubscriptionOfferDetails();
-    if (offers != null && !offers.isEmpty()) {
-      ProductDetails.SubscriptionOfferDetails selectedOffer =
-          offers.stream()
-              .filter(offer -> BASE_PLAN_MONTHLY.equals(offer.getBasePlanId()))
-              .findFirst()
-              .orElse(offers.get(0));
-      ;
-      String price =
-          selectedOffer.getPricingPhases().getPricingPhaseList().get(0).getFormattedPrice();
-      priceView.setText(String.format("%s/mo", price));
-
-      if (activeProductId != null && !activeProductId.isEmpty()) {
-        // Case where the user is trying to switch their subscription plan
-        actionButton.setText(R.string.switch_button_text);
-
-        int replacementMode =
-            SubscriptionProductReplacementParams.ReplacementMode.CHARGE_PRORATED_PRICE;
-
-        actionButton.setOnClickListener(
-            v ->
-                billingServiceClient.launchBillingFlow(
-                    details.getProductId(),
-                    selectedOffer.getOfferToken(),
-                    activePurchaseToken,
-                    activeProductId,
-                    replacementMode));
-
-      } else {
-        // There exist no active subscription for the user, treating this as a new purchase.
-        actionButton.setText(R.string.subscribe_btn_text);
-        actionButton.setOnClickListener(
-            v ->
-                billingServiceClient.launchBillingFlow(
-                    details.getProductId(), selectedOffer.getOfferToken()));
-      }
+  private void onPlanClicked(ExplorePlansAdapter.Plan plan) {
+    String productId = plan.productDetails.getProductId();
+    if (activeProductId != null && !activeProductId.isEmpty()) {
+      // Case where the user is trying to switch their subscription plan. A cheaper plan takes
+      // over when the current one renews, and a pricier one starts now at a prorated price.
+      SubscriptionOfferIndex.Offer activeOffer =
+          billingServiceClient
+              .getSubscriptionOffers()
+              .selectOffer(activeProductId, BASE_PLAN_MONTHLY);
+      PlanPricingIndex.PricedOffer activePricing =
+          activeOffer == null
+              ? null
+              : billingServiceClient.getPlanPricing().get(activeOffer.offerToken);
+      int replacementMode =
+          activePricing != null && PlanPricingIndex.isDowngrade(activePricing, plan.offer)
+              ? SubscriptionProductReplacementParams.ReplacementMode.DEFERRED
+              : SubscriptionProductReplacementParams.ReplacementMode.CHARGE_PRORATED_PRICE;
+      billingServiceClient.launchBillingFlow(
+          this,
+          productId,
+          plan.offer.offerToken,
+          activePurchaseToken,
+          activeProductId,
+          replacementMode);
+    } else {
+      // There exist no active subscription for the user, treating this as a new purchase.
+      billingServiceClient.launchBillingFlow(this, productId, plan.offer.offerToken);
     }
-
-    container.addView(card);
   }
 }
@@ -19,12 +19,13 @@ import android.net.Uri;
 import android.os.Bundle;
 import android.util.Log;
 import android.view.View;
-import android.widget.LinearLayout;
 import android.widget.RadioButton;
 import android.widget.RadioGroup;
 import android.widget.TextView;
 import androidx.annotation.NonNull;
 import androidx.appcompat.app.AppCompatActivity;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 import com.android.billingclient.api.BillingClient.BillingResponseCode;
 import com.android.billingclient.api.BillingClient.ProductType;
 import com.android.billingclient.api.BillingFlowParams.ProductDetailsParams.SubscriptionProductReplacementParams.ReplacementMode;
@@ -37,11 +38,21 @@ import com.google.android.material.button.MaterialButton;
 import com.google.android.material.dialog.MaterialAlertDialogBuilder;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.common.collect.ImmutableList;
+import com.google.play.billing.samples.subscriptions.billing.ActiveSubscriptionStore;
 import com.google.play.billing.samples.subscriptions.billing.BillingServiceClient;
 import com.google.play.billing.samples.subscriptions.billing.BillingServiceClientListener;
+import com.google.play.billing.samples.subscriptions.billing.BillingSession;
+import com.google.play.billing.samples.subscriptions.billing.ProductCatalog;
+import com.google.play.billing.samples.subscriptions.billing.ReplacementMatrix;
+import com.google.play.billing.samples.subscriptions.billing.SubscriptionOfferIndex;
+import com.google.play.billing.samples.subscriptions.billing.SubscriptionPurchaseIndex;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 public class PlaygroundActivity extends AppCompatActivity implements BillingServiceClientListener {
 
@@ -50,9 +61,19 @@ public class PlaygroundActivity extends AppCompatActivity implements BillingServ
   private String activePurchaseToken;
   private String activeProductId;
   private String selectedProductId;
+  private PlaygroundTiersAdapter tiersAdapter;
 
-  private final Map<String, ProductDetails> productDetailsMap = new HashMap<>();
+  private ProductCatalog.Snapshot catalog = ProductCatalog.Snapshot.EMPTY;
   private final Map<String, String> customBasePlanMap = new HashMap<>();
+  // Bumped whenever customBasePlanMap changes.
+  private int basePlanVersion;
+  // Every replacement of an owned plan, rebuilt when the catalog, purchases or base plans change.
+  private ReplacementMatrix replacementMatrix;
+  private int replacementMatrixBasePlanVersion;
+  // Builds the replacement matrix off the main thread, one build at a time.
+  private final ExecutorService replacementMatrixExecutor = Executors.newSingleThreadExecutor();
+  // Whether a build is running. A change made meanwhile is picked up when it finishes.
+  private boolean replacementMatrixBuildInFlight;
 
   private static final String BASE_PLAN_MONTHLY = "monthly-auto-renewing";
 
@@ -91,9 +112,22 @@ public class PlaygroundActivity extends AppCompatActivity implements BillingServ
     setupNavigation();
     populateReplacementModes();
 
-    // Setup Billing Client
-    billingServiceClient = new BillingServiceClient(this, this);
-    billingServiceClient.startBillingConnection(PRODUCT_LIST);
+    tiersAdapter =
+        new PlaygroundTiersAdapter(
+            productId -> {
+              selectedProductId = productId;
+              refreshSubscriptionListUI();
+            });
+    RecyclerView tiersView = findViewById(R.id.replacement_tiers_container);
+    tiersView.setLayoutManager(new LinearLayoutManager(this));
+    tiersView.setAdapter(tiersAdapter);
+
+    // Share the app's billing connection, catalog and purchases with the other screens.
+    billingServiceClient = BillingSession.getInstance().acquire(this, PRODUCT_LIST);
+    // Render the last known plan on the first frame; the purchases query revalidates it.
+    setActiveSubscription(billingServiceClient.getLastKnownActiveSubscription());
+    refreshActivePlanUI();
+    billingServiceClient.addListener(this);
 
     findViewById(R.id.test_replacement_button).setOnClickListener(v -> testReplacement());
     findViewById(R.id.add_custom_sub_button).setOnClickListener(v -> showAddCustomSubDialog());
@@ -105,6 +139,7 @@ public class PlaygroundActivity extends AppCompatActivity implements BillingServ
       RadioButton rb = new RadioButton(this);
       rb.setText(modeName);
       rb.setId(View.generateViewId());
+      rb.setTag(REPLACEMENT_MODES.get(modeName));
       rb.setTextColor(getColor(R.color.onSurface));
       rb.setPadding(32, 32, 32, 32);
       modeGroup.addView(rb);
@@ -127,22 +162,32 @@ public class PlaygroundActivity extends AppCompatActivity implements BillingServ
         .setPositiveButton(
             "Add",
             (dialog, which) -> {
-              String productId = productIdEdit.getText().toString().trim();
               String basePlanId = basePlanIdEdit.getText().toString().trim();
-              if (!productId.isEmpty()) {
-                queryAndAddCustomSub(productId, basePlanId);
+              List<String> productIds = new ArrayList<>();
+              // A pasted list may separate the IDs with commas, spaces or line breaks.
+              for (String productId : productIdEdit.getText().toString().split("[\\s,]+")) {
+                if (!productId.isEmpty()) {
+                  productIds.add(productId);
+                }
+              }
+              if (!productIds.isEmpty()) {
+                queryAndAddCustomSubs(productIds, basePlanId);
               }
             })
         .setNegativeButton("Cancel", null)
         .show();
   }
 
-  private void queryAndAddCustomSub(@NonNull String productId, @NonNull String basePlanId) {
-    ImmutableList<Product> products =
-        ImmutableList.of(
-            Product.newBuilder().setProductId(productId).setProductType(ProductType.SUBS).build());
-    customBasePlanMap.put(productId, basePlanId);
-    billingServiceClient.queryProductDetails(products);
+  private void queryAndAddCustomSubs(@NonNull List<String> productIds, @NonNull String basePlanId) {
+    for (String productId : productIds) {
+      if (!basePlanId.equals(customBasePlanMap.put(productId, basePlanId))) {
+        basePlanVersion++;
+      }
+    }
+    // Products already loaded are not queried again, so show their new base plan now.
+    refreshSubscriptionListUI();
+    updateReplacementMatrix();
+    billingServiceClient.requestProductDetails(productIds);
   }
 
   private void testReplacement() {
@@ -150,43 +195,50 @@ public class PlaygroundActivity extends AppCompatActivity implements BillingServ
       Log.w(TAG, "No target product selected");
       return;
     }
-    ProductDetails productDetails = productDetailsMap.get(selectedProductId);
-
-    if (productDetails == null) {
-      Log.w(TAG, "No offers found for product: " + selectedProductId);
-      return;
-    }
-    final String basePlanId = customBasePlanMap.getOrDefault(selectedProductId, "");
-    List<ProductDetails.SubscriptionOfferDetails> offerDetailsList =
-        productDetails.getSubscriptionOfferDetails();
-    ProductDetails.SubscriptionOfferDetails offerDetail =
-        offerDetailsList.stream()
-            .filter(offer -> offer.getBasePlanId().equals(basePlanId))
-            .findFirst()
-            .orElse(offerDetailsList.get(0));
-
-    String offerToken = offerDetail.getOfferToken();
-
-    if (activeProductId != null && activePurchaseToken != null) {
-      // Replacement mode
+    boolean replacing = activeProductId != null && activePurchaseToken != null;
+    int replacementMode = ReplacementMode.UNKNOWN_REPLACEMENT_MODE;
+    if (replacing) {
       RadioGroup modeGroup = findViewById(R.id.replacement_mode_group);
-      int checkedId = modeGroup.getCheckedRadioButtonId();
-      RadioButton checkedRb = findViewById(checkedId);
-
+      RadioButton checkedRb = findViewById(modeGroup.getCheckedRadioButtonId());
       if (checkedRb == null) {
         return;
       }
-
-      Integer replacementMode = REPLACEMENT_MODES.get(checkedRb.getText().toString());
-      if (replacementMode == null) {
-        replacementMode = ReplacementMode.UNKNOWN_REPLACEMENT_MODE;
+      replacementMode = (Integer) checkedRb.getTag();
+
+      // Every replacement of a confirmed plan is built ahead of time.
+      ReplacementMatrix.Cell cell =
+          replacementMatrix != null
+              ? replacementMatrix.get(activeProductId, selectedProductId, replacementMode)
+              : null;
+      if (cell != null && cell.currentPurchaseToken.equals(activePurchaseToken)) {
+        Log.i(TAG, "Estimated proration: " + cell.proration);
+        billingServiceClient.launchBillingFlow(this, cell.billingFlowParams);
+        return;
       }
+    }
+
+    final String basePlanId = customBasePlanMap.getOrDefault(selectedProductId, "");
+    SubscriptionOfferIndex.Offer offer =
+        billingServiceClient.getSubscriptionOffers().selectOffer(selectedProductId, basePlanId);
+
+    if (offer == null) {
+      Log.w(TAG, "No offers found for product: " + selectedProductId);
+      return;
+    }
+    String offerToken = offer.offerToken;
 
+    if (replacing) {
+      // The plan shown may be the last known one, not yet confirmed by a purchases query.
       billingServiceClient.launchBillingFlow(
-          selectedProductId, offerToken, activePurchaseToken, activeProductId, replacementMode);
+          this,
+          selectedProductId,
+          offerToken,
+          activePurchaseToken,
+          activeProductId,
+          replacementMode);
     } else {
       // New purchase mode
-      billingServiceClient.launchBillingFlow(selectedProductId, offerToken);
+      billingServiceClient.launchBillingFlow(this, selectedProductId, offerToken);
     }
   }
 
@@ -223,7 +275,9 @@ public class PlaygroundActivity extends AppCompatActivity implements BillingServ
   @Override
   protected void onDestroy() {
     super.onDestroy();
-    billingServiceClient.endBillingConnection();
+    billingServiceClient.removeListener(this);
+    replacementMatrixExecutor.shutdown();
+    BillingSession.getInstance().release();
   }
 
   @Override
@@ -248,84 +302,111 @@ public class PlaygroundActivity extends AppCompatActivity implements BillingServ
   }
 
   @Override
-  public void onProductDetailsFetched(Map<String, ProductDetails> productDetailsMap) {
+  public void onProductDetailsFetched(ProductCatalog.Snapshot catalog, ProductCatalog.Delta delta) {
+    if (delta.isEmpty()) {
+      return;
+    }
     runOnUiThread(
         () -> {
-          this.productDetailsMap.putAll(productDetailsMap);
+          // Queries that overlap may report out of order; never go back to an older catalog.
+          if (catalog.version <= this.catalog.version) {
+            return;
+          }
+          this.catalog = catalog;
           refreshSubscriptionListUI();
           refreshActivePlanUI();
+          updateReplacementMatrix();
         });
   }
 
   private void refreshSubscriptionListUI() {
-    LinearLayout container = findViewById(R.id.replacement_tiers_container);
-    container.removeAllViews();
-
-    for (ProductDetails details : productDetailsMap.values()) {
-      addSubscriptionToUI(container, details);
+    SubscriptionOfferIndex offerIndex = billingServiceClient.getSubscriptionOffers();
+    List<PlaygroundTiersAdapter.Tier> tiers = new ArrayList<>();
+    for (ProductDetails details : catalog.getProducts()) {
+      String productId = details.getProductId();
+      String basePlanId = customBasePlanMap.getOrDefault(productId, "");
+      SubscriptionOfferIndex.Offer offer = offerIndex.selectOffer(productId, basePlanId);
+      if (offer == null) {
+        Log.w(TAG, "No offers found for product: " + productId);
+        continue;
+      }
+      PlaygroundTiersAdapter.Selection selection;
+      if (selectedProductId == null) {
+        selection = PlaygroundTiersAdapter.Selection.NONE_SELECTED;
+      } else if (selectedProductId.equals(productId)) {
+        selection = PlaygroundTiersAdapter.Selection.SELECTED;
+      } else {
+        selection = PlaygroundTiersAdapter.Selection.OTHER_SELECTED;
+      }
+      tiers.add(new PlaygroundTiersAdapter.Tier(offer, selection));
     }
+    tiersAdapter.submitList(tiers);
   }
 
-  private void addSubscriptionToUI(LinearLayout container, ProductDetails details) {
-    View card =
-        getLayoutInflater().inflate(R.layout.playground_subscription_card, container, false);
-    TextView productIdView = card.findViewById(R.id.subscription_product_id);
-    TextView basePlanIdView = card.findViewById(R.id.subscription_base_plan);
-    TextView billingPeriodView = card.findViewById(R.id.subscription_billing_period);
-    TextView priceView = card.findViewById(R.id.subscription_price);
-
-    String productId = details.getProductId();
-    String basePlanId = customBasePlanMap.getOrDefault(productId, "");
-
-    List<ProductDetails.SubscriptionOfferDetails> subscriptionOfferDetails =
-        productDetailsMap.get(productId).getSubscriptionOfferDetails();
-    ProductDetails.SubscriptionOfferDetails offerDetail =
-        subscriptionOfferDetails.stream()
-            .filter(offer -> offer.getBasePlanId().equals(basePlanId))
-            .findFirst()
-            .orElse(subscriptionOfferDetails.get(0));
-
-    String price = offerDetail.getPricingPhases().getPricingPhaseList().get(0).getFormattedPrice();
-    String billingCycle =
-        offerDetail.getPricingPhases().getPricingPhaseList().get(0).getBillingPeriod();
-
-    productIdView.setText(productId);
-    basePlanIdView.setText(offerDetail.getBasePlanId());
-    priceView.setText(price);
-    billingPeriodView.setText(billingCycle);
-
-    card.setOnClickListener(
-        v -> {
-          selectedProductId = details.getProductId();
-          for (int i = 0; i < container.getChildCount(); i++) {
-            container.getChildAt(i).setAlpha(0.6f);
-            ((com.google.android.material.card.MaterialCardView) container.getChildAt(i))
-                .setStrokeWidth(0);
-          }
-          card.setAlpha(1.0f);
-          ((com.google.android.material.card.MaterialCardView) card).setStrokeWidth(4);
-          ((com.google.android.material.card.MaterialCardView) card)
-              .setStrokeColor(getColor(R.color.primary_red));
+  /**
+   * Rebuilds the replacement matrix in the background if the catalog, purchases or base plans have
+   * changed. The matrix is published on the main thread only if those inputs are still current.
+   */
+  private void updateReplacementMatrix() {
+    if (isDestroyed() || replacementMatrixBuildInFlight || isReplacementMatrixCurrent()) {
+      return;
+    }
+    replacementMatrixBuildInFlight = true;
+    final ProductCatalog.Snapshot catalogSnapshot = catalog;
+    final SubscriptionPurchaseIndex.Snapshot purchases = billingServiceClient.getPurchaseIndex();
+    final Map<String, String> basePlanIds = new HashMap<>(customBasePlanMap);
+    final int version = basePlanVersion;
+    replacementMatrixExecutor.execute(
+        () -> {
+          ReplacementMatrix matrix =
+              billingServiceClient.buildReplacementMatrix(
+                  catalogSnapshot, purchases, basePlanIds, REPLACEMENT_MODES.values());
+          runOnUiThread(
+              () -> {
+                replacementMatrixBuildInFlight = false;
+                if (matrix.isBuiltFrom(catalog, billingServiceClient.getPurchaseIndex())
+                    && version == basePlanVersion) {
+                  replacementMatrix = matrix;
+                  replacementMatrixBasePlanVersion = version;
+                } else {
+                  // The inputs changed while building; drop the stale matrix and build again.
+                  updateReplacementMatrix();
+                }
+              });
         });
+  }
 
-    container.addView(card);
+  private boolean isReplacementMatrixCurrent() {
+    return replacementMatrix != null
+        && replacementMatrix.isBuiltFrom(catalog, billingServiceClient.getPurchaseIndex())
+        && replacementMatrixBasePlanVersion == basePlanVersion;
   }
 
   @Override
   public void onPurchasesFetched(List<Purchase> purchases) {
     runOnUiThread(
         () -> {
-          if (purchases != null && !purchases.isEmpty()) {
-            activePurchaseToken = purchases.get(0).getPurchaseToken();
-            activeProductId = purchases.get(0).getProducts().get(0);
-          } else {
-            activePurchaseToken = null;
-            activeProductId = null;
+          // The client has indexed the purchases; only refresh if that changed what is shown.
+          if (setActiveSubscription(billingServiceClient.getActiveSubscription())) {
+            refreshActivePlanUI();
           }
-          refreshActivePlanUI();
+          updateReplacementMatrix();
         });
   }
 
+  /** Shows a subscription as the active one. Returns whether it differs from the shown one. */
+  private boolean setActiveSubscription(ActiveSubscriptionStore.ActiveSubscription subscription) {
+    String productId = subscription != null ? subscription.productId : null;
+    String purchaseToken = subscription != null ? subscription.purchaseToken : null;
+    if (Objects.equals(productId, activeProductId)
+        && Objects.equals(purchaseToken, activePurchaseToken)) {
+      return false;
+    }
+    activeProductId = productId;
+    activePurchaseToken = purchaseToken;
+    return true;
+  }
+
   private void refreshActivePlanUI() {
     TextView noActiveMsg = findViewById(R.id.no_active_purchase_msg);
     TextView subsHeader = findViewById(R.id.subs_section_header);
@@ -0,0 +1,132 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions;
+
+import android.view.LayoutInflater;
+import android.view.ViewGroup;
+import android.widget.TextView;
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.ListAdapter;
+import androidx.recyclerview.widget.RecyclerView;
+import com.google.android.material.card.MaterialCardView;
+import com.google.play.billing.samples.subscriptions.billing.SubscriptionOfferIndex;
+
+/**
+ * The subscription tier cards of the playground, including custom subscriptions.
+ *
+ * <p>Each new list is diffed against the shown one on a background thread, so selecting a tier
+ * only rebinds the cards whose selection state changed.
+ */
+final class PlaygroundTiersAdapter
+    extends ListAdapter<PlaygroundTiersAdapter.Tier, PlaygroundTiersAdapter.ViewHolder> {
+
+  /** Receives taps on a tier card. */
+  interface TierClickListener {
+    void onTierClicked(String productId);
+  }
+
+  /** How a card is highlighted. */
+  enum Selection {
+    NONE_SELECTED,
+    SELECTED,
+    OTHER_SELECTED
+  }
+
+  /** What a tier card shows. Immutable, so the diff can run off the main thread. */
+  static final class Tier {
+    final SubscriptionOfferIndex.Offer offer;
+    final Selection selection;
+
+    Tier(SubscriptionOfferIndex.Offer offer, Selection selection) {
+      this.offer = offer;
+      this.selection = selection;
+    }
+  }
+
+  private static final float UNSELECTED_ALPHA = 0.6f;
+  private static final int SELECTED_STROKE_WIDTH = 4;
+
+  private static final DiffUtil.ItemCallback<Tier> DIFF_CALLBACK =
+      new DiffUtil.ItemCallback<Tier>() {
+        @Override
+        public boolean areItemsTheSame(@NonNull Tier oldTier, @NonNull Tier newTier) {
+          return oldTier.offer.productId.equals(newTier.offer.productId);
+        }
+
+        @Override
+        public boolean areContentsTheSame(@NonNull Tier oldTier, @NonNull Tier newTier) {
+          return oldTier.offer.offerToken.equals(newTier.offer.offerToken)
+              && oldTier.offer.firstPricingPhase.getFormattedPrice()
+                  .equals(newTier.offer.firstPricingPhase.getFormattedPrice())
+              && oldTier.selection == newTier.selection;
+        }
+      };
+
+  /** The views of one card, looked up once per inflation. */
+  static final class ViewHolder extends RecyclerView.ViewHolder {
+    private final MaterialCardView card;
+    private final TextView productIdView;
+    private final TextView basePlanIdView;
+    private final TextView billingPeriodView;
+    private final TextView priceView;
+
+    private ViewHolder(MaterialCardView card) {
+      super(card);
+      this.card = card;
+      productIdView = card.findViewById(R.id.subscription_product_id);
+      basePlanIdView = card.findViewById(R.id.subscription_base_plan);
+      billingPeriodView = card.findViewById(R.id.subscription_billing_period);
+      priceView = card.findViewById(R.id.subscription_price);
+    }
+  }
+
+  private final TierClickListener tierClickListener;
+
+  PlaygroundTiersAdapter(TierClickListener tierClickListener) {
+    super(DIFF_CALLBACK);
+    this.tierClickListener = tierClickListener;
+  }
+
+  @NonNull
+  @Override
+  public ViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+    ViewHolder holder =
+        new ViewHolder(
+            (MaterialCardView)
+                LayoutInflater.from(parent.getContext())
+                    .inflate(R.layout.playground_subscription_card, parent, false));
+    holder.card.setOnClickListener(
+        v -> {
+          int position = holder.getBindingAdapterPosition();
+          if (position != RecyclerView.NO_POSITION) {
+            tierClickListener.onTierClicked(getItem(position).offer.productId);
+          }
+        });
+    return holder;
+  }
+
+  @Override
+  public void onBindViewHolder(@NonNull ViewHolder holder, int position) {
+    Tier tier = getItem(position);
+    holder.productIdView.setText(tier.offer.productId);
+    holder.basePlanIdView.setText(tier.offer.basePlanId);
+    holder.priceView.setText(tier.offer.firstPricingPhase.getFormattedPrice());
+    holder.billingPeriodView.setText(tier.offer.firstPricingPhase.getBillingPeriod());
+    // Recycled cards may carry another tier's highlight, so every state is set explicitly.
+    holder.card.setAlpha(tier.selection == Selection.OTHER_SELECTED ? UNSELECTED_ALPHA : 1.0f);
+    holder.card.setStrokeWidth(tier.selection == Selection.SELECTED ? SELECTED_STROKE_WIDTH : 0);
+  }
+}
@@ -0,0 +1,169 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import android.util.Log;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Persisted record of the subscription the user had at the last purchases query or update.
+ *
+ * <p>Screens render from it before Google Play has been asked, so the first frame already shows
+ * the right plan. The record is a few dozen bytes, read once on first use and rewritten on a
+ * background thread only when it changes.
+ */
+public class ActiveSubscriptionStore {
+
+  /** The subscription the user has, by product ID and purchase token. */
+  public static final class ActiveSubscription {
+    public final String productId;
+    public final String purchaseToken;
+
+    public ActiveSubscription(String productId, String purchaseToken) {
+      this.productId = productId;
+      this.purchaseToken = purchaseToken;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof ActiveSubscription)) {
+        return false;
+      }
+      ActiveSubscription other = (ActiveSubscription) o;
+      return productId.equals(other.productId) && purchaseToken.equals(other.purchaseToken);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * productId.hashCode() + purchaseToken.hashCode();
+    }
+
+    @Override
+    public String toString() {
+      return "ActiveSubscription{productId=" + productId + "}";
+    }
+  }
+
+  private static final String TAG = "ActiveSubscriptionStore";
+  static final String STATE_FILE_NAME = "active_subscription.bin";
+  private static final int FORMAT_VERSION = 1;
+
+  private final File stateFile;
+  private final ExecutorService executor = Executors.newSingleThreadExecutor();
+
+  // The fields below are guarded by this.
+  private boolean loaded;
+  private ActiveSubscription activeSubscription;
+
+  /**
+   * @param directory The directory in which to store the state file. It must survive process
+   *     death, so it should not be a cache directory.
+   */
+  public ActiveSubscriptionStore(File directory) {
+    this.stateFile = new File(directory, STATE_FILE_NAME);
+  }
+
+  /** Returns the last recorded subscription, or null if the user had none or none was recorded. */
+  public synchronized ActiveSubscription get() {
+    ensureLoaded();
+    return activeSubscription;
+  }
+
+  /**
+   * Records the subscription found by a purchases query or a purchase update.
+   *
+   * @param activeSubscription The subscription, or null if the user has none.
+   * @return Whether it differs from the recorded one.
+   */
+  public boolean update(ActiveSubscription activeSubscription) {
+    synchronized (this) {
+      ensureLoaded();
+      if (activeSubscription == null
+          ? this.activeSubscription == null
+          : activeSubscription.equals(this.activeSubscription)) {
+        return false;
+      }
+      this.activeSubscription = activeSubscription;
+    }
+    try {
+      executor.execute(() -> write(activeSubscription));
+    } catch (RejectedExecutionException e) {
+      Log.w(TAG, "Store is closed, not persisting " + activeSubscription);
+    }
+    return true;
+  }
+
+  /** Finishes pending writes in the background and stops accepting new ones. */
+  public void close() {
+    executor.shutdown();
+  }
+
+  private void ensureLoaded() {
+    if (loaded) {
+      return;
+    }
+    loaded = true;
+    if (!stateFile.exists()) {
+      return;
+    }
+    try (DataInputStream input =
+        new DataInputStream(new BufferedInputStream(new FileInputStream(stateFile)))) {
+      if (input.readInt() != FORMAT_VERSION) {
+        Log.w(TAG, "Ignoring state file of another format");
+        return;
+      }
+      if (input.readBoolean()) {
+        activeSubscription = new ActiveSubscription(input.readUTF(), input.readUTF());
+      }
+    } catch (IOException e) {
+      // Only a hint for the first frame; the next purchases query replaces it.
+      Log.w(TAG, "Failed to read active subscription", e);
+      activeSubscription = null;
+    }
+  }
+
+  /** Writes to a temporary file that is swapped in, so a crash never leaves a torn record. */
+  private void write(ActiveSubscription activeSubscription) {
+    File tmpFile = new File(stateFile.getPath() + ".tmp");
+    try (DataOutputStream output =
+        new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)))) {
+      output.writeInt(FORMAT_VERSION);
+      output.writeBoolean(activeSubscription != null);
+      if (activeSubscription != null) {
+        output.writeUTF(activeSubscription.productId);
+        output.writeUTF(activeSubscription.purchaseToken);
+      }
+    } catch (IOException e) {
+      Log.e(TAG, "Failed to write active subscription", e);
+      return;
+    }
+    if (!tmpFile.renameTo(stateFile)) {
+      Log.e(TAG, "Could not replace " + stateFile);
+    }
+  }
+}
@@ -14,9 +14,10 @@
  */
 package com.google.play.billing.samples.subscriptions.billing;
 
+import android.app.Activity;
+import android.content.Context;
 import android.util.Log;
 import androidx.annotation.NonNull;
-import androidx.appcompat.app.AppCompatActivity;
 import com.android.billingclient.api.AcknowledgePurchaseParams;
 import com.android.billingclient.api.AcknowledgePurchaseResponseListener;
 import com.android.billingclient.api.BillingClient;
@@ -31,36 +32,117 @@ import com.android.billingclient.api.PendingPurchasesParams;
 import com.android.billingclient.api.ProductDetails;
 import com.android.billingclient.api.Purchase;
 import com.android.billingclient.api.Purchase.PurchaseState;
+import com.android.billingclient.api.PurchasesResponseListener;
 import com.android.billingclient.api.PurchasesUpdatedListener;
-import com.android.billingclient.api.QueryProductDetailsParams;
 import com.android.billingclient.api.QueryProductDetailsParams.Product;
 import com.android.billingclient.api.QueryPurchasesParams;
 import com.google.common.collect.ImmutableList;
-import java.util.HashMap;
+import java.lang.ref.WeakReference;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
-/** Manages interactions with the Google Play Billing Library for handling subscriptions. */
+/**
+ * Manages interactions with the Google Play Billing Library for handling subscriptions.
+ *
+ * <p>Purchases queries go through a {@link PurchasesQueryCoordinator}, so the callers that ask for
+ * purchases around the same time share a single query to Google Play.
+ *
+ * <p>Any number of listeners can be attached, so one client can serve several screens through a
+ * {@link BillingSession}. They share its catalog and the last purchases it fetched.
+ */
 public class BillingServiceClient {
 
   private static final String TAG = "Billing Service Client";
   private final BillingClient billingClient;
-  private final AppCompatActivity activity;
-  private BillingServiceClientListener billingServiceClientListener;
+  private final Context context;
+  private final List<BillingServiceClientListener> listeners = new CopyOnWriteArrayList<>();
+  // The activity of the billing flow awaiting its response, which alone is told of the response if
+  // it listens. Weak, and cleared once the response is routed, since this client outlives it.
+  private volatile WeakReference<Activity> billingFlowActivity;
+  private volatile List<Purchase> lastFetchedPurchases;
+  private final BillingLatencyRecorder latencyRecorder = new BillingLatencyRecorder();
+  private final PurchasesQueryCoordinator purchasesQueryCoordinator;
+  private final ProductDetailsLookupQueue productDetailsLookupQueue;
+  private final ActiveSubscriptionStore activeSubscriptionStore;
+  private final SubscriptionPurchaseIndex purchaseIndex = new SubscriptionPurchaseIndex();
+
+  // The product details of the products that are available to the user.
+  private final ProductCatalog productCatalog = new ProductCatalog();
+  private final SubscriptionOfferIndex subscriptionOfferIndex = new SubscriptionOfferIndex();
+  private final PlanPricingIndex planPricingIndex = new PlanPricingIndex();
+
+  // Fans each event out to the attached listeners.
+  private final BillingServiceClientListener billingServiceClientListener =
+      new BillingServiceClientListener() {
+        @Override
+        public void onBillingResponse(int responseCode, BillingResult billingResult) {
+          WeakReference<Activity> launchingActivityRef = billingFlowActivity;
+          billingFlowActivity = null;
+          Activity launchingActivity =
+              launchingActivityRef != null ? launchingActivityRef.get() : null;
+          for (BillingServiceClientListener listener : listeners) {
+            if (listener == launchingActivity) {
+              listener.onBillingResponse(responseCode, billingResult);
+              return;
+            }
+          }
+          for (BillingServiceClientListener listener : listeners) {
+            listener.onBillingResponse(responseCode, billingResult);
+          }
+        }
+
+        @Override
+        public void onProductDetailsFetched(
+            ProductCatalog.Snapshot catalog, ProductCatalog.Delta delta) {
+          for (BillingServiceClientListener listener : listeners) {
+            listener.onProductDetailsFetched(catalog, delta);
+          }
+        }
 
-  // Map to store product details for the products that are available to the user.
-  private final Map<String, ProductDetails> productDetailsMap = new HashMap<>();
+        @Override
+        public void onProductDetailsBatchFetched(Map<String, ProductDetails> productDetailsMap) {
+          for (BillingServiceClientListener listener : listeners) {
+            listener.onProductDetailsBatchFetched(productDetailsMap);
+          }
+        }
+
+        @Override
+        public void onPurchasesFetched(List<Purchase> purchases) {
+          lastFetchedPurchases = purchases;
+          for (BillingServiceClientListener listener : listeners) {
+            listener.onPurchasesFetched(purchases);
+          }
+        }
+      };
 
   private final AcknowledgePurchaseResponseListener acknowledgePurchaseResponseListener =
       billingResult ->
           Log.i(TAG, "Acknowledge purchase response: " + billingResult.getResponseCode());
 
+  // Reports query results to the listener. A single instance, so each query reports them once.
+  private final PurchasesResponseListener purchasesFetchedListener =
+      (billingResult, purchases) -> {
+        if (billingResult.getResponseCode() == BillingResponseCode.OK) {
+          purchaseIndex.replaceAll(purchases);
+          recordActiveSubscription();
+          billingServiceClientListener.onPurchasesFetched(purchases);
+        } else {
+          Log.e(TAG, "queryPurchases failed: " + billingResult.getDebugMessage());
+        }
+      };
+
   private final PurchasesUpdatedListener purchasesUpdatedListener =
       (billingResult, purchases) -> {
         int responseCode = billingResult.getResponseCode();
         billingServiceClientListener.onBillingResponse(responseCode, billingResult);
 
         if (responseCode == BillingResponseCode.OK && purchases != null) {
+          if (purchaseIndex.updateAll(purchases)) {
+            recordActiveSubscription();
+          }
           for (Purchase purchase : purchases) {
             handlePurchase(purchase);
           }
@@ -72,16 +154,42 @@ public class BillingServiceClient {
         }
       };
 
+  /**
+   * @param context The context to connect to Google Play with. An activity or the application.
+   * @param billingServiceClientListener The first listener. More can be added with {@link
+   *     #addListener}.
+   */
   public BillingServiceClient(
-      AppCompatActivity activity,
-      @NonNull BillingServiceClientListener billingServiceClientListener) {
-    this.activity = activity;
-    this.billingServiceClientListener = billingServiceClientListener;
+      Context context, @NonNull BillingServiceClientListener billingServiceClientListener) {
+    this(context);
+    listeners.add(billingServiceClientListener);
+  }
+
+  /**
+   * Creates a client with no listener yet, such as the shared client of a {@link BillingSession}.
+   *
+   * @param context The context to connect to Google Play with. An activity or the application.
+   */
+  public BillingServiceClient(Context context) {
+    this.context = context;
     billingClient = createBillingClient();
+    purchasesQueryCoordinator =
+        new PurchasesQueryCoordinator(
+            this::startPurchasesQuery, PurchasesQueryCoordinator.DEFAULT_DEBOUNCE_MILLIS);
+    productDetailsLookupQueue =
+        new ProductDetailsLookupQueue(
+            this::startProductDetailsLookup,
+            productCatalog,
+            ProductDetailsLookupQueue.DEFAULT_WINDOW_MILLIS);
+    activeSubscriptionStore = createActiveSubscriptionStore();
+  }
+
+  protected ActiveSubscriptionStore createActiveSubscriptionStore() {
+    return new ActiveSubscriptionStore(context.getFilesDir());
   }
 
   protected BillingClient createBillingClient() {
-    return BillingClient.newBuilder(activity)
+    return BillingClient.newBuilder(context)
         .setListener(purchasesUpdatedListener)
         .enablePendingPurchases(PendingPurchasesParams.newBuilder().enableOneTimeProducts().build())
         .enableAutoServiceReconnection()
@@ -99,26 +207,90 @@ public class BillingServiceClient {
 
     Log.i(TAG, "Starting connection");
     billingClient.startConnection(
-        new BillingClientStateListener() {
-          @Override
-          public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
-            if (billingResult.getResponseCode() == BillingResponseCode.OK) {
-              queryProductDetails(productList);
-            } else {
-              Log.e(TAG, "Billing connection failed: " + billingResult.getDebugMessage());
-            }
-          }
+        latencyRecorder.timeConnection(
+            new BillingClientStateListener() {
+              @Override
+              public void onBillingSetupFinished(@NonNull BillingResult billingResult) {
+                if (billingResult.getResponseCode() == BillingResponseCode.OK) {
+                  queryProductDetails(productList);
+                } else {
+                  Log.e(TAG, "Billing connection failed: " + billingResult.getDebugMessage());
+                }
+              }
 
-          @Override
-          public void onBillingServiceDisconnected() {
-            Log.e(TAG, "Billing Service connection lost.");
-          }
-        });
+              @Override
+              public void onBillingServiceDisconnected() {
+                Log.e(TAG, "Billing Service connection lost.");
+              }
+            }));
+  }
+
+  /**
+   * Attaches a listener. It is first told of the catalog and purchases fetched so far, if any, on
+   * the calling thread.
+   */
+  public void addListener(@NonNull BillingServiceClientListener listener) {
+    listeners.add(listener);
+    ProductCatalog.Snapshot catalog = productCatalog.getSnapshot();
+    if (catalog.size() > 0) {
+      listener.onProductDetailsFetched(
+          catalog, catalog.changesSince(ProductCatalog.Snapshot.EMPTY));
+    }
+    List<Purchase> purchases = lastFetchedPurchases;
+    if (purchases != null) {
+      listener.onPurchasesFetched(purchases);
+    }
+  }
+
+  /** Detaches a listener. Events already being delivered may still reach it. */
+  public void removeListener(BillingServiceClientListener listener) {
+    listeners.remove(listener);
+    WeakReference<Activity> launchingActivityRef = billingFlowActivity;
+    if (launchingActivityRef != null && launchingActivityRef.get() == listener) {
+      billingFlowActivity = null;
+    }
+  }
+
+  /**
+   * Returns the subscription the user had at the last purchases query, even one made by an earlier
+   * process, so a screen can render it before Google Play answers. Reads a small file on first use.
+   *
+   * @return The subscription, or null if the user had none or purchases were never queried.
+   */
+  public ActiveSubscriptionStore.ActiveSubscription getLastKnownActiveSubscription() {
+    return activeSubscriptionStore.get();
+  }
+
+  /**
+   * Returns the subscriptions the user owns or is waiting on, as of the last purchases query and
+   * the purchase updates since. Safe to read from any thread.
+   */
+  public SubscriptionPurchaseIndex.Snapshot getPurchaseIndex() {
+    return purchaseIndex.getSnapshot();
+  }
+
+  /**
+   * Returns the subscription a plan change replaces, by the first product of its purchase.
+   *
+   * @return The subscription, or null if the user has no purchased subscription.
+   */
+  public ActiveSubscriptionStore.ActiveSubscription getActiveSubscription() {
+    SubscriptionPurchaseIndex.Entry primary = purchaseIndex.getSnapshot().getPrimary();
+    if (primary == null || primary.productIds.isEmpty()) {
+      return null;
+    }
+    return new ActiveSubscriptionStore.ActiveSubscription(
+        primary.productIds.get(0), primary.purchaseToken);
+  }
+
+  /** Returns the purchases of the last successful query or update, or null if there was none. */
+  public List<Purchase> getLastFetchedPurchases() {
+    return lastFetchedPurchases;
   }
 
   /** Basic launchBillingFlow for new purchases. */
-  public void launchBillingFlow(String productId, String offerToken) {
-    ProductDetails productDetails = productDetailsMap.get(productId);
+  public void launchBillingFlow(Activity activity, String productId, String offerToken) {
+    ProductDetails productDetails = productCatalog.getSnapshot().get(productId);
     if (productDetails == null) {
       Log.e(TAG, "ProductDetails not found for: " + productId);
       return;
@@ -137,23 +309,53 @@ public class BillingServiceClient {
             .setProductDetailsParamsList(productDetailsParamsList)
             .build();
 
-    billingClient.launchBillingFlow(activity, billingFlowParams);
+    launchTimedBillingFlow(activity, billingFlowParams);
   }
 
   /** Comprehensive launchBillingFlow for all cases. */
   public void launchBillingFlow(
+      Activity activity,
       String productId,
       String offerToken,
       String oldPurchaseToken,
       String oldProductId,
       int replacementMode) {
 
-    ProductDetails productDetails = productDetailsMap.get(productId);
+    ProductDetails productDetails = productCatalog.getSnapshot().get(productId);
     if (productDetails == null) {
       Log.e(TAG, "ProductDetails not found for: " + productId);
       return;
     }
 
+    launchTimedBillingFlow(
+        activity,
+        replacementFlowParams(
+            productDetails, offerToken, oldPurchaseToken, oldProductId, replacementMode));
+  }
+
+  /**
+   * Launches a billing flow with parameters built ahead of time, such as those of a {@link
+   * ReplacementMatrix} cell.
+   */
+  public void launchBillingFlow(Activity activity, BillingFlowParams billingFlowParams) {
+    launchTimedBillingFlow(activity, billingFlowParams);
+  }
+
+  /**
+   * Builds the parameters of a billing flow that replaces a subscription.
+   *
+   * @param productDetails The details of the new product.
+   * @param offerToken The token of the new offer.
+   * @param oldPurchaseToken The purchase token of the subscription being replaced.
+   * @param oldProductId The product ID of the subscription being replaced.
+   * @param replacementMode How the new plan replaces the old one.
+   */
+  static BillingFlowParams replacementFlowParams(
+      ProductDetails productDetails,
+      String offerToken,
+      String oldPurchaseToken,
+      String oldProductId,
+      int replacementMode) {
     SubscriptionProductReplacementParams subscriptionProductReplacementParams =
         SubscriptionProductReplacementParams.newBuilder()
             .setOldProductId(oldProductId)
@@ -169,36 +371,123 @@ public class BillingServiceClient {
 
     List<ProductDetailsParams> productDetailsParamsList = ImmutableList.of(productDetailsParams);
 
-    BillingFlowParams billingFlowParams =
-        BillingFlowParams.newBuilder()
-            .setProductDetailsParamsList(productDetailsParamsList)
-            .setSubscriptionUpdateParams(
-                SubscriptionUpdateParams.newBuilder().setOldPurchaseToken(oldPurchaseToken).build())
-            .build();
+    return BillingFlowParams.newBuilder()
+        .setProductDetailsParamsList(productDetailsParamsList)
+        .setSubscriptionUpdateParams(
+            SubscriptionUpdateParams.newBuilder().setOldPurchaseToken(oldPurchaseToken).build())
+        .build();
+  }
+
+  private void launchTimedBillingFlow(Activity activity, BillingFlowParams billingFlowParams) {
+    billingFlowActivity = new WeakReference<>(activity);
+    long startNanos = BillingLatencyRecorder.startNanos();
+    BillingResult billingResult = billingClient.launchBillingFlow(activity, billingFlowParams);
+    latencyRecorder.record(
+        BillingLatencyRecorder.Operation.LAUNCH_BILLING_FLOW, startNanos, billingResult);
+  }
+
+  /** Returns the product details fetched so far. Safe to read from any thread. */
+  public ProductCatalog.Snapshot getProductCatalog() {
+    return productCatalog.getSnapshot();
+  }
+
+  /** Returns the offers of every product fetched so far. Safe to read from any thread. */
+  public SubscriptionOfferIndex getSubscriptionOffers() {
+    return subscriptionOfferIndex;
+  }
+
+  /** Returns the parsed pricing of every offer fetched so far. Safe to read from any thread. */
+  public PlanPricingIndex getPlanPricing() {
+    return planPricingIndex;
+  }
+
+  /**
+   * Builds every plan change the user can make from the subscriptions they own, priced as of now.
+   * Safe to call from any thread; building a large matrix is slow, so keep it off the main thread.
+   *
+   * @param catalog The catalog snapshot whose products are the target plans.
+   * @param purchases The purchases snapshot whose subscriptions are the current plans.
+   * @param basePlanIds The base plan to offer for each product; products not listed get their
+   *     first offer.
+   * @param replacementModes The replacement modes to build for each pair of plans.
+   */
+  public ReplacementMatrix buildReplacementMatrix(
+      ProductCatalog.Snapshot catalog,
+      SubscriptionPurchaseIndex.Snapshot purchases,
+      Map<String, String> basePlanIds,
+      Collection<Integer> replacementModes) {
+    return ReplacementMatrix.build(
+        catalog,
+        subscriptionOfferIndex,
+        planPricingIndex,
+        purchases,
+        basePlanIds,
+        replacementModes,
+        System.currentTimeMillis());
+  }
 
-    billingClient.launchBillingFlow(activity, billingFlowParams);
+  /** Returns the latency percentiles and response code counts of each Billing Library call. */
+  public List<BillingLatencyRecorder.OperationSnapshot> getLatencySnapshot() {
+    return latencyRecorder.getSnapshot();
+  }
+
+  /** Returns how many purchases queries were requested, and how many were sent to Google Play. */
+  public PurchasesQueryCoordinator.Stats getPurchasesQueryStats() {
+    return purchasesQueryCoordinator.getStats();
   }
 
   public void endBillingConnection() {
     billingClient.endConnection();
+    purchasesQueryCoordinator.shutdown();
+    productDetailsLookupQueue.shutdown();
+    activeSubscriptionStore.close();
   }
 
+  /**
+   * Queries the active subscriptions and reports them through {@link
+   * BillingServiceClientListener#onPurchasesFetched}. Calls made close together share one query.
+   */
   public void queryPurchases() {
+    queryPurchases(purchasesFetchedListener);
+  }
+
+  /**
+   * Queries the active subscriptions. Calls made close together share one query, and its result is
+   * delivered to each of their listeners.
+   *
+   * @param purchasesResponseListener Receives the result of the query.
+   */
+  public void queryPurchases(PurchasesResponseListener purchasesResponseListener) {
     if (billingClient == null || !billingClient.isReady()) {
       Log.w(TAG, "queryPurchases: BillingClient is not ready or null");
       return;
     }
+    purchasesQueryCoordinator.request(purchasesResponseListener);
+  }
+
+  private void startPurchasesQuery(PurchasesResponseListener purchasesResponseListener) {
+    if (!billingClient.isReady()) {
+      // The connection was lost during the debounce window.
+      purchasesResponseListener.onQueryPurchasesResponse(
+          BillingResult.newBuilder()
+              .setResponseCode(BillingResponseCode.SERVICE_DISCONNECTED)
+              .setDebugMessage("BillingClient is not ready")
+              .build(),
+          Collections.emptyList());
+      return;
+    }
     QueryPurchasesParams queryPurchasesParams =
         QueryPurchasesParams.newBuilder().setProductType(BillingClient.ProductType.SUBS).build();
     billingClient.queryPurchasesAsync(
-        queryPurchasesParams,
-        (billingResult, purchases) -> {
-          if (billingResult.getResponseCode() == BillingResponseCode.OK) {
-            billingServiceClientListener.onPurchasesFetched(purchases);
-          } else {
-            Log.e(TAG, "queryPurchases failed: " + billingResult.getDebugMessage());
-          }
-        });
+        queryPurchasesParams, latencyRecorder.timePurchasesQuery(purchasesResponseListener));
+  }
+
+  /**
+   * Persists the subscription found by a purchases query. Done before the listeners run, so a
+   * screen created next renders it at once.
+   */
+  private void recordActiveSubscription() {
+    activeSubscriptionStore.update(getActiveSubscription());
   }
 
   private void handlePurchase(Purchase purchase) {
@@ -208,25 +497,86 @@ public class BillingServiceClient {
               .setPurchaseToken(purchase.getPurchaseToken())
               .build();
       billingClient.acknowledgePurchase(
-          acknowledgePurchaseParams, acknowledgePurchaseResponseListener);
+          acknowledgePurchaseParams,
+          latencyRecorder.timeAcknowledge(acknowledgePurchaseResponseListener));
     }
   }
 
   public void queryProductDetails(ImmutableList<Product> productList) {
-    QueryProductDetailsParams queryProductDetailsParams =
-        QueryProductDetailsParams.newBuilder().setProductList(productList).build();
-
-    billingClient.queryProductDetailsAsync(
-        queryProductDetailsParams,
-        (billingResult, productDetailsResponse) -> {
-          if (billingResult.getResponseCode() == BillingResponseCode.OK) {
-            List<ProductDetails> detailsList = productDetailsResponse.getProductDetailsList();
-            for (ProductDetails details : detailsList) {
-              productDetailsMap.put(details.getProductId(), details);
-            }
-            billingServiceClientListener.onProductDetailsFetched(productDetailsMap);
-            queryPurchases();
-          }
-        });
+    queryProductDetails(productList, /* onComplete= */ null);
+  }
+
+  /**
+   * Looks up subscriptions by product ID, such as IDs entered or pasted by a tester. IDs requested
+   * close together are queried together, and IDs already in the catalog or being queried are
+   * skipped. The results are merged into the catalog and reported through {@link
+   * BillingServiceClientListener#onProductDetailsFetched}.
+   *
+   * @param productIds The IDs of the subscriptions to look up.
+   */
+  public void requestProductDetails(Collection<String> productIds) {
+    productDetailsLookupQueue.request(productIds);
+  }
+
+  /** Returns how many product lookups were requested, skipped and sent to Google Play. */
+  public ProductDetailsLookupQueue.Stats getProductDetailsLookupStats() {
+    return productDetailsLookupQueue.getStats();
+  }
+
+  private void startProductDetailsLookup(List<String> productIds, Runnable onComplete) {
+    ImmutableList.Builder<Product> productList = ImmutableList.builder();
+    for (String productId : productIds) {
+      productList.add(
+          Product.newBuilder()
+              .setProductId(productId)
+              .setProductType(BillingClient.ProductType.SUBS)
+              .build());
+    }
+    queryProductDetails(productList.build(), onComplete);
+  }
+
+  private void queryProductDetails(ImmutableList<Product> productList, Runnable onComplete) {
+    ProductCatalog.Snapshot catalogBeforeQuery = productCatalog.getSnapshot();
+    new ProductDetailsBatchQuery(
+            billingClient,
+            latencyRecorder,
+            ProductDetailsBatchQuery.DEFAULT_BATCH_SIZE,
+            ProductDetailsBatchQuery.DEFAULT_MAX_CONCURRENT_BATCHES,
+            new ProductDetailsBatchQuery.Listener() {
+              @Override
+              public void onBatchFetched(List<ProductDetails> productDetailsList) {
+                for (ProductDetails details : productDetailsList) {
+                  // Indexed before any listener sees the product, so lookups always find it.
+                  subscriptionOfferIndex.put(details);
+                  planPricingIndex.put(details);
+                }
+                ProductCatalog.Delta delta = productCatalog.putAll(productDetailsList);
+                billingServiceClientListener.onProductDetailsBatchFetched(delta.changedProducts);
+              }
+
+              @Override
+              public void onComplete(
+                  List<ProductDetails> productDetailsList,
+                  List<String> unavailableProductIds,
+                  BillingResult failure) {
+                if (!unavailableProductIds.isEmpty()) {
+                  Log.w(TAG, "Products not available: " + unavailableProductIds);
+                }
+                if (onComplete != null) {
+                  onComplete.run();
+                }
+                if (failure != null) {
+                  Log.e(TAG, "queryProductDetails failed: " + failure.getDebugMessage());
+                  if (productDetailsList.isEmpty()) {
+                    return;
+                  }
+                }
+                ProductCatalog.Snapshot catalog = productCatalog.getSnapshot();
+                billingServiceClientListener.onProductDetailsFetched(
+                    catalog, catalog.changesSince(catalogBeforeQuery));
+                queryPurchases();
+              }
+            })
+        .start(productList);
   }
 }
@@ -33,9 +33,20 @@ public interface BillingServiceClientListener {
   /**
    * Called when product details have been successfully fetched from Google Play.
    *
-   * @param productDetailsMap A map of productId to ProductDetails.
+   * @param catalog Every product fetched so far. Immutable, so it can be kept and read from any
+   *     thread.
+   * @param delta The products this query added or changed.
    */
-  void onProductDetailsFetched(Map<String, ProductDetails> productDetailsMap);
+  void onProductDetailsFetched(ProductCatalog.Snapshot catalog, ProductCatalog.Delta delta);
+
+  /**
+   * Called as each batch of a product details query lands, before {@link
+   * #onProductDetailsFetched} reports the whole query.
+   *
+   * @param productDetailsMap A map of productId to ProductDetails for the products of this batch
+   *     that were added or changed.
+   */
+  default void onProductDetailsBatchFetched(Map<String, ProductDetails> productDetailsMap) {}
 
   /**
    * Called when active purchases have been successfully fetched from Google Play.
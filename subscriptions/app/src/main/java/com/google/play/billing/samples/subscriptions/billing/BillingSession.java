@@ -0,0 +1,130 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import android.content.Context;
+import android.util.Log;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import com.google.common.collect.ImmutableList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A billing connection shared by every screen of the app.
+ *
+ * <p>The first {@link #acquire} creates a {@link BillingServiceClient} on the application context,
+ * connects it and fetches the catalog; later ones share it, and their listeners are handed what it
+ * already fetched. Once the last reference is released, the connection is kept for {@code
+ * idleTimeoutMillis} so that switching screens or rotating does not reconnect, then ended.
+ */
+public class BillingSession {
+
+  private static final String TAG = "BillingSession";
+  static final long DEFAULT_IDLE_TIMEOUT_MILLIS = 30_000;
+
+  private static BillingSession instance;
+
+  private final long idleTimeoutMillis;
+  // The session lives as long as the process, so its timer thread must not keep the process alive.
+  private final ScheduledExecutorService closeScheduler =
+      Executors.newSingleThreadScheduledExecutor(
+          runnable -> {
+            Thread thread = new Thread(runnable, TAG);
+            thread.setDaemon(true);
+            return thread;
+          });
+
+  // The fields below are guarded by this.
+  private BillingServiceClient billingServiceClient;
+  private int referenceCount;
+  private ScheduledFuture<?> pendingClose;
+
+  /** Returns the session of this process. */
+  public static synchronized BillingSession getInstance() {
+    if (instance == null) {
+      instance = new BillingSession(DEFAULT_IDLE_TIMEOUT_MILLIS);
+    }
+    return instance;
+  }
+
+  /**
+   * @param idleTimeoutMillis How long the connection is kept once no reference is held.
+   */
+  BillingSession(long idleTimeoutMillis) {
+    if (idleTimeoutMillis < 0) {
+      throw new IllegalArgumentException(
+          "idleTimeoutMillis must not be negative: " + idleTimeoutMillis);
+    }
+    this.idleTimeoutMillis = idleTimeoutMillis;
+  }
+
+  /**
+   * Takes a reference to the shared client, connecting to Google Play if no one else holds one.
+   * Each call must be matched by a {@link #release}. Listeners are attached to the returned client
+   * with {@link BillingServiceClient#addListener}.
+   *
+   * @param context Any context of the app. Only its application context is kept.
+   * @param productList The products to fetch when the connection is first made.
+   * @return The shared client.
+   */
+  public synchronized BillingServiceClient acquire(
+      Context context, ImmutableList<Product> productList) {
+    referenceCount++;
+    if (pendingClose != null) {
+      pendingClose.cancel(/* mayInterruptIfRunning= */ false);
+      pendingClose = null;
+    }
+    if (billingServiceClient == null) {
+      Log.i(TAG, "Opening billing session");
+      billingServiceClient = createBillingServiceClient(context.getApplicationContext());
+      billingServiceClient.startBillingConnection(productList);
+    }
+    return billingServiceClient;
+  }
+
+  /**
+   * Releases a reference taken by {@link #acquire}. The connection is ended once no reference has
+   * been held for the idle timeout.
+   */
+  public synchronized void release() {
+    if (referenceCount == 0) {
+      Log.w(TAG, "release: no reference is held");
+      return;
+    }
+    referenceCount--;
+    if (referenceCount == 0) {
+      pendingClose =
+          closeScheduler.schedule(this::closeIfIdle, idleTimeoutMillis, TimeUnit.MILLISECONDS);
+    }
+  }
+
+  /** Creates the shared client. Overridden to plug in another billing client. */
+  protected BillingServiceClient createBillingServiceClient(Context applicationContext) {
+    return new BillingServiceClient(applicationContext);
+  }
+
+  private synchronized void closeIfIdle() {
+    // A screen may have acquired the client while this was waiting for the lock.
+    if (referenceCount > 0 || billingServiceClient == null) {
+      return;
+    }
+    Log.i(TAG, "Closing idle billing session");
+    billingServiceClient.endBillingConnection();
+    billingServiceClient = null;
+    pendingClose = null;
+  }
+}
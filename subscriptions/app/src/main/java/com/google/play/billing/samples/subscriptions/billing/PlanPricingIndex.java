@@ -0,0 +1,293 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import android.util.Log;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetails.PricingPhase;
+import com.android.billingclient.api.ProductDetails.RecurrenceMode;
+import com.android.billingclient.api.ProductDetails.SubscriptionOfferDetails;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The prices of every subscription offer, normalized to a monthly cost so plans can be compared.
+ *
+ * <p>The pricing phases of an offer are parsed once, when its product's details arrive. Billing
+ * periods are ISO-8601 durations such as P1W, P1M or P1Y, and each distinct one is parsed once.
+ * The offers ranked by monthly cost are built on first use after a change.
+ *
+ * <p>Prices in different currencies cannot be compared, so offers are ranked within their currency
+ * and {@link #isDowngrade} only compares offers of the same currency. A catalog is normally priced
+ * in the single billing currency of the user.
+ */
+public final class PlanPricingIndex {
+
+  /** An ISO-8601 billing period, such as P1M or P1Y. */
+  public static final class BillingPeriod {
+    // The average length of a month in days.
+    private static final double DAYS_PER_MONTH = 365.25 / 12;
+    private static final Pattern ISO_PERIOD =
+        Pattern.compile("P(?:(\\d+)Y)?(?:(\\d+)M)?(?:(\\d+)W)?(?:(\\d+)D)?");
+
+    public final int years;
+    public final int months;
+    public final int weeks;
+    public final int days;
+
+    private BillingPeriod(int years, int months, int weeks, int days) {
+      this.years = years;
+      this.months = months;
+      this.weeks = weeks;
+      this.days = days;
+    }
+
+    /**
+     * @param isoPeriod The period as returned by {@link PricingPhase#getBillingPeriod}.
+     * @throws IllegalArgumentException If it is not an ISO-8601 period of years, months, weeks and
+     *     days, or if it is zero-length, which no price can be spread over.
+     */
+    static BillingPeriod parse(String isoPeriod) {
+      Matcher matcher = ISO_PERIOD.matcher(isoPeriod);
+      if (!matcher.matches() || isoPeriod.length() < 3) {
+        throw new IllegalArgumentException("Not an ISO-8601 billing period: " + isoPeriod);
+      }
+      BillingPeriod billingPeriod =
+          new BillingPeriod(
+              group(matcher, 1), group(matcher, 2), group(matcher, 3), group(matcher, 4));
+      if (billingPeriod.toMonths() == 0) {
+        throw new IllegalArgumentException("Zero-length billing period: " + isoPeriod);
+      }
+      return billingPeriod;
+    }
+
+    private static int group(Matcher matcher, int group) {
+      String value = matcher.group(group);
+      return value == null ? 0 : Integer.parseInt(value);
+    }
+
+    /** Returns the length of the period in average months. */
+    public double toMonths() {
+      return years * 12 + months + (weeks * 7 + days) / DAYS_PER_MONTH;
+    }
+
+    /** Returns the length of the period in milliseconds, counting average months. */
+    public long toMillis() {
+      return Math.round(toMonths() * DAYS_PER_MONTH * 24 * 60 * 60 * 1000);
+    }
+  }
+
+  /** One pricing phase of an offer, such as a free trial, an intro price or the base price. */
+  public static final class Phase {
+    public final long priceMicros;
+    public final String formattedPrice;
+    public final BillingPeriod billingPeriod;
+    // The number of billing periods, or 0 if the phase recurs until cancelled.
+    public final int billingCycleCount;
+    public final int recurrenceMode;
+
+    private Phase(PricingPhase pricingPhase, BillingPeriod billingPeriod) {
+      this.priceMicros = pricingPhase.getPriceAmountMicros();
+      this.formattedPrice = pricingPhase.getFormattedPrice();
+      this.billingPeriod = billingPeriod;
+      this.billingCycleCount = pricingPhase.getBillingCycleCount();
+      this.recurrenceMode = pricingPhase.getRecurrenceMode();
+    }
+
+    /** Returns how many months the phase lasts, or infinity if it recurs until cancelled. */
+    private double durationMonths() {
+      switch (recurrenceMode) {
+        case RecurrenceMode.INFINITE_RECURRING:
+          return Double.POSITIVE_INFINITY;
+        case RecurrenceMode.FINITE_RECURRING:
+          return billingPeriod.toMonths() * billingCycleCount;
+        default:
+          return billingPeriod.toMonths();
+      }
+    }
+  }
+
+  /** A subscription offer with its pricing phases parsed. */
+  public static final class PricedOffer {
+    public final String productId;
+    public final String basePlanId;
+    // Null for the offer of the base plan itself.
+    public final String offerId;
+    public final String offerToken;
+    public final String currencyCode;
+    public final List<Phase> phases;
+    // The last phase, which the subscription renews at once trials and intro prices end.
+    public final Phase recurringPhase;
+    // The recurring price per month, in micros of the currency.
+    public final long monthlyMicros;
+    // The average monthly cost over the first year, trials and intro prices included.
+    public final long firstYearMonthlyMicros;
+
+    private PricedOffer(
+        String productId,
+        SubscriptionOfferDetails offerDetails,
+        String currencyCode,
+        List<Phase> phases) {
+      this.productId = productId;
+      this.basePlanId = offerDetails.getBasePlanId();
+      this.offerId = offerDetails.getOfferId();
+      this.offerToken = offerDetails.getOfferToken();
+      this.currencyCode = currencyCode;
+      this.phases = phases;
+      this.recurringPhase = phases.get(phases.size() - 1);
+      this.monthlyMicros =
+          Math.round(recurringPhase.priceMicros / recurringPhase.billingPeriod.toMonths());
+      this.firstYearMonthlyMicros = Math.round(firstYearCostMicros(phases) / 12);
+    }
+
+    private static double firstYearCostMicros(List<Phase> phases) {
+      double remainingMonths = 12;
+      double costMicros = 0;
+      for (Phase phase : phases) {
+        double phaseMonths = Math.min(phase.durationMonths(), remainingMonths);
+        costMicros += phase.priceMicros * phaseMonths / phase.billingPeriod.toMonths();
+        remainingMonths -= phaseMonths;
+        if (remainingMonths <= 0) {
+          break;
+        }
+      }
+      return costMicros;
+    }
+  }
+
+  private static final String TAG = "PlanPricingIndex";
+
+  /** Grouped by currency, then cheapest recurring monthly cost first, then cheapest first year. */
+  private static final Comparator<PricedOffer> BY_MONTHLY_COST =
+      new Comparator<PricedOffer>() {
+        @Override
+        public int compare(PricedOffer a, PricedOffer b) {
+          int byCurrency = a.currencyCode.compareTo(b.currencyCode);
+          if (byCurrency != 0) {
+            return byCurrency;
+          }
+          if (a.monthlyMicros != b.monthlyMicros) {
+            return a.monthlyMicros < b.monthlyMicros ? -1 : 1;
+          }
+          if (a.firstYearMonthlyMicros != b.firstYearMonthlyMicros) {
+            return a.firstYearMonthlyMicros < b.firstYearMonthlyMicros ? -1 : 1;
+          }
+          return a.offerToken.compareTo(b.offerToken);
+        }
+      };
+
+  private final Map<String, BillingPeriod> billingPeriods = new ConcurrentHashMap<>();
+  private final Map<String, PricedOffer> offersByToken = new ConcurrentHashMap<>();
+  private final Map<String, List<PricedOffer>> offersByProduct = new ConcurrentHashMap<>();
+
+  // Guarded by this. Null until built, and again after every change.
+  private List<PricedOffer> rankedOffers;
+
+  /**
+   * Parses the pricing of every offer of a product, replacing the product's offers parsed before.
+   * Offers with a billing period that is not ISO-8601 are skipped.
+   *
+   * @param productDetails The details of the product.
+   */
+  public synchronized void put(ProductDetails productDetails) {
+    String productId = productDetails.getProductId();
+    List<PricedOffer> previousOffers = offersByProduct.remove(productId);
+    if (previousOffers != null) {
+      for (PricedOffer offer : previousOffers) {
+        offersByToken.remove(offer.offerToken);
+      }
+    }
+    rankedOffers = null;
+    List<SubscriptionOfferDetails> offerDetailsList = productDetails.getSubscriptionOfferDetails();
+    if (offerDetailsList == null) {
+      return;
+    }
+    List<PricedOffer> offers = new ArrayList<>(offerDetailsList.size());
+    for (SubscriptionOfferDetails offerDetails : offerDetailsList) {
+      PricedOffer offer = parse(productId, offerDetails);
+      if (offer != null) {
+        offers.add(offer);
+        offersByToken.put(offer.offerToken, offer);
+      }
+    }
+    offersByProduct.put(productId, Collections.unmodifiableList(offers));
+  }
+
+  /** Returns the pricing of an offer, or null if it was not indexed. Safe from any thread. */
+  public PricedOffer get(String offerToken) {
+    return offersByToken.get(offerToken);
+  }
+
+  /** Returns the parsed offers of a product, in the order Google Play returned them. */
+  public List<PricedOffer> getOffers(String productId) {
+    List<PricedOffer> offers = offersByProduct.get(productId);
+    return offers == null ? Collections.<PricedOffer>emptyList() : offers;
+  }
+
+  /**
+   * Returns every offer grouped by currency code, each group cheapest recurring monthly cost first.
+   */
+  public synchronized List<PricedOffer> getRankedOffers() {
+    if (rankedOffers == null) {
+      List<PricedOffer> offers = new ArrayList<>(offersByToken.values());
+      Collections.sort(offers, BY_MONTHLY_COST);
+      rankedOffers = Collections.unmodifiableList(offers);
+    }
+    return rankedOffers;
+  }
+
+  /**
+   * Returns whether moving from one offer to another lowers the recurring monthly cost, which
+   * decides how a plan change is prorated. Offers in different currencies are never downgrades.
+   */
+  public static boolean isDowngrade(PricedOffer current, PricedOffer target) {
+    return target.currencyCode.equals(current.currencyCode)
+        && target.monthlyMicros < current.monthlyMicros;
+  }
+
+  private PricedOffer parse(String productId, SubscriptionOfferDetails offerDetails) {
+    List<PricingPhase> pricingPhases = offerDetails.getPricingPhases().getPricingPhaseList();
+    if (pricingPhases.isEmpty()) {
+      return null;
+    }
+    List<Phase> phases = new ArrayList<>(pricingPhases.size());
+    try {
+      for (PricingPhase pricingPhase : pricingPhases) {
+        phases.add(new Phase(pricingPhase, parseBillingPeriod(pricingPhase.getBillingPeriod())));
+      }
+    } catch (IllegalArgumentException e) {
+      Log.e(TAG, "Skipping offer " + offerDetails.getOfferToken() + " of " + productId, e);
+      return null;
+    }
+    String currencyCode = pricingPhases.get(pricingPhases.size() - 1).getPriceCurrencyCode();
+    return new PricedOffer(
+        productId, offerDetails, currencyCode, Collections.unmodifiableList(phases));
+  }
+
+  private BillingPeriod parseBillingPeriod(String isoPeriod) {
+    BillingPeriod billingPeriod = billingPeriods.get(isoPeriod);
+    if (billingPeriod == null) {
+      billingPeriod = BillingPeriod.parse(isoPeriod);
+      billingPeriods.put(isoPeriod, billingPeriod);
+    }
+    return billingPeriod;
+  }
+}
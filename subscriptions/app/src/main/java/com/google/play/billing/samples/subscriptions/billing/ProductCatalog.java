@@ -0,0 +1,185 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.ProductDetails;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The product details fetched so far, published as immutable, versioned snapshots.
+ *
+ * <p>Writers build a new {@link Snapshot} and swap it in, so readers on any thread see a consistent
+ * catalog without locking. Products are spread over a fixed number of segments, and a new snapshot
+ * copies only the segments an update touched; the others are shared with the previous snapshot.
+ */
+public class ProductCatalog {
+
+  /** The products that changed between two snapshots. */
+  public static final class Delta {
+    public final long fromVersion;
+    public final long toVersion;
+    // The details of the added or changed products, by product ID.
+    public final Map<String, ProductDetails> changedProducts;
+
+    private Delta(long fromVersion, long toVersion, Map<String, ProductDetails> changedProducts) {
+      this.fromVersion = fromVersion;
+      this.toVersion = toVersion;
+      this.changedProducts = changedProducts;
+    }
+
+    /** Returns whether no product changed. */
+    public boolean isEmpty() {
+      return changedProducts.isEmpty();
+    }
+
+    @Override
+    public String toString() {
+      return "Delta{fromVersion="
+          + fromVersion
+          + ", toVersion="
+          + toVersion
+          + ", changedProducts="
+          + changedProducts.keySet()
+          + "}";
+    }
+  }
+
+  /** An immutable view of the catalog. Safe to read from any thread. */
+  public static final class Snapshot {
+    public static final Snapshot EMPTY = new Snapshot(0, emptySegments(), 0);
+
+    public final long version;
+    private final Map<String, ProductDetails>[] segments;
+    private final int size;
+    // Built on first use. The list is immutable, so racing readers at worst build it twice.
+    private volatile List<ProductDetails> products;
+
+    private Snapshot(long version, Map<String, ProductDetails>[] segments, int size) {
+      this.version = version;
+      this.segments = segments;
+      this.size = size;
+    }
+
+    /** Returns the details of a product, or null if it was not fetched. */
+    public ProductDetails get(String productId) {
+      return segments[segmentOf(productId)].get(productId);
+    }
+
+    /** Returns the details of every product. */
+    public List<ProductDetails> getProducts() {
+      List<ProductDetails> products = this.products;
+      if (products == null) {
+        List<ProductDetails> allProducts = new ArrayList<>(size);
+        for (Map<String, ProductDetails> segment : segments) {
+          allProducts.addAll(segment.values());
+        }
+        products = Collections.unmodifiableList(allProducts);
+        this.products = products;
+      }
+      return products;
+    }
+
+    /** Returns the number of products. */
+    public int size() {
+      return size;
+    }
+
+    /**
+     * Returns the products that were added or changed since an older snapshot. Segments shared
+     * with it are skipped without being read.
+     */
+    public Delta changesSince(Snapshot older) {
+      Map<String, ProductDetails> changedProducts = new LinkedHashMap<>();
+      for (int i = 0; i < SEGMENT_COUNT; i++) {
+        if (segments[i] == older.segments[i]) {
+          continue;
+        }
+        for (Map.Entry<String, ProductDetails> entry : segments[i].entrySet()) {
+          ProductDetails olderDetails = older.segments[i].get(entry.getKey());
+          if (olderDetails == null || !olderDetails.equals(entry.getValue())) {
+            changedProducts.put(entry.getKey(), entry.getValue());
+          }
+        }
+      }
+      return new Delta(older.version, version, Collections.unmodifiableMap(changedProducts));
+    }
+  }
+
+  private static final int SEGMENT_COUNT = 16;
+
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  /** Returns the current snapshot. Later updates do not change it. */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Adds or replaces the details of some products and publishes them as a new snapshot. If none of
+   * them changed, no snapshot is published.
+   *
+   * @param productDetailsList The details that were fetched.
+   * @return The changes from the previous snapshot.
+   */
+  public synchronized Delta putAll(List<ProductDetails> productDetailsList) {
+    Snapshot previous = snapshot;
+    Map<String, ProductDetails>[] segments = previous.segments.clone();
+    boolean[] copied = new boolean[SEGMENT_COUNT];
+    int size = previous.size;
+    for (ProductDetails productDetails : productDetailsList) {
+      String productId = productDetails.getProductId();
+      int segment = segmentOf(productId);
+      if (!copied[segment]) {
+        segments[segment] = new HashMap<>(segments[segment]);
+        copied[segment] = true;
+      }
+      if (segments[segment].put(productId, productDetails) == null) {
+        size++;
+      }
+    }
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      if (copied[i]) {
+        segments[i] = Collections.unmodifiableMap(segments[i]);
+      }
+    }
+    Snapshot updated = new Snapshot(previous.version + 1, segments, size);
+    Delta delta = updated.changesSince(previous);
+    if (delta.isEmpty()) {
+      // Nothing to publish; readers keep the current snapshot and version.
+      return previous.changesSince(previous);
+    }
+    snapshot = updated;
+    return delta;
+  }
+
+  private static int segmentOf(String productId) {
+    int hash = productId.hashCode();
+    return (hash ^ (hash >>> 16)) & (SEGMENT_COUNT - 1);
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  private static Map<String, ProductDetails>[] emptySegments() {
+    Map<String, ProductDetails>[] segments = new Map[SEGMENT_COUNT];
+    for (int i = 0; i < SEGMENT_COUNT; i++) {
+      segments[i] = Collections.emptyMap();
+    }
+    return segments;
+  }
+}
@@ -0,0 +1,170 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import android.util.Log;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collects product IDs to look up and queries them together.
+ *
+ * <p>The first request opens a window of {@code windowMillis}, and every ID requested before it
+ * closes goes into the same query. IDs already in the catalog, already waiting or already being
+ * queried are skipped, so repeating a request costs nothing.
+ */
+public class ProductDetailsLookupQueue {
+
+  /** Queries the details of some products and merges them into the catalog. */
+  public interface QueryStarter {
+    /**
+     * @param productIds The IDs of the products to query.
+     * @param onComplete Must be run once the query finished, whether it succeeded or not.
+     */
+    void startQuery(List<String> productIds, Runnable onComplete);
+  }
+
+  /** A point-in-time view of the queue counters. */
+  public static final class Stats {
+    public final long requested;
+    public final long skipped;
+    public final long queries;
+
+    private Stats(long requested, long skipped, long queries) {
+      this.requested = requested;
+      this.skipped = skipped;
+      this.queries = queries;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{requested=" + requested + ", skipped=" + skipped + ", queries=" + queries + "}";
+    }
+  }
+
+  private static final String TAG = "ProductDetailsLookupQueue";
+  static final long DEFAULT_WINDOW_MILLIS = 250;
+
+  private final QueryStarter queryStarter;
+  private final ProductCatalog productCatalog;
+  private final long windowMillis;
+  private final ScheduledExecutorService windowScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+
+  // The fields below are guarded by this.
+  // IDs waiting for the window to close, or null if no window is open.
+  private Set<String> pendingProductIds;
+  // IDs of the queries in flight.
+  private final Set<String> inFlightProductIds = new HashSet<>();
+  private boolean shutDown;
+  private long requested;
+  private long skipped;
+  private long queries;
+
+  /**
+   * @param queryStarter Issues the queries.
+   * @param productCatalog The catalog the results are merged into, used to skip loaded products.
+   * @param windowMillis How long requests are collected before a query starts.
+   */
+  public ProductDetailsLookupQueue(
+      QueryStarter queryStarter, ProductCatalog productCatalog, long windowMillis) {
+    if (windowMillis < 0) {
+      throw new IllegalArgumentException("windowMillis must not be negative: " + windowMillis);
+    }
+    this.queryStarter = queryStarter;
+    this.productCatalog = productCatalog;
+    this.windowMillis = windowMillis;
+  }
+
+  /**
+   * Asks for the details of some products. They are reported through the catalog once fetched.
+   *
+   * @param productIds The IDs of the products, such as a pasted list.
+   */
+  public void request(Collection<String> productIds) {
+    ProductCatalog.Snapshot catalog = productCatalog.getSnapshot();
+    boolean openWindow = false;
+    synchronized (this) {
+      if (shutDown) {
+        return;
+      }
+      for (String productId : productIds) {
+        requested++;
+        if (catalog.get(productId) != null
+            || inFlightProductIds.contains(productId)
+            || (pendingProductIds != null && pendingProductIds.contains(productId))) {
+          skipped++;
+          continue;
+        }
+        if (pendingProductIds == null) {
+          pendingProductIds = new LinkedHashSet<>();
+          openWindow = true;
+        }
+        pendingProductIds.add(productId);
+      }
+    }
+    if (!openWindow) {
+      return;
+    }
+    try {
+      windowScheduler.schedule(this::startQuery, windowMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Only happens after shutdown, which drops the waiting IDs anyway.
+      Log.w(TAG, "Queue is shut down, not querying product details");
+    }
+  }
+
+  /** Returns a snapshot of the request and query counters. */
+  public synchronized Stats getStats() {
+    return new Stats(requested, skipped, queries);
+  }
+
+  /** Stops querying. IDs still waiting are dropped. */
+  public void shutdown() {
+    synchronized (this) {
+      shutDown = true;
+      pendingProductIds = null;
+    }
+    windowScheduler.shutdownNow();
+  }
+
+  private void startQuery() {
+    List<String> productIds;
+    synchronized (this) {
+      if (shutDown || pendingProductIds == null) {
+        return;
+      }
+      productIds = new ArrayList<>(pendingProductIds);
+      inFlightProductIds.addAll(productIds);
+      pendingProductIds = null;
+      queries++;
+    }
+    Log.i(TAG, "Looking up " + productIds.size() + " products");
+    queryStarter.startQuery(productIds, () -> onQueryComplete(productIds));
+  }
+
+  private synchronized void onQueryComplete(List<String> productIds) {
+    // Products Google Play did not return can be asked for again.
+    inFlightProductIds.removeAll(productIds);
+  }
+}
@@ -0,0 +1,161 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import android.util.Log;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Collapses overlapping purchases queries into one call to Google Play.
+ *
+ * <p>The first request opens a debounce window of {@code debounceMillis}, and every request made
+ * before it closes waits for the same query. Requests made while that query is in flight join it
+ * instead of starting another. Its result is delivered to every waiting listener, once each.
+ */
+public class PurchasesQueryCoordinator {
+
+  /** Issues a single purchases query to Google Play. */
+  public interface QueryStarter {
+    void startQuery(PurchasesResponseListener purchasesResponseListener);
+  }
+
+  /** A point-in-time view of the coordinator counters. */
+  public static final class Stats {
+    public final long requests;
+    public final long queries;
+
+    private Stats(long requests, long queries) {
+      this.requests = requests;
+      this.queries = queries;
+    }
+
+    @Override
+    public String toString() {
+      return "Stats{requests=" + requests + ", queries=" + queries + "}";
+    }
+  }
+
+  private static final String TAG = "PurchasesQueryCoordinator";
+  static final long DEFAULT_DEBOUNCE_MILLIS = 100;
+
+  private final QueryStarter queryStarter;
+  private final long debounceMillis;
+  private final ScheduledExecutorService debounceScheduler =
+      Executors.newSingleThreadScheduledExecutor();
+
+  // The fields below are guarded by this.
+  // Listeners waiting for the debounce window to close, or null if no window is open.
+  private Set<PurchasesResponseListener> debouncedListeners;
+  // Listeners waiting for the query in flight, or null if there is none.
+  private Set<PurchasesResponseListener> inFlightListeners;
+  private boolean shutDown;
+  private long requests;
+  private long queries;
+
+  /**
+   * @param queryStarter Issues the purchases queries.
+   * @param debounceMillis How long requests are collected before a query starts.
+   */
+  public PurchasesQueryCoordinator(QueryStarter queryStarter, long debounceMillis) {
+    if (debounceMillis < 0) {
+      throw new IllegalArgumentException("debounceMillis must not be negative: " + debounceMillis);
+    }
+    this.queryStarter = queryStarter;
+    this.debounceMillis = debounceMillis;
+  }
+
+  /**
+   * Asks for the purchases the user owns. A listener already waiting for the same query is only
+   * called once.
+   *
+   * @param purchasesResponseListener Receives the result, on the thread Google Play responds on.
+   */
+  public void request(PurchasesResponseListener purchasesResponseListener) {
+    synchronized (this) {
+      if (shutDown) {
+        return;
+      }
+      requests++;
+      if (inFlightListeners != null) {
+        inFlightListeners.add(purchasesResponseListener);
+        return;
+      }
+      if (debouncedListeners != null) {
+        debouncedListeners.add(purchasesResponseListener);
+        return;
+      }
+      debouncedListeners = new LinkedHashSet<>();
+      debouncedListeners.add(purchasesResponseListener);
+    }
+    try {
+      debounceScheduler.schedule(this::startQuery, debounceMillis, TimeUnit.MILLISECONDS);
+    } catch (RejectedExecutionException e) {
+      // Only happens after shutdown, which drops the waiting listeners anyway.
+      Log.w(TAG, "Coordinator is shut down, not querying purchases");
+    }
+  }
+
+  /** Returns a snapshot of the request and query counters. */
+  public synchronized Stats getStats() {
+    return new Stats(requests, queries);
+  }
+
+  /** Stops querying. Listeners still waiting are not called. */
+  public void shutdown() {
+    synchronized (this) {
+      shutDown = true;
+      debouncedListeners = null;
+      inFlightListeners = null;
+    }
+    debounceScheduler.shutdownNow();
+  }
+
+  private void startQuery() {
+    synchronized (this) {
+      if (shutDown) {
+        return;
+      }
+      inFlightListeners = debouncedListeners;
+      debouncedListeners = null;
+      queries++;
+    }
+    queryStarter.startQuery(this::onQueryResponse);
+  }
+
+  private void onQueryResponse(BillingResult billingResult, List<Purchase> purchases) {
+    Set<PurchasesResponseListener> listeners;
+    synchronized (this) {
+      listeners = inFlightListeners;
+      inFlightListeners = null;
+    }
+    if (listeners == null) {
+      return;
+    }
+    List<Purchase> sharedPurchases = Collections.unmodifiableList(purchases);
+    for (PurchasesResponseListener listener : listeners) {
+      listener.onQueryPurchasesResponse(billingResult, sharedPurchases);
+    }
+  }
+}
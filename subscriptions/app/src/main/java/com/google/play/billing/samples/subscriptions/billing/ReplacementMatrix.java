@@ -0,0 +1,298 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.BillingFlowParams;
+import com.android.billingclient.api.BillingFlowParams.ProductDetailsParams.SubscriptionProductReplacementParams.ReplacementMode;
+import com.android.billingclient.api.ProductDetails;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Every plan change the user can make, built ahead of time.
+ *
+ * <p>For each subscription the user owns, each target plan and each replacement mode, a {@link
+ * Cell} holds the parameters that launch the change and an estimate of what it costs. A matrix is
+ * built from one catalog snapshot and one purchases snapshot, so launching a change is a lookup;
+ * build a new one when either changes. The cells are kept in one array, indexed by the position of
+ * the owned plan, the target plan and the mode.
+ */
+public final class ReplacementMatrix {
+
+  /** What a plan change costs, estimated from the recurring prices of both plans. */
+  public static final class Proration {
+    // Whether the new plan replaces the current one now rather than when it renews.
+    public final boolean immediate;
+    // What Google Play charges when the change is made, in micros.
+    public final long chargeNowMicros;
+    // The value of the rest of the current billing period, in micros.
+    public final long unusedCreditMicros;
+    // False if Google Play rejects the mode for this change, such as a prorated downgrade.
+    public final boolean allowed;
+
+    private Proration(
+        boolean immediate, long chargeNowMicros, long unusedCreditMicros, boolean allowed) {
+      this.immediate = immediate;
+      this.chargeNowMicros = chargeNowMicros;
+      this.unusedCreditMicros = unusedCreditMicros;
+      this.allowed = allowed;
+    }
+
+    @Override
+    public String toString() {
+      return "Proration{immediate="
+          + immediate
+          + ", chargeNowMicros="
+          + chargeNowMicros
+          + ", unusedCreditMicros="
+          + unusedCreditMicros
+          + ", allowed="
+          + allowed
+          + "}";
+    }
+  }
+
+  /** One change from an owned plan to a target plan. */
+  public static final class Cell {
+    public final String currentProductId;
+    public final String currentPurchaseToken;
+    public final String targetProductId;
+    public final String targetOfferToken;
+    public final int replacementMode;
+    public final BillingFlowParams billingFlowParams;
+    // Null if the price of either plan is unknown, or if they are priced in different currencies.
+    public final Proration proration;
+
+    private Cell(
+        String currentProductId,
+        String currentPurchaseToken,
+        String targetProductId,
+        String targetOfferToken,
+        int replacementMode,
+        BillingFlowParams billingFlowParams,
+        Proration proration) {
+      this.currentProductId = currentProductId;
+      this.currentPurchaseToken = currentPurchaseToken;
+      this.targetProductId = targetProductId;
+      this.targetOfferToken = targetOfferToken;
+      this.replacementMode = replacementMode;
+      this.billingFlowParams = billingFlowParams;
+      this.proration = proration;
+    }
+  }
+
+  private static final long MILLIS_PER_MONTH =
+      PlanPricingIndex.BillingPeriod.parse("P1M").toMillis();
+
+  private final long catalogVersion;
+  private final SubscriptionPurchaseIndex.Snapshot purchases;
+  private final Map<String, Integer> currentIndexes;
+  private final Map<String, Integer> targetIndexes;
+  private final int[] replacementModes;
+  private final Cell[] cells;
+  private final int size;
+
+  private ReplacementMatrix(
+      long catalogVersion,
+      SubscriptionPurchaseIndex.Snapshot purchases,
+      Map<String, Integer> currentIndexes,
+      Map<String, Integer> targetIndexes,
+      int[] replacementModes,
+      Cell[] cells,
+      int size) {
+    this.catalogVersion = catalogVersion;
+    this.purchases = purchases;
+    this.currentIndexes = currentIndexes;
+    this.targetIndexes = targetIndexes;
+    this.replacementModes = replacementModes;
+    this.cells = cells;
+    this.size = size;
+  }
+
+  /**
+   * Returns the change from an owned plan to a target plan, or null if the matrix has none, such
+   * as when the user does not own the current plan or the target has no offers.
+   */
+  public Cell get(String currentProductId, String targetProductId, int replacementMode) {
+    Integer current = currentIndexes.get(currentProductId);
+    Integer target = targetIndexes.get(targetProductId);
+    if (current == null || target == null) {
+      return null;
+    }
+    for (int mode = 0; mode < replacementModes.length; mode++) {
+      if (replacementModes[mode] == replacementMode) {
+        return cells[(current * targetIndexes.size() + target) * replacementModes.length + mode];
+      }
+    }
+    return null;
+  }
+
+  /** Returns whether the matrix was built from these snapshots, so is still current. */
+  public boolean isBuiltFrom(
+      ProductCatalog.Snapshot catalog, SubscriptionPurchaseIndex.Snapshot purchases) {
+    return catalog.version == catalogVersion && purchases == this.purchases;
+  }
+
+  /** Returns the number of cells. */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Builds the matrix of every owned plan, target plan and replacement mode. Changing a plan to
+   * itself is left out.
+   *
+   * @param catalog The products to offer as target plans.
+   * @param offerIndex The offers of the products.
+   * @param pricingIndex The prices of the offers, used to estimate proration.
+   * @param purchases The subscriptions the user owns. Only purchased ones can be replaced.
+   * @param basePlanIds The base plan to offer for each product; products not listed get their
+   *     first offer.
+   * @param replacementModes The replacement modes to build for each pair of plans.
+   * @param nowMillis The time to estimate the rest of the current billing periods from.
+   */
+  public static ReplacementMatrix build(
+      ProductCatalog.Snapshot catalog,
+      SubscriptionOfferIndex offerIndex,
+      PlanPricingIndex pricingIndex,
+      SubscriptionPurchaseIndex.Snapshot purchases,
+      Map<String, String> basePlanIds,
+      Collection<Integer> replacementModes,
+      long nowMillis) {
+    Map<String, Integer> currentIndexes = new HashMap<>();
+    Map<String, SubscriptionPurchaseIndex.Entry> currentEntries = new HashMap<>();
+    for (SubscriptionPurchaseIndex.Entry entry : purchases.getEntries()) {
+      if (entry.isPurchased()
+          && !entry.productIds.isEmpty()
+          && !currentIndexes.containsKey(entry.productIds.get(0))) {
+        currentIndexes.put(entry.productIds.get(0), currentIndexes.size());
+        currentEntries.put(entry.productIds.get(0), entry);
+      }
+    }
+    List<ProductDetails> products = catalog.getProducts();
+    Map<String, Integer> targetIndexes = new HashMap<>();
+    SubscriptionOfferIndex.Offer[] targetOffers = new SubscriptionOfferIndex.Offer[products.size()];
+    for (ProductDetails details : products) {
+      String productId = details.getProductId();
+      SubscriptionOfferIndex.Offer offer =
+          offerIndex.selectOffer(productId, basePlanId(basePlanIds, productId));
+      if (offer != null) {
+        targetOffers[targetIndexes.size()] = offer;
+        targetIndexes.put(productId, targetIndexes.size());
+      }
+    }
+    int[] modes = new int[replacementModes.size()];
+    int modeCount = 0;
+    for (int replacementMode : replacementModes) {
+      modes[modeCount++] = replacementMode;
+    }
+
+    Cell[] cells = new Cell[currentIndexes.size() * targetIndexes.size() * modes.length];
+    int size = 0;
+    for (Map.Entry<String, Integer> current : currentIndexes.entrySet()) {
+      String currentProductId = current.getKey();
+      SubscriptionPurchaseIndex.Entry entry = currentEntries.get(currentProductId);
+      SubscriptionOfferIndex.Offer currentOffer =
+          offerIndex.selectOffer(currentProductId, basePlanId(basePlanIds, currentProductId));
+      PlanPricingIndex.PricedOffer currentPricing =
+          currentOffer != null ? pricingIndex.get(currentOffer.offerToken) : null;
+      double remainingMonths =
+          currentPricing != null ? remainingMonths(currentPricing, entry, nowMillis) : 0;
+      for (Map.Entry<String, Integer> target : targetIndexes.entrySet()) {
+        String targetProductId = target.getKey();
+        if (targetProductId.equals(currentProductId)) {
+          continue;
+        }
+        SubscriptionOfferIndex.Offer targetOffer = targetOffers[target.getValue()];
+        ProductDetails targetDetails = catalog.get(targetProductId);
+        PlanPricingIndex.PricedOffer targetPricing = pricingIndex.get(targetOffer.offerToken);
+        boolean comparable =
+            currentPricing != null
+                && targetPricing != null
+                && currentPricing.currencyCode.equals(targetPricing.currencyCode);
+        int offset = (current.getValue() * targetIndexes.size() + target.getValue()) * modes.length;
+        for (int mode = 0; mode < modes.length; mode++) {
+          cells[offset + mode] =
+              new Cell(
+                  currentProductId,
+                  entry.purchaseToken,
+                  targetProductId,
+                  targetOffer.offerToken,
+                  modes[mode],
+                  BillingServiceClient.replacementFlowParams(
+                      targetDetails,
+                      targetOffer.offerToken,
+                      entry.purchaseToken,
+                      currentProductId,
+                      modes[mode]),
+                  comparable
+                      ? estimate(currentPricing, targetPricing, remainingMonths, modes[mode])
+                      : null);
+          size++;
+        }
+      }
+    }
+    return new ReplacementMatrix(
+        catalog.version, purchases, currentIndexes, targetIndexes, modes, cells, size);
+  }
+
+  private static String basePlanId(Map<String, String> basePlanIds, String productId) {
+    String basePlanId = basePlanIds.get(productId);
+    return basePlanId != null ? basePlanId : "";
+  }
+
+  /**
+   * Returns how much of the current billing period is left, assuming the subscription has renewed
+   * every period since it was bought.
+   */
+  private static double remainingMonths(
+      PlanPricingIndex.PricedOffer pricing, SubscriptionPurchaseIndex.Entry entry, long nowMillis) {
+    long periodMillis = pricing.recurringPhase.billingPeriod.toMillis();
+    if (periodMillis <= 0) {
+      return 0;
+    }
+    long elapsedMillis = Math.max(0, nowMillis - entry.purchaseTimeMillis) % periodMillis;
+    return (periodMillis - elapsedMillis) / (double) MILLIS_PER_MONTH;
+  }
+
+  /** Estimates a change by the replacement mode's documented behavior. */
+  private static Proration estimate(
+      PlanPricingIndex.PricedOffer current,
+      PlanPricingIndex.PricedOffer target,
+      double remainingMonths,
+      int replacementMode) {
+    long unusedCreditMicros = Math.round(current.monthlyMicros * remainingMonths);
+    switch (replacementMode) {
+      case ReplacementMode.CHARGE_PRORATED_PRICE:
+        // Only upgrades; the price difference is charged for the rest of the period.
+        boolean upgrade = !PlanPricingIndex.isDowngrade(current, target);
+        long differenceMicros =
+            Math.round((target.monthlyMicros - current.monthlyMicros) * remainingMonths);
+        return new Proration(true, Math.max(0, differenceMicros), unusedCreditMicros, upgrade);
+      case ReplacementMode.CHARGE_FULL_PRICE:
+        // The unused value of the current plan extends the new one.
+        return new Proration(
+            true, target.recurringPhase.priceMicros, unusedCreditMicros, /* allowed= */ true);
+      case ReplacementMode.DEFERRED:
+        return new Proration(false, 0, unusedCreditMicros, /* allowed= */ true);
+      default:
+        // WITH_TIME_PRORATION turns the unused value into time on the new plan, and
+        // WITHOUT_PRORATION charges the new price from the next renewal.
+        return new Proration(true, 0, unusedCreditMicros, /* allowed= */ true);
+    }
+  }
+}
@@ -0,0 +1,137 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetails.PricingPhase;
+import com.android.billingclient.api.ProductDetails.SubscriptionOfferDetails;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The subscription offers of each product, indexed by base plan ID and offer ID.
+ *
+ * <p>A product is indexed once, when its details arrive. Looking up an offer is then a few hash
+ * lookups, with no scan of the offer list and no allocation. Safe to read from any thread.
+ */
+public final class SubscriptionOfferIndex {
+
+  /** A subscription offer, with the pricing phase the UI shows for it. */
+  public static final class Offer {
+    public final String productId;
+    public final String basePlanId;
+    // Null for the offer of the base plan itself.
+    public final String offerId;
+    public final String offerToken;
+    public final PricingPhase firstPricingPhase;
+
+    private Offer(String productId, SubscriptionOfferDetails offerDetails) {
+      this.productId = productId;
+      this.basePlanId = offerDetails.getBasePlanId();
+      this.offerId = offerDetails.getOfferId();
+      this.offerToken = offerDetails.getOfferToken();
+      this.firstPricingPhase = offerDetails.getPricingPhases().getPricingPhaseList().get(0);
+    }
+  }
+
+  /** The offers of one base plan. */
+  private static final class BasePlanOffers {
+    private final Offer firstOffer;
+    private final Map<String, Offer> offersById = new HashMap<>();
+
+    private BasePlanOffers(Offer firstOffer) {
+      this.firstOffer = firstOffer;
+    }
+  }
+
+  /** The offers of one product. Not modified once built. */
+  private static final class ProductOffers {
+    private final Offer firstOffer;
+    private final Map<String, BasePlanOffers> basePlans = new HashMap<>();
+
+    private ProductOffers(Offer firstOffer) {
+      this.firstOffer = firstOffer;
+    }
+  }
+
+  private final Map<String, ProductOffers> productOffers = new ConcurrentHashMap<>();
+
+  /**
+   * Indexes the offers of a product, replacing those indexed before. Products without subscription
+   * offers are removed.
+   *
+   * @param productDetails The details of the product.
+   */
+  public void put(ProductDetails productDetails) {
+    String productId = productDetails.getProductId();
+    List<SubscriptionOfferDetails> offerDetailsList = productDetails.getSubscriptionOfferDetails();
+    if (offerDetailsList == null || offerDetailsList.isEmpty()) {
+      productOffers.remove(productId);
+      return;
+    }
+    ProductOffers offers = null;
+    for (SubscriptionOfferDetails offerDetails : offerDetailsList) {
+      Offer offer = new Offer(productId, offerDetails);
+      if (offers == null) {
+        offers = new ProductOffers(offer);
+      }
+      BasePlanOffers basePlanOffers = offers.basePlans.get(offer.basePlanId);
+      if (basePlanOffers == null) {
+        basePlanOffers = new BasePlanOffers(offer);
+        offers.basePlans.put(offer.basePlanId, basePlanOffers);
+      }
+      if (!basePlanOffers.offersById.containsKey(offer.offerId)) {
+        basePlanOffers.offersById.put(offer.offerId, offer);
+      }
+    }
+    productOffers.put(productId, offers);
+  }
+
+  /**
+   * Returns the first offer of the given base plan, or the first offer of the product if the base
+   * plan has none.
+   *
+   * @param productId The ID of the product.
+   * @param basePlanId The ID of the preferred base plan.
+   * @return The selected offer, or null if the product has no indexed offers.
+   */
+  public Offer selectOffer(String productId, String basePlanId) {
+    ProductOffers offers = productOffers.get(productId);
+    if (offers == null) {
+      return null;
+    }
+    BasePlanOffers basePlanOffers = offers.basePlans.get(basePlanId);
+    return basePlanOffers != null ? basePlanOffers.firstOffer : offers.firstOffer;
+  }
+
+  /**
+   * Returns a specific offer.
+   *
+   * @param productId The ID of the product.
+   * @param basePlanId The ID of the base plan.
+   * @param offerId The ID of the offer, or null for the offer of the base plan itself.
+   * @return The offer, or null if there is none.
+   */
+  public Offer getOffer(String productId, String basePlanId, String offerId) {
+    ProductOffers offers = productOffers.get(productId);
+    if (offers == null) {
+      return null;
+    }
+    BasePlanOffers basePlanOffers = offers.basePlans.get(basePlanId);
+    return basePlanOffers != null ? basePlanOffers.offersById.get(offerId) : null;
+  }
+}
@@ -0,0 +1,242 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.Purchase.PurchaseState;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The subscriptions the user owns or is waiting on, indexed by purchase token and product ID.
+ *
+ * <p>An account can hold several subscriptions, and one purchase can include several products.
+ * Reads go through an immutable {@link Snapshot}, so screens look up a product's purchase in
+ * constant time from any thread. Each update publishes a new snapshot, re-resolving only the
+ * products of the purchases it touched.
+ */
+public class SubscriptionPurchaseIndex {
+
+  /** A purchase the user owns or is waiting on. */
+  public static final class Entry {
+    public final String purchaseToken;
+    public final List<String> productIds;
+    public final int purchaseState;
+    public final boolean autoRenewing;
+    public final boolean acknowledged;
+    public final long purchaseTimeMillis;
+
+    private Entry(Purchase purchase) {
+      this.purchaseToken = purchase.getPurchaseToken();
+      this.productIds = Collections.unmodifiableList(new ArrayList<>(purchase.getProducts()));
+      this.purchaseState = purchase.getPurchaseState();
+      this.autoRenewing = purchase.isAutoRenewing();
+      this.acknowledged = purchase.isAcknowledged();
+      this.purchaseTimeMillis = purchase.getPurchaseTime();
+    }
+
+    /** Returns whether the user has the benefits of the purchase. */
+    public boolean isPurchased() {
+      return purchaseState == PurchaseState.PURCHASED;
+    }
+
+    private boolean sameAs(Entry other) {
+      return purchaseState == other.purchaseState
+          && autoRenewing == other.autoRenewing
+          && acknowledged == other.acknowledged
+          && productIds.equals(other.productIds);
+    }
+
+    @Override
+    public String toString() {
+      return "Entry{productIds="
+          + productIds
+          + ", purchaseState="
+          + purchaseState
+          + ", autoRenewing="
+          + autoRenewing
+          + ", acknowledged="
+          + acknowledged
+          + "}";
+    }
+  }
+
+  /** An immutable view of the index. Safe to read from any thread. */
+  public static final class Snapshot {
+    static final Snapshot EMPTY =
+        new Snapshot(Collections.emptyMap(), Collections.emptyMap(), /* primary= */ null);
+
+    private final Map<String, Entry> entriesByToken;
+    private final Map<String, Entry> entriesByProduct;
+    private final Entry primary;
+
+    private Snapshot(
+        Map<String, Entry> entriesByToken, Map<String, Entry> entriesByProduct, Entry primary) {
+      this.entriesByToken = entriesByToken;
+      this.entriesByProduct = entriesByProduct;
+      this.primary = primary;
+    }
+
+    /** Returns the purchase of a token, or null if there is none. */
+    public Entry getByToken(String purchaseToken) {
+      return entriesByToken.get(purchaseToken);
+    }
+
+    /**
+     * Returns the purchase that includes a product, or null if there is none. If several do, such
+     * as while a replacement is pending, the purchased and most recent one is returned.
+     */
+    public Entry getByProduct(String productId) {
+      return entriesByProduct.get(productId);
+    }
+
+    /** Returns whether the user has the benefits of a product. */
+    public boolean isEntitled(String productId) {
+      Entry entry = entriesByProduct.get(productId);
+      return entry != null && entry.isPurchased();
+    }
+
+    /**
+     * Returns the subscription a plan change replaces: the most recent purchased one, preferring
+     * those that auto-renew. Null if the user has no purchased subscription.
+     */
+    public Entry getPrimary() {
+      return primary;
+    }
+
+    /** Returns every purchase. */
+    public Collection<Entry> getEntries() {
+      return entriesByToken.values();
+    }
+
+    /** Returns the number of purchases. */
+    public int size() {
+      return entriesByToken.size();
+    }
+  }
+
+  private volatile Snapshot snapshot = Snapshot.EMPTY;
+
+  /** Returns the current snapshot. Later updates do not change it. */
+  public Snapshot getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * Replaces every purchase with the result of a purchases query, which lists everything the user
+   * owns.
+   *
+   * @param purchases The purchases returned by the query.
+   * @return Whether the index changed.
+   */
+  public synchronized boolean replaceAll(List<Purchase> purchases) {
+    Map<String, Entry> entriesByToken = new HashMap<>();
+    for (Purchase purchase : purchases) {
+      entriesByToken.put(purchase.getPurchaseToken(), new Entry(purchase));
+    }
+    Set<String> changedProductIds = new HashSet<>();
+    boolean changed = entriesByToken.size() != snapshot.entriesByToken.size();
+    for (Entry previous : snapshot.entriesByToken.values()) {
+      Entry updated = entriesByToken.get(previous.purchaseToken);
+      if (updated == null || !updated.sameAs(previous)) {
+        changedProductIds.addAll(previous.productIds);
+        changed = true;
+      }
+    }
+    for (Entry updated : entriesByToken.values()) {
+      Entry previous = snapshot.entriesByToken.get(updated.purchaseToken);
+      if (previous == null || !updated.sameAs(previous)) {
+        changedProductIds.addAll(updated.productIds);
+        changed = true;
+      }
+    }
+    if (changed) {
+      publish(entriesByToken, changedProductIds);
+    }
+    return changed;
+  }
+
+  /**
+   * Records purchases delivered by Google Play, such as those of a purchase update. Other purchases
+   * are kept.
+   *
+   * @param purchases The purchases to record.
+   * @return Whether the index changed.
+   */
+  public synchronized boolean updateAll(List<Purchase> purchases) {
+    Map<String, Entry> entriesByToken = new HashMap<>(snapshot.entriesByToken);
+    Set<String> changedProductIds = new HashSet<>();
+    for (Purchase purchase : purchases) {
+      Entry updated = new Entry(purchase);
+      Entry previous = entriesByToken.put(updated.purchaseToken, updated);
+      if (previous == null || !updated.sameAs(previous)) {
+        changedProductIds.addAll(updated.productIds);
+        if (previous != null) {
+          changedProductIds.addAll(previous.productIds);
+        }
+      }
+    }
+    if (changedProductIds.isEmpty()) {
+      return false;
+    }
+    publish(entriesByToken, changedProductIds);
+    return true;
+  }
+
+  /** Publishes a snapshot, re-resolving only the changed products. Must hold the lock. */
+  private void publish(Map<String, Entry> entriesByToken, Set<String> changedProductIds) {
+    Map<String, Entry> entriesByProduct = new HashMap<>(snapshot.entriesByProduct);
+    for (String productId : changedProductIds) {
+      entriesByProduct.remove(productId);
+    }
+    Entry primary = null;
+    for (Entry entry : entriesByToken.values()) {
+      for (String productId : entry.productIds) {
+        if (changedProductIds.contains(productId)
+            && ranksAbove(entry, entriesByProduct.get(productId))) {
+          entriesByProduct.put(productId, entry);
+        }
+      }
+      if (entry.isPurchased() && ranksAbove(entry, primary)) {
+        primary = entry;
+      }
+    }
+    snapshot =
+        new Snapshot(
+            Collections.unmodifiableMap(entriesByToken),
+            Collections.unmodifiableMap(entriesByProduct),
+            primary);
+  }
+
+  /** Purchased before pending, then auto-renewing before cancelled, then the most recent. */
+  private static boolean ranksAbove(Entry entry, Entry other) {
+    if (other == null) {
+      return true;
+    }
+    if (entry.isPurchased() != other.isPurchased()) {
+      return entry.isPurchased();
+    }
+    if (entry.autoRenewing != other.autoRenewing) {
+      return entry.autoRenewing;
+    }
+    return entry.purchaseTimeMillis > other.purchaseTimeMillis;
+  }
+}
@@ -0,0 +1,138 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.google.play.billing.samples.subscriptions.billing.ActiveSubscriptionStore.ActiveSubscription;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ActiveSubscriptionStore} */
+@RunWith(AndroidJUnit4.class)
+public class ActiveSubscriptionStoreTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long TIMEOUT_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  private static final ActiveSubscription PREMIUM =
+      new ActiveSubscription("subscription_premium", "token_premium");
+  private static final ActiveSubscription BASIC =
+      new ActiveSubscription("subscription_basic", "token_basic");
+
+  private File directory;
+
+  @Before
+  public void setUp() throws Exception {
+    directory = temporaryFolder.newFolder();
+  }
+
+  /** Waits until a new store reads the expected record, since writes happen in the background. */
+  private void assertPersisted(ActiveSubscription expected) throws InterruptedException {
+    long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+    ActiveSubscription persisted;
+    do {
+      persisted = new ActiveSubscriptionStore(directory).get();
+      if (Objects.equals(expected, persisted)) {
+        return;
+      }
+      Thread.sleep(10);
+    } while (System.currentTimeMillis() < deadline);
+    assertEquals(expected, persisted);
+  }
+
+  private void writeStateFile(int formatVersion, boolean hasSubscription) throws IOException {
+    File stateFile = new File(directory, ActiveSubscriptionStore.STATE_FILE_NAME);
+    try (DataOutputStream output = new DataOutputStream(new FileOutputStream(stateFile))) {
+      output.writeInt(formatVersion);
+      output.writeBoolean(hasSubscription);
+    }
+  }
+
+  @Test
+  public void testGet_noStateFile_returnsNull() {
+    assertNull(new ActiveSubscriptionStore(directory).get());
+  }
+
+  @Test
+  public void testUpdate_returnsWhetherChanged() {
+    ActiveSubscriptionStore store = new ActiveSubscriptionStore(directory);
+
+    assertTrue(store.update(PREMIUM));
+    assertFalse(store.update(new ActiveSubscription("subscription_premium", "token_premium")));
+    assertTrue(store.update(BASIC));
+    assertTrue(store.update(null));
+    assertFalse(store.update(null));
+    store.close();
+  }
+
+  @Test
+  public void testUpdate_persistsForNextStore() throws Exception {
+    ActiveSubscriptionStore store = new ActiveSubscriptionStore(directory);
+
+    store.update(PREMIUM);
+    store.close();
+
+    assertEquals(PREMIUM, store.get());
+    assertPersisted(PREMIUM);
+  }
+
+  @Test
+  public void testUpdate_noSubscription_persistsNull() throws Exception {
+    ActiveSubscriptionStore store = new ActiveSubscriptionStore(directory);
+    store.update(PREMIUM);
+    assertPersisted(PREMIUM);
+
+    store.update(null);
+    store.close();
+
+    assertPersisted(null);
+  }
+
+  @Test
+  public void testGet_stateFileOfOtherFormat_returnsNull() throws IOException {
+    writeStateFile(/* formatVersion= */ 99, /* hasSubscription= */ true);
+
+    assertNull(new ActiveSubscriptionStore(directory).get());
+  }
+
+  @Test
+  public void testGet_truncatedStateFile_returnsNull() throws IOException {
+    writeStateFile(/* formatVersion= */ 1, /* hasSubscription= */ true);
+
+    assertNull(new ActiveSubscriptionStore(directory).get());
+  }
+
+  @Test
+  public void testUpdate_afterClose_keepsInMemoryRecord() {
+    ActiveSubscriptionStore store = new ActiveSubscriptionStore(directory);
+    store.close();
+
+    assertTrue(store.update(PREMIUM));
+    assertEquals(PREMIUM, store.get());
+  }
+}
@@ -0,0 +1,178 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import android.content.Context;
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.BillingClient;
+import com.android.billingclient.api.QueryProductDetailsParams.Product;
+import com.google.common.collect.ImmutableList;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link BillingSession} */
+@RunWith(AndroidJUnit4.class)
+public class BillingSessionTest {
+  @Rule public final TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final long SHORT_IDLE_TIMEOUT_MILLIS = 50;
+  private static final long LONG_IDLE_TIMEOUT_MILLIS = 60_000;
+  private static final ImmutableList<Product> PRODUCT_LIST = ImmutableList.of();
+
+  /** A client that records its connection instead of connecting to Google Play. */
+  private static final class FakeBillingServiceClient extends BillingServiceClient {
+    private final CountDownLatch ended = new CountDownLatch(1);
+    private int startCount;
+
+    private FakeBillingServiceClient(Context context) {
+      super(context);
+    }
+
+    @Override
+    protected BillingClient createBillingClient() {
+      return mock(BillingClient.class);
+    }
+
+    @Override
+    public void startBillingConnection(ImmutableList<Product> productList) {
+      startCount++;
+    }
+
+    @Override
+    public void endBillingConnection() {
+      ended.countDown();
+    }
+  }
+
+  private final List<FakeBillingServiceClient> createdClients = new ArrayList<>();
+  private Context mockContext;
+
+  @Before
+  public void setUp() throws Exception {
+    mockContext = mock(Context.class);
+    when(mockContext.getApplicationContext()).thenReturn(mockContext);
+    when(mockContext.getFilesDir()).thenReturn(temporaryFolder.newFolder());
+  }
+
+  private BillingSession createSession(long idleTimeoutMillis) {
+    return new BillingSession(idleTimeoutMillis) {
+      @Override
+      protected BillingServiceClient createBillingServiceClient(Context applicationContext) {
+        FakeBillingServiceClient client = new FakeBillingServiceClient(applicationContext);
+        createdClients.add(client);
+        return client;
+      }
+    };
+  }
+
+  @Test
+  public void testAcquire_twice_sharesOneConnection() {
+    BillingSession session = createSession(LONG_IDLE_TIMEOUT_MILLIS);
+
+    BillingServiceClient first = session.acquire(mockContext, PRODUCT_LIST);
+    BillingServiceClient second = session.acquire(mockContext, PRODUCT_LIST);
+
+    assertSame(first, second);
+    assertEquals(1, createdClients.size());
+    assertEquals(1, createdClients.get(0).startCount);
+  }
+
+  @Test
+  public void testRelease_lastReference_closesAfterIdleTimeout() throws Exception {
+    BillingSession session = createSession(SHORT_IDLE_TIMEOUT_MILLIS);
+    session.acquire(mockContext, PRODUCT_LIST);
+    session.acquire(mockContext, PRODUCT_LIST);
+
+    session.release();
+    session.release();
+
+    assertTrue(createdClients.get(0).ended.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test
+  public void testRelease_referenceStillHeld_keepsConnection() throws Exception {
+    BillingSession session = createSession(SHORT_IDLE_TIMEOUT_MILLIS);
+    session.acquire(mockContext, PRODUCT_LIST);
+    session.acquire(mockContext, PRODUCT_LIST);
+
+    session.release();
+
+    assertFalse(
+        createdClients.get(0).ended.await(SHORT_IDLE_TIMEOUT_MILLIS * 4, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testAcquire_beforeIdleClose_keepsConnection() throws Exception {
+    BillingSession session = createSession(SHORT_IDLE_TIMEOUT_MILLIS);
+    BillingServiceClient first = session.acquire(mockContext, PRODUCT_LIST);
+    session.release();
+
+    BillingServiceClient second = session.acquire(mockContext, PRODUCT_LIST);
+
+    assertSame(first, second);
+    assertFalse(
+        createdClients.get(0).ended.await(SHORT_IDLE_TIMEOUT_MILLIS * 4, TimeUnit.MILLISECONDS));
+    assertEquals(1, createdClients.get(0).startCount);
+  }
+
+  @Test
+  public void testAcquire_afterIdleClose_connectsAgain() throws Exception {
+    BillingSession session = createSession(SHORT_IDLE_TIMEOUT_MILLIS);
+    BillingServiceClient first = session.acquire(mockContext, PRODUCT_LIST);
+    session.release();
+    assertTrue(createdClients.get(0).ended.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+
+    BillingServiceClient second = session.acquire(mockContext, PRODUCT_LIST);
+
+    assertNotSame(first, second);
+    assertEquals(2, createdClients.size());
+    assertEquals(1, createdClients.get(1).startCount);
+  }
+
+  @Test
+  public void testRelease_noReferenceHeld_isIgnored() throws Exception {
+    BillingSession session = createSession(SHORT_IDLE_TIMEOUT_MILLIS);
+    session.acquire(mockContext, PRODUCT_LIST);
+    session.release();
+    session.release();
+
+    BillingServiceClient client = session.acquire(mockContext, PRODUCT_LIST);
+    session.release();
+
+    assertSame(createdClients.get(0), client);
+    assertTrue(createdClients.get(0).ended.await(TIMEOUT_SECONDS, TimeUnit.SECONDS));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_negativeIdleTimeout_throws() {
+    new BillingSession(-1);
+  }
+}
@@ -0,0 +1,201 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetails.RecurrenceMode;
+import com.google.play.billing.samples.subscriptions.billing.PlanPricingIndex.BillingPeriod;
+import com.google.play.billing.samples.subscriptions.billing.PlanPricingIndex.PricedOffer;
+import java.util.Arrays;
+import java.util.List;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link PlanPricingIndex} */
+@RunWith(AndroidJUnit4.class)
+public class PlanPricingIndexTest {
+
+  private static final double DELTA = 1e-9;
+
+  private final PlanPricingIndex pricingIndex = new PlanPricingIndex();
+
+  private static JSONObject phase(
+      long priceMicros, String currencyCode, String billingPeriod, int cycles, int recurrenceMode)
+      throws JSONException {
+    return new JSONObject()
+        .put("formattedPrice", currencyCode + " " + priceMicros)
+        .put("priceAmountMicros", priceMicros)
+        .put("priceCurrencyCode", currencyCode)
+        .put("billingPeriod", billingPeriod)
+        .put("billingCycleCount", cycles)
+        .put("recurrenceMode", recurrenceMode);
+  }
+
+  private static JSONObject recurringPhase(
+      long priceMicros, String currencyCode, String billingPeriod) throws JSONException {
+    return phase(priceMicros, currencyCode, billingPeriod, 0, RecurrenceMode.INFINITE_RECURRING);
+  }
+
+  /** Builds a subscription with one base plan, whose offer token is the product ID. */
+  private static ProductDetails subscription(String productId, JSONObject... phases)
+      throws JSONException {
+    JSONObject offer =
+        new JSONObject()
+            .put("basePlanId", "plan")
+            .put("offerIdToken", productId)
+            .put("pricingPhases", new JSONArray(Arrays.asList(phases)));
+    return ProductDetails.fromJson(
+        new JSONObject()
+            .put("productId", productId)
+            .put("type", "subs")
+            .put("subscriptionOfferDetails", new JSONArray().put(offer))
+            .toString());
+  }
+
+  @Test
+  public void testParse_isoPeriods() {
+    BillingPeriod week = BillingPeriod.parse("P1W");
+    BillingPeriod month = BillingPeriod.parse("P1M");
+    BillingPeriod quarter = BillingPeriod.parse("P3M");
+    BillingPeriod year = BillingPeriod.parse("P1Y");
+
+    assertEquals(1, week.weeks);
+    assertEquals(3, quarter.months);
+    assertEquals(1, year.years);
+    assertEquals(7 / (365.25 / 12), week.toMonths(), DELTA);
+    assertEquals(1, month.toMonths(), DELTA);
+    assertEquals(3, quarter.toMonths(), DELTA);
+    assertEquals(12, year.toMonths(), DELTA);
+    assertEquals(14, BillingPeriod.parse("P1Y2M").toMonths(), DELTA);
+  }
+
+  @Test
+  public void testParse_invalidPeriods_throw() {
+    String[] invalidPeriods = {"", "P", "P0D", "P0M", "P0Y0M", "1M", "P1H", "PT1H", "P1.5M"};
+    for (String invalidPeriod : invalidPeriods) {
+      try {
+        BillingPeriod.parse(invalidPeriod);
+        fail("Expected " + invalidPeriod + " to be rejected");
+      } catch (IllegalArgumentException expected) {
+        // Expected.
+      }
+    }
+  }
+
+  @Test
+  public void testPut_normalizesToMonthlyCost() throws JSONException {
+    pricingIndex.put(subscription("yearly", recurringPhase(120_000_000, "USD", "P1Y")));
+    pricingIndex.put(subscription("quarterly", recurringPhase(30_000_000, "USD", "P3M")));
+    pricingIndex.put(subscription("weekly", recurringPhase(7_000_000, "USD", "P1W")));
+
+    assertEquals(10_000_000, pricingIndex.get("yearly").monthlyMicros);
+    assertEquals(10_000_000, pricingIndex.get("quarterly").monthlyMicros);
+    assertEquals(30_437_500, pricingIndex.get("weekly").monthlyMicros);
+    assertEquals("USD", pricingIndex.get("weekly").currencyCode);
+  }
+
+  @Test
+  public void testPut_freeTrial_lowersFirstYearCostOnly() throws JSONException {
+    pricingIndex.put(
+        subscription(
+            "trial",
+            phase(0, "USD", "P1M", 1, RecurrenceMode.FINITE_RECURRING),
+            recurringPhase(12_000_000, "USD", "P1M")));
+
+    PricedOffer offer = pricingIndex.get("trial");
+    assertEquals(12_000_000, offer.monthlyMicros);
+    assertEquals(11_000_000, offer.firstYearMonthlyMicros);
+    assertEquals(2, offer.phases.size());
+    assertEquals(12_000_000, offer.recurringPhase.priceMicros);
+  }
+
+  @Test
+  public void testPut_invalidBillingPeriod_skipsOffer() throws JSONException {
+    pricingIndex.put(subscription("broken", recurringPhase(1_000_000, "USD", "P0D")));
+
+    assertNull(pricingIndex.get("broken"));
+    assertTrue(pricingIndex.getOffers("broken").isEmpty());
+    assertTrue(pricingIndex.getRankedOffers().isEmpty());
+  }
+
+  @Test
+  public void testPut_sameProductAgain_replacesOffers() throws JSONException {
+    pricingIndex.put(subscription("plan", recurringPhase(5_000_000, "USD", "P1M")));
+    List<PricedOffer> before = pricingIndex.getRankedOffers();
+
+    pricingIndex.put(subscription("plan", recurringPhase(6_000_000, "USD", "P1M")));
+
+    assertEquals(5_000_000, before.get(0).monthlyMicros);
+    assertEquals(1, pricingIndex.getRankedOffers().size());
+    assertEquals(6_000_000, pricingIndex.getRankedOffers().get(0).monthlyMicros);
+  }
+
+  @Test
+  public void testGetRankedOffers_cheapestMonthlyCostFirst() throws JSONException {
+    pricingIndex.put(subscription("monthly", recurringPhase(11_000_000, "USD", "P1M")));
+    pricingIndex.put(subscription("yearly", recurringPhase(120_000_000, "USD", "P1Y")));
+    pricingIndex.put(
+        subscription(
+            "monthly_trial",
+            phase(0, "USD", "P1W", 1, RecurrenceMode.FINITE_RECURRING),
+            recurringPhase(11_000_000, "USD", "P1M")));
+
+    List<PricedOffer> ranked = pricingIndex.getRankedOffers();
+
+    assertEquals(3, ranked.size());
+    assertEquals("yearly", ranked.get(0).offerToken);
+    // Same monthly cost; the free trial makes the first year cheaper.
+    assertEquals("monthly_trial", ranked.get(1).offerToken);
+    assertEquals("monthly", ranked.get(2).offerToken);
+  }
+
+  @Test
+  public void testGetRankedOffers_groupsByCurrency() throws JSONException {
+    pricingIndex.put(subscription("usd_pricey", recurringPhase(20_000_000, "USD", "P1M")));
+    pricingIndex.put(subscription("eur", recurringPhase(30_000_000, "EUR", "P1M")));
+    pricingIndex.put(subscription("usd_cheap", recurringPhase(10_000_000, "USD", "P1M")));
+
+    List<PricedOffer> ranked = pricingIndex.getRankedOffers();
+
+    assertEquals("eur", ranked.get(0).offerToken);
+    assertEquals("usd_cheap", ranked.get(1).offerToken);
+    assertEquals("usd_pricey", ranked.get(2).offerToken);
+  }
+
+  @Test
+  public void testIsDowngrade() throws JSONException {
+    pricingIndex.put(subscription("cheap", recurringPhase(5_000_000, "USD", "P1M")));
+    pricingIndex.put(subscription("pricey", recurringPhase(120_000_000, "USD", "P1Y")));
+    pricingIndex.put(subscription("euro", recurringPhase(1_000_000, "EUR", "P1M")));
+    PricedOffer cheap = pricingIndex.get("cheap");
+    PricedOffer pricey = pricingIndex.get("pricey");
+    PricedOffer euro = pricingIndex.get("euro");
+
+    assertTrue(PlanPricingIndex.isDowngrade(pricey, cheap));
+    assertFalse(PlanPricingIndex.isDowngrade(cheap, pricey));
+    assertFalse(PlanPricingIndex.isDowngrade(cheap, cheap));
+    assertFalse(PlanPricingIndex.isDowngrade(pricey, euro));
+  }
+}
@@ -0,0 +1,146 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.ProductDetails;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ProductCatalog} */
+@RunWith(AndroidJUnit4.class)
+public class ProductCatalogTest {
+
+  private final ProductCatalog catalog = new ProductCatalog();
+
+  private static ProductDetails product(String productId, String name) throws JSONException {
+    return ProductDetails.fromJson(
+        new JSONObject()
+            .put("productId", productId)
+            .put("type", "subs")
+            .put("name", name)
+            .toString());
+  }
+
+  @Test
+  public void testGetSnapshot_initially_isEmpty() {
+    ProductCatalog.Snapshot snapshot = catalog.getSnapshot();
+
+    assertSame(ProductCatalog.Snapshot.EMPTY, snapshot);
+    assertEquals(0, snapshot.version);
+    assertEquals(0, snapshot.size());
+    assertTrue(snapshot.getProducts().isEmpty());
+  }
+
+  @Test
+  public void testPutAll_newProducts_publishesNextVersion() throws JSONException {
+    ProductDetails basic = product("basic", "Basic");
+    ProductDetails premium = product("premium", "Premium");
+
+    ProductCatalog.Delta delta = catalog.putAll(Arrays.asList(basic, premium));
+
+    ProductCatalog.Snapshot snapshot = catalog.getSnapshot();
+    assertEquals(1, snapshot.version);
+    assertEquals(2, snapshot.size());
+    assertSame(basic, snapshot.get("basic"));
+    assertSame(premium, snapshot.get("premium"));
+    assertNull(snapshot.get("missing"));
+    assertEquals(0, delta.fromVersion);
+    assertEquals(1, delta.toVersion);
+    assertEquals(2, delta.changedProducts.size());
+  }
+
+  @Test
+  public void testPutAll_unchangedProducts_keepsSnapshot() throws JSONException {
+    catalog.putAll(Collections.singletonList(product("basic", "Basic")));
+    ProductCatalog.Snapshot before = catalog.getSnapshot();
+
+    ProductCatalog.Delta delta =
+        catalog.putAll(Collections.singletonList(product("basic", "Basic")));
+
+    assertTrue(delta.isEmpty());
+    assertSame(before, catalog.getSnapshot());
+    assertEquals(1, catalog.getSnapshot().version);
+  }
+
+  @Test
+  public void testPutAll_changedProduct_reportsOnlyIt() throws JSONException {
+    catalog.putAll(Arrays.asList(product("basic", "Basic"), product("premium", "Premium")));
+    ProductDetails renamed = product("premium", "Premium Plus");
+
+    ProductCatalog.Delta delta = catalog.putAll(Arrays.asList(product("basic", "Basic"), renamed));
+
+    assertEquals(1, delta.fromVersion);
+    assertEquals(2, delta.toVersion);
+    assertEquals(Collections.singletonMap("premium", renamed), delta.changedProducts);
+    assertEquals(2, catalog.getSnapshot().size());
+  }
+
+  @Test
+  public void testChangesSince_olderSnapshot_reportsEveryChange() throws JSONException {
+    catalog.putAll(Collections.singletonList(product("basic", "Basic")));
+    ProductCatalog.Snapshot older = catalog.getSnapshot();
+    ProductDetails premium = product("premium", "Premium");
+    ProductDetails family = product("family", "Family");
+    catalog.putAll(Collections.singletonList(premium));
+    catalog.putAll(Collections.singletonList(family));
+
+    ProductCatalog.Delta delta = catalog.getSnapshot().changesSince(older);
+
+    assertEquals(1, delta.fromVersion);
+    assertEquals(3, delta.toVersion);
+    assertEquals(2, delta.changedProducts.size());
+    assertSame(premium, delta.changedProducts.get("premium"));
+    assertSame(family, delta.changedProducts.get("family"));
+    assertTrue(catalog.getSnapshot().changesSince(catalog.getSnapshot()).isEmpty());
+  }
+
+  @Test
+  public void testSnapshot_laterUpdates_doNotChangeIt() throws JSONException {
+    catalog.putAll(Collections.singletonList(product("basic", "Basic")));
+    ProductCatalog.Snapshot snapshot = catalog.getSnapshot();
+
+    catalog.putAll(Collections.singletonList(product("premium", "Premium")));
+
+    assertEquals(1, snapshot.size());
+    assertEquals(1, snapshot.getProducts().size());
+    assertNull(snapshot.get("premium"));
+  }
+
+  @Test
+  public void testGetProducts_manyProducts_returnsAll() throws JSONException {
+    List<ProductDetails> productDetailsList = new ArrayList<>();
+    for (int i = 0; i < 100; i++) {
+      productDetailsList.add(product("product_" + i, "Product " + i));
+    }
+
+    catalog.putAll(productDetailsList);
+
+    List<ProductDetails> products = catalog.getSnapshot().getProducts();
+    assertEquals(100, products.size());
+    assertTrue(products.containsAll(productDetailsList));
+  }
+}
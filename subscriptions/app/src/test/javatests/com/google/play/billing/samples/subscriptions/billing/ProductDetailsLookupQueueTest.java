@@ -0,0 +1,149 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.ProductDetails;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ProductDetailsLookupQueue} */
+@RunWith(AndroidJUnit4.class)
+public class ProductDetailsLookupQueueTest {
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final long NO_QUERY_TIMEOUT_MILLIS = 200;
+  private static final long WINDOW_MILLIS = 100;
+
+  /** A query issued by the queue, waiting for the test to complete it. */
+  private static final class StartedQuery {
+    private final List<String> productIds;
+    private final Runnable onComplete;
+
+    private StartedQuery(List<String> productIds, Runnable onComplete) {
+      this.productIds = productIds;
+      this.onComplete = onComplete;
+    }
+  }
+
+  private final BlockingQueue<StartedQuery> startedQueries = new LinkedBlockingQueue<>();
+  private final ProductCatalog productCatalog = new ProductCatalog();
+  private ProductDetailsLookupQueue lookupQueue;
+
+  @Before
+  public void setUp() {
+    lookupQueue =
+        new ProductDetailsLookupQueue(
+            (productIds, onComplete) ->
+                startedQueries.add(new StartedQuery(productIds, onComplete)),
+            productCatalog,
+            WINDOW_MILLIS);
+  }
+
+  @After
+  public void tearDown() {
+    lookupQueue.shutdown();
+  }
+
+  private static ProductDetails product(String productId) throws JSONException {
+    return ProductDetails.fromJson(
+        new JSONObject().put("productId", productId).put("type", "subs").toString());
+  }
+
+  private StartedQuery nextQuery() throws InterruptedException {
+    StartedQuery query = startedQueries.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull("Expected a product details query", query);
+    return query;
+  }
+
+  private void assertNoQuery() throws InterruptedException {
+    assertNull(startedQueries.poll(NO_QUERY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void testRequest_withinWindow_queriesTogether() throws Exception {
+    lookupQueue.request(Arrays.asList("a", "b"));
+    lookupQueue.request(Arrays.asList("b", "c"));
+
+    assertEquals(Arrays.asList("a", "b", "c"), nextQuery().productIds);
+    assertNoQuery();
+    ProductDetailsLookupQueue.Stats stats = lookupQueue.getStats();
+    assertEquals(4, stats.requested);
+    assertEquals(1, stats.skipped);
+    assertEquals(1, stats.queries);
+  }
+
+  @Test
+  public void testRequest_productInCatalog_isSkipped() throws Exception {
+    productCatalog.putAll(Collections.singletonList(product("a")));
+
+    lookupQueue.request(Arrays.asList("a", "b"));
+
+    assertEquals(Collections.singletonList("b"), nextQuery().productIds);
+  }
+
+  @Test
+  public void testRequest_onlyKnownProducts_startsNoQuery() throws Exception {
+    productCatalog.putAll(Collections.singletonList(product("a")));
+
+    lookupQueue.request(Collections.singletonList("a"));
+
+    assertNoQuery();
+    assertEquals(0, lookupQueue.getStats().queries);
+  }
+
+  @Test
+  public void testRequest_productInFlight_isSkippedUntilComplete() throws Exception {
+    lookupQueue.request(Collections.singletonList("a"));
+    StartedQuery query = nextQuery();
+
+    lookupQueue.request(Arrays.asList("a", "b"));
+    assertEquals(Collections.singletonList("b"), nextQuery().productIds);
+
+    // Google Play did not return the product, so it can be asked for again.
+    query.onComplete.run();
+    lookupQueue.request(Collections.singletonList("a"));
+    assertEquals(Collections.singletonList("a"), nextQuery().productIds);
+  }
+
+  @Test
+  public void testShutdown_dropsWaitingProducts() throws Exception {
+    lookupQueue.request(Collections.singletonList("a"));
+
+    lookupQueue.shutdown();
+    lookupQueue.request(Collections.singletonList("b"));
+
+    assertNoQuery();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConstructor_negativeWindow_throws() {
+    new ProductDetailsLookupQueue((productIds, onComplete) -> {}, productCatalog, -1);
+  }
+}
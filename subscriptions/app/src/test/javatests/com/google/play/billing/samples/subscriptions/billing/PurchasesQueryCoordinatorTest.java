@@ -0,0 +1,166 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.BillingClient.BillingResponseCode;
+import com.android.billingclient.api.BillingResult;
+import com.android.billingclient.api.Purchase;
+import com.android.billingclient.api.PurchasesResponseListener;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link PurchasesQueryCoordinator} */
+@RunWith(AndroidJUnit4.class)
+public class PurchasesQueryCoordinatorTest {
+
+  private static final long TIMEOUT_SECONDS = 5;
+  private static final long NO_QUERY_TIMEOUT_MILLIS = 200;
+  private static final long DEBOUNCE_MILLIS = 100;
+
+  /** Records every result it receives. */
+  private static final class RecordingListener implements PurchasesResponseListener {
+    private final BlockingQueue<BillingResult> results = new LinkedBlockingQueue<>();
+
+    @Override
+    public void onQueryPurchasesResponse(BillingResult billingResult, List<Purchase> purchases) {
+      results.add(billingResult);
+    }
+  }
+
+  private final BlockingQueue<PurchasesResponseListener> startedQueries =
+      new LinkedBlockingQueue<>();
+  private PurchasesQueryCoordinator coordinator;
+
+  @After
+  public void tearDown() {
+    if (coordinator != null) {
+      coordinator.shutdown();
+    }
+  }
+
+  private static BillingResult ok() {
+    return BillingResult.newBuilder().setResponseCode(BillingResponseCode.OK).build();
+  }
+
+  private PurchasesResponseListener nextQuery() throws InterruptedException {
+    PurchasesResponseListener query = startedQueries.poll(TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    assertNotNull("Expected a purchases query", query);
+    return query;
+  }
+
+  private void assertNoQuery() throws InterruptedException {
+    assertNull(startedQueries.poll(NO_QUERY_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS));
+  }
+
+  @Test
+  public void request_withinDebounceWindow_deliversOneQueryToEveryWaiter() throws Exception {
+    coordinator = new PurchasesQueryCoordinator(startedQueries::add, DEBOUNCE_MILLIS);
+    List<RecordingListener> listeners = new ArrayList<>();
+    for (int i = 0; i < 3; i++) {
+      RecordingListener listener = new RecordingListener();
+      listeners.add(listener);
+      coordinator.request(listener);
+    }
+
+    BillingResult billingResult = ok();
+    nextQuery().onQueryPurchasesResponse(billingResult, Collections.emptyList());
+
+    assertNoQuery();
+    for (RecordingListener listener : listeners) {
+      assertSame(billingResult, listener.results.poll());
+      assertNull(listener.results.poll());
+    }
+    assertEquals(3, coordinator.getStats().requests);
+    assertEquals(1, coordinator.getStats().queries);
+  }
+
+  @Test
+  public void request_whileQueryInFlight_joinsIt() throws Exception {
+    coordinator = new PurchasesQueryCoordinator(startedQueries::add, DEBOUNCE_MILLIS);
+    RecordingListener first = new RecordingListener();
+    RecordingListener second = new RecordingListener();
+    coordinator.request(first);
+    PurchasesResponseListener query = nextQuery();
+
+    coordinator.request(second);
+    BillingResult billingResult = ok();
+    query.onQueryPurchasesResponse(billingResult, Collections.emptyList());
+
+    assertNoQuery();
+    assertSame(billingResult, first.results.poll());
+    assertSame(billingResult, second.results.poll());
+    assertEquals(1, coordinator.getStats().queries);
+  }
+
+  @Test
+  public void request_sameListenerTwice_calledOnce() throws Exception {
+    coordinator = new PurchasesQueryCoordinator(startedQueries::add, DEBOUNCE_MILLIS);
+    RecordingListener listener = new RecordingListener();
+    coordinator.request(listener);
+    coordinator.request(listener);
+
+    nextQuery().onQueryPurchasesResponse(ok(), Collections.emptyList());
+
+    assertNotNull(listener.results.poll());
+    assertNull(listener.results.poll());
+  }
+
+  @Test
+  public void request_afterResponse_startsNewQuery() throws Exception {
+    coordinator = new PurchasesQueryCoordinator(startedQueries::add, DEBOUNCE_MILLIS);
+    RecordingListener listener = new RecordingListener();
+    coordinator.request(listener);
+    nextQuery().onQueryPurchasesResponse(ok(), Collections.emptyList());
+
+    coordinator.request(listener);
+    nextQuery().onQueryPurchasesResponse(ok(), Collections.emptyList());
+
+    assertEquals(2, listener.results.size());
+    assertEquals(2, coordinator.getStats().queries);
+  }
+
+  @Test
+  public void shutdown_dropsWaitingListeners() throws Exception {
+    coordinator = new PurchasesQueryCoordinator(startedQueries::add, DEBOUNCE_MILLIS);
+    RecordingListener listener = new RecordingListener();
+    coordinator.request(listener);
+    PurchasesResponseListener query = nextQuery();
+
+    coordinator.shutdown();
+    query.onQueryPurchasesResponse(ok(), Collections.emptyList());
+    coordinator.request(listener);
+
+    assertNoQuery();
+    assertNull(listener.results.poll());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void constructor_negativeDebounce_throws() {
+    new PurchasesQueryCoordinator(startedQueries::add, -1);
+  }
+}
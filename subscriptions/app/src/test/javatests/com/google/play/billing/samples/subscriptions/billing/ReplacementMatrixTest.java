@@ -0,0 +1,255 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.BillingFlowParams.ProductDetailsParams.SubscriptionProductReplacementParams.ReplacementMode;
+import com.android.billingclient.api.ProductDetails;
+import com.android.billingclient.api.ProductDetails.RecurrenceMode;
+import com.android.billingclient.api.Purchase;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link ReplacementMatrix} */
+@RunWith(AndroidJUnit4.class)
+public class ReplacementMatrixTest {
+
+  // The values of the purchaseState field in Play's purchase JSON.
+  private static final int JSON_PURCHASED = 0;
+  private static final int JSON_PENDING = 4;
+  private static final String BASIC = "subscription_basic";
+  private static final String PREMIUM = "subscription_premium";
+  private static final String EURO = "subscription_euro";
+  private static final long PURCHASE_TIME_MILLIS = 1_700_000_000_000L;
+  private static final long MILLIS_PER_MONTH =
+      PlanPricingIndex.BillingPeriod.parse("P1M").toMillis();
+  // Half of the first monthly billing period has passed.
+  private static final long NOW_MILLIS = PURCHASE_TIME_MILLIS + MILLIS_PER_MONTH / 2;
+  private static final List<Integer> REPLACEMENT_MODES =
+      Arrays.asList(
+          ReplacementMode.CHARGE_PRORATED_PRICE,
+          ReplacementMode.CHARGE_FULL_PRICE,
+          ReplacementMode.WITH_TIME_PRORATION,
+          ReplacementMode.DEFERRED);
+
+  private final ProductCatalog productCatalog = new ProductCatalog();
+  private final SubscriptionOfferIndex offerIndex = new SubscriptionOfferIndex();
+  private final PlanPricingIndex pricingIndex = new PlanPricingIndex();
+  private final SubscriptionPurchaseIndex purchaseIndex = new SubscriptionPurchaseIndex();
+  private final Map<String, String> basePlanIds = new HashMap<>();
+
+  /** Builds a base plan offer whose token is the product ID and base plan ID. */
+  private static JSONObject offer(
+      String productId, String basePlanId, long priceMicros, String billingPeriod, String currency)
+      throws JSONException {
+    JSONObject pricingPhase =
+        new JSONObject()
+            .put("formattedPrice", currency + " " + priceMicros)
+            .put("priceAmountMicros", priceMicros)
+            .put("priceCurrencyCode", currency)
+            .put("billingPeriod", billingPeriod)
+            .put("recurrenceMode", RecurrenceMode.INFINITE_RECURRING);
+    return new JSONObject()
+        .put("basePlanId", basePlanId)
+        .put("offerIdToken", productId + ":" + basePlanId)
+        .put("pricingPhases", new JSONArray().put(pricingPhase));
+  }
+
+  private void addProduct(String productId, JSONObject... offers) throws JSONException {
+    ProductDetails productDetails =
+        ProductDetails.fromJson(
+            new JSONObject()
+                .put("productId", productId)
+                .put("type", "subs")
+                .put("subscriptionOfferDetails", new JSONArray(Arrays.asList(offers)))
+                .toString());
+    productCatalog.putAll(Collections.singletonList(productDetails));
+    offerIndex.put(productDetails);
+    pricingIndex.put(productDetails);
+  }
+
+  private void addCatalog() throws JSONException {
+    addProduct(
+        BASIC,
+        offer(BASIC, "monthly", 5_000_000, "P1M", "USD"),
+        offer(BASIC, "yearly", 48_000_000, "P1Y", "USD"));
+    addProduct(PREMIUM, offer(PREMIUM, "monthly", 10_000_000, "P1M", "USD"));
+  }
+
+  private static Purchase purchase(String purchaseToken, int jsonPurchaseState, String productId)
+      throws JSONException {
+    return new Purchase(
+        new JSONObject()
+            .put("productIds", new JSONArray().put(productId))
+            .put("purchaseToken", purchaseToken)
+            .put("purchaseState", jsonPurchaseState)
+            .put("autoRenewing", true)
+            .put("purchaseTime", PURCHASE_TIME_MILLIS)
+            .toString(),
+        "signature");
+  }
+
+  private void setPurchases(Purchase... purchases) {
+    purchaseIndex.replaceAll(Arrays.asList(purchases));
+  }
+
+  private ReplacementMatrix build() {
+    return ReplacementMatrix.build(
+        productCatalog.getSnapshot(),
+        offerIndex,
+        pricingIndex,
+        purchaseIndex.getSnapshot(),
+        basePlanIds,
+        REPLACEMENT_MODES,
+        NOW_MILLIS);
+  }
+
+  @Test
+  public void testGet_ownedToTarget_hasLaunchParameters() throws JSONException {
+    addCatalog();
+    setPurchases(purchase("basic_token", JSON_PURCHASED, BASIC));
+
+    ReplacementMatrix matrix = build();
+
+    ReplacementMatrix.Cell cell = matrix.get(BASIC, PREMIUM, ReplacementMode.DEFERRED);
+    assertEquals(BASIC, cell.currentProductId);
+    assertEquals("basic_token", cell.currentPurchaseToken);
+    assertEquals(PREMIUM, cell.targetProductId);
+    assertEquals(PREMIUM + ":monthly", cell.targetOfferToken);
+    assertEquals(ReplacementMode.DEFERRED, cell.replacementMode);
+    assertNotNull(cell.billingFlowParams);
+    // One owned plan, one other target plan, four modes.
+    assertEquals(4, matrix.size());
+  }
+
+  @Test
+  public void testGet_missingCells_returnNull() throws JSONException {
+    addCatalog();
+    setPurchases(purchase("basic_token", JSON_PURCHASED, BASIC));
+
+    ReplacementMatrix matrix = build();
+
+    assertNull(matrix.get(BASIC, BASIC, ReplacementMode.DEFERRED));
+    assertNull(matrix.get(PREMIUM, BASIC, ReplacementMode.DEFERRED));
+    assertNull(matrix.get(BASIC, "unknown", ReplacementMode.DEFERRED));
+    assertNull(matrix.get(BASIC, PREMIUM, ReplacementMode.WITHOUT_PRORATION));
+  }
+
+  @Test
+  public void testBuild_pendingPurchase_isNotReplaceable() throws JSONException {
+    addCatalog();
+    setPurchases(purchase("basic_token", JSON_PENDING, BASIC));
+
+    ReplacementMatrix matrix = build();
+
+    assertEquals(0, matrix.size());
+    assertNull(matrix.get(BASIC, PREMIUM, ReplacementMode.DEFERRED));
+  }
+
+  @Test
+  public void testBuild_basePlanIds_selectTargetOffer() throws JSONException {
+    addCatalog();
+    setPurchases(purchase("premium_token", JSON_PURCHASED, PREMIUM));
+    basePlanIds.put(BASIC, "yearly");
+
+    ReplacementMatrix.Cell cell = build().get(PREMIUM, BASIC, ReplacementMode.DEFERRED);
+
+    assertEquals(BASIC + ":yearly", cell.targetOfferToken);
+  }
+
+  @Test
+  public void testProration_upgrade_chargesDifferenceForRestOfPeriod() throws JSONException {
+    addCatalog();
+    setPurchases(purchase("basic_token", JSON_PURCHASED, BASIC));
+
+    ReplacementMatrix matrix = build();
+
+    ReplacementMatrix.Proration prorated =
+        matrix.get(BASIC, PREMIUM, ReplacementMode.CHARGE_PRORATED_PRICE).proration;
+    assertTrue(prorated.allowed);
+    assertTrue(prorated.immediate);
+    assertEquals(2_500_000, prorated.chargeNowMicros);
+    assertEquals(2_500_000, prorated.unusedCreditMicros);
+    ReplacementMatrix.Proration fullPrice =
+        matrix.get(BASIC, PREMIUM, ReplacementMode.CHARGE_FULL_PRICE).proration;
+    assertTrue(fullPrice.immediate);
+    assertEquals(10_000_000, fullPrice.chargeNowMicros);
+    ReplacementMatrix.Proration timeProration =
+        matrix.get(BASIC, PREMIUM, ReplacementMode.WITH_TIME_PRORATION).proration;
+    assertTrue(timeProration.immediate);
+    assertEquals(0, timeProration.chargeNowMicros);
+    ReplacementMatrix.Proration deferred =
+        matrix.get(BASIC, PREMIUM, ReplacementMode.DEFERRED).proration;
+    assertFalse(deferred.immediate);
+    assertEquals(0, deferred.chargeNowMicros);
+  }
+
+  @Test
+  public void testProration_proratedDowngrade_isNotAllowed() throws JSONException {
+    addCatalog();
+    setPurchases(purchase("premium_token", JSON_PURCHASED, PREMIUM));
+
+    ReplacementMatrix matrix = build();
+
+    ReplacementMatrix.Proration prorated =
+        matrix.get(PREMIUM, BASIC, ReplacementMode.CHARGE_PRORATED_PRICE).proration;
+    assertFalse(prorated.allowed);
+    assertEquals(0, prorated.chargeNowMicros);
+    assertEquals(5_000_000, prorated.unusedCreditMicros);
+    assertTrue(matrix.get(PREMIUM, BASIC, ReplacementMode.DEFERRED).proration.allowed);
+  }
+
+  @Test
+  public void testProration_otherCurrency_isNotEstimated() throws JSONException {
+    addCatalog();
+    addProduct(EURO, offer(EURO, "monthly", 9_000_000, "P1M", "EUR"));
+    setPurchases(purchase("basic_token", JSON_PURCHASED, BASIC));
+
+    ReplacementMatrix matrix = build();
+
+    assertNull(matrix.get(BASIC, EURO, ReplacementMode.CHARGE_PRORATED_PRICE).proration);
+    assertNotNull(matrix.get(BASIC, PREMIUM, ReplacementMode.CHARGE_PRORATED_PRICE).proration);
+  }
+
+  @Test
+  public void testIsBuiltFrom_tracksCatalogAndPurchases() throws JSONException {
+    addCatalog();
+    setPurchases(purchase("basic_token", JSON_PURCHASED, BASIC));
+    ReplacementMatrix matrix = build();
+
+    assertTrue(matrix.isBuiltFrom(productCatalog.getSnapshot(), purchaseIndex.getSnapshot()));
+
+    setPurchases(purchase("premium_token", JSON_PURCHASED, PREMIUM));
+    assertFalse(matrix.isBuiltFrom(productCatalog.getSnapshot(), purchaseIndex.getSnapshot()));
+
+    matrix = build();
+    addProduct(EURO, offer(EURO, "monthly", 9_000_000, "P1M", "EUR"));
+    assertFalse(matrix.isBuiltFrom(productCatalog.getSnapshot(), purchaseIndex.getSnapshot()));
+  }
+}
@@ -0,0 +1,115 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.ProductDetails;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SubscriptionOfferIndex} */
+@RunWith(AndroidJUnit4.class)
+public class SubscriptionOfferIndexTest {
+
+  private static final String PRODUCT_ID = "subscription";
+
+  private final SubscriptionOfferIndex offerIndex = new SubscriptionOfferIndex();
+
+  /** Builds a subscription whose offers are given as base plan ID and offer ID pairs. */
+  private static ProductDetails subscription(String productId, String... basePlanAndOfferIds)
+      throws JSONException {
+    JSONArray offers = new JSONArray();
+    for (int i = 0; i < basePlanAndOfferIds.length; i += 2) {
+      JSONObject pricingPhase =
+          new JSONObject()
+              .put("formattedPrice", "$" + (i + 1) + ".99")
+              .put("priceAmountMicros", (i + 1) * 1_000_000L - 10_000L)
+              .put("priceCurrencyCode", "USD")
+              .put("billingPeriod", "P1M")
+              .put("recurrenceMode", 1);
+      JSONObject offer =
+          new JSONObject()
+              .put("basePlanId", basePlanAndOfferIds[i])
+              .put("offerIdToken", "token-" + i)
+              .put("pricingPhases", new JSONArray().put(pricingPhase));
+      if (basePlanAndOfferIds[i + 1] != null) {
+        offer.put("offerId", basePlanAndOfferIds[i + 1]);
+      }
+      offers.put(offer);
+    }
+    JSONObject json =
+        new JSONObject()
+            .put("productId", productId)
+            .put("type", "subs")
+            .put("subscriptionOfferDetails", offers);
+    return ProductDetails.fromJson(json.toString());
+  }
+
+  @Test
+  public void testSelectOffer_basePlanFound_returnsItsFirstOffer() throws JSONException {
+    offerIndex.put(subscription(PRODUCT_ID, "monthly", null, "yearly", "intro", "yearly", null));
+
+    SubscriptionOfferIndex.Offer offer = offerIndex.selectOffer(PRODUCT_ID, "yearly");
+
+    assertEquals("token-2", offer.offerToken);
+    assertEquals("intro", offer.offerId);
+    assertEquals("$3.99", offer.firstPricingPhase.getFormattedPrice());
+  }
+
+  @Test
+  public void testSelectOffer_basePlanMissing_returnsFirstOfferOfProduct() throws JSONException {
+    offerIndex.put(subscription(PRODUCT_ID, "monthly", null, "yearly", null));
+
+    assertEquals("token-0", offerIndex.selectOffer(PRODUCT_ID, "weekly").offerToken);
+  }
+
+  @Test
+  public void testSelectOffer_unknownProduct_returnsNull() {
+    assertNull(offerIndex.selectOffer(PRODUCT_ID, "monthly"));
+  }
+
+  @Test
+  public void testGetOffer_byOfferId() throws JSONException {
+    offerIndex.put(subscription(PRODUCT_ID, "yearly", "intro", "yearly", null));
+
+    assertEquals("token-0", offerIndex.getOffer(PRODUCT_ID, "yearly", "intro").offerToken);
+    assertEquals("token-2", offerIndex.getOffer(PRODUCT_ID, "yearly", null).offerToken);
+    assertNull(offerIndex.getOffer(PRODUCT_ID, "yearly", "missing"));
+    assertNull(offerIndex.getOffer(PRODUCT_ID, "monthly", null));
+  }
+
+  @Test
+  public void testPut_sameProductAgain_replacesOffers() throws JSONException {
+    offerIndex.put(subscription(PRODUCT_ID, "monthly", null));
+    offerIndex.put(subscription(PRODUCT_ID, "yearly", null));
+
+    assertNull(offerIndex.getOffer(PRODUCT_ID, "monthly", null));
+    assertEquals("yearly", offerIndex.selectOffer(PRODUCT_ID, "monthly").basePlanId);
+  }
+
+  @Test
+  public void testPut_productWithoutOffers_removesIt() throws JSONException {
+    offerIndex.put(subscription(PRODUCT_ID, "monthly", null));
+    offerIndex.put(subscription(PRODUCT_ID));
+
+    assertNull(offerIndex.selectOffer(PRODUCT_ID, "monthly"));
+  }
+}
@@ -0,0 +1,203 @@
+/* Copyright 2022 Google LLC
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     https://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.google.play.billing.samples.subscriptions.billing;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import androidx.test.ext.junit.runners.AndroidJUnit4;
+import com.android.billingclient.api.Purchase;
+import java.util.Arrays;
+import java.util.Collections;
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+
+/** Unit tests for {@link SubscriptionPurchaseIndex} */
+@RunWith(AndroidJUnit4.class)
+public class SubscriptionPurchaseIndexTest {
+
+  // The values of the purchaseState field in Play's purchase JSON.
+  private static final int JSON_PURCHASED = 0;
+  private static final int JSON_PENDING = 4;
+  private static final String PREMIUM = "subscription_premium";
+  private static final String BASIC = "subscription_basic";
+
+  private final SubscriptionPurchaseIndex purchaseIndex = new SubscriptionPurchaseIndex();
+
+  private static Purchase purchase(
+      String purchaseToken,
+      int jsonPurchaseState,
+      boolean autoRenewing,
+      long purchaseTimeMillis,
+      String... productIds)
+      throws JSONException {
+    return new Purchase(
+        new JSONObject()
+            .put("productIds", new JSONArray(Arrays.asList(productIds)))
+            .put("purchaseToken", purchaseToken)
+            .put("purchaseState", jsonPurchaseState)
+            .put("autoRenewing", autoRenewing)
+            .put("purchaseTime", purchaseTimeMillis)
+            .toString(),
+        "signature");
+  }
+
+  @Test
+  public void testReplaceAll_indexesByTokenAndProduct() throws JSONException {
+    assertTrue(
+        purchaseIndex.replaceAll(
+            Collections.singletonList(purchase("token", JSON_PURCHASED, true, 1, PREMIUM, BASIC))));
+
+    SubscriptionPurchaseIndex.Snapshot snapshot = purchaseIndex.getSnapshot();
+    SubscriptionPurchaseIndex.Entry entry = snapshot.getByToken("token");
+    assertEquals(Arrays.asList(PREMIUM, BASIC), entry.productIds);
+    assertSame(entry, snapshot.getByProduct(PREMIUM));
+    assertSame(entry, snapshot.getByProduct(BASIC));
+    assertTrue(snapshot.isEntitled(PREMIUM));
+    assertSame(entry, snapshot.getPrimary());
+    assertEquals(1, snapshot.size());
+  }
+
+  @Test
+  public void testReplaceAll_samePurchases_returnsFalse() throws JSONException {
+    purchaseIndex.replaceAll(
+        Collections.singletonList(purchase("token", JSON_PURCHASED, true, 1, PREMIUM)));
+    SubscriptionPurchaseIndex.Snapshot before = purchaseIndex.getSnapshot();
+
+    assertFalse(
+        purchaseIndex.replaceAll(
+            Collections.singletonList(purchase("token", JSON_PURCHASED, true, 1, PREMIUM))));
+    assertSame(before, purchaseIndex.getSnapshot());
+  }
+
+  @Test
+  public void testReplaceAll_missingPurchase_isRemoved() throws JSONException {
+    purchaseIndex.replaceAll(
+        Arrays.asList(
+            purchase("premium_token", JSON_PURCHASED, true, 1, PREMIUM),
+            purchase("basic_token", JSON_PURCHASED, true, 2, BASIC)));
+
+    assertTrue(
+        purchaseIndex.replaceAll(
+            Collections.singletonList(purchase("basic_token", JSON_PURCHASED, true, 2, BASIC))));
+
+    SubscriptionPurchaseIndex.Snapshot snapshot = purchaseIndex.getSnapshot();
+    assertNull(snapshot.getByToken("premium_token"));
+    assertNull(snapshot.getByProduct(PREMIUM));
+    assertFalse(snapshot.isEntitled(PREMIUM));
+    assertTrue(snapshot.isEntitled(BASIC));
+  }
+
+  @Test
+  public void testGetByProduct_purchasedRanksAbovePending() throws JSONException {
+    purchaseIndex.replaceAll(
+        Arrays.asList(
+            purchase("purchased", JSON_PURCHASED, false, 1, PREMIUM),
+            purchase("pending", JSON_PENDING, true, 2, PREMIUM)));
+
+    assertEquals("purchased", purchaseIndex.getSnapshot().getByProduct(PREMIUM).purchaseToken);
+  }
+
+  @Test
+  public void testGetByProduct_autoRenewingRanksAboveCancelled() throws JSONException {
+    purchaseIndex.replaceAll(
+        Arrays.asList(
+            purchase("renewing", JSON_PURCHASED, true, 1, PREMIUM),
+            purchase("cancelled", JSON_PURCHASED, false, 2, PREMIUM)));
+
+    assertEquals("renewing", purchaseIndex.getSnapshot().getByProduct(PREMIUM).purchaseToken);
+    assertEquals("renewing", purchaseIndex.getSnapshot().getPrimary().purchaseToken);
+  }
+
+  @Test
+  public void testGetByProduct_mostRecentRanksAboveOlder() throws JSONException {
+    purchaseIndex.replaceAll(
+        Arrays.asList(
+            purchase("older", JSON_PURCHASED, true, 1, PREMIUM),
+            purchase("newer", JSON_PURCHASED, true, 2, PREMIUM)));
+
+    assertEquals("newer", purchaseIndex.getSnapshot().getByProduct(PREMIUM).purchaseToken);
+  }
+
+  @Test
+  public void testGetPrimary_onlyPending_returnsNull() throws JSONException {
+    purchaseIndex.replaceAll(
+        Collections.singletonList(purchase("pending", JSON_PENDING, true, 1, PREMIUM)));
+
+    SubscriptionPurchaseIndex.Snapshot snapshot = purchaseIndex.getSnapshot();
+    assertNull(snapshot.getPrimary());
+    assertFalse(snapshot.isEntitled(PREMIUM));
+    assertEquals("pending", snapshot.getByProduct(PREMIUM).purchaseToken);
+  }
+
+  @Test
+  public void testUpdateAll_keepsOtherPurchases() throws JSONException {
+    purchaseIndex.replaceAll(
+        Collections.singletonList(purchase("premium_token", JSON_PURCHASED, true, 1, PREMIUM)));
+
+    assertTrue(
+        purchaseIndex.updateAll(
+            Collections.singletonList(purchase("basic_token", JSON_PURCHASED, true, 2, BASIC))));
+
+    SubscriptionPurchaseIndex.Snapshot snapshot = purchaseIndex.getSnapshot();
+    assertTrue(snapshot.isEntitled(PREMIUM));
+    assertTrue(snapshot.isEntitled(BASIC));
+    assertEquals("basic_token", snapshot.getPrimary().purchaseToken);
+  }
+
+  @Test
+  public void testUpdateAll_unchangedPurchase_returnsFalse() throws JSONException {
+    purchaseIndex.updateAll(
+        Collections.singletonList(purchase("token", JSON_PURCHASED, true, 1, PREMIUM)));
+
+    assertFalse(
+        purchaseIndex.updateAll(
+            Collections.singletonList(purchase("token", JSON_PURCHASED, true, 1, PREMIUM))));
+  }
+
+  @Test
+  public void testUpdateAll_pendingCompletes_isEntitled() throws JSONException {
+    purchaseIndex.updateAll(
+        Collections.singletonList(purchase("token", JSON_PENDING, true, 1, PREMIUM)));
+
+    assertTrue(
+        purchaseIndex.updateAll(
+            Collections.singletonList(purchase("token", JSON_PURCHASED, true, 1, PREMIUM))));
+
+    assertTrue(purchaseIndex.getSnapshot().isEntitled(PREMIUM));
+    assertEquals("token", purchaseIndex.getSnapshot().getPrimary().purchaseToken);
+  }
+
+  @Test
+  public void testUpdateAll_rankingChanges_reResolvesProduct() throws JSONException {
+    purchaseIndex.replaceAll(
+        Arrays.asList(
+            purchase("older", JSON_PURCHASED, true, 1, PREMIUM),
+            purchase("newer", JSON_PURCHASED, false, 2, PREMIUM)));
+    assertEquals("older", purchaseIndex.getSnapshot().getByProduct(PREMIUM).purchaseToken);
+
+    // Cancelling the older one leaves both cancelled, so the most recent one wins.
+    purchaseIndex.updateAll(
+        Collections.singletonList(purchase("older", JSON_PURCHASED, false, 1, PREMIUM)));
+
+    assertEquals("newer", purchaseIndex.getSnapshot().getByProduct(PREMIUM).purchaseToken);
+  }
+}